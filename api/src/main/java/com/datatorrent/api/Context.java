@@ -282,6 +282,14 @@ public interface Context
      * blocking operator logic, etc.
      */
     Attribute<Integer> TIMEOUT_WINDOW_COUNT = new Attribute<Integer>(120);
+    /**
+     * Whether to keep a standby container for the container of the operator. The standby container is launched
+     * together with the container of the operator and restores the recovery checkpoint of the operator in the
+     * background. When the container of the operator fails, the standby container takes over its operators, which only
+     * replay the windows after the recovery checkpoint, instead of waiting for a new container to be allocated and
+     * launched. The standby container uses the same resources as the container it protects.
+     */
+    Attribute<Boolean> HOT_STANDBY = new Attribute<Boolean>(false);
     /**
      * Whether or not to auto record the tuples
      */
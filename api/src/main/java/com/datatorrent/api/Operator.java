@@ -316,4 +316,30 @@ public interface Operator extends Component<OperatorContext>, GenericOperator
     void beforeCheckpoint(long windowId);
   }
 
+  /**
+   * Operators with a large state can implement this interface so that the serialization of their checkpoints does not
+   * stall the operator thread.
+   *
+   * At a checkpoint the engine obtains a snapshot of the operator on the operator thread and saves it with the storage
+   * agent on a background thread while the operator continues to process the following windows. The snapshot is what
+   * is deployed when the operator is recovered from the checkpoint, so it has to be an operator equivalent to this one
+   * at the end of the window preceding the checkpoint. It should be cheap to create, for example a copy of the operator
+   * that shares immutable or copy-on-write state, and must not be modified by the operator once returned.
+   *
+   * {@link CheckpointListener#checkpointed(long)} is called on the operator thread once the snapshot was saved, in the
+   * order of the checkpoints, and before {@link CheckpointListener#committed(long)} can be called for the window. In
+   * the exactly once processing mode the snapshot is saved before the operator continues.
+   */
+  interface CheckpointSnapshotProvider
+  {
+    /**
+     * Create the snapshot of the operator to be checkpointed. The method is called after
+     * {@link CheckpointNotificationListener#beforeCheckpoint(long)}.
+     *
+     * @param windowId The window id of the window preceding the checkpoint
+     * @return the operator state to be saved
+     */
+    Operator getCheckpointSnapshot(long windowId);
+  }
+
 }
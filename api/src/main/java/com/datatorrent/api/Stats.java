@@ -38,13 +38,40 @@ public interface Stats extends Serializable
 
   class CheckpointStats implements Stats
   {
+    private static final long serialVersionUID = -4236150330857963791L;
     public long checkpointStartTime;
     public long checkpointTime;
+    /**
+     * Size of the checkpoint in bytes, -1 if not known.
+     */
+    public long checkpointSize = -1;
+    /**
+     * Size of the serialized state before compression in bytes, -1 if not known. Same as the checkpoint size when the
+     * storage agent does not compress.
+     */
+    public long checkpointSerializedSize = -1;
+    /**
+     * Time spent compressing the checkpoint, in milliseconds.
+     */
+    public long checkpointCompressionTime;
+    /**
+     * Time spent saving the checkpoint with the storage agent, in milliseconds. The save is done on the operator thread
+     * unless the operator provides a snapshot of its state.
+     */
+    public long checkpointSerializeTime;
+    /**
+     * Time from the end of the save until the checkpoint was stored in the file system by an asynchronous storage
+     * agent, in milliseconds.
+     */
+    public long checkpointUploadTime;
 
     @Override
     public String toString()
     {
-      return "CheckpointStats{" + "checkpointStartTime=" + checkpointStartTime + ", checkpointTime=" + checkpointTime + '}';
+      return "CheckpointStats{" + "checkpointStartTime=" + checkpointStartTime + ", checkpointTime=" + checkpointTime +
+          ", checkpointSize=" + checkpointSize + ", checkpointSerializedSize=" + checkpointSerializedSize +
+          ", checkpointCompressionTime=" + checkpointCompressionTime + ", checkpointSerializeTime=" + checkpointSerializeTime +
+          ", checkpointUploadTime=" + checkpointUploadTime + '}';
     }
   }
 
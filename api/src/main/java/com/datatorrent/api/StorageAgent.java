@@ -19,6 +19,7 @@
 package com.datatorrent.api;
 
 import java.io.IOException;
+import java.util.Map;
 
 import com.datatorrent.api.Attribute.AttributeMap;
 
@@ -95,4 +96,33 @@ public interface StorageAgent
     public void setApplicationAttributes(AttributeMap map);
   }
 
+  /**
+   * Interface for storage agents that can purge the checkpoints of many operators in one call.
+   *
+   * The platform uses it instead of calling {@link #delete(int, long)} for every checkpoint that is no longer
+   * needed, so that the agent can process the checkpoints of an operator together.
+   */
+  public interface BatchPurgeStorageAgent extends StorageAgent
+  {
+    /**
+     * Delete the artifacts of the given windows for each of the operators. The window ids are known to the caller, the
+     * agent does not need to look them up.
+     *
+     * @param windowIds ids of the windows to delete, by operator id
+     * @throws IOException
+     */
+    public void delete(Map<Integer, long[]> windowIds) throws IOException;
+
+    /**
+     * Delete the artifacts of all windows up to and including the given window id for each of the operators.
+     *
+     * The state saved for the initial window {@link com.datatorrent.api.annotation.Stateless#WINDOW_ID} is
+     * not deleted.
+     *
+     * @param windowIds window id up to which the checkpoints are deleted, by operator id
+     * @throws IOException
+     */
+    public void deleteUpTo(Map<Integer, Long> windowIds) throws IOException;
+  }
+
 }
@@ -0,0 +1,30 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.common.metric;
+
+/**
+ * A {@link SingleMetricAggregator} whose result does not change when it is applied to the aggregates of subsets of
+ * the values instead of the values, such as a sum, min or max. Such aggregators can be applied to the metrics of the
+ * partitions in each container first and to the partial aggregates of the containers afterwards.
+ *
+ * @since 3.5.0
+ */
+public interface AssociativeMetricAggregator extends SingleMetricAggregator
+{
+}
@@ -43,10 +43,13 @@ import com.datatorrent.api.annotation.Name;
  * <p/>
  * There are examples of {@link SingleMetricAggregator} provided in the library for common number
  * aggregations- sum, min, max, avg.
+ * <p/>
+ * When all the aggregators are {@link AssociativeMetricAggregator}s, the metrics can be aggregated partially in each
+ * container and the partial aggregates are merged with the same aggregators.
  *
  * @since 3.0.0
  */
-public class MetricsAggregator implements AutoMetric.Aggregator, Serializable
+public class MetricsAggregator implements AutoMetric.Aggregator, PartialMetricsAggregator, Serializable
 {
   protected static final String DEFAULT_SEPARATOR = "-";
 
@@ -85,6 +88,41 @@ public class MetricsAggregator implements AutoMetric.Aggregator, Serializable
     return aggregates;
   }
 
+  @Override
+  public boolean isPartialAggregationSupported()
+  {
+    for (List<LogicalMetricMeta> logicalMetricMetas : metricLogicalAggregates.values()) {
+      for (LogicalMetricMeta logicalMetricMeta : logicalMetricMetas) {
+        if (!(logicalMetricMeta.aggregator instanceof AssociativeMetricAggregator)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Map<String, Object> mergePartialAggregates(long windowId, Collection<Map<String, Object>> partialAggregates)
+  {
+    Multimap<String, Object> aggregateValues = ArrayListMultimap.create();
+    for (Map<String, Object> partialAggregate : partialAggregates) {
+      for (Map.Entry<String, Object> entry : partialAggregate.entrySet()) {
+        aggregateValues.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    Map<String, Object> aggregates = Maps.newHashMap();
+    for (List<LogicalMetricMeta> logicalMetricMetas : metricLogicalAggregates.values()) {
+      for (LogicalMetricMeta logicalMetricMeta : logicalMetricMetas) {
+        Collection<Object> values = aggregateValues.get(logicalMetricMeta.name);
+        if (!values.isEmpty()) {
+          aggregates.put(logicalMetricMeta.name, logicalMetricMeta.aggregator.aggregate(values));
+        }
+      }
+    }
+    return aggregates;
+  }
+
   /**
    * This can be overridden to change logical metric name.
    *
@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.common.metric;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.datatorrent.api.AutoMetric;
+
+/**
+ * An {@link AutoMetric.Aggregator} that can aggregate the metrics of the partitions in a container into a partial
+ * aggregate and merge the partial aggregates of all containers into the logical metrics.
+ *
+ * @since 3.5.0
+ */
+public interface PartialMetricsAggregator extends AutoMetric.Aggregator
+{
+  /**
+   * @return true if the merge of partial aggregates yields the same result as the aggregation of all physical metrics
+   */
+  boolean isPartialAggregationSupported();
+
+  /**
+   * Merges partial aggregates, which are results of {@link #aggregate(long, Collection)} over subsets of the
+   * partitions, into the aggregate over all partitions.
+   *
+   * @param windowId window id for which the metrics were collected.
+   * @param partialAggregates partial aggregates of the metrics.
+   * @return logical metrics.
+   */
+  Map<String, Object> mergePartialAggregates(long windowId, Collection<Map<String, Object>> partialAggregates);
+}
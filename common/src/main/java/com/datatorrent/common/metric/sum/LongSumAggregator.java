@@ -23,6 +23,7 @@ import java.util.Collection;
 
 import com.datatorrent.api.annotation.Name;
 
+import com.datatorrent.common.metric.AssociativeMetricAggregator;
 import com.datatorrent.common.metric.SingleMetricAggregator;
 
 /**
@@ -31,7 +32,7 @@ import com.datatorrent.common.metric.SingleMetricAggregator;
  * @since 3.2.0
  */
 @Name("sum")
-public class LongSumAggregator implements SingleMetricAggregator, Serializable
+public class LongSumAggregator implements SingleMetricAggregator, AssociativeMetricAggregator, Serializable
 {
   @Override
   public Object aggregate(Collection<Object> metricValues)
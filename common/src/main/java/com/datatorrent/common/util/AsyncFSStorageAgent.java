@@ -26,6 +26,13 @@ import java.io.InputStream;
 import java.io.ObjectStreamException;
 import java.nio.file.Files;
 import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,14 +50,100 @@ import com.google.common.base.Throwables;
 /**
  * <p>AsyncFSStorageAgent class.</p>
  *
+ * Checkpoints are saved to a local directory and copied to the distributed file system asynchronously. After the copy,
+ * the local file is kept in a bounded cache on the node, so that an operator restarted in a container on the same node
+ * is loaded from the local disk. The cache is in the local directory of the application that YARN provides to all the
+ * containers of the application on the node, unless {@link #setLocalCacheDir(String)} is set.
+ *
+ * With {@link #setStreamingCheckpoint(boolean)}, the state is instead serialized into chunks of memory that are written
+ * to the distributed file system in the background while the serialization is in progress, and only the part of the
+ * state that exceeds the memory for the chunks is spilled to the local disk. Checkpoints written this way are not
+ * cached locally. The threads, the upload rate and the memory for the chunks are those of the {@link UploadContext}
+ * shared by the operators of the container.
+ *
  * @since 3.1.0
  */
 public class AsyncFSStorageAgent extends FSStorageAgent
 {
+  /**
+   * Directories that YARN provides to the containers of an application on a node.
+   */
+  private static final String LOCAL_DIRS_ENV = "LOCAL_DIRS";
+  private static final String LOCAL_CACHE_DIR = "checkpoint-cache";
+
   private final transient Configuration conf;
   private transient volatile String localBasePath;
+  private transient volatile LocalCheckpointCache localCache;
+  private transient volatile UploadContext uploadContext;
+  private final transient Map<Pair<Integer, Long>, ChunkedCheckpointUpload> uploads = new ConcurrentHashMap<>();
 
   private boolean syncCheckpoint = false;
+  private String localCacheDir;
+  private long localCacheMaxBytes = 512L * 1024 * 1024;
+  private boolean streamingCheckpoint = false;
+  private int checkpointChunkSize = 1024 * 1024;
+  private long checkpointChunkBudget = 64L * 1024 * 1024;
+
+  /**
+   * Resources shared by the storage agents of the operators of a container to write streamed checkpoints.
+   */
+  public interface UploadContext
+  {
+    /**
+     * Run a write of the checkpoint of the given window, the writes of all operators share a bounded number of threads.
+     *
+     * @param windowId checkpoint window id
+     * @param write the write
+     */
+    void execute(long windowId, Runnable write);
+
+    /**
+     * Wait until the bytes can be sent within the upload rate.
+     *
+     * @param bytes number of bytes about to be sent
+     * @throws InterruptedException
+     */
+    void throttle(long bytes) throws InterruptedException;
+
+    /**
+     * @return memory for the chunks of the streamed checkpoints
+     */
+    CheckpointChunkPool getChunkPool();
+  }
+
+  /**
+   * Context of an agent used without a container, with one thread that terminates when idle and no rate limit.
+   */
+  private static class LocalUploadContext implements UploadContext
+  {
+    private final ThreadPoolExecutor executor;
+    private final CheckpointChunkPool chunkPool;
+
+    LocalUploadContext(long chunkBudget)
+    {
+      executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new NameableThreadFactory("CheckpointWriter", true));
+      executor.allowCoreThreadTimeOut(true);
+      chunkPool = new CheckpointChunkPool(chunkBudget);
+    }
+
+    @Override
+    public void execute(long windowId, Runnable write)
+    {
+      executor.execute(write);
+    }
+
+    @Override
+    public void throttle(long bytes)
+    {
+    }
+
+    @Override
+    public CheckpointChunkPool getChunkPool()
+    {
+      return chunkPool;
+    }
+  }
 
   @SuppressWarnings("unused")
   private AsyncFSStorageAgent()
@@ -93,16 +186,74 @@ public class AsyncFSStorageAgent extends FSStorageAgent
     }
     String operatorIdStr = String.valueOf(operatorId);
     File directory = new File(localBasePath, operatorIdStr);
+    if (streamingCheckpoint) {
+      saveChunked(object, operatorId, windowId, new File(directory, String.valueOf(windowId)));
+      return;
+    }
     if (!directory.exists()) {
       directory.mkdirs();
     }
-    try (FileOutputStream stream = new FileOutputStream(new File(directory, String.valueOf(windowId)))) {
-      store(stream, object);
+    File file = new File(directory, String.valueOf(windowId));
+    try (FileOutputStream stream = new FileOutputStream(file)) {
+      store(stream, object, operatorId);
     }
+    setCheckpointSize(operatorId, file.length());
+  }
+
+  private void saveChunked(Object object, int operatorId, long windowId, File spillFile) throws IOException
+  {
+    if (uploadContext == null) {
+      synchronized (this) {
+        if (uploadContext == null) {
+          uploadContext = new LocalUploadContext(checkpointChunkBudget);
+        }
+      }
+    }
+    Path target = new Path(path + Path.SEPARATOR + operatorId + Path.SEPARATOR + Long.toHexString(windowId));
+    ChunkedCheckpointUpload upload = new ChunkedCheckpointUpload(uploadContext, checkpointChunkSize, windowId,
+        spillFile, fileContext, target);
+    try {
+      store(upload, object, operatorId);
+      upload.close();
+    } catch (Throwable t) {
+      upload.abort();
+      Throwables.propagateIfPossible(t, IOException.class);
+      throw Throwables.propagate(t);
+    }
+    uploads.put(new Pair<>(operatorId, windowId), upload);
+    setCheckpointSize(operatorId, upload.getSize());
+  }
+
+  /**
+   * Set the context shared with the other operators of the container to write streamed checkpoints.
+   *
+   * @param uploadContext the container wide context
+   */
+  public void setUploadContext(UploadContext uploadContext)
+  {
+    this.uploadContext = uploadContext;
+  }
+
+  /**
+   * Whether the checkpoint was written while it was serialized and {@link #copyToHDFS(int, long)} only waits for the
+   * chunks not written yet.
+   *
+   * @param operatorId operator id
+   * @param windowId checkpoint window id
+   * @return true for a streamed checkpoint
+   */
+  public boolean isStreamed(int operatorId, long windowId)
+  {
+    return uploads.containsKey(new Pair<>(operatorId, windowId));
   }
 
   public void copyToHDFS(final int operatorId, final long windowId) throws IOException
   {
+    ChunkedCheckpointUpload upload = uploads.remove(new Pair<>(operatorId, windowId));
+    if (upload != null) {
+      upload.await();
+      return;
+    }
     if (this.localBasePath == null) {
       throw new AssertionError("save() was not called before copyToHDFS");
     }
@@ -112,13 +263,14 @@ public class AsyncFSStorageAgent extends FSStorageAgent
     Path lPath = new Path(path + Path.SEPARATOR + operatorIdStr + Path.SEPARATOR + TMP_FILE);
     File srcFile = new File(directory, String.valueOf(windowId));
     FSDataOutputStream stream = null;
+    CRC32 checksum = new CRC32();
     boolean stateSaved = false;
     try {
       // Create the temporary file with OverWrite option to avoid dangling lease issue and avoid exception if file already exists
       stream = fileContext.create(lPath, EnumSet.of(CreateFlag.CREATE, CreateFlag.OVERWRITE), Options.CreateOpts.CreateParent.createParent());
       InputStream in = null;
       try {
-        in = new FileInputStream(srcFile);
+        in = new CheckedInputStream(new FileInputStream(srcFile), checksum);
         IOUtils.copyBytes(in, stream, conf, false);
       } finally {
         IOUtils.closeStream(in);
@@ -139,17 +291,96 @@ public class AsyncFSStorageAgent extends FSStorageAgent
       } finally {
         if (stateSaved) {
           fileContext.rename(lPath, new Path(path + Path.SEPARATOR + operatorIdStr + Path.SEPARATOR + window), Options.Rename.OVERWRITE);
+          cache(operatorId, windowId, srcFile, checksum.getValue());
+        } else {
+          FileUtil.fullyDelete(srcFile);
         }
-        FileUtil.fullyDelete(srcFile);
       }
     }
   }
 
+  private void cache(int operatorId, long windowId, File file, long checksum)
+  {
+    LocalCheckpointCache cache = getLocalCache();
+    if (cache == null) {
+      FileUtil.fullyDelete(file);
+      return;
+    }
+    try {
+      cache.put(operatorId, windowId, file, checksum);
+    } catch (IOException e) {
+      logger.warn("Failed to cache checkpoint {} of operator {}", windowId, operatorId, e);
+      FileUtil.fullyDelete(file);
+    }
+  }
+
+  private LocalCheckpointCache getLocalCache()
+  {
+    if (localCache == null && localCacheMaxBytes > 0) {
+      String dir = localCacheDir;
+      if (dir == null) {
+        String localDirs = System.getenv(LOCAL_DIRS_ENV);
+        if (localDirs == null || localDirs.isEmpty()) {
+          return null;
+        }
+        dir = new File(localDirs.split(",")[0], LOCAL_CACHE_DIR).getPath();
+      }
+      synchronized (this) {
+        if (localCache == null) {
+          // agents of different paths may share the directory
+          File cacheDir = new File(dir, Integer.toHexString(path.hashCode()));
+          logger.info("using {} as the local checkpoint cache.", cacheDir);
+          localCache = new LocalCheckpointCache(cacheDir, localCacheMaxBytes);
+        }
+      }
+    }
+    return localCache;
+  }
+
+  @Override
+  public Object load(int operatorId, long windowId) throws IOException
+  {
+    LocalCheckpointCache cache = getLocalCache();
+    if (cache != null) {
+      Object object = cache.load(operatorId, windowId);
+      if (object != null) {
+        return object;
+      }
+    }
+    return super.load(operatorId, windowId);
+  }
+
+  /**
+   * Size of a checkpoint saved locally that was not yet copied with {@link #copyToHDFS(int, long)}.
+   *
+   * @param operatorId operator id
+   * @param windowId checkpoint window id
+   * @return the size in bytes
+   */
+  public long getLocalCheckpointSize(int operatorId, long windowId)
+  {
+    ChunkedCheckpointUpload upload = uploads.get(new Pair<>(operatorId, windowId));
+    if (upload != null) {
+      return upload.getSize();
+    }
+    if (this.localBasePath == null) {
+      return 0;
+    }
+    return new File(new File(localBasePath, String.valueOf(operatorId)), String.valueOf(windowId)).length();
+  }
+
   @Override
   public Object readResolve() throws ObjectStreamException
   {
     AsyncFSStorageAgent asyncFSStorageAgent = new AsyncFSStorageAgent(this.path, null);
     asyncFSStorageAgent.setSyncCheckpoint(syncCheckpoint);
+    asyncFSStorageAgent.setLocalCacheDir(localCacheDir);
+    asyncFSStorageAgent.setLocalCacheMaxBytes(localCacheMaxBytes);
+    asyncFSStorageAgent.setStreamingCheckpoint(streamingCheckpoint);
+    asyncFSStorageAgent.setCheckpointChunkSize(checkpointChunkSize);
+    asyncFSStorageAgent.setCheckpointChunkBudget(checkpointChunkBudget);
+    asyncFSStorageAgent.setCheckpointManifest(isCheckpointManifest());
+    asyncFSStorageAgent.setCompressCheckpoint(isCompressCheckpoint());
     return asyncFSStorageAgent;
   }
 
@@ -163,6 +394,82 @@ public class AsyncFSStorageAgent extends FSStorageAgent
     this.syncCheckpoint = syncCheckpoint;
   }
 
+  public String getLocalCacheDir()
+  {
+    return localCacheDir;
+  }
+
+  /**
+   * Directory on the local disk of the nodes to cache checkpoints in.
+   *
+   * @param localCacheDir directory or null for the local directory of the application
+   */
+  public void setLocalCacheDir(String localCacheDir)
+  {
+    this.localCacheDir = localCacheDir;
+  }
+
+  public long getLocalCacheMaxBytes()
+  {
+    return localCacheMaxBytes;
+  }
+
+  /**
+   * Maximum size of the checkpoints cached on a node.
+   *
+   * @param localCacheMaxBytes size in bytes, 0 to disable the cache
+   */
+  public void setLocalCacheMaxBytes(long localCacheMaxBytes)
+  {
+    this.localCacheMaxBytes = localCacheMaxBytes;
+  }
+
+  public boolean isStreamingCheckpoint()
+  {
+    return streamingCheckpoint;
+  }
+
+  /**
+   * Write checkpoints to the distributed file system while they are serialized instead of copying a local file.
+   *
+   * @param streamingCheckpoint true to stream checkpoints
+   */
+  public void setStreamingCheckpoint(boolean streamingCheckpoint)
+  {
+    this.streamingCheckpoint = streamingCheckpoint;
+  }
+
+  public int getCheckpointChunkSize()
+  {
+    return checkpointChunkSize;
+  }
+
+  /**
+   * Size of the chunks of memory checkpoints are streamed in.
+   *
+   * @param checkpointChunkSize size in bytes
+   */
+  public void setCheckpointChunkSize(int checkpointChunkSize)
+  {
+    this.checkpointChunkSize = checkpointChunkSize;
+  }
+
+  public long getCheckpointChunkBudget()
+  {
+    return checkpointChunkBudget;
+  }
+
+  /**
+   * Memory for the chunks of the streamed checkpoints, beyond which checkpoints spill to the local disk. It applies to
+   * an agent used without a container, in a container the memory is shared by all the operators.
+   *
+   * @param checkpointChunkBudget size in bytes
+   */
+  public void setCheckpointChunkBudget(long checkpointChunkBudget)
+  {
+    this.checkpointChunkBudget = checkpointChunkBudget;
+  }
+
   private static final long serialVersionUID = 201507241610L;
   private static final Logger logger = LoggerFactory.getLogger(AsyncFSStorageAgent.class);
 }
@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.common.util;
+
+import java.util.ArrayDeque;
+
+/**
+ * Reusable chunks of memory for the checkpoints streamed by {@link AsyncFSStorageAgent}. A pool is shared by the
+ * operators of a container, so that the memory held by checkpoints in flight is bounded per container.
+ *
+ * @since 3.5.0
+ */
+public class CheckpointChunkPool
+{
+  private final long maxBytes;
+  private final ArrayDeque<byte[]> free = new ArrayDeque<>();
+  private long allocatedBytes;
+
+  /**
+   * @param maxBytes memory for the chunks, at least one chunk is allocated
+   */
+  public CheckpointChunkPool(long maxBytes)
+  {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @param chunkSize size of the chunk in bytes
+   * @return a chunk or null when the memory of the pool is in use
+   */
+  synchronized byte[] acquire(int chunkSize)
+  {
+    byte[] chunk = free.poll();
+    while (chunk != null && chunk.length != chunkSize) {
+      // agents configured with different chunk sizes
+      allocatedBytes -= chunk.length;
+      chunk = free.poll();
+    }
+    if (chunk == null && (allocatedBytes == 0 || allocatedBytes + chunkSize <= maxBytes)) {
+      chunk = new byte[chunkSize];
+      allocatedBytes += chunkSize;
+    }
+    return chunk;
+  }
+
+  synchronized void release(byte[] chunk)
+  {
+    free.push(chunk);
+  }
+
+  public long getMaxBytes()
+  {
+    return maxBytes;
+  }
+
+}
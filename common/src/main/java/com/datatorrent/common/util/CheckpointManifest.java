@@ -0,0 +1,261 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.common.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileContext;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+
+/**
+ * Append-only log of the checkpoints available in a {@link FSStorageAgent} directory.<p>
+ * <br>
+ * Each record holds the operator id, the window id and the size of a checkpoint that was saved or deleted, followed
+ * by a CRC32 of the record, so that a record torn by a crash of the writer is detected and ignored. The manifest is
+ * written by a single process, the application master, into &lt;path&gt;/_manifest/&lt;sequence&gt;. Whenever the
+ * manifest is opened or has accumulated many more records than live checkpoints, the live checkpoints are written to
+ * a file with the next sequence number and the previous files are removed.
+ */
+class CheckpointManifest
+{
+  static final String MANIFEST_DIR = "_manifest";
+  private static final byte SAVED = 1;
+  private static final byte DELETED = 2;
+  private static final int RECORD_LENGTH = 1 + 4 + 8 + 8;
+  /**
+   * Compact when the file holds more than twice the number of live checkpoints plus this number of records.
+   */
+  private static final int COMPACTION_SLACK = 1024;
+
+  private final FileContext fileContext;
+  private final Path dir;
+  private final Map<Integer, TreeMap<Long, Long>> checkpoints = new HashMap<>();
+  private int liveCount;
+  private long fileRecordCount;
+  private long fileSeq = -1;
+  private FSDataOutputStream fsOut;
+  private DataOutputStream out;
+  private boolean dirty;
+
+  CheckpointManifest(FileContext fileContext, String path)
+  {
+    this.fileContext = fileContext;
+    this.dir = new Path(path, MANIFEST_DIR);
+  }
+
+  private void open() throws IOException
+  {
+    if (out != null) {
+      return;
+    }
+    List<Long> seqs = new ArrayList<>();
+    if (fileContext.util().exists(dir)) {
+      RemoteIterator<FileStatus> it = fileContext.listStatus(dir);
+      while (it.hasNext()) {
+        String name = it.next().getPath().getName();
+        try {
+          seqs.add(Long.parseLong(name));
+        } catch (NumberFormatException e) {
+          logger.debug("Ignoring {} in {}", name, dir);
+        }
+      }
+    }
+    Collections.sort(seqs);
+    for (long seq : seqs) {
+      read(new Path(dir, String.valueOf(seq)));
+    }
+    fileSeq = seqs.isEmpty() ? -1 : seqs.get(seqs.size() - 1);
+    roll();
+    logger.info("Opened checkpoint manifest {} with {} checkpoints of {} operators", dir, liveCount, checkpoints.size());
+  }
+
+  private void read(Path file) throws IOException
+  {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(fileContext.open(file)));
+    try {
+      byte[] record = new byte[RECORD_LENGTH];
+      CRC32 crc = new CRC32();
+      while (true) {
+        try {
+          in.readFully(record);
+          int checksum = in.readInt();
+          crc.reset();
+          crc.update(record);
+          if ((int)crc.getValue() != checksum) {
+            logger.warn("Checksum mismatch in {}, ignoring the remaining records", file);
+            break;
+          }
+        } catch (EOFException e) {
+          break;
+        }
+        ByteBuffer bb = ByteBuffer.wrap(record);
+        apply(bb.get(), bb.getInt(), bb.getLong(), bb.getLong());
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private void apply(byte type, int operatorId, long windowId, long size)
+  {
+    TreeMap<Long, Long> windows = checkpoints.get(operatorId);
+    if (type == SAVED) {
+      if (windows == null) {
+        windows = new TreeMap<>();
+        checkpoints.put(operatorId, windows);
+      }
+      if (windows.put(windowId, size) == null) {
+        liveCount++;
+      }
+    } else if (windows != null && windows.remove(windowId) != null) {
+      liveCount--;
+      if (windows.isEmpty()) {
+        checkpoints.remove(operatorId);
+      }
+    }
+  }
+
+  private void write(byte type, int operatorId, long windowId, long size) throws IOException
+  {
+    ByteBuffer bb = ByteBuffer.allocate(RECORD_LENGTH);
+    bb.put(type).putInt(operatorId).putLong(windowId).putLong(size);
+    CRC32 crc = new CRC32();
+    crc.update(bb.array());
+    out.write(bb.array());
+    out.writeInt((int)crc.getValue());
+    fileRecordCount++;
+    dirty = true;
+  }
+
+  /**
+   * Write the live checkpoints to the next file and remove the previous files.
+   */
+  private void roll() throws IOException
+  {
+    long previousSeq = fileSeq;
+    Path file = new Path(dir, String.valueOf(++fileSeq));
+    FSDataOutputStream newFsOut = fileContext.create(file, EnumSet.of(CreateFlag.CREATE, CreateFlag.OVERWRITE),
+        Options.CreateOpts.CreateParent.createParent());
+    if (out != null) {
+      out.close();
+    }
+    fsOut = newFsOut;
+    out = new DataOutputStream(new BufferedOutputStream(fsOut));
+    fileRecordCount = 0;
+    for (Map.Entry<Integer, TreeMap<Long, Long>> e : checkpoints.entrySet()) {
+      for (Map.Entry<Long, Long> w : e.getValue().entrySet()) {
+        write(SAVED, e.getKey(), w.getKey(), w.getValue());
+      }
+    }
+    sync();
+
+    RemoteIterator<FileStatus> it = fileContext.listStatus(dir);
+    while (it.hasNext()) {
+      Path p = it.next().getPath();
+      try {
+        if (Long.parseLong(p.getName()) <= previousSeq) {
+          fileContext.delete(p, false);
+        }
+      } catch (NumberFormatException e) {
+        logger.debug("Ignoring {} in {}", p, dir);
+      }
+    }
+  }
+
+  synchronized void saved(int operatorId, long windowId, long size) throws IOException
+  {
+    open();
+    apply(SAVED, operatorId, windowId, size);
+    write(SAVED, operatorId, windowId, size);
+  }
+
+  synchronized void deleted(int operatorId, long windowId) throws IOException
+  {
+    open();
+    apply(DELETED, operatorId, windowId, 0);
+    write(DELETED, operatorId, windowId, 0);
+  }
+
+  /**
+   * Make the records written so far durable and compact the manifest when it holds mostly obsolete records.
+   */
+  synchronized void sync() throws IOException
+  {
+    if (!dirty) {
+      return;
+    }
+    out.flush();
+    fsOut.hflush();
+    dirty = false;
+    if (fileRecordCount > 2L * liveCount + COMPACTION_SLACK) {
+      logger.debug("Compacting checkpoint manifest {} with {} records and {} checkpoints", dir, fileRecordCount,
+          liveCount);
+      roll();
+    }
+  }
+
+  synchronized Map<Integer, long[]> getWindowIds() throws IOException
+  {
+    open();
+    Map<Integer, long[]> result = new HashMap<>(checkpoints.size());
+    for (Map.Entry<Integer, TreeMap<Long, Long>> e : checkpoints.entrySet()) {
+      long[] windowIds = new long[e.getValue().size()];
+      int i = 0;
+      for (long windowId : e.getValue().keySet()) {
+        windowIds[i++] = windowId;
+      }
+      result.put(e.getKey(), windowIds);
+    }
+    return result;
+  }
+
+  synchronized void close() throws IOException
+  {
+    if (out != null) {
+      sync();
+      out.close();
+      out = null;
+      fsOut = null;
+    }
+  }
+
+  private static final Logger logger = LoggerFactory.getLogger(CheckpointManifest.class);
+}
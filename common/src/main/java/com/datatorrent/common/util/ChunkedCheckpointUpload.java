@@ -0,0 +1,312 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.common.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileContext;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Stream that the state of an operator is serialized to, which hands the serialized bytes to the writer in chunks of
+ * memory as they fill, so that the checkpoint is written to the file system while the serialization is in progress.<p>
+ * <br>
+ * Chunks are taken from a bounded {@link CheckpointChunkPool} and returned to it once written. When the pool is
+ * exhausted because the file system is slower than the serialization, the remaining bytes are spilled to a local file,
+ * which is copied after the chunks. The chunks are written by tasks run with {@link AsyncFSStorageAgent.UploadContext},
+ * one at a time and in order, and each write is charged to the upload rate of the context before it is sent. The
+ * thread that waits for the checkpoint in {@link #await()} writes the remaining chunks itself. The checkpoint is
+ * written to a temporary file that is renamed to the window id once complete.
+ */
+class ChunkedCheckpointUpload extends OutputStream
+{
+  static final String TMP_PREFIX = FSStorageAgent.TMP_FILE + ".";
+  private static final Chunk SPILL = new Chunk(null, 0);
+  private static final Chunk END = new Chunk(null, 0);
+
+  private static class Chunk
+  {
+    final byte[] data;
+    final int length;
+
+    Chunk(byte[] data, int length)
+    {
+      this.data = data;
+      this.length = length;
+    }
+  }
+
+  private final AsyncFSStorageAgent.UploadContext context;
+  private final CheckpointChunkPool pool;
+  private final int chunkSize;
+  private final long windowId;
+  private final Queue<Chunk> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean writeScheduled = new AtomicBoolean();
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final Runnable writeTask = new Runnable()
+  {
+    @Override
+    public void run()
+    {
+      writeScheduled.set(false);
+      writeQueued(false);
+    }
+  };
+  private final File spillFile;
+  private final FileContext fileContext;
+  private final Path target;
+  private final Path tmpPath;
+  private volatile Throwable failure;
+  private volatile boolean aborted;
+  private byte[] chunk;
+  private int position;
+  private OutputStream spill;
+  private long size;
+  /**
+   * Accessed with the write lock held.
+   */
+  private FSDataOutputStream stream;
+  private boolean complete;
+
+  /**
+   * @param spillFile local file for the bytes that do not fit into the chunks
+   * @param target path of the checkpoint in the file system
+   */
+  ChunkedCheckpointUpload(AsyncFSStorageAgent.UploadContext context, int chunkSize, long windowId, File spillFile,
+      FileContext fileContext, Path target)
+  {
+    this.context = context;
+    this.pool = context.getChunkPool();
+    this.chunkSize = chunkSize;
+    this.windowId = windowId;
+    this.spillFile = spillFile;
+    this.fileContext = fileContext;
+    this.target = target;
+    this.tmpPath = new Path(target.getParent(), TMP_PREFIX + target.getName());
+  }
+
+  @Override
+  public void write(int b) throws IOException
+  {
+    write(new byte[] {(byte)b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException
+  {
+    if (failure != null) {
+      throw new IOException("Failed to write checkpoint", failure);
+    }
+    size += len;
+    while (len > 0) {
+      if (spill != null) {
+        spill.write(b, off, len);
+        return;
+      }
+      if (chunk == null || position == chunk.length) {
+        nextChunk();
+        continue;
+      }
+      int count = Math.min(len, chunk.length - position);
+      System.arraycopy(b, off, chunk, position, count);
+      position += count;
+      off += count;
+      len -= count;
+    }
+  }
+
+  private void nextChunk() throws IOException
+  {
+    if (chunk != null) {
+      enqueue(new Chunk(chunk, position));
+    }
+    position = 0;
+    chunk = pool.acquire(chunkSize);
+    if (chunk == null) {
+      logger.debug("Checkpoint chunks exhausted, spilling to {}", spillFile);
+      File directory = spillFile.getParentFile();
+      if (!directory.exists() && !directory.mkdirs() && !directory.exists()) {
+        throw new IOException("Failed to create " + directory);
+      }
+      spill = new BufferedOutputStream(new FileOutputStream(spillFile));
+    }
+  }
+
+  private void enqueue(Chunk c)
+  {
+    queue.add(c);
+    if (writeScheduled.compareAndSet(false, true)) {
+      context.execute(windowId, writeTask);
+    }
+  }
+
+  /**
+   * Hand the last chunk to the writer. The checkpoint is complete when {@link #await()} returns.
+   */
+  @Override
+  public void close() throws IOException
+  {
+    if (chunk != null) {
+      queue.add(new Chunk(chunk, position));
+      chunk = null;
+    }
+    if (spill != null) {
+      spill.close();
+      queue.add(SPILL);
+    }
+    enqueue(END);
+  }
+
+  /**
+   * Discard the checkpoint after a failure of the serialization.
+   */
+  void abort()
+  {
+    aborted = true;
+    try {
+      close();
+    } catch (IOException e) {
+      logger.debug("while closing spill file {}", spillFile, e);
+    }
+  }
+
+  /**
+   * @return number of bytes written so far
+   */
+  long getSize()
+  {
+    return size;
+  }
+
+  /**
+   * Write the chunks not written yet and wait for the checkpoint to be complete.
+   */
+  void await() throws IOException
+  {
+    writeQueued(true);
+    if (failure != null) {
+      Throwables.propagateIfPossible(failure, IOException.class);
+      throw new IOException(failure);
+    }
+  }
+
+  /**
+   * Write the queued chunks. A task finding the chunks written by another thread returns, while the thread waiting for
+   * the checkpoint waits for the other thread and completes the checkpoint. The queue is drained after a failure so that all chunks are returned
+   * to the pool.
+   */
+  private void writeQueued(boolean wait)
+  {
+    do {
+      if (wait) {
+        writeLock.lock();
+      } else if (!writeLock.tryLock()) {
+        return;
+      }
+      try {
+        for (Chunk c = queue.poll(); c != null && !complete; c = queue.poll()) {
+          if (c == END) {
+            finish();
+          } else {
+            write(c);
+          }
+        }
+      } finally {
+        writeLock.unlock();
+      }
+      // chunks queued while the lock was released by another thread
+    } while (!queue.isEmpty());
+  }
+
+  private void write(Chunk c)
+  {
+    try {
+      if (failure == null && !aborted) {
+        if (stream == null) {
+          stream = fileContext.create(tmpPath, EnumSet.of(CreateFlag.CREATE, CreateFlag.OVERWRITE),
+              Options.CreateOpts.CreateParent.createParent());
+        }
+        if (c == SPILL) {
+          context.throttle(spillFile.length());
+          Files.copy(spillFile.toPath(), stream);
+        } else {
+          context.throttle(c.length);
+          stream.write(c.data, 0, c.length);
+        }
+      }
+    } catch (Throwable t) {
+      failure = t;
+    } finally {
+      if (c.data != null) {
+        pool.release(c.data);
+      }
+    }
+  }
+
+  private void finish()
+  {
+    complete = true;
+    if (spillFile.exists() && !spillFile.delete()) {
+      logger.warn("Failed to delete {}", spillFile);
+    }
+    try {
+      if (failure == null && !aborted && stream == null) {
+        // empty checkpoint
+        stream = fileContext.create(tmpPath, EnumSet.of(CreateFlag.CREATE, CreateFlag.OVERWRITE),
+            Options.CreateOpts.CreateParent.createParent());
+      }
+      if (stream != null) {
+        stream.close();
+      }
+      if (failure == null && !aborted) {
+        fileContext.rename(tmpPath, target, Options.Rename.OVERWRITE);
+        return;
+      }
+    } catch (Throwable t) {
+      if (failure == null) {
+        failure = t;
+      }
+    }
+    try {
+      fileContext.delete(tmpPath, false);
+    } catch (IOException e) {
+      logger.debug("while deleting {}", tmpPath, e);
+    }
+  }
+
+  private static final Logger logger = LoggerFactory.getLogger(ChunkedCheckpointUpload.class);
+}
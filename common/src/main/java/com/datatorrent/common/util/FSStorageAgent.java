@@ -18,6 +18,7 @@
  */
 package com.datatorrent.common.util;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectStreamException;
@@ -25,8 +26,15 @@ import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,13 +62,46 @@ import com.datatorrent.api.annotation.Stateless;
  *
  * @since 0.3.2
  */
-public class FSStorageAgent implements StorageAgent, Serializable
+public class FSStorageAgent implements StorageAgent, StorageAgent.BatchPurgeStorageAgent, Serializable
 {
   public static final String TMP_FILE = "_tmp";
   protected static final String STATELESS_CHECKPOINT_WINDOW_ID = Long.toHexString(Stateless.WINDOW_ID);
   public final String path;
   protected final transient FileContext fileContext;
+  /**
+   * @deprecated not used by {@link #store(OutputStream, Object)} and {@link #retrieve(InputStream)}, which use an
+   * instance per thread so that operators in the same container can checkpoint concurrently.
+   */
+  @Deprecated
   protected static final transient Kryo kryo;
+  private static final ThreadLocal<Kryo> threadKryo = new ThreadLocal<Kryo>()
+  {
+    @Override
+    protected Kryo initialValue()
+    {
+      return new Kryo();
+    }
+  };
+
+  /**
+   * Manifests opened in this process by path, so that storage agent instances with the same path share the writer.
+   */
+  private static final Map<String, CheckpointManifest> manifests = new ConcurrentHashMap<>();
+  /**
+   * Header of compressed checkpoints. A Kryo stream that starts with the null marker holds nothing else, so the header
+   * cannot be mistaken for the start of an uncompressed checkpoint. The last byte identifies the codec.
+   */
+  private static final byte[] COMPRESSED_HEADER = {0, 'A', 'Z', 1};
+  private boolean checkpointManifest;
+  private boolean compressCheckpoint;
+  private final transient Map<Integer, SaveStats> saveStats = new ConcurrentHashMap<>();
+
+  private static class SaveStats
+  {
+    long size = -1;
+    long serializedSize = -1;
+    long compressionTime;
+  }
 
   static {
     kryo = new Kryo();
@@ -102,7 +143,8 @@ public class FSStorageAgent implements StorageAgent, Serializable
     try {
       stream = fileContext.create(lPath, EnumSet.of(CreateFlag.CREATE, CreateFlag.OVERWRITE),
         Options.CreateOpts.CreateParent.createParent());
-      store(stream, object);
+      store(stream, object, operatorId);
+      setCheckpointSize(operatorId, stream.getPos());
       stateSaved = true;
     } catch (Throwable t) {
       logger.debug("while saving {} {}", operatorId, window, t);
@@ -146,9 +188,64 @@ public class FSStorageAgent implements StorageAgent, Serializable
     Path lPath = new Path(path + Path.SEPARATOR + String.valueOf(operatorId) + Path.SEPARATOR + Long.toHexString(windowId));
     logger.debug("Deleting: {}", lPath);
 
+    removeFromManifest(operatorId, windowId);
     fileContext.delete(lPath, false);
   }
 
+  /**
+   * Deletes the given checkpoints of each operator. Operators that fail are skipped and the first failure is thrown
+   * after all operators were processed.
+   */
+  @Override
+  public void delete(Map<Integer, long[]> windowIds) throws IOException
+  {
+    IOException failure = null;
+    for (Map.Entry<Integer, long[]> e : windowIds.entrySet()) {
+      int operatorId = e.getKey();
+      try {
+        for (long windowId : e.getValue()) {
+          delete(operatorId, windowId);
+        }
+      } catch (IOException ex) {
+        logger.debug("while purging {} {}", operatorId, Arrays.toString(e.getValue()), ex);
+        if (failure == null) {
+          failure = ex;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Lists the checkpoints of each operator once and deletes those up to the given window, for callers that do not know
+   * the window ids. Operators that fail are skipped and the first failure is thrown after all operators were processed.
+   */
+  @Override
+  public void deleteUpTo(Map<Integer, Long> windowIds) throws IOException
+  {
+    IOException failure = null;
+    for (Map.Entry<Integer, Long> e : windowIds.entrySet()) {
+      int operatorId = e.getKey();
+      try {
+        for (long windowId : getWindowIds(operatorId)) {
+          if (windowId != Stateless.WINDOW_ID && windowId <= e.getValue()) {
+            delete(operatorId, windowId);
+          }
+        }
+      } catch (IOException ex) {
+        logger.debug("while purging {} up to {}", operatorId, e.getValue(), ex);
+        if (failure == null) {
+          failure = ex;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
   @Override
   public long[] getWindowIds(int operatorId) throws IOException
   {
@@ -162,7 +259,7 @@ public class FSStorageAgent implements StorageAgent, Serializable
     do {
       FileStatus fileStatus = fileStatusRemoteIterator.next();
       String name = fileStatus.getPath().getName();
-      if (name.equals(TMP_FILE)) {
+      if (name.startsWith(TMP_FILE)) {
         continue;
       }
       lwindows.add(STATELESS_CHECKPOINT_WINDOW_ID.equals(name) ? Stateless.WINDOW_ID : Long.parseLong(name, 16));
@@ -174,28 +271,279 @@ public class FSStorageAgent implements StorageAgent, Serializable
     return windowIds;
   }
 
+  /**
+   * Size of the checkpoint most recently saved by this instance for the operator.
+   *
+   * @param operatorId operator id
+   * @return the size in bytes or -1 if not known
+   */
+  public long getCheckpointSize(int operatorId)
+  {
+    SaveStats stats = saveStats.get(operatorId);
+    return stats == null ? -1 : stats.size;
+  }
+
+  /**
+   * Size of the checkpoint most recently saved by this instance for the operator before compression.
+   *
+   * @param operatorId operator id
+   * @return the size in bytes or -1 if not known
+   */
+  public long getCheckpointSerializedSize(int operatorId)
+  {
+    SaveStats stats = saveStats.get(operatorId);
+    return stats == null ? -1 : stats.serializedSize;
+  }
+
+  /**
+   * Time spent compressing the checkpoint most recently saved by this instance for the operator.
+   *
+   * @param operatorId operator id
+   * @return the time in nanoseconds
+   */
+  public long getCheckpointCompressionTime(int operatorId)
+  {
+    SaveStats stats = saveStats.get(operatorId);
+    return stats == null ? 0 : stats.compressionTime;
+  }
+
+  protected void setCheckpointSize(int operatorId, long size)
+  {
+    SaveStats stats = saveStats.get(operatorId);
+    if (stats == null) {
+      stats = new SaveStats();
+      saveStats.put(operatorId, stats);
+    }
+    stats.size = size;
+    if (stats.serializedSize < 0) {
+      stats.serializedSize = size;
+    }
+  }
+
+  public boolean isCompressCheckpoint()
+  {
+    return compressCheckpoint;
+  }
+
+  /**
+   * Compress checkpoints with DEFLATE at the fastest level. Checkpoints are loaded regardless of this setting.
+   *
+   * @param compressCheckpoint true to compress checkpoints
+   */
+  public void setCompressCheckpoint(boolean compressCheckpoint)
+  {
+    this.compressCheckpoint = compressCheckpoint;
+  }
+
+  /**
+   * Whether the application master records the available checkpoints in a manifest under the storage agent path,
+   * which allows to find the checkpoints of all operators on recovery with a sequential read instead of a directory
+   * listing per operator.
+   *
+   * @return true if the manifest is kept
+   */
+  public boolean isCheckpointManifest()
+  {
+    return checkpointManifest;
+  }
+
+  public void setCheckpointManifest(boolean checkpointManifest)
+  {
+    this.checkpointManifest = checkpointManifest;
+  }
+
+  private CheckpointManifest getManifest()
+  {
+    synchronized (manifests) {
+      CheckpointManifest manifest = manifests.get(path);
+      if (manifest == null) {
+        manifest = new CheckpointManifest(fileContext, path);
+        manifests.put(path, manifest);
+      }
+      return manifest;
+    }
+  }
+
+  /**
+   * Record a checkpoint reported by the operator in the manifest. Called by the application master.
+   *
+   * @param operatorId operator id
+   * @param windowId checkpoint window id
+   * @param size checkpoint size or -1 if not known
+   * @throws IOException
+   */
+  public void addToManifest(int operatorId, long windowId, long size) throws IOException
+  {
+    if (checkpointManifest) {
+      getManifest().saved(operatorId, windowId, size);
+    }
+  }
+
+  /**
+   * Record the deletion of a checkpoint in the manifest, if the manifest was opened by this process.
+   *
+   * @param operatorId operator id
+   * @param windowId checkpoint window id
+   * @throws IOException
+   */
+  protected void removeFromManifest(int operatorId, long windowId) throws IOException
+  {
+    CheckpointManifest manifest = checkpointManifest ? manifests.get(path) : null;
+    if (manifest != null) {
+      manifest.deleted(operatorId, windowId);
+    }
+  }
+
+  /**
+   * Make the manifest records durable and compact the manifest when most of its records are obsolete.
+   *
+   * @throws IOException
+   */
+  public void syncManifest() throws IOException
+  {
+    CheckpointManifest manifest = checkpointManifest ? manifests.get(path) : null;
+    if (manifest != null) {
+      manifest.sync();
+    }
+  }
+
+  /**
+   * Checkpoints of all operators as recorded in the manifest.
+   *
+   * @return window ids by operator id or null if the manifest is not kept
+   * @throws IOException
+   */
+  public Map<Integer, long[]> getManifestWindowIds() throws IOException
+  {
+    return checkpointManifest ? getManifest().getWindowIds() : null;
+  }
+
+  /**
+   * Close the manifest opened by this process.
+   *
+   * @throws IOException
+   */
+  public void closeManifest() throws IOException
+  {
+    CheckpointManifest manifest = manifests.remove(path);
+    if (manifest != null) {
+      manifest.close();
+    }
+  }
+
   public static void store(OutputStream stream, Object operator)
   {
-    synchronized (kryo) {
-      Output output = new Output(4096, Integer.MAX_VALUE);
-      output.setOutputStream(stream);
-      kryo.writeClassAndObject(output, operator);
-      output.flush();
+    Output output = new Output(4096, Integer.MAX_VALUE);
+    output.setOutputStream(stream);
+    threadKryo.get().writeClassAndObject(output, operator);
+    output.flush();
+  }
+
+  /**
+   * Serialize the state of the operator, compressed when {@link #isCompressCheckpoint()}, and record the size before
+   * compression and the compression time. The stream is not closed.
+   */
+  protected void store(OutputStream stream, Object object, int operatorId) throws IOException
+  {
+    SaveStats stats = new SaveStats();
+    if (compressCheckpoint) {
+      stream.write(COMPRESSED_HEADER);
+      CompressingOutputStream out = new CompressingOutputStream(stream);
+      try {
+        store(out, object);
+        out.finish();
+        stats.serializedSize = out.getBytesRead();
+        stats.compressionTime = out.compressionTime;
+      } finally {
+        out.end();
+      }
+    } else {
+      store(stream, object);
     }
+    saveStats.put(operatorId, stats);
   }
 
   public static Object retrieve(InputStream stream)
   {
-    synchronized (kryo) {
-      kryo.setClassLoader(Thread.currentThread().getContextClassLoader());
+    Kryo kryo = threadKryo.get();
+    kryo.setClassLoader(Thread.currentThread().getContextClassLoader());
+    Inflater inflater = null;
+    try {
+      if (!stream.markSupported()) {
+        stream = new BufferedInputStream(stream);
+      }
+      stream.mark(COMPRESSED_HEADER.length);
+      byte[] header = new byte[COMPRESSED_HEADER.length];
+      int count = 0;
+      while (count < header.length) {
+        int n = stream.read(header, count, header.length - count);
+        if (n < 0) {
+          break;
+        }
+        count += n;
+      }
+      if (count == header.length && Arrays.equals(header, COMPRESSED_HEADER)) {
+        inflater = new Inflater();
+        stream = new InflaterInputStream(stream, inflater, 64 * 1024);
+      } else {
+        stream.reset();
+      }
       Input input = new Input(stream);
       return kryo.readClassAndObject(input);
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    } finally {
+      if (inflater != null) {
+        inflater.end();
+      }
+    }
+  }
+
+  /**
+   * Deflates the serialized state and measures the time spent in compression.
+   */
+  private static class CompressingOutputStream extends DeflaterOutputStream
+  {
+    long compressionTime;
+
+    CompressingOutputStream(OutputStream out)
+    {
+      super(out, new Deflater(Deflater.BEST_SPEED), 64 * 1024);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+      long start = System.nanoTime();
+      super.write(b, off, len);
+      compressionTime += System.nanoTime() - start;
+    }
+
+    @Override
+    public void finish() throws IOException
+    {
+      long start = System.nanoTime();
+      super.finish();
+      compressionTime += System.nanoTime() - start;
+    }
+
+    long getBytesRead()
+    {
+      return def.getBytesRead();
+    }
+
+    void end()
+    {
+      def.end();
     }
   }
 
   public Object readResolve() throws ObjectStreamException
   {
-    return new FSStorageAgent(this.path, null);
+    FSStorageAgent fsStorageAgent = new FSStorageAgent(this.path, null);
+    fsStorageAgent.setCheckpointManifest(checkpointManifest);
+    fsStorageAgent.setCompressCheckpoint(compressCheckpoint);
+    return fsStorageAgent;
   }
 
   private static final long serialVersionUID = 201404031201L;
@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.common.util;
+
+/**
+ * Implemented by operators that keep large state which should be checkpointed incrementally by
+ * {@link IncrementalFSStorageAgent}.<p>
+ * <br>
+ * The large state is expected to be held in transient fields, so that the serialized operator itself stays small.
+ * With every checkpoint the storage agent asks the operator for either its complete state or for the state that
+ * changed since the previous checkpoint, for example the dirty keys or chunks of a map. On recovery the storage agent
+ * hands the complete state of the base checkpoint followed by every delta up to the recovered window back to the
+ * operator in the order they were taken.<p>
+ * <br>
+ * Operators that are not checkpointed by an {@link IncrementalFSStorageAgent} are serialized as a whole and the
+ * methods of this interface are not called.
+ *
+ * @since 3.5.0
+ */
+public interface IncrementalCheckpointable
+{
+  /**
+   * Return the state to be stored with the checkpoint and reset the change tracking.
+   *
+   * @param full true when the complete state is required, false when only the state changed since the last call is
+   * required
+   * @return the state, which is serialized with Kryo
+   */
+  Object getCheckpointState(boolean full);
+
+  /**
+   * Apply state previously returned by {@link #getCheckpointState(boolean)}. Called on the deserialized operator
+   * before setup, first with the complete state of the base checkpoint and then with each delta in window order.
+   *
+   * @param state the state
+   * @param full true if the state is the complete state of a base checkpoint
+   */
+  void restoreCheckpointState(Object state, boolean full);
+}
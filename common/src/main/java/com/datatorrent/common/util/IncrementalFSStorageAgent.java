@@ -0,0 +1,509 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.common.util;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import com.google.common.base.Throwables;
+
+import com.datatorrent.api.annotation.Stateless;
+
+/**
+ * Storage agent that checkpoints operators implementing {@link IncrementalCheckpointable} incrementally.<p>
+ * <br>
+ * A checkpoint is either a base checkpoint with the complete state of the operator or a delta with the state changed
+ * since the previous checkpoint. After {@link #getFullCheckpointInterval()} deltas the next checkpoint is a base
+ * checkpoint again, which bounds the number of files read on recovery. Checkpoints are stored with the same
+ * &lt;path&gt;/&lt;operator id&gt;/&lt;window id&gt; layout as {@link FSStorageAgent}, prefixed with a small header
+ * that references the previous and the base checkpoint. Operators that do not implement the interface are stored
+ * exactly as by {@link FSStorageAgent}.<p>
+ * <br>
+ * Checkpoints deleted through {@link #delete(int, long)}, for example when the application master purges
+ * checkpoints older than the committed window, are only renamed while newer checkpoints still depend on them and are
+ * removed once the base checkpoint of the oldest remaining checkpoint is newer. The base of each checkpoint is kept in
+ * memory, it is learned when the checkpoint is saved or purged by this agent or when the checkpoints of the operator are
+ * listed the first time, for example after the application master was restarted.
+ *
+ * @since 3.5.0
+ */
+public class IncrementalFSStorageAgent extends FSStorageAgent
+{
+  public static final String PURGED_SUFFIX = ".purged";
+  /**
+   * "APXINCR" followed by the format version.
+   */
+  private static final long MAGIC = 0x415058494e435201L;
+
+  private int fullCheckpointInterval = 10;
+  private final transient Map<Integer, Chain> chains = new ConcurrentHashMap<>();
+  private final transient Map<Integer, Checkpoints> checkpoints = new ConcurrentHashMap<>();
+
+  private static class Chain
+  {
+    final long baseWindowId;
+    final long lastWindowId;
+    final int deltaCount;
+
+    Chain(long baseWindowId, long lastWindowId, int deltaCount)
+    {
+      this.baseWindowId = baseWindowId;
+      this.lastWindowId = lastWindowId;
+      this.deltaCount = deltaCount;
+    }
+  }
+
+  /**
+   * The checkpoints of an operator known to this agent. Checkpoints saved by other instances of the agent after the
+   * checkpoints were listed are not known until they are purged, they are based on the latest base checkpoint or newer.
+   */
+  private static class Checkpoints
+  {
+    final TreeMap<Long, Long> baseWindowIds = new TreeMap<>();
+    final TreeSet<Long> purged = new TreeSet<>();
+    long latestBaseWindowId = Long.MIN_VALUE;
+
+    void add(long windowId, long baseWindowId)
+    {
+      baseWindowIds.put(windowId, baseWindowId);
+      purged.remove(windowId);
+      latestBaseWindowId = Math.max(latestBaseWindowId, baseWindowId);
+    }
+
+    long getOldestBaseWindowId()
+    {
+      long oldestBaseWindowId = latestBaseWindowId;
+      for (long baseWindowId : baseWindowIds.values()) {
+        oldestBaseWindowId = Math.min(oldestBaseWindowId, baseWindowId);
+      }
+      return oldestBaseWindowId;
+    }
+  }
+
+  private static class Header
+  {
+    boolean full;
+    long baseWindowId;
+    long previousWindowId;
+  }
+
+  private static class CheckpointRecord
+  {
+    Object operator;
+    Object state;
+
+    @SuppressWarnings("unused")
+    private CheckpointRecord()
+    {
+    }
+
+    CheckpointRecord(Object operator, Object state)
+    {
+      this.operator = operator;
+      this.state = state;
+    }
+  }
+
+  @SuppressWarnings("unused")
+  private IncrementalFSStorageAgent()
+  {
+    super();
+  }
+
+  public IncrementalFSStorageAgent(String path, Configuration conf)
+  {
+    super(path, conf);
+  }
+
+  @Override
+  public void save(Object object, int operatorId, long windowId) throws IOException
+  {
+    if (!(object instanceof IncrementalCheckpointable) || windowId == Stateless.WINDOW_ID) {
+      super.save(object, operatorId, windowId);
+      addCheckpoint(operatorId, windowId, windowId);
+      return;
+    }
+
+    // the changes returned by the operator are not tracked anymore, the next checkpoint after a failure is full
+    Chain chain = chains.remove(operatorId);
+    boolean full = chain == null || chain.deltaCount >= fullCheckpointInterval || windowId <= chain.lastWindowId;
+    Header header = new Header();
+    header.full = full;
+    header.baseWindowId = full ? windowId : chain.baseWindowId;
+    header.previousWindowId = full ? windowId : chain.lastWindowId;
+    Object state = ((IncrementalCheckpointable)object).getCheckpointState(full);
+
+    String operatorIdStr = String.valueOf(operatorId);
+    Path lPath = new Path(path + Path.SEPARATOR + operatorIdStr + Path.SEPARATOR + TMP_FILE);
+    String window = Long.toHexString(windowId);
+    boolean stateSaved = false;
+    FSDataOutputStream stream = null;
+    try {
+      stream = fileContext.create(lPath, EnumSet.of(CreateFlag.CREATE, CreateFlag.OVERWRITE),
+          Options.CreateOpts.CreateParent.createParent());
+      stream.writeLong(MAGIC);
+      stream.writeBoolean(header.full);
+      stream.writeLong(header.baseWindowId);
+      stream.writeLong(header.previousWindowId);
+      store(stream, new CheckpointRecord(object, state), operatorId);
+      setCheckpointSize(operatorId, stream.getPos());
+      stateSaved = true;
+    } catch (Throwable t) {
+      logger.debug("while saving {} {}", operatorId, window, t);
+      stateSaved = false;
+      throw Throwables.propagate(t);
+    } finally {
+      try {
+        if (stream != null) {
+          stream.close();
+        }
+      } catch (IOException ie) {
+        stateSaved = false;
+        throw new RuntimeException(ie);
+      } finally {
+        if (stateSaved) {
+          logger.debug("Saving {}: {} full {} base {}", operatorId, window, full, Long.toHexString(header.baseWindowId));
+          fileContext.rename(lPath, new Path(path + Path.SEPARATOR + operatorIdStr + Path.SEPARATOR + window),
+              Options.Rename.OVERWRITE);
+          chains.put(operatorId, full ? new Chain(windowId, windowId, 0) :
+              new Chain(chain.baseWindowId, windowId, chain.deltaCount + 1));
+          addCheckpoint(operatorId, windowId, header.baseWindowId);
+        }
+      }
+    }
+  }
+
+  @Override
+  public Object load(int operatorId, long windowId) throws IOException
+  {
+    // the restored operator tracks changes relative to the loaded window
+    chains.remove(operatorId);
+    Object operator = null;
+    List<Object> states = new ArrayList<>();
+    long currentWindowId = windowId;
+    while (true) {
+      FSDataInputStream stream = open(operatorId, currentWindowId);
+      try {
+        Header header = readHeader(stream);
+        if (header == null) {
+          if (operator != null) {
+            throw new IOException("Checkpoint " + Long.toHexString(currentWindowId) + " of operator " + operatorId +
+                " is not an incremental checkpoint");
+          }
+          stream.seek(0);
+          return retrieve(stream);
+        }
+        CheckpointRecord record = (CheckpointRecord)retrieve(stream);
+        if (operator == null) {
+          operator = record.operator;
+        }
+        states.add(record.state);
+        if (header.full) {
+          break;
+        }
+        currentWindowId = header.previousWindowId;
+      } finally {
+        stream.close();
+      }
+    }
+
+    logger.debug("Restoring {}: {} from {} checkpoints", operatorId, Long.toHexString(windowId), states.size());
+    IncrementalCheckpointable incremental = (IncrementalCheckpointable)operator;
+    for (int i = states.size(); i-- > 0;) {
+      incremental.restoreCheckpointState(states.get(i), i == states.size() - 1);
+    }
+    return operator;
+  }
+
+  @Override
+  public void delete(int operatorId, long windowId) throws IOException
+  {
+    purge(operatorId, windowId);
+    deletePurged(operatorId);
+  }
+
+  /**
+   * Purges the given checkpoints of each operator and then removes the purged checkpoints that no remaining checkpoint
+   * depends on.
+   */
+  @Override
+  public void delete(Map<Integer, long[]> windowIds) throws IOException
+  {
+    IOException failure = null;
+    for (Map.Entry<Integer, long[]> e : windowIds.entrySet()) {
+      int operatorId = e.getKey();
+      try {
+        for (long windowId : e.getValue()) {
+          purge(operatorId, windowId);
+        }
+        deletePurged(operatorId);
+      } catch (IOException ex) {
+        logger.debug("while purging {} {}", operatorId, Arrays.toString(e.getValue()), ex);
+        if (failure == null) {
+          failure = ex;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Purges the checkpoints up to the given window of each operator and then removes the purged checkpoints that no
+   * remaining checkpoint depends on, so that the operator directory is scanned once regardless of the number of
+   * checkpoints purged.
+   */
+  @Override
+  public void deleteUpTo(Map<Integer, Long> windowIds) throws IOException
+  {
+    IOException failure = null;
+    for (Map.Entry<Integer, Long> e : windowIds.entrySet()) {
+      int operatorId = e.getKey();
+      try {
+        for (long windowId : getWindowIds(operatorId)) {
+          if (windowId != Stateless.WINDOW_ID && windowId <= e.getValue()) {
+            purge(operatorId, windowId);
+          }
+        }
+        deletePurged(operatorId);
+      } catch (IOException ex) {
+        logger.debug("while purging {} up to {}", operatorId, e.getValue(), ex);
+        if (failure == null) {
+          failure = ex;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void addCheckpoint(int operatorId, long windowId, long baseWindowId)
+  {
+    Checkpoints operatorCheckpoints = checkpoints.get(operatorId);
+    if (operatorCheckpoints != null) {
+      synchronized (operatorCheckpoints) {
+        operatorCheckpoints.add(windowId, baseWindowId);
+      }
+    }
+  }
+
+  /**
+   * Get the checkpoints of the operator, listed and read from the file system only when not known yet.
+   */
+  private Checkpoints getCheckpoints(int operatorId) throws IOException
+  {
+    Checkpoints operatorCheckpoints = checkpoints.get(operatorId);
+    if (operatorCheckpoints != null) {
+      return operatorCheckpoints;
+    }
+
+    operatorCheckpoints = new Checkpoints();
+    Path operatorPath = new Path(path + Path.SEPARATOR + String.valueOf(operatorId));
+    if (fileContext.util().exists(operatorPath)) {
+      RemoteIterator<FileStatus> it = fileContext.listStatus(operatorPath);
+      while (it.hasNext()) {
+        String name = it.next().getPath().getName();
+        if (name.equals(TMP_FILE)) {
+          continue;
+        }
+        if (name.endsWith(PURGED_SUFFIX)) {
+          operatorCheckpoints.purged.add(parseWindowId(name.substring(0, name.length() - PURGED_SUFFIX.length())));
+        } else {
+          long windowId = parseWindowId(name);
+          operatorCheckpoints.add(windowId, readBaseWindowId(new Path(operatorPath, name), windowId));
+        }
+      }
+    }
+    checkpoints.put(operatorId, operatorCheckpoints);
+    return operatorCheckpoints;
+  }
+
+  private long readBaseWindowId(Path checkpointPath, long windowId) throws IOException
+  {
+    FSDataInputStream stream = fileContext.open(checkpointPath);
+    try {
+      Header header = readHeader(stream);
+      return header == null ? windowId : header.baseWindowId;
+    } finally {
+      stream.close();
+    }
+  }
+
+  private void purge(int operatorId, long windowId) throws IOException
+  {
+    removeFromManifest(operatorId, windowId);
+    Path lPath = getCheckpointPath(operatorId, windowId);
+    Checkpoints operatorCheckpoints = getCheckpoints(operatorId);
+    synchronized (operatorCheckpoints) {
+      if (operatorCheckpoints.purged.contains(windowId)) {
+        return;
+      }
+      Long baseWindowId = operatorCheckpoints.baseWindowIds.remove(windowId);
+      try {
+        if (baseWindowId == null) {
+          // saved by another instance after the checkpoints were listed
+          operatorCheckpoints.latestBaseWindowId = Math.max(operatorCheckpoints.latestBaseWindowId,
+              readBaseWindowId(lPath, windowId));
+        }
+        logger.debug("Purging: {}", lPath);
+        fileContext.rename(lPath, lPath.suffix(PURGED_SUFFIX), Options.Rename.OVERWRITE);
+      } catch (FileNotFoundException e) {
+        logger.debug("Checkpoint {} already purged", lPath);
+      }
+      operatorCheckpoints.purged.add(windowId);
+    }
+  }
+
+  /**
+   * Purged checkpoints remain as long as a live checkpoint is based on them.
+   */
+  private void deletePurged(int operatorId) throws IOException
+  {
+    Checkpoints operatorCheckpoints = getCheckpoints(operatorId);
+    synchronized (operatorCheckpoints) {
+      Iterator<Long> it = operatorCheckpoints.purged.headSet(operatorCheckpoints.getOldestBaseWindowId()).iterator();
+      while (it.hasNext()) {
+        Path purgedPath = getCheckpointPath(operatorId, it.next()).suffix(PURGED_SUFFIX);
+        logger.debug("Deleting: {}", purgedPath);
+        fileContext.delete(purgedPath, false);
+        it.remove();
+      }
+    }
+  }
+
+  @Override
+  public long[] getWindowIds(int operatorId) throws IOException
+  {
+    Path lPath = new Path(path + Path.SEPARATOR + String.valueOf(operatorId));
+    RemoteIterator<FileStatus> it = fileContext.listStatus(lPath);
+    if (!it.hasNext()) {
+      throw new IOException("Storage Agent has not saved anything yet!");
+    }
+    List<Long> lwindows = new ArrayList<>();
+    while (it.hasNext()) {
+      String name = it.next().getPath().getName();
+      if (!name.equals(TMP_FILE) && !name.endsWith(PURGED_SUFFIX)) {
+        lwindows.add(parseWindowId(name));
+      }
+    }
+    long[] windowIds = new long[lwindows.size()];
+    for (int i = 0; i < windowIds.length; i++) {
+      windowIds[i] = lwindows.get(i);
+    }
+    return windowIds;
+  }
+
+  private Path getCheckpointPath(int operatorId, long windowId)
+  {
+    return new Path(path + Path.SEPARATOR + String.valueOf(operatorId) + Path.SEPARATOR + Long.toHexString(windowId));
+  }
+
+  /**
+   * Open the checkpoint, which may have been purged already when newer checkpoints are based on it.
+   */
+  private FSDataInputStream open(int operatorId, long windowId) throws IOException
+  {
+    Path lPath = getCheckpointPath(operatorId, windowId);
+    logger.debug("Loading: {}", lPath);
+    try {
+      return fileContext.open(lPath);
+    } catch (FileNotFoundException e) {
+      return fileContext.open(lPath.suffix(PURGED_SUFFIX));
+    }
+  }
+
+  private static long parseWindowId(String name)
+  {
+    return STATELESS_CHECKPOINT_WINDOW_ID.equals(name) ? Stateless.WINDOW_ID : Long.parseLong(name, 16);
+  }
+
+  /**
+   * Read the header of an incremental checkpoint.
+   *
+   * @return the header or null if the checkpoint was written by {@link FSStorageAgent}
+   */
+  private static Header readHeader(FSDataInputStream stream) throws IOException
+  {
+    try {
+      if (stream.readLong() != MAGIC) {
+        return null;
+      }
+    } catch (EOFException e) {
+      return null;
+    }
+    Header header = new Header();
+    header.full = stream.readBoolean();
+    header.baseWindowId = stream.readLong();
+    header.previousWindowId = stream.readLong();
+    return header;
+  }
+
+  /**
+   * Number of delta checkpoints written before the complete state is checkpointed again.
+   *
+   * @return the number of deltas between base checkpoints
+   */
+  public int getFullCheckpointInterval()
+  {
+    return fullCheckpointInterval;
+  }
+
+  public void setFullCheckpointInterval(int fullCheckpointInterval)
+  {
+    this.fullCheckpointInterval = fullCheckpointInterval;
+  }
+
+  @Override
+  public Object readResolve() throws ObjectStreamException
+  {
+    IncrementalFSStorageAgent agent = new IncrementalFSStorageAgent(this.path, null);
+    agent.setFullCheckpointInterval(fullCheckpointInterval);
+    agent.setCheckpointManifest(isCheckpointManifest());
+    agent.setCompressCheckpoint(isCompressCheckpoint());
+    return agent;
+  }
+
+  private static final long serialVersionUID = 201610190930L;
+  private static final Logger logger = LoggerFactory.getLogger(IncrementalFSStorageAgent.class);
+}
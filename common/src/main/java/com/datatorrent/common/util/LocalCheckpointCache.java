@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.common.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of checkpoints on the local disk of a node, shared by the containers of an application on that node.<p>
+ * <br>
+ * Checkpoints are kept in &lt;dir&gt;/&lt;operatorId&gt;/&lt;windowId&gt; with the CRC32 of the serialized state
+ * appended, so that a file damaged on disk is detected and the checkpoint is loaded from the distributed file system
+ * instead. Files are moved into place atomically and loading refreshes the modification time, which is used to evict
+ * the least recently used checkpoints once the files exceed the configured size.
+ */
+class LocalCheckpointCache
+{
+  private static final String TMP_SUFFIX = ".tmp";
+  private static final int CHECKSUM_LENGTH = 8;
+
+  private final File dir;
+  private final long maxBytes;
+
+  LocalCheckpointCache(File dir, long maxBytes)
+  {
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+  }
+
+  private File getFile(int operatorId, long windowId)
+  {
+    return new File(new File(dir, String.valueOf(operatorId)), Long.toHexString(windowId));
+  }
+
+  /**
+   * Move the given file with the serialized state of the operator into the cache.
+   *
+   * @param file serialized state, it is moved or deleted
+   * @param checksum CRC32 of the content of the file
+   */
+  synchronized void put(int operatorId, long windowId, File file, long checksum) throws IOException
+  {
+    if (file.length() + CHECKSUM_LENGTH > maxBytes) {
+      Files.delete(file.toPath());
+      return;
+    }
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+      out.writeLong(checksum);
+    }
+    File target = getFile(operatorId, windowId);
+    File directory = target.getParentFile();
+    if (!directory.exists() && !directory.mkdirs() && !directory.exists()) {
+      throw new IOException("Failed to create " + directory);
+    }
+    try {
+      Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      // the local checkpoint is on another file system, copy it next to the target first
+      File tmp = new File(directory, target.getName() + "." + Thread.currentThread().getId() + TMP_SUFFIX);
+      Files.copy(file.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      Files.delete(file.toPath());
+    }
+    evict();
+  }
+
+  /**
+   * Load the state of the operator from the cache.
+   *
+   * @return the operator or null if it is not in the cache or the file does not match its checksum
+   */
+  Object load(int operatorId, long windowId) throws IOException
+  {
+    File file = getFile(operatorId, windowId);
+    FileInputStream in;
+    try {
+      in = new FileInputStream(file);
+    } catch (IOException e) {
+      return null;
+    }
+    // the open file remains readable when another container evicts or replaces it
+    try (FileChannel channel = in.getChannel()) {
+      long length = channel.size() - CHECKSUM_LENGTH;
+      if (length < 0 || checksum(channel, length) != readChecksum(channel, length)) {
+        logger.warn("Checksum mismatch for cached checkpoint {}, loading it from the file system", file);
+        remove(file);
+        return null;
+      }
+      Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(System.currentTimeMillis()));
+      channel.position(0);
+      logger.debug("Loading {} from local cache {}", operatorId, file);
+      return FSStorageAgent.retrieve(new BufferedInputStream(Channels.newInputStream(channel)));
+    }
+  }
+
+  private static long checksum(FileChannel channel, long length) throws IOException
+  {
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[64 * 1024];
+    InputStream in = Channels.newInputStream(channel);
+    long remaining = length;
+    while (remaining > 0) {
+      int count = in.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+      if (count < 0) {
+        break;
+      }
+      crc.update(buffer, 0, count);
+      remaining -= count;
+    }
+    return crc.getValue();
+  }
+
+  private static long readChecksum(FileChannel channel, long length) throws IOException
+  {
+    ByteBuffer bb = ByteBuffer.allocate(CHECKSUM_LENGTH);
+    while (bb.hasRemaining()) {
+      if (channel.read(bb, length + bb.position()) < 0) {
+        return -1;
+      }
+    }
+    bb.flip();
+    return bb.getLong();
+  }
+
+  private static void remove(File file)
+  {
+    if (!file.delete() && file.exists()) {
+      logger.warn("Failed to delete {}", file);
+    }
+  }
+
+  /**
+   * Delete the least recently used checkpoints until the cache is within its size.
+   */
+  private void evict()
+  {
+    File[] directories = dir.listFiles();
+    if (directories == null) {
+      return;
+    }
+    final List<File> files = new ArrayList<>();
+    final List<Long> lastModified = new ArrayList<>();
+    long size = 0;
+    for (File directory : directories) {
+      File[] checkpoints = directory.listFiles();
+      if (checkpoints == null) {
+        continue;
+      }
+      for (File file : checkpoints) {
+        if (!file.getName().endsWith(TMP_SUFFIX)) {
+          files.add(file);
+          size += file.length();
+        }
+      }
+    }
+    if (size <= maxBytes) {
+      return;
+    }
+
+    List<Integer> order = new ArrayList<>(files.size());
+    for (int i = 0; i < files.size(); i++) {
+      order.add(i);
+      lastModified.add(files.get(i).lastModified());
+    }
+    Collections.sort(order, new Comparator<Integer>()
+    {
+      @Override
+      public int compare(Integer o1, Integer o2)
+      {
+        int c = Long.compare(lastModified.get(o1), lastModified.get(o2));
+        if (c == 0) {
+          // the modification time may only have a resolution of seconds, prefer the older window
+          String name1 = files.get(o1).getName();
+          String name2 = files.get(o2).getName();
+          c = name1.length() == name2.length() ? name1.compareTo(name2) : name1.length() - name2.length();
+        }
+        return c;
+      }
+    });
+    for (int i = 0; i < order.size() && size > maxBytes; i++) {
+      File file = files.get(order.get(i));
+      long length = file.length();
+      logger.debug("Evicting {} from the local checkpoint cache", file);
+      remove(file);
+      size -= length;
+    }
+  }
+
+  private static final Logger logger = LoggerFactory.getLogger(LocalCheckpointCache.class);
+}
@@ -20,6 +20,7 @@ package com.datatorrent.common.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.Map;
 
 import org.junit.Assert;
@@ -134,4 +135,101 @@ public class AsyncFSStorageAgentTest
     Assert.assertTrue("operator 2 window 1", fileContext.util().exists(new Path(appPath + "/" + 2 + "/" + 1)));
     Assert.assertFalse("operator 1 window 1", fileContext.util().exists(new Path(appPath + "/" + 1 + "/" + 1)));
   }
+
+  @Test
+  public void testLocalCache() throws IOException
+  {
+    testMeta.storageAgent.setLocalCacheDir(testMeta.basePath + "/cache");
+    testSave();
+
+    // replacement container on the same node loads the checkpoint without the distributed file system
+    AsyncFSStorageAgent agent = (AsyncFSStorageAgent)testMeta.storageAgent.readResolve();
+    Assert.assertEquals("cache dir", testMeta.basePath + "/cache", agent.getLocalCacheDir());
+    FileContext.getFileContext().delete(new Path(testMeta.applicationPath + "/1/1"), false);
+    @SuppressWarnings("unchecked")
+    Map<Integer, String> decoded = (Map<Integer, String>)agent.load(1, 1);
+    Assert.assertEquals("data of 1", 3, decoded.size());
+  }
+
+  @Test
+  public void testLocalCacheChecksum() throws IOException
+  {
+    testMeta.storageAgent.setLocalCacheDir(testMeta.basePath + "/cache");
+    testSave();
+
+    File cacheDir = new File(testMeta.basePath + "/cache").listFiles()[0];
+    File cached = new File(cacheDir, "1/1");
+    Assert.assertTrue("cached", cached.exists());
+    try (RandomAccessFile file = new RandomAccessFile(cached, "rw")) {
+      file.seek(file.length() - 10);
+      int b = file.read();
+      file.seek(file.length() - 10);
+      file.write(b ^ 0xff);
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<Integer, String> decoded = (Map<Integer, String>)testMeta.storageAgent.load(1, 1);
+    Assert.assertEquals("loaded from file system", "three", decoded.get(3));
+    Assert.assertFalse("corrupt file removed", cached.exists());
+  }
+
+  @Test
+  public void testLocalCacheEviction() throws IOException
+  {
+    Map<Integer, String> data = Maps.newHashMap();
+    data.put(1, "one");
+    AsyncFSStorageAgent agent = testMeta.storageAgent;
+    agent.setLocalCacheDir(testMeta.basePath + "/cache");
+    agent.save(data, 1, 1);
+    long size = agent.getLocalCheckpointSize(1, 1) + 8;
+    agent.setLocalCacheMaxBytes(2 * size);
+    agent = (AsyncFSStorageAgent)agent.readResolve();
+
+    for (int windowId = 1; windowId <= 3; windowId++) {
+      agent.save(data, 1, windowId);
+      agent.copyToHDFS(1, windowId);
+    }
+    File operatorDir = new File(new File(testMeta.basePath + "/cache").listFiles()[0], "1");
+    Assert.assertFalse("window 1 evicted", new File(operatorDir, "1").exists());
+    Assert.assertTrue("window 2", new File(operatorDir, "2").exists());
+    Assert.assertTrue("window 3", new File(operatorDir, "3").exists());
+  }
+
+  @Test
+  public void testStreamingCheckpoint() throws IOException
+  {
+    AsyncFSStorageAgent agent = testMeta.storageAgent;
+    agent.setStreamingCheckpoint(true);
+    agent.setCheckpointChunkSize(64);
+    agent = (AsyncFSStorageAgent)agent.readResolve();
+    Assert.assertTrue("streaming", agent.isStreamingCheckpoint());
+    checkpoint(agent);
+  }
+
+  @Test
+  public void testStreamingCheckpointSpill() throws IOException
+  {
+    AsyncFSStorageAgent agent = testMeta.storageAgent;
+    agent.setStreamingCheckpoint(true);
+    agent.setCheckpointChunkSize(64);
+    agent.setCheckpointChunkBudget(128);
+    checkpoint(agent);
+  }
+
+  private void checkpoint(AsyncFSStorageAgent agent) throws IOException
+  {
+    Map<Integer, String> data = Maps.newHashMap();
+    for (int i = 0; i < 1000; i++) {
+      data.put(i, "value" + i);
+    }
+    agent.save(data, 1, 1);
+    Assert.assertEquals("size", agent.getCheckpointSize(1), agent.getLocalCheckpointSize(1, 1));
+    Assert.assertTrue("size " + agent.getCheckpointSize(1), agent.getCheckpointSize(1) > 1000);
+    agent.copyToHDFS(1, 1);
+
+    Assert.assertArrayEquals("window ids", new long[] {1}, agent.getWindowIds(1));
+    @SuppressWarnings("unchecked")
+    Map<Integer, String> decoded = (Map<Integer, String>)agent.load(1, 1);
+    Assert.assertEquals("data", data, decoded);
+  }
 }
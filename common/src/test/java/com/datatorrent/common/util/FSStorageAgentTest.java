@@ -20,22 +20,37 @@ package com.datatorrent.common.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Assert;
+import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileContext;
+import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.Path;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import com.datatorrent.api.Attribute;
 import com.datatorrent.api.DAG;
+import com.datatorrent.api.annotation.Stateless;
 
 public class FSStorageAgentTest
 {
@@ -131,4 +146,198 @@ public class FSStorageAgentTest
     Assert.assertFalse("operator 1 window 1", fileContext.util().exists(new Path(appPath + "/" + 1 + "/" + 1)));
   }
 
+  @Test
+  public void testDeleteUpTo() throws IOException
+  {
+    Map<Integer, String> data = Maps.newHashMap();
+    data.put(1, "one");
+    testMeta.storageAgent.save(data, 1, Stateless.WINDOW_ID);
+    for (int windowId = 1; windowId <= 3; windowId++) {
+      testMeta.storageAgent.save(data, 1, windowId);
+      testMeta.storageAgent.save(data, 2, windowId);
+    }
+
+    Map<Integer, Long> windowIds = Maps.newHashMap();
+    windowIds.put(1, 2L);
+    windowIds.put(2, 1L);
+    testMeta.storageAgent.deleteUpTo(windowIds);
+
+    long[] operator1 = testMeta.storageAgent.getWindowIds(1);
+    Arrays.sort(operator1);
+    Assert.assertArrayEquals("operator 1", new long[] {Stateless.WINDOW_ID, 3}, operator1);
+    long[] operator2 = testMeta.storageAgent.getWindowIds(2);
+    Arrays.sort(operator2);
+    Assert.assertArrayEquals("operator 2", new long[] {2, 3}, operator2);
+  }
+
+  @Test
+  public void testDeleteBatch() throws IOException
+  {
+    Map<Integer, String> data = Maps.newHashMap();
+    data.put(1, "one");
+    for (int windowId = 1; windowId <= 3; windowId++) {
+      testMeta.storageAgent.save(data, 1, windowId);
+      testMeta.storageAgent.save(data, 2, windowId);
+    }
+
+    Map<Integer, long[]> windowIds = Maps.newHashMap();
+    windowIds.put(1, new long[] {1, 2});
+    windowIds.put(2, new long[] {2});
+    testMeta.storageAgent.delete(windowIds);
+
+    Assert.assertArrayEquals("operator 1", new long[] {3}, testMeta.storageAgent.getWindowIds(1));
+    long[] operator2 = testMeta.storageAgent.getWindowIds(2);
+    Arrays.sort(operator2);
+    Assert.assertArrayEquals("operator 2", new long[] {1, 3}, operator2);
+  }
+
+  @Test
+  public void testCompression() throws IOException
+  {
+    Map<Integer, String> data = Maps.newHashMap();
+    for (int i = 0; i < 1000; i++) {
+      data.put(i, "value");
+    }
+    FSStorageAgent agent = testMeta.storageAgent;
+    agent.save(data, 1, 1);
+    Assert.assertEquals("uncompressed", agent.getCheckpointSize(1), agent.getCheckpointSerializedSize(1));
+
+    agent.setCompressCheckpoint(true);
+    agent = (FSStorageAgent)agent.readResolve();
+    Assert.assertTrue("compress", agent.isCompressCheckpoint());
+    agent.save(data, 1, 2);
+    Assert.assertTrue("compressed " + agent.getCheckpointSize(1) + " of " + agent.getCheckpointSerializedSize(1),
+        agent.getCheckpointSize(1) * 2 < agent.getCheckpointSerializedSize(1));
+
+    Assert.assertEquals("compressed checkpoint", data, agent.load(1, 2));
+    Assert.assertEquals("uncompressed checkpoint", data, agent.load(1, 1));
+    Assert.assertEquals("compressed checkpoint with agent that does not compress", data,
+        testMeta.storageAgent.load(1, 2));
+  }
+
+  @Test
+  public void testManifest() throws IOException
+  {
+    FSStorageAgent agent = testMeta.storageAgent;
+    agent.setCheckpointManifest(true);
+    try {
+      Map<Integer, String> data = Maps.newHashMap();
+      data.put(1, "one");
+      agent.save(data, 1, 1);
+      Assert.assertTrue("checkpoint size", agent.getCheckpointSize(1) > 0);
+      agent.addToManifest(1, 1, agent.getCheckpointSize(1));
+      agent.save(data, 1, 2);
+      agent.addToManifest(1, 2, agent.getCheckpointSize(1));
+      agent.save(data, 2, 2);
+      agent.addToManifest(2, 2, agent.getCheckpointSize(2));
+      agent.delete(1, 1);
+      agent.syncManifest();
+      Assert.assertArrayEquals("operator 1", new long[] {2}, agent.getManifestWindowIds().get(1));
+    } finally {
+      agent.closeManifest();
+    }
+
+    // torn record at the end of the manifest written before a restart of the application master
+    FileContext fileContext = FileContext.getFileContext();
+    Path manifestPath = new Path(testMeta.applicationPath + "/" + CheckpointManifest.MANIFEST_DIR + "/1");
+    FSDataOutputStream out = fileContext.create(manifestPath, EnumSet.of(CreateFlag.CREATE),
+        Options.CreateOpts.CreateParent.createParent());
+    out.write(new byte[] {1, 0, 0});
+    out.close();
+
+    agent = (FSStorageAgent)agent.readResolve();
+    Assert.assertTrue("manifest enabled", agent.isCheckpointManifest());
+    try {
+      Map<Integer, long[]> windowIds = agent.getManifestWindowIds();
+      Assert.assertEquals("operators " + windowIds.keySet(), 2, windowIds.size());
+      Assert.assertArrayEquals("operator 1", new long[] {2}, windowIds.get(1));
+      Assert.assertArrayEquals("operator 2", new long[] {2}, windowIds.get(2));
+      Assert.assertEquals("compacted", 1, fileContext.util().listStatus(manifestPath.getParent()).length);
+    } finally {
+      agent.closeManifest();
+    }
+  }
+
+  @Test
+  public void testConcurrentSaveAndLoad() throws Exception
+  {
+    final int operators = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(operators);
+    try {
+      checkpoint(executor, operators, 1000, null);
+      for (int i = 0; i < operators; i++) {
+        @SuppressWarnings("unchecked")
+        Map<Integer, String> decoded = (Map<Integer, String>)testMeta.storageAgent.load(i, 1);
+        Assert.assertEquals("entries of " + i, 1000, decoded.size());
+        Assert.assertEquals("entry of " + i, "value" + i, decoded.get(i));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Compares the time for several operators in one container to checkpoint in the same window when the checkpoints
+   * are serialized one at a time, as they were with the shared Kryo instance, and when they are written concurrently.
+   */
+  @Test
+  @Ignore
+  public void testConcurrentCheckpointBenchmark() throws Exception
+  {
+    final int operators = 8;
+    final int entries = 500000;
+    ExecutorService executor = Executors.newFixedThreadPool(operators);
+    try {
+      for (int round = 0; round < 3; round++) {
+        long serialized = checkpoint(executor, operators, entries, new Object());
+        long concurrent = checkpoint(executor, operators, entries, null);
+        LOG.info("{} operators, {} entries each: one at a time {} ms, concurrent {} ms", operators, entries,
+            serialized, concurrent);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Saves the state of the given number of operators concurrently.
+   *
+   * @param lock if not null, the saves are done one at a time
+   * @return time taken in milliseconds
+   */
+  private long checkpoint(ExecutorService executor, int operators, int entries, final Object lock) throws Exception
+  {
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (int i = 0; i < operators; i++) {
+      final int operatorId = i;
+      final Map<Integer, String> state = Maps.newHashMap();
+      for (int j = 0; j < entries; j++) {
+        state.put(j, "value" + j);
+      }
+      tasks.add(new Callable<Void>()
+      {
+        @Override
+        public Void call() throws Exception
+        {
+          if (lock == null) {
+            testMeta.storageAgent.save(state, operatorId, 1);
+          } else {
+            synchronized (lock) {
+              testMeta.storageAgent.save(state, operatorId, 1);
+            }
+          }
+          return null;
+        }
+      });
+    }
+
+    long start = System.currentTimeMillis();
+    for (Future<Void> future : executor.invokeAll(tasks)) {
+      future.get();
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  private static final Logger LOG = LoggerFactory.getLogger(FSStorageAgentTest.class);
+
 }
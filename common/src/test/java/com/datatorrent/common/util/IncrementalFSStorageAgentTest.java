@@ -0,0 +1,292 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.common.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.common.collect.Maps;
+
+public class IncrementalFSStorageAgentTest
+{
+  private static class TestMeta extends TestWatcher
+  {
+    String applicationPath;
+    IncrementalFSStorageAgent storageAgent;
+
+    @Override
+    protected void starting(Description description)
+    {
+      super.starting(description);
+      applicationPath = "target/" + description.getClassName() + "/" + description.getMethodName();
+      try {
+        FileUtils.forceMkdir(new File("target/" + description.getClassName()));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      storageAgent = new IncrementalFSStorageAgent(applicationPath, null);
+      storageAgent.setFullCheckpointInterval(2);
+    }
+
+    @Override
+    protected void finished(Description description)
+    {
+      try {
+        FileUtils.deleteDirectory(new File("target/" + description.getClassName()));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  @Rule
+  public TestMeta testMeta = new TestMeta();
+
+  public static class MapOperator implements IncrementalCheckpointable
+  {
+    private transient Map<Integer, String> map = new HashMap<>();
+    private transient Set<Integer> dirty = new HashSet<>();
+    private transient int deltasRestored;
+    private int windowCount;
+
+    void put(int key, String value)
+    {
+      map.put(key, value);
+      dirty.add(key);
+    }
+
+    void remove(int key)
+    {
+      map.remove(key);
+      dirty.add(key);
+    }
+
+    @Override
+    public Object getCheckpointState(boolean full)
+    {
+      HashMap<Integer, String> state = new HashMap<>();
+      for (Integer key : full ? map.keySet() : dirty) {
+        state.put(key, map.get(key));
+      }
+      dirty.clear();
+      return state;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void restoreCheckpointState(Object state, boolean full)
+    {
+      if (full) {
+        map = new HashMap<>();
+        dirty = new HashSet<>();
+      } else {
+        deltasRestored++;
+      }
+      for (Map.Entry<Integer, String> e : ((Map<Integer, String>)state).entrySet()) {
+        if (e.getValue() == null) {
+          map.remove(e.getKey());
+        } else {
+          map.put(e.getKey(), e.getValue());
+        }
+      }
+    }
+  }
+
+  private int getFileCount(int operatorId)
+  {
+    int count = 0;
+    for (String name : new File(testMeta.applicationPath, String.valueOf(operatorId)).list()) {
+      if (!name.endsWith(".crc")) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Test
+  public void testBaseAndDeltas() throws IOException
+  {
+    MapOperator oper = new MapOperator();
+    for (int i = 0; i < 100; i++) {
+      oper.put(i, "v" + i);
+    }
+    oper.windowCount = 1;
+    testMeta.storageAgent.save(oper, 1, 1);
+
+    oper.put(1, "changed");
+    oper.remove(2);
+    oper.windowCount = 2;
+    testMeta.storageAgent.save(oper, 1, 2);
+
+    oper.put(100, "v100");
+    oper.windowCount = 3;
+    testMeta.storageAgent.save(oper, 1, 3);
+
+    MapOperator restored = (MapOperator)testMeta.storageAgent.load(1, 3);
+    Assert.assertEquals("window count", 3, restored.windowCount);
+    Assert.assertEquals("deltas", 2, restored.deltasRestored);
+    Assert.assertEquals("state", oper.map, restored.map);
+
+    restored = (MapOperator)testMeta.storageAgent.load(1, 2);
+    Assert.assertEquals("window count", 2, restored.windowCount);
+    Assert.assertEquals("deltas", 1, restored.deltasRestored);
+    Assert.assertNull("removed", restored.map.get(2));
+    Assert.assertFalse("not yet added", restored.map.containsKey(100));
+
+    // compaction after two deltas
+    oper.put(101, "v101");
+    testMeta.storageAgent.save(oper, 1, 4);
+    restored = (MapOperator)testMeta.storageAgent.load(1, 4);
+    Assert.assertEquals("no deltas after compaction", 0, restored.deltasRestored);
+    Assert.assertEquals("state", oper.map, restored.map);
+
+    // after recovery the next checkpoint is relative to the loaded window
+    restored.put(102, "v102");
+    testMeta.storageAgent.save(restored, 1, 5);
+    restored = (MapOperator)testMeta.storageAgent.load(1, 5);
+    Assert.assertEquals("full after recovery", 0, restored.deltasRestored);
+    Assert.assertEquals("state", "v102", restored.map.get(102));
+  }
+
+  @Test
+  public void testPurge() throws IOException
+  {
+    MapOperator oper = new MapOperator();
+    oper.put(1, "one");
+    testMeta.storageAgent.save(oper, 1, 1);
+    oper.put(2, "two");
+    testMeta.storageAgent.save(oper, 1, 2);
+    oper.put(3, "three");
+    testMeta.storageAgent.save(oper, 1, 3);
+
+    // purge of the base and first delta, both are still needed by window 3
+    testMeta.storageAgent.delete(1, 1);
+    testMeta.storageAgent.delete(1, 2);
+    Assert.assertArrayEquals("window ids", new long[] {3}, testMeta.storageAgent.getWindowIds(1));
+    Assert.assertEquals("purged files retained", 3, getFileCount(1));
+    MapOperator restored = (MapOperator)testMeta.storageAgent.load(1, 3);
+    Assert.assertEquals("state", oper.map, restored.map);
+
+    // new base, purged files are no longer needed
+    testMeta.storageAgent = new IncrementalFSStorageAgent(testMeta.applicationPath, null);
+    oper.put(4, "four");
+    testMeta.storageAgent.save(oper, 1, 4);
+    testMeta.storageAgent.delete(1, 3);
+    Assert.assertArrayEquals("window ids", new long[] {4}, testMeta.storageAgent.getWindowIds(1));
+    Assert.assertEquals("purged files removed", 1, getFileCount(1));
+    restored = (MapOperator)testMeta.storageAgent.load(1, 4);
+    Assert.assertEquals("state", oper.map, restored.map);
+  }
+
+  @Test
+  public void testPurgeSavedByOtherAgent() throws IOException
+  {
+    // the application master deletes the checkpoints saved by the agent of the container
+    IncrementalFSStorageAgent purgingAgent = new IncrementalFSStorageAgent(testMeta.applicationPath, null);
+    MapOperator oper = new MapOperator();
+    oper.put(1, "one");
+    testMeta.storageAgent.save(oper, 1, 1);
+    oper.put(2, "two");
+    testMeta.storageAgent.save(oper, 1, 2);
+    purgingAgent.delete(1, 1);
+    Assert.assertEquals("purged base retained", 2, getFileCount(1));
+
+    // delta based on window 1 saved after the checkpoints were listed
+    oper.put(3, "three");
+    testMeta.storageAgent.save(oper, 1, 3);
+    purgingAgent.delete(1, 2);
+    Assert.assertArrayEquals("window ids", new long[] {3}, testMeta.storageAgent.getWindowIds(1));
+    Assert.assertEquals("purged files retained", 3, getFileCount(1));
+    MapOperator restored = (MapOperator)testMeta.storageAgent.load(1, 3);
+    Assert.assertEquals("state", oper.map, restored.map);
+
+    oper.put(4, "four");
+    testMeta.storageAgent.save(oper, 1, 4);
+    oper.put(5, "five");
+    testMeta.storageAgent.save(oper, 1, 5);
+    purgingAgent.delete(1, 3);
+    purgingAgent.delete(1, 4);
+    Assert.assertArrayEquals("window ids", new long[] {5}, testMeta.storageAgent.getWindowIds(1));
+    Assert.assertEquals("purged files removed up to the new base", 2, getFileCount(1));
+    restored = (MapOperator)testMeta.storageAgent.load(1, 5);
+    Assert.assertEquals("state", oper.map, restored.map);
+  }
+
+  @Test
+  public void testDeleteUpTo() throws IOException
+  {
+    MapOperator oper = new MapOperator();
+    for (int windowId = 1; windowId <= 3; windowId++) {
+      oper.put(windowId, "v" + windowId);
+      testMeta.storageAgent.save(oper, 1, windowId);
+    }
+
+    // window 3 is a delta based on window 1, the purged base and first delta are retained
+    testMeta.storageAgent.deleteUpTo(Collections.singletonMap(1, 2L));
+    Assert.assertArrayEquals("window ids", new long[] {3}, testMeta.storageAgent.getWindowIds(1));
+    Assert.assertEquals("purged files retained", 3, getFileCount(1));
+    MapOperator restored = (MapOperator)testMeta.storageAgent.load(1, 3);
+    Assert.assertEquals("state", oper.map, restored.map);
+  }
+
+  @Test
+  public void testDeleteBatch() throws IOException
+  {
+    MapOperator oper = new MapOperator();
+    for (int windowId = 1; windowId <= 4; windowId++) {
+      oper.put(windowId, "v" + windowId);
+      testMeta.storageAgent.save(oper, 1, windowId);
+    }
+
+    // window 4 is a new base, the purged checkpoints are no longer needed
+    testMeta.storageAgent.delete(Collections.singletonMap(1, new long[] {1, 2, 3}));
+    Assert.assertArrayEquals("window ids", new long[] {4}, testMeta.storageAgent.getWindowIds(1));
+    Assert.assertEquals("purged files removed", 1, getFileCount(1));
+    MapOperator restored = (MapOperator)testMeta.storageAgent.load(1, 4);
+    Assert.assertEquals("state", oper.map, restored.map);
+  }
+
+  @Test
+  public void testNonIncremental() throws IOException
+  {
+    Map<Integer, String> data = Maps.newHashMap();
+    data.put(1, "one");
+    testMeta.storageAgent.save(data, 1, 1);
+    Assert.assertEquals("data", data, testMeta.storageAgent.load(1, 1));
+
+    // checkpoints written by FSStorageAgent can be recovered
+    new FSStorageAgent(testMeta.applicationPath, null).save(data, 2, 1);
+    Assert.assertEquals("data", data, testMeta.storageAgent.load(2, 1));
+    Assert.assertEquals("window ids", "[1]", Arrays.toString(testMeta.storageAgent.getWindowIds(2)));
+  }
+}
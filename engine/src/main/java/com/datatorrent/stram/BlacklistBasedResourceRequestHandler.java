@@ -51,7 +51,7 @@ public class BlacklistBasedResourceRequestHandler extends ResourceRequestHandler
   HashMap<String, List<ContainerRequest>> hostSpecificRequestsMap = new HashMap<>();
   List<String> blacklistedNodesForHostSpecificRequests = null;
 
-  public void reissueContainerRequests(AMRMClient<ContainerRequest> amRmClient, Map<StreamingContainerAgent.ContainerStartRequest, MutablePair<Integer, ContainerRequest>> requestedResources, int loopCounter, ResourceRequestHandler resourceRequestor, List<ContainerRequest> containerRequests, List<ContainerRequest> removedContainerRequests)
+  public void reissueContainerRequests(AMRMClient<ContainerRequest> amRmClient, Map<StreamingContainerAgent.ContainerStartRequest, MutablePair<Long, ContainerRequest>> requestedResources, long currentTimeMillis, ResourceRequestHandler resourceRequestor, List<ContainerRequest> containerRequests, List<ContainerRequest> removedContainerRequests)
   {
     // Issue all host specific requests first
     if (!hostSpecificRequestsMap.isEmpty() && requestedResources.isEmpty()) {
@@ -67,7 +67,7 @@ public class BlacklistBasedResourceRequestHandler extends ResourceRequestHandler
       for (ContainerRequest cr : requests) {
         ContainerStartRequest csr = hostSpecificRequests.get(cr);
         ContainerRequest newCr = new ContainerRequest(cr.getCapability(), null, null, cr.getPriority());
-        MutablePair<Integer, ContainerRequest> pair = new MutablePair<Integer, ContainerRequest>(loopCounter, newCr);
+        MutablePair<Long, ContainerRequest> pair = new MutablePair<Long, ContainerRequest>(currentTimeMillis, newCr);
         requestedResources.put(csr, pair);
         containerRequests.add(newCr);
         hostSpecificRequests.remove(cr);
@@ -75,7 +75,7 @@ public class BlacklistBasedResourceRequestHandler extends ResourceRequestHandler
       hostSpecificRequestsMap.remove(set.getKey());
     } else if (!requestedResources.isEmpty()) {
       // Check if any requests timed out, create new requests in that case
-      recreateContainerRequest(requestedResources, loopCounter, resourceRequestor, removedContainerRequests);
+      recreateContainerRequest(requestedResources, currentTimeMillis, resourceRequestor, removedContainerRequests);
     } else {
       if (blacklistedNodesForHostSpecificRequests != null) {
         // Remove the blacklisted nodes during host specific requests
@@ -88,7 +88,7 @@ public class BlacklistBasedResourceRequestHandler extends ResourceRequestHandler
         for (Entry<ContainerRequest, ContainerStartRequest> entry : otherContainerRequests.entrySet()) {
           ContainerRequest cr = entry.getKey();
           ContainerStartRequest csr = entry.getValue();
-          MutablePair<Integer, ContainerRequest> pair = new MutablePair<Integer, ContainerRequest>(loopCounter, cr);
+          MutablePair<Long, ContainerRequest> pair = new MutablePair<Long, ContainerRequest>(currentTimeMillis, cr);
           requestedResources.put(csr, pair);
           containerRequests.add(cr);
         }
@@ -97,10 +97,10 @@ public class BlacklistBasedResourceRequestHandler extends ResourceRequestHandler
     }
   }
 
-  public void recreateContainerRequest(Map<StreamingContainerAgent.ContainerStartRequest, MutablePair<Integer, ContainerRequest>> requestedResources, int loopCounter, ResourceRequestHandler resourceRequestor, List<ContainerRequest> removedContainerRequests)
+  public void recreateContainerRequest(Map<StreamingContainerAgent.ContainerStartRequest, MutablePair<Long, ContainerRequest>> requestedResources, long currentTimeMillis, ResourceRequestHandler resourceRequestor, List<ContainerRequest> removedContainerRequests)
   {
-    for (Map.Entry<StreamingContainerAgent.ContainerStartRequest, MutablePair<Integer, ContainerRequest>> entry : requestedResources.entrySet()) {
-      if ((loopCounter - entry.getValue().getKey()) > NUMBER_MISSED_HEARTBEATS) {
+    for (Map.Entry<StreamingContainerAgent.ContainerStartRequest, MutablePair<Long, ContainerRequest>> entry : requestedResources.entrySet()) {
+      if ((currentTimeMillis - entry.getValue().getKey()) > CONTAINER_REQUEST_TIMEOUT_MILLIS) {
         StreamingContainerAgent.ContainerStartRequest csr = entry.getKey();
         removedContainerRequests.add(entry.getValue().getRight());
         ContainerRequest cr = resourceRequestor.createContainerRequest(csr, false);
@@ -113,7 +113,7 @@ public class BlacklistBasedResourceRequestHandler extends ResourceRequestHandler
     }
   }
 
-  public void addContainerRequest(Map<StreamingContainerAgent.ContainerStartRequest, MutablePair<Integer, ContainerRequest>> requestedResources, int loopCounter, List<ContainerRequest> containerRequests, StreamingContainerAgent.ContainerStartRequest csr, ContainerRequest cr)
+  public void addContainerRequest(Map<StreamingContainerAgent.ContainerStartRequest, MutablePair<Long, ContainerRequest>> requestedResources, long currentTimeMillis, List<ContainerRequest> containerRequests, StreamingContainerAgent.ContainerStartRequest csr, ContainerRequest cr)
   {
     if (cr.getNodes() != null && !cr.getNodes().isEmpty()) {
       // Put it in a Map to check if multiple requests can be combined
@@ -18,6 +18,8 @@
  */
 package com.datatorrent.stram;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -27,7 +29,12 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
+import java.io.OutputStream;
 import java.util.EnumSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +54,9 @@ import com.datatorrent.stram.util.FSUtil;
 /**
  * <p>FSRecoveryHandler class.</p>
  *
+ * The snapshot is written as a small header followed by the deflate compressed Java serialization of the state.
+ * Snapshots written by earlier versions, which consist of the Java serialization only, can still be restored.
+ *
  * @since 0.9.2
  */
 public class FSRecoveryHandler implements StreamingContainerManager.RecoveryHandler
@@ -66,6 +76,12 @@ public class FSRecoveryHandler implements StreamingContainerManager.RecoveryHand
   public static final String FILE_SNAPSHOT_BACKUP = "snapshot0";
   private static final String DIRECTORY_RECOVERY = "recovery";
   private static final String FILE_HEARTBEATURI = "heartbeatUri";
+  /**
+   * "APXS", distinct from the magic number of a Java serialization stream.
+   */
+  private static final int SNAPSHOT_MAGIC = 0x41505853;
+  private static final int SNAPSHOT_VERSION = 1;
+  private static final int SNAPSHOT_BUFFER_SIZE = 64 * 1024;
 
   public FSRecoveryHandler(String appDir, Configuration conf) throws IOException
   {
@@ -168,9 +184,8 @@ public class FSRecoveryHandler implements StreamingContainerManager.RecoveryHand
     }
 
     LOG.debug("Writing checkpoint to {}", snapshotPath);
-    try (FSDataOutputStream fsOutputStream = fs.create(snapshotPath);
-        ObjectOutputStream oos = new ObjectOutputStream(fsOutputStream)) {
-      oos.writeObject(state);
+    try (FSDataOutputStream fsOutputStream = fs.create(snapshotPath)) {
+      writeSnapshot(state, fsOutputStream);
     }
     // remove snapshot backup
     if (fs.exists(snapshotBackupPath) && !fs.delete(snapshotBackupPath, false)) {
@@ -224,11 +239,53 @@ public class FSRecoveryHandler implements StreamingContainerManager.RecoveryHand
     }
 
     LOG.debug("Reading checkpoint {}", snapshotPath);
-    InputStream is = fc.open(snapshotPath);
+    try (InputStream is = fc.open(snapshotPath)) {
+      return readSnapshot(is);
+    }
+  }
+
+  static void writeSnapshot(Object state, OutputStream out) throws IOException
+  {
+    DataOutputStream header = new DataOutputStream(out);
+    header.writeInt(SNAPSHOT_MAGIC);
+    header.writeInt(SNAPSHOT_VERSION);
+    header.flush();
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater, SNAPSHOT_BUFFER_SIZE);
+      ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(dos, SNAPSHOT_BUFFER_SIZE));
+      oos.writeObject(state);
+      oos.flush();
+      dos.finish();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  static Object readSnapshot(InputStream is) throws IOException
+  {
+    BufferedInputStream bis = new BufferedInputStream(is, SNAPSHOT_BUFFER_SIZE);
+    bis.mark(4);
+    int magic = new DataInputStream(bis).readInt();
+    Inflater inflater = null;
+    InputStream in;
+    if (magic == SNAPSHOT_MAGIC) {
+      int version = new DataInputStream(bis).readInt();
+      if (version > SNAPSHOT_VERSION) {
+        throw new IOException("Unsupported snapshot version " + version);
+      }
+      inflater = new Inflater();
+      in = new BufferedInputStream(new InflaterInputStream(bis, inflater, SNAPSHOT_BUFFER_SIZE), SNAPSHOT_BUFFER_SIZE);
+    } else {
+      // snapshot written by an earlier version
+      bis.reset();
+      in = bis;
+    }
+
     // indeterministic class loading behavior
     // http://stackoverflow.com/questions/9110677/readresolve-not-working-an-instance-of-guavas-serializedform-appears
     final ClassLoader loader = Thread.currentThread().getContextClassLoader();
-    try (ObjectInputStream ois = new ObjectInputStream(is)
+    try (ObjectInputStream ois = new ObjectInputStream(in)
     {
       @Override
       protected Class<?> resolveClass(ObjectStreamClass objectStreamClass)
@@ -240,6 +297,10 @@ public class FSRecoveryHandler implements StreamingContainerManager.RecoveryHand
       return ois.readObject();
     } catch (ClassNotFoundException cnfe) {
       throw new IOException("Failed to read checkpointed state", cnfe);
+    } finally {
+      if (inflater != null) {
+        inflater.end();
+      }
     }
   }
 
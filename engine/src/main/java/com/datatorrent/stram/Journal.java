@@ -22,6 +22,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -34,14 +36,21 @@ import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
 
 import com.datatorrent.stram.plan.physical.PTContainer;
 import com.datatorrent.stram.plan.physical.PTOperator;
+import com.datatorrent.stram.util.MovingAverage.MovingAverageLong;
 
 /**
  * Write ahead log for DAG changes.
  * Operations need to be registered with the journal instance before writing.
  * Registered prototype instances will be used to apply changes on read.
+ * <p>
+ * Operations are buffered when written and made durable by {@link #flush()}, which flushes all operations written
+ * since the previous flush with a single flush of the underlying stream (group commit). Callers that need an
+ * operation to be durable flush and wait for the future returned by {@link #write(Recoverable)}.
  *
  * @since 0.9.2
  */
@@ -91,9 +100,48 @@ public final class Journal
     void write(Output out) throws KryoException;
   }
 
+  /**
+   * Kryo output that tracks the operations written since the last flush. Flushing the Kryo buffer does not flush the
+   * underlying stream, which is done once per group of operations.
+   */
+  private static class JournalOutput extends Output
+  {
+    private SettableFuture<Void> pending;
+    private int pendingCount;
+
+    private JournalOutput(OutputStream out)
+    {
+      super(4096, -1);
+      setOutputStream(out);
+    }
+
+    @Override
+    public void close() throws KryoException
+    {
+      flush();
+      try {
+        getOutputStream().flush();
+      } catch (IOException e) {
+        throw new KryoException(e);
+      }
+      super.close();
+    }
+
+    private SettableFuture<Void> takePending()
+    {
+      SettableFuture<Void> f = pending;
+      pending = null;
+      pendingCount = 0;
+      return f;
+    }
+  }
+
   private final StreamingContainerManager scm;
-  private final AtomicReference<Output> output;
+  private final AtomicReference<JournalOutput> output;
   private final AtomicBoolean replayMode;
+  private final Object flushLock = new Object();
+  private final MovingAverageLong flushLatencyMA = new MovingAverageLong(10);
+  private final MovingAverageLong operationsPerFlushMA = new MovingAverageLong(10);
 
   public Journal(StreamingContainerManager scm)
   {
@@ -104,36 +152,50 @@ public final class Journal
 
   public void setOutputStream(@Nullable final OutputStream out) throws IOException
   {
-    final Output output;
-    if (out != null) {
-      output = new Output(4096, -1)
-      {
-        @Override
-        public void flush() throws KryoException
-        {
-          super.flush();
-          // Kryo does not flush internal output stream during flush. We need to flush it explicitly.
-          try {
-            getOutputStream().flush();
-          } catch (IOException e) {
-            throw new KryoException(e);
+    final JournalOutput output = out != null ? new JournalOutput(out) : null;
+    final JournalOutput oldOut = this.output.getAndSet(output);
+    if (oldOut != null && oldOut.getOutputStream() != out) {
+      synchronized (oldOut) {
+        SettableFuture<Void> pending = oldOut.takePending();
+        try {
+          oldOut.close();
+        } catch (KryoException e) {
+          if (pending != null) {
+            pending.setException(e);
           }
+          throw e;
         }
-      };
-      output.setOutputStream(out);
-    } else {
-      output = null;
+        // closing the stream made the pending operations durable
+        if (pending != null) {
+          pending.set(null);
+        }
+      }
     }
+  }
 
-    final Output oldOut = this.output.getAndSet(output);
-    if (oldOut != null && oldOut.getOutputStream() != out) {
-      synchronized (oldOut) {
-        oldOut.close();
-      }
+  /**
+   * Number of bytes written to the current output stream.
+   *
+   * @return number of bytes or 0 if there is no output stream
+   */
+  public long getOutputSize()
+  {
+    final Output out = output.get();
+    if (out == null) {
+      return 0;
+    }
+    synchronized (out) {
+      return out.total();
     }
   }
 
-  final void write(Recoverable op)
+  /**
+   * Write the operation to the journal without waiting for it to be durable.
+   *
+   * @param op operation
+   * @return future that completes when the operation was flushed to the underlying stream
+   */
+  final Future<Void> write(Recoverable op)
   {
     if (replayMode.get()) {
       throw new IllegalStateException("Request to write while journal is replaying operations");
@@ -143,16 +205,19 @@ public final class Journal
       throw new IllegalArgumentException("Class not registered " + op.getClass());
     }
     while (true) {
-      final Output out = output.get();
+      final JournalOutput out = output.get();
       if (out != null) {
-        // need to atomically write id, operation and flush the output stream
+        // need to atomically write id and operation
         synchronized (out) {
           try {
             LOG.debug("WAL write {}", RecoverableOperation.get(classId));
             out.writeInt(classId);
             op.write(out);
-            out.flush();
-            break;
+            if (out.pending == null) {
+              out.pending = SettableFuture.create();
+            }
+            out.pendingCount++;
+            return out.pending;
           } catch (KryoException e) {
             // check that no other threads sneaked between get() and synchronized block and set output stream to a new
             // stream or null leading to the current stream being closed
@@ -163,11 +228,77 @@ public final class Journal
         }
       } else {
         LOG.warn("Journal output stream is null. Skipping write to the WAL.");
-        break;
+        return Futures.immediateFuture(null);
       }
     }
   }
 
+  /**
+   * Flush the operations written since the previous flush. Operations written while the underlying stream is flushed
+   * are covered by the next flush, concurrent callers wait for the flush in progress.
+   */
+  public void flush()
+  {
+    synchronized (flushLock) {
+      final JournalOutput out = output.get();
+      if (out == null) {
+        return;
+      }
+      final SettableFuture<Void> pending;
+      final int count;
+      final OutputStream stream;
+      synchronized (out) {
+        count = out.pendingCount;
+        pending = out.takePending();
+        if (pending == null) {
+          return;
+        }
+        try {
+          out.flush();
+        } catch (KryoException e) {
+          if (output.get() == out) {
+            pending.setException(e);
+            return;
+          }
+        }
+        stream = out.getOutputStream();
+      }
+
+      long start = System.nanoTime();
+      try {
+        stream.flush();
+      } catch (IOException e) {
+        // the stream is flushed when closed on rotation
+        if (output.get() == out) {
+          LOG.warn("Failed to flush journal", e);
+          pending.setException(e);
+          return;
+        }
+      }
+      long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      LOG.debug("WAL flush of {} operations took {} ms", count, latencyMillis);
+      flushLatencyMA.add(latencyMillis);
+      operationsPerFlushMA.add(count);
+      pending.set(null);
+    }
+  }
+
+  /**
+   * @return moving average of the time to flush the journal in milliseconds
+   */
+  public long getFlushLatencyMA()
+  {
+    return flushLatencyMA.getAvg();
+  }
+
+  /**
+   * @return moving average of the number of operations made durable by one flush of the journal
+   */
+  public long getOperationsPerFlushMA()
+  {
+    return operationsPerFlushMA.getAvg();
+  }
+
   final void replay(final InputStream input)
   {
     if (replayMode.compareAndSet(false, true)) {
@@ -56,7 +56,10 @@ public class ResourceRequestHandler
   private static final Logger LOG = LoggerFactory.getLogger(ResourceRequestHandler.class);
   private static final String INVALID_HOST = "INVALID_HOST";
 
-  protected static final int NUMBER_MISSED_HEARTBEATS = 30;
+  /**
+   * Time after which a container request that was not allocated is issued again with relaxed locality.
+   */
+  protected static final long CONTAINER_REQUEST_TIMEOUT_MILLIS = 30 * 1000;
 
   public ResourceRequestHandler()
   {
@@ -67,23 +70,23 @@ public class ResourceRequestHandler
    * Issue requests to AM RM Client again if previous container requests expired and were not allocated by Yarn
    * @param amRmClient
    * @param requestedResources
-   * @param loopCounter
+   * @param currentTimeMillis
    * @param resourceRequestor
    * @param containerRequests
    * @param removedContainerRequests
    */
-  public void reissueContainerRequests(AMRMClient<ContainerRequest> amRmClient, Map<StreamingContainerAgent.ContainerStartRequest, MutablePair<Integer, ContainerRequest>> requestedResources, int loopCounter, ResourceRequestHandler resourceRequestor, List<ContainerRequest> containerRequests, List<ContainerRequest> removedContainerRequests)
+  public void reissueContainerRequests(AMRMClient<ContainerRequest> amRmClient, Map<StreamingContainerAgent.ContainerStartRequest, MutablePair<Long, ContainerRequest>> requestedResources, long currentTimeMillis, ResourceRequestHandler resourceRequestor, List<ContainerRequest> containerRequests, List<ContainerRequest> removedContainerRequests)
   {
     if (!requestedResources.isEmpty()) {
-      for (Map.Entry<StreamingContainerAgent.ContainerStartRequest, MutablePair<Integer, ContainerRequest>> entry : requestedResources.entrySet()) {
+      for (Map.Entry<StreamingContainerAgent.ContainerStartRequest, MutablePair<Long, ContainerRequest>> entry : requestedResources.entrySet()) {
         /*
          * Create container requests again if pending requests were not allocated by Yarn till timeout.
          */
-        if ((loopCounter - entry.getValue().getKey()) > NUMBER_MISSED_HEARTBEATS) {
+        if ((currentTimeMillis - entry.getValue().getKey()) > CONTAINER_REQUEST_TIMEOUT_MILLIS) {
           StreamingContainerAgent.ContainerStartRequest csr = entry.getKey();
           removedContainerRequests.add(entry.getValue().getRight());
           ContainerRequest cr = resourceRequestor.createContainerRequest(csr, false);
-          entry.getValue().setLeft(loopCounter);
+          entry.getValue().setLeft(currentTimeMillis);
           entry.getValue().setRight(cr);
           containerRequests.add(cr);
         }
@@ -92,16 +95,16 @@ public class ResourceRequestHandler
   }
 
   /**
-   * Add container request to list of issued requests to Yarn along with current loop counter
+   * Add container request to list of issued requests to Yarn along with the current time
    * @param requestedResources
-   * @param loopCounter
+   * @param currentTimeMillis
    * @param containerRequests
    * @param csr
    * @param cr
    */
-  public void addContainerRequest(Map<StreamingContainerAgent.ContainerStartRequest, MutablePair<Integer, ContainerRequest>> requestedResources, int loopCounter, List<ContainerRequest> containerRequests, StreamingContainerAgent.ContainerStartRequest csr, ContainerRequest cr)
+  public void addContainerRequest(Map<StreamingContainerAgent.ContainerStartRequest, MutablePair<Long, ContainerRequest>> requestedResources, long currentTimeMillis, List<ContainerRequest> containerRequests, StreamingContainerAgent.ContainerStartRequest csr, ContainerRequest cr)
   {
-    MutablePair<Integer, ContainerRequest> pair = new MutablePair<Integer, ContainerRequest>(loopCounter, cr);
+    MutablePair<Long, ContainerRequest> pair = new MutablePair<Long, ContainerRequest>(currentTimeMillis, cr);
     requestedResources.put(csr, pair);
     containerRequests.add(cr);
   }
@@ -125,6 +125,7 @@ public class StreamingAppMasterService extends CompositeService
   private static final long DELEGATION_TOKEN_RENEW_INTERVAL = Long.MAX_VALUE / 2;
   private static final long DELEGATION_TOKEN_REMOVER_SCAN_INTERVAL = 24 * 60 * 60 * 1000;
   private static final int UPDATE_NODE_REPORTS_INTERVAL = 10 * 60 * 1000;
+  private static final int MAX_LOOP_INTERVAL_MILLIS = 1000;
   private AMRMClient<ContainerRequest> amRmClient;
   private NMClientAsync nmClient;
   private LogicalPlan dag;
@@ -352,6 +353,27 @@ public class StreamingAppMasterService extends CompositeService
       return result;
     }
 
+    @AutoMetric
+    @Override
+    public long getJournalFlushLatencyMA()
+    {
+      return dnmgr.getJournal().getFlushLatencyMA();
+    }
+
+    @AutoMetric
+    @Override
+    public long getJournalOperationsPerFlushMA()
+    {
+      return dnmgr.getJournal().getOperationsPerFlushMA();
+    }
+
+    @AutoMetric
+    @Override
+    public long getDroppedEndWindowStatsCount()
+    {
+      return dnmgr.getDroppedEndWindowStatsCount();
+    }
+
     @Override
     public List<Integer> getCriticalPath()
     {
@@ -687,12 +709,13 @@ public class StreamingAppMasterService extends CompositeService
     int minMem = conf.getInt("yarn.scheduler.minimum-allocation-mb", 0);
     int minVcores = conf.getInt("yarn.scheduler.minimum-allocation-vcores", 0);
     LOG.info("Max mem {}m, Min mem {}m, Max vcores {} and Min vcores {} capabililty of resources in this cluster ", maxMem, minMem, maxVcores, minVcores);
+    dnmgr.setContainerResourceLimits(maxMem, maxVcores);
 
     long blacklistRemovalTime = dag.getValue(DAGContext.BLACKLISTED_NODE_REMOVAL_TIME_MILLIS);
     int maxConsecutiveContainerFailures = dag.getValue(DAGContext.MAX_CONSECUTIVE_CONTAINER_FAILURES_FOR_BLACKLIST);
     LOG.info("Blacklist removal time in millis = {}, max consecutive node failure count = {}", blacklistRemovalTime, maxConsecutiveContainerFailures);
     // for locality relaxation fall back
-    Map<StreamingContainerAgent.ContainerStartRequest, MutablePair<Integer, ContainerRequest>> requestedResources = Maps.newHashMap();
+    Map<StreamingContainerAgent.ContainerStartRequest, MutablePair<Long, ContainerRequest>> requestedResources = Maps.newHashMap();
 
     // Setup heartbeat emitter
     // TODO poll RM every now and then with an empty request to let RM know that we are alive
@@ -702,6 +725,10 @@ public class StreamingAppMasterService extends CompositeService
     // is not required.
 
     int loopCounter = -1;
+    long lastLoopMillis = 0;
+    long lastAllocateMillis = 0;
+    boolean blacklistUpdated = false;
+    int minLoopIntervalMillis = dag.getValue(LogicalPlan.MASTER_LOOP_MIN_INTERVAL_MILLIS);
     long nodeReportUpdateTime = 0;
     List<ContainerId> releasedContainers = new ArrayList<>();
     int numTotalContainers = 0;
@@ -772,14 +799,19 @@ public class StreamingAppMasterService extends CompositeService
        * numTotalContainers + ", requested=" + numRequestedContainers + ", completed=" + numCompletedContainers +
        * ", failed=" + numFailedContainers + ", currentAllocated=" + this.allAllocatedContainers.size());
        */
-      // Sleep before each loop when asking RM for containers
-      // to avoid flooding RM with spurious requests when it
-      // need not have any available containers
+      // Wait for an event that requires the attention of the master or for the polling interval, at least the minimum
+      // interval since the last loop to avoid flooding RM with spurious requests when it need not have any available
+      // containers
       try {
-        sleep(1000);
+        dnmgr.awaitEvent(MAX_LOOP_INTERVAL_MILLIS - (System.currentTimeMillis() - lastLoopMillis));
+        long elapsedMillis = System.currentTimeMillis() - lastLoopMillis;
+        if (elapsedMillis < minLoopIntervalMillis) {
+          sleep(minLoopIntervalMillis - elapsedMillis);
+        }
       } catch (InterruptedException e) {
         LOG.info("Sleep interrupted " + e.getMessage());
       }
+      lastLoopMillis = System.currentTimeMillis();
 
       // Setup request to be sent to RM to allocate containers
       List<ContainerRequest> containerRequests = new ArrayList<>();
@@ -808,7 +840,7 @@ public class StreamingAppMasterService extends CompositeService
           if (cr == null) {
             pendingContainerStartRequests.add(csr);
           } else {
-            resourceRequestor.addContainerRequest(requestedResources, loopCounter, containerRequests, csr, cr);
+            resourceRequestor.addContainerRequest(requestedResources, lastLoopMillis, containerRequests, csr, cr);
           }
         }
       }
@@ -819,14 +851,14 @@ public class StreamingAppMasterService extends CompositeService
         for (ContainerStartRequest csr : pendingContainerStartRequests) {
           ContainerRequest cr = resourceRequestor.createContainerRequest(csr, true);
           if (cr != null) {
-            resourceRequestor.addContainerRequest(requestedResources, loopCounter, containerRequests, csr, cr);
+            resourceRequestor.addContainerRequest(requestedResources, lastLoopMillis, containerRequests, csr, cr);
             removalList.add(csr);
           }
         }
         pendingContainerStartRequests.removeAll(removalList);
       }
 
-      resourceRequestor.reissueContainerRequests(amRmClient, requestedResources, loopCounter, resourceRequestor, containerRequests, removedContainerRequests);
+      resourceRequestor.reissueContainerRequests(amRmClient, requestedResources, lastLoopMillis, resourceRequestor, containerRequests, removedContainerRequests);
 
      /* Remove nodes from blacklist after timeout */
       List<String> blacklistRemovals = new ArrayList<>();
@@ -839,10 +871,22 @@ public class StreamingAppMasterService extends CompositeService
       }
       if (!blacklistRemovals.isEmpty()) {
         amRmClient.updateBlacklist(null, blacklistRemovals);
+        blacklistUpdated = true;
         LOG.info("Removing nodes {} from blacklist: time elapsed since last blacklisting due to failure is greater than specified timeout", blacklistRemovals.toString());
         failedBlackListedNodes.removeAll(blacklistRemovals);
       }
 
+      // the loop can wake up every few milliseconds, only call the RM when there are changes to send and otherwise as
+      // often as the polling interval to pick up allocated and completed containers
+      if (containerRequests.isEmpty() && removedContainerRequests.isEmpty() && releasedContainers.isEmpty()
+          && dnmgr.containerStopRequests.isEmpty() && !blacklistUpdated && !dnmgr.forcedShutdown
+          && lastLoopMillis - lastAllocateMillis < MAX_LOOP_INTERVAL_MILLIS) {
+        dnmgr.monitorHeartbeat();
+        continue;
+      }
+      lastAllocateMillis = lastLoopMillis;
+      blacklistUpdated = false;
+
       numTotalContainers += containerRequests.size();
       numRequestedContainers += containerRequests.size();
       AllocateResponse amResp = sendContainerAskToRM(containerRequests, removedContainerRequests, releasedContainers);
@@ -871,7 +915,7 @@ public class StreamingAppMasterService extends CompositeService
 
         boolean alreadyAllocated = true;
         StreamingContainerAgent.ContainerStartRequest csr = null;
-        for (Map.Entry<StreamingContainerAgent.ContainerStartRequest, MutablePair<Integer, ContainerRequest>> entry : requestedResources.entrySet()) {
+        for (Map.Entry<StreamingContainerAgent.ContainerStartRequest, MutablePair<Long, ContainerRequest>> entry : requestedResources.entrySet()) {
           if (entry.getKey().container.getResourceRequestPriority() == allocatedContainer.getPriority().getPriority()) {
             alreadyAllocated = false;
             csr = entry.getKey();
@@ -1008,6 +1052,7 @@ public class StreamingAppMasterService extends CompositeService
 
       if (!blacklistAdditions.isEmpty()) {
         amRmClient.updateBlacklist(blacklistAdditions, null);
+        blacklistUpdated = true;
         long timeStamp = System.currentTimeMillis();
         for (String hostname : blacklistAdditions) {
           NodeFailureStats stats = failedContainerNodesMap.get(hostname);
@@ -1192,6 +1237,7 @@ public class StreamingAppMasterService extends CompositeService
         }
 
       });
+      dnmgr.signalEvent();
     }
 
   }
@@ -21,6 +21,7 @@ package com.datatorrent.stram;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -110,9 +111,15 @@ public class StreamingContainerAgent
   int memoryMBFree;
   long gcCollectionCount;
   long gcCollectionTime;
+  int checkpointUploadQueueSize;
+  long checkpointUploadBytesPS;
   final StreamingContainerManager dnmgr;
 
   private final ConcurrentLinkedQueue<StramToNodeRequest> operatorRequests = new ConcurrentLinkedQueue<>();
+  /**
+   * Recovery checkpoints last sent to the container when it is a standby container, by operator id.
+   */
+  private final Map<Integer, Long> standbyCheckpoints = new HashMap<>();
 
   public StreamingContainerContext getInitContext()
   {
@@ -359,6 +366,34 @@ public class StreamingContainerAgent
     return null;
   }
 
+  /**
+   * Create deploy info for a standby container to restore the operators of the container it protects, for the
+   * operators with a hot standby whose recovery checkpoint changed since the last request.
+   *
+   * @param protectedContainer container that the standby container takes over on failure
+   * @return deploy info or null when no checkpoint changed
+   */
+  public List<OperatorDeployInfo> getStandbyDeployInfoList(PTContainer protectedContainer)
+  {
+    List<OperatorDeployInfo> list = null;
+    for (PTOperator oper : protectedContainer.getOperators()) {
+      LogicalPlan.OperatorMeta operatorMeta = oper.getOperatorMeta();
+      if (oper.isUnifier() || oper.isOperatorStateLess() || !operatorMeta.getValue(OperatorContext.HOT_STANDBY)
+          || operatorMeta.getValue(OperatorContext.PROCESSING_MODE) != ProcessingMode.AT_LEAST_ONCE) {
+        continue;
+      }
+      Checkpoint checkpoint = oper.getRecoveryCheckpoint();
+      Long windowId = standbyCheckpoints.put(oper.getId(), checkpoint.windowId);
+      if (windowId == null || windowId != checkpoint.windowId) {
+        if (list == null) {
+          list = new ArrayList<>();
+        }
+        list.add(createOperatorDeployInfo(oper));
+      }
+    }
+    return list;
+  }
+
   /**
    * Create deploy info for operator.
    * <p>
@@ -439,6 +474,7 @@ public class StreamingContainerAgent
     if (oper.isOperatorStateLess()) {
       ndi.contextAttributes.put(OperatorContext.STATELESS, true);
     }
+    ndi.metricsAggregator = dnmgr.getContainerMetricsAggregator(oper);
     return ndi;
   }
 
@@ -455,6 +491,8 @@ public class StreamingContainerAgent
     ci.memoryMBFree = this.memoryMBFree;
     ci.gcCollectionCount = this.gcCollectionCount;
     ci.gcCollectionTime = this.gcCollectionTime;
+    ci.checkpointUploadQueueSize = this.checkpointUploadQueueSize;
+    ci.checkpointUploadBytesPS = this.checkpointUploadBytesPS;
     ci.startedTime = container.getStartedTime();
     ci.finishedTime = container.getFinishedTime();
     if (this.container.nodeHttpAddress != null) {
@@ -28,9 +28,11 @@ import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -51,6 +53,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -97,6 +100,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Longs;
 
 import com.datatorrent.api.Attribute;
 import com.datatorrent.api.AutoMetric;
@@ -106,6 +110,7 @@ import com.datatorrent.api.Context.OperatorContext;
 import com.datatorrent.api.Operator;
 import com.datatorrent.api.Operator.InputPort;
 import com.datatorrent.api.Operator.OutputPort;
+import com.datatorrent.api.Stats;
 import com.datatorrent.api.Stats.OperatorStats;
 import com.datatorrent.api.StatsListener;
 import com.datatorrent.api.StorageAgent;
@@ -115,6 +120,7 @@ import com.datatorrent.api.annotation.Stateless;
 import com.datatorrent.bufferserver.auth.AuthManager;
 import com.datatorrent.bufferserver.util.Codec;
 import com.datatorrent.common.experimental.AppData;
+import com.datatorrent.common.metric.PartialMetricsAggregator;
 import com.datatorrent.common.util.AsyncFSStorageAgent;
 import com.datatorrent.common.util.FSStorageAgent;
 import com.datatorrent.common.util.NumberAggregate;
@@ -159,6 +165,7 @@ import com.datatorrent.stram.plan.physical.PTOperator.State;
 import com.datatorrent.stram.plan.physical.PhysicalPlan;
 import com.datatorrent.stram.plan.physical.PhysicalPlan.PlanContext;
 import com.datatorrent.stram.plan.physical.PlanModifier;
+import com.datatorrent.stram.plan.physical.StreamLocalityAdvisor;
 import com.datatorrent.stram.util.ConfigUtils;
 import com.datatorrent.stram.util.FSJsonLineFile;
 import com.datatorrent.stram.util.MovingAverage.MovingAverageLong;
@@ -212,14 +219,37 @@ public class StreamingContainerManager implements PlanContext
   protected boolean forcedShutdown = false;
   private final ConcurrentLinkedQueue<Runnable> eventQueue = new ConcurrentLinkedQueue<>();
   private final AtomicBoolean eventQueueProcessing = new AtomicBoolean();
+  /**
+   * Set on the thread processing the event queue, the journal entries it writes are covered by the next snapshot.
+   */
+  private final ThreadLocal<Boolean> eventProcessingThread = new ThreadLocal<>();
+  private final Object eventSignal = new Object();
+  private boolean eventSignaled;
   private final HashSet<PTContainer> pendingAllocation = Sets.newLinkedHashSet();
   protected String shutdownDiagnosticsMessage = "";
   private long lastResourceRequest = 0;
   private final Map<String, StreamingContainerAgent> containers = new ConcurrentHashMap<>();
-  private final List<Pair<PTOperator, Long>> purgeCheckpoints = new ArrayList<>();
+  // checkpoints to purge by operator, accumulated while the previous purge is in progress
+  private final Map<PTOperator, List<Long>> purgeCheckpoints = new LinkedHashMap<>();
+  private final List<Future<?>> purgeFutures = new ArrayList<>();
   private Map<OperatorMeta, Set<OperatorMeta>> checkpointGroups;
+  // operators with new checkpoints since the last checkpoint update
+  private final Set<PTOperator> checkpointChangedOperators = Collections.newSetFromMap(new ConcurrentHashMap<PTOperator, Boolean>());
+  // operators whose checkpoints were not updated during deployment
+  private Set<PTOperator> checkpointFrozenOperators = Collections.emptySet();
+  // all operators need to be updated after the plan or the deployment changed
+  private volatile boolean updateAllCheckpoints = true;
   private final Map<Long, Set<PTOperator>> shutdownOperators = new HashMap<>();
   private CriticalPathInfo criticalPathInfo;
+  // critical path of the operators that did not change since the last calculation
+  private final Map<PTOperator, CriticalPathInfo> criticalPathCache = new HashMap<>();
+  // operators with changed latency or slowest upstream operator since the critical path was calculated
+  private final Set<PTOperator> criticalPathChangedOperators = Collections.newSetFromMap(new ConcurrentHashMap<PTOperator, Boolean>());
+  // logical operators with a metrics or counters aggregator, null after the plan changed
+  private List<OperatorMeta> aggregatedOperators;
+  // the stats that depend on the operators of the plan need to be reset after the plan changed
+  private volatile boolean resetPlanStats = true;
+  private volatile long droppedEndWindowStatsCount;
   private final ConcurrentMap<PTOperator, PTOperator> reportStats = new ConcurrentHashMap<>();
   private final AtomicBoolean deployChangeInProgress = new AtomicBoolean();
   private int deployChangeCnt;
@@ -231,13 +261,16 @@ public class StreamingContainerManager implements PlanContext
   private final ConcurrentMap<PTOperator, PTOperator> slowestUpstreamOp = new ConcurrentHashMap<>();
   private long committedWindowId;
   // (operator id, port name) to timestamp
-  private final Map<Pair<Integer, String>, Long> operatorPortLastEndWindowTimestamps = Maps.newConcurrentMap();
-  private final Map<Integer, Long> operatorLastEndWindowTimestamps = Maps.newConcurrentMap();
+  // stats of the operators reported by the heartbeats, aggregated across operators by the master loop
+  private final ConcurrentLinkedQueue<ReportedStats> reportedStats = new ConcurrentLinkedQueue<>();
   private long lastStatsTimestamp = System.currentTimeMillis();
   private long currentEndWindowStatsWindowId;
   private long completeEndWindowStatsWindowId;
   private final ConcurrentHashMap<String, MovingAverageLong> rpcLatencies = new ConcurrentHashMap<>();
   private final AtomicLong nodeToStramRequestIds = new AtomicLong(1);
+  private final StreamLocalityAdvisor localityAdvisor;
+  private List<StreamLocalityAdvisor.Recommendation> localityRecommendations = Collections.emptyList();
+  private long lastLocalityPromotionMillis;
   private int allocatedMemoryMB = 0;
   private List<AppDataSource> appDataSources = null;
   private final Cache<Long, Object> commandResponse = CacheBuilder.newBuilder().expireAfterWrite(1, TimeUnit.MINUTES).build();
@@ -278,12 +311,32 @@ public class StreamingContainerManager implements PlanContext
 
   private static class EndWindowStats
   {
+    long windowId;
     long emitTimestamp = -1;
     HashMap<String, Long> dequeueTimestamps = new HashMap<>(); // input port name to end window dequeue time
     Object counters;
     Map<String, Object> metrics;
   }
 
+  /**
+   * Stats of an operator from a heartbeat that need the stats of other operators.
+   */
+  private static class ReportedStats
+  {
+    final PTOperator operator;
+    final long tuplesProcessed;
+    final long tuplesEmitted;
+    final List<EndWindowStats> endWindowStats;
+
+    ReportedStats(PTOperator operator, long tuplesProcessed, long tuplesEmitted, List<EndWindowStats> endWindowStats)
+    {
+      this.operator = operator;
+      this.tuplesProcessed = tuplesProcessed;
+      this.tuplesEmitted = tuplesEmitted;
+      this.endWindowStats = endWindowStats;
+    }
+  }
+
   public static class CriticalPathInfo
   {
     long latency;
@@ -416,6 +469,7 @@ public class StreamingContainerManager implements PlanContext
       this.eventBus = new MBassador<>(BusConfiguration.Default(1, 1, 1));
     }
     this.plan = new PhysicalPlan(dag, this);
+    this.localityAdvisor = new StreamLocalityAdvisor(plan);
     this.journal = new Journal(this);
     init(enableEventRecording);
   }
@@ -426,6 +480,7 @@ public class StreamingContainerManager implements PlanContext
     this.clock = new SystemClock();
     poolExecutor = Executors.newFixedThreadPool(4);
     this.plan = checkpointedState.physicalPlan;
+    this.localityAdvisor = new StreamLocalityAdvisor(plan);
     this.eventBus = new MBassador<>(BusConfiguration.Default(1, 1, 1));
     this.journal = new Journal(this);
     init(enableEventRecording);
@@ -802,6 +857,90 @@ public class StreamingContainerManager implements PlanContext
     if (this.vars.enableStatsRecording) {
       recordStats(currentTms);
     }
+    promoteStreamLocality(currentTms);
+  }
+
+  private void promoteStreamLocality(long currentTms)
+  {
+    int interval = plan.getLogicalPlan().getValue(LogicalPlan.LOCALITY_PROMOTION_INTERVAL_MILLIS);
+    if (interval <= 0 || currentTms - lastLocalityPromotionMillis < interval) {
+      return;
+    }
+    lastLocalityPromotionMillis = currentTms;
+    if (deployChangeInProgress.get() || !pendingAllocation.isEmpty()) {
+      return;
+    }
+
+    localityRecommendations = localityAdvisor.getRecommendations();
+    boolean apply = plan.getLogicalPlan().getValue(LogicalPlan.LOCALITY_PROMOTION_AUTO_APPLY);
+    for (StreamLocalityAdvisor.Recommendation r : localityRecommendations) {
+      LOG.info("Stream {} ({}) should be container local, saves {} buffer server bytes/s, container {}m {} vcores",
+          r.streamName, r.currentLocality, r.bufferServerBytesPS, r.containerMemoryMB, r.containerVCores);
+      if (apply) {
+        // one change per cycle, the recommendations are recomputed from the new plan at the next interval
+        final LogicalPlan.StreamMeta stream = plan.getLogicalPlan().getStream(r.streamName);
+        if (isDeployed(stream)) {
+          // applied as plan event so that the changed plan is snapshot for recovery
+          dispatch(new Runnable()
+          {
+            @Override
+            public void run()
+            {
+              if (isDeployed(stream)) {
+                plan.setContainerLocal(stream);
+              }
+            }
+
+            @Override
+            public String toString()
+            {
+              return "promote locality of stream " + stream.getName();
+            }
+          });
+          apply = false;
+        }
+      }
+    }
+  }
+
+  /**
+   * Whether the operators at both ends of the stream run in active containers without any pending deploy.
+   */
+  private boolean isDeployed(LogicalPlan.StreamMeta stream)
+  {
+    List<PTOperator> operators = new ArrayList<>(plan.getOperators(stream.getSource().getOperatorMeta()));
+    for (InputPortMeta sink : stream.getSinks()) {
+      operators.addAll(plan.getOperators(sink.getOperatorWrapper()));
+    }
+    for (PTOperator oper : operators) {
+      PTContainer c = oper.getContainer();
+      if (oper.getState() != PTOperator.State.ACTIVE || c == null || c.getState() != PTContainer.State.ACTIVE
+          || pendingAllocation.contains(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Streams recommended to be container local during the last evaluation of the buffer server traffic.
+   *
+   * @return list of recommendations, heaviest stream first
+   */
+  public List<StreamLocalityAdvisor.Recommendation> getLocalityRecommendations()
+  {
+    return localityRecommendations;
+  }
+
+  /**
+   * Set the largest container the resource manager grants, used to limit the containers merged by locality promotion.
+   *
+   * @param memoryMB maximum container memory
+   * @param vCores maximum container vcores
+   */
+  public void setContainerResourceLimits(int memoryMB, int vCores)
+  {
+    localityAdvisor.setContainerLimits(memoryMB, vCores);
   }
 
   private void recordStats(long currentTms)
@@ -814,56 +953,228 @@ public class StreamingContainerManager implements PlanContext
     }
   }
 
-  private void calculateEndWindowStats()
+  /**
+   * Add the end window stats reported by the heartbeats since the last call and calculate the latency of the
+   * operators. The heartbeats are processed concurrently and only update the state of their own operators, the stats
+   * that depend on other operators are calculated here, by the master loop.
+   */
+  private void processReportedStats()
   {
-    if (!endWindowStatsOperatorMap.isEmpty()) {
-      Set<Integer> allCurrentOperators = plan.getAllOperators().keySet();
+    List<ReportedStats> batch = new ArrayList<>();
+    ReportedStats rs;
+    while ((rs = reportedStats.poll()) != null) {
+      batch.add(rs);
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
 
-      if (endWindowStatsOperatorMap.size() > this.vars.maxWindowsBehindForStats) {
-        LOG.warn("Some operators are behind for more than {} windows! Trimming the end window stats map", this.vars.maxWindowsBehindForStats);
-        while (endWindowStatsOperatorMap.size() > this.vars.maxWindowsBehindForStats) {
-          LOG.debug("Removing incomplete end window stats for window id {}. Collected operator set: {}. Complete set: {}",
-              endWindowStatsOperatorMap.firstKey(),
-              endWindowStatsOperatorMap.get(endWindowStatsOperatorMap.firstKey()).keySet(), allCurrentOperators);
-          endWindowStatsOperatorMap.remove(endWindowStatsOperatorMap.firstKey());
+    for (ReportedStats stats : batch) {
+      PTOperator oper = stats.operator;
+      if (!oper.isUnifier()) {
+        LogicalOperatorStatus logicalStatus = oper.getOperatorMeta().getStatus();
+        logicalStatus.totalTuplesProcessed += stats.tuplesProcessed;
+        logicalStatus.totalTuplesEmitted += stats.tuplesEmitted;
+      }
+      for (EndWindowStats ews : stats.endWindowStats) {
+        if (ews.windowId > currentEndWindowStatsWindowId) {
+          Map<Integer, EndWindowStats> endWindowStatsMap = endWindowStatsOperatorMap.get(ews.windowId);
+          if (endWindowStatsMap == null) {
+            endWindowStatsMap = new ConcurrentSkipListMap<>();
+            endWindowStatsOperatorMap.put(ews.windowId, endWindowStatsMap);
+          }
+          endWindowStatsMap.put(oper.getId(), ews);
         }
       }
-      //logicalMetrics.clear();
+    }
+
+    // the latency is calculated after all stats of the batch were added, so that the upstream stats of the window are
+    // found regardless of the order of the heartbeats
+    Map<Integer, PTOperator> allOperators = plan.getAllOperators();
+    int numOperators = allOperators.size();
+    for (ReportedStats stats : batch) {
+      PTOperator oper = stats.operator;
+      if (allOperators.get(oper.getId()) != oper) {
+        continue;
+      }
+      for (EndWindowStats ews : stats.endWindowStats) {
+        Map<Integer, EndWindowStats> endWindowStatsMap = endWindowStatsOperatorMap.get(ews.windowId);
+        if (endWindowStatsMap == null) {
+          continue;
+        }
+        if (!oper.getInputs().isEmpty()) {
+          long latency = Long.MAX_VALUE;
+          long adjustedEndWindowEmitTimestamp = ews.emitTimestamp;
+          MovingAverageLong rpcLatency = rpcLatencies.get(oper.getContainer().getExternalId());
+          if (rpcLatency != null) {
+            adjustedEndWindowEmitTimestamp += rpcLatency.getAvg();
+          }
+          PTOperator slowestUpstream = null;
+          for (PTInput input : oper.getInputs()) {
+            PTOperator upstreamOp = input.source.source;
+            if (upstreamOp.getOperatorMeta().getOperator() instanceof Operator.DelayOperator) {
+              continue;
+            }
+            EndWindowStats upstreamStats = endWindowStatsMap.get(upstreamOp.getId());
+            long portLatency;
+            if (upstreamStats == null) {
+              // This is when the operator is likely to be behind too many windows. We need to give an estimate for
+              // latency at this point, by looking at the number of windows behind
+              int widthMillis = plan.getLogicalPlan().getValue(LogicalPlan.STREAMING_WINDOW_SIZE_MILLIS);
+              portLatency = (upstreamOp.stats.currentWindowId.get() - oper.stats.currentWindowId.get()) * widthMillis;
+            } else {
+              MovingAverageLong upstreamRPCLatency = rpcLatencies.get(upstreamOp.getContainer().getExternalId());
+              portLatency = adjustedEndWindowEmitTimestamp - upstreamStats.emitTimestamp;
+              if (upstreamRPCLatency != null) {
+                portLatency -= upstreamRPCLatency.getAvg();
+              }
+            }
+            if (portLatency < 0) {
+              portLatency = 0;
+            }
+            if (latency > portLatency) {
+              latency = portLatency;
+              slowestUpstream = upstreamOp;
+            }
+          }
+          long previousLatency = oper.stats.getLatencyMA();
+          oper.stats.latencyMA.add(latency);
+          PTOperator previousSlowestUpstream = slowestUpstreamOp.put(oper, slowestUpstream);
+          if (previousSlowestUpstream != slowestUpstream || previousLatency != oper.stats.getLatencyMA()) {
+            criticalPathChangedOperators.add(oper);
+          }
+        }
+
+        if (endWindowStatsMap.size() == numOperators && allOperators.keySet().containsAll(endWindowStatsMap.keySet())
+            && ews.windowId > completeEndWindowStatsWindowId) {
+          completeEndWindowStatsWindowId = ews.windowId;
+        }
+      }
+    }
+  }
+
+  /**
+   * Aggregate the metrics of the windows for which all operators reported their end window stats and update the
+   * critical path. The metrics of a window are aggregated once, when the stats of the last partition were added. The
+   * incomplete windows beyond the allowed lag and the completed windows beyond the limit per call are dropped.
+   */
+  private void calculateEndWindowStats()
+  {
+    processReportedStats();
+    if (resetPlanStats) {
+      resetPlanStats = false;
+      aggregatedOperators = null;
+      criticalPathCache.clear();
+      criticalPathChangedOperators.clear();
+      criticalPathInfo = null;
+    }
+
+    if (!endWindowStatsOperatorMap.isEmpty()) {
+      Set<Integer> allCurrentOperators = plan.getAllOperators().keySet();
       int numOperators = allCurrentOperators.size();
-      Long windowId = endWindowStatsOperatorMap.firstKey();
-      while (windowId != null) {
-        Map<Integer, EndWindowStats> endWindowStatsMap = endWindowStatsOperatorMap.get(windowId);
-        Set<Integer> endWindowStatsOperators = endWindowStatsMap.keySet();
 
-        aggregateMetrics(windowId, endWindowStatsMap);
-        criticalPathInfo = findCriticalPath();
+      int laggingWindows = 0;
+      while (endWindowStatsOperatorMap.size() > this.vars.maxWindowsBehindForStats) {
+        Map.Entry<Long, Map<Integer, EndWindowStats>> entry = endWindowStatsOperatorMap.pollFirstEntry();
+        LOG.debug("Removing incomplete end window stats for window id {}. Collected operator set: {}. Complete set: {}",
+            entry.getKey(), entry.getValue().keySet(), allCurrentOperators);
+        laggingWindows++;
+      }
+      if (laggingWindows > 0) {
+        LOG.warn("Some operators are behind for more than {} windows! Dropped the end window stats of {} windows",
+            this.vars.maxWindowsBehindForStats, laggingWindows);
+      }
 
-        if (allCurrentOperators.containsAll(endWindowStatsOperators)) {
+      List<Map.Entry<Long, Map<Integer, EndWindowStats>>> completedWindows = new ArrayList<>();
+      for (Map.Entry<Long, Map<Integer, EndWindowStats>> entry : endWindowStatsOperatorMap.entrySet()) {
+        long windowId = entry.getKey();
+        Map<Integer, EndWindowStats> endWindowStatsMap = entry.getValue();
+        if (allCurrentOperators.containsAll(endWindowStatsMap.keySet())) {
           if (endWindowStatsMap.size() < numOperators) {
             if (windowId < completeEndWindowStatsWindowId) {
               LOG.debug("Disregarding stale end window stats for window {}", windowId);
-              endWindowStatsOperatorMap.remove(windowId);
             } else {
               break;
             }
           } else {
-            endWindowStatsOperatorMap.remove(windowId);
             currentEndWindowStatsWindowId = windowId;
           }
         } else {
           // the old stats contains operators that do not exist any more
           // this is probably right after a partition happens.
           LOG.debug("Stats for non-existent operators detected. Disregarding end window stats for window {}", windowId);
-          endWindowStatsOperatorMap.remove(windowId);
         }
-        windowId = endWindowStatsOperatorMap.higherKey(windowId);
+        // the stale windows are aggregated with the stats that were reported
+        endWindowStatsOperatorMap.remove(windowId);
+        completedWindows.add(entry);
+      }
+
+      int maxWindows = getLogicalPlan().getValue(LogicalPlan.STATS_MAX_WINDOWS_PER_CYCLE);
+      int skippedWindows = Math.max(0, completedWindows.size() - maxWindows);
+      if (skippedWindows > 0) {
+        LOG.warn("Stats of {} windows completed since the last update, dropped the metrics of the oldest {} windows",
+            completedWindows.size(), skippedWindows);
+      }
+      for (Map.Entry<Long, Map<Integer, EndWindowStats>> entry : completedWindows.subList(skippedWindows, completedWindows.size())) {
+        aggregateMetrics(entry.getKey(), entry.getValue());
+      }
+      droppedEndWindowStatsCount += laggingWindows + skippedWindows;
+    }
+
+    if (!criticalPathChangedOperators.isEmpty()) {
+      criticalPathInfo = findCriticalPath();
+    }
+  }
+
+  /**
+   * @return number of windows for which the end window stats were dropped because the operators were behind or the
+   * application master could not keep up with the stats
+   */
+  public long getDroppedEndWindowStatsCount()
+  {
+    return droppedEndWindowStatsCount;
+  }
+
+  private List<OperatorMeta> getAggregatedOperators()
+  {
+    if (aggregatedOperators == null) {
+      aggregatedOperators = new ArrayList<>();
+      for (OperatorMeta operatorMeta : getLogicalPlan().getAllOperators()) {
+        @SuppressWarnings("deprecation")
+        Context.CountersAggregator countersAggregator = operatorMeta.getValue(OperatorContext.COUNTERS_AGGREGATOR);
+        if (countersAggregator != null || operatorMeta.getMetricAggregatorMeta() != null &&
+            operatorMeta.getMetricAggregatorMeta().getAggregator() != null) {
+          aggregatedOperators.add(operatorMeta);
+        }
       }
     }
+    return aggregatedOperators;
+  }
+
+  /**
+   * @return aggregator for the metrics of the partitions of the operator in a container, null when the metrics of the
+   * partitions are sent to the master
+   * @see LogicalPlan#METRICS_CONTAINER_AGGREGATION
+   */
+  PartialMetricsAggregator getContainerMetricsAggregator(PTOperator oper)
+  {
+    if (oper.isUnifier() || !getLogicalPlan().getValue(LogicalPlan.METRICS_CONTAINER_AGGREGATION) ||
+        (oper.statsListeners != null && !oper.statsListeners.isEmpty())) {
+      return null;
+    }
+    OperatorMeta operatorMeta = oper.getOperatorMeta();
+    AutoMetric.Aggregator aggregator = operatorMeta.getMetricAggregatorMeta() != null ?
+        operatorMeta.getMetricAggregatorMeta().getAggregator() : null;
+    if (aggregator instanceof PartialMetricsAggregator &&
+        ((PartialMetricsAggregator)aggregator).isPartialAggregationSupported()) {
+      return (PartialMetricsAggregator)aggregator;
+    }
+    return null;
   }
 
   private void aggregateMetrics(long windowId, Map<Integer, EndWindowStats> endWindowStatsMap)
   {
-    Collection<OperatorMeta> logicalOperators = getLogicalPlan().getAllOperators();
+    Collection<OperatorMeta> logicalOperators = getAggregatedOperators();
     //for backward compatibility
     for (OperatorMeta operatorMeta : logicalOperators) {
       @SuppressWarnings("deprecation")
@@ -893,20 +1204,38 @@ public class StreamingContainerManager implements PlanContext
         continue;
       }
       Collection<PTOperator> physicalOperators = plan.getAllOperators(operatorMeta);
-      List<AutoMetric.PhysicalMetricsContext> metricPool = Lists.newArrayList();
+      PartialMetricsAggregator partialAggregator = physicalOperators.isEmpty() ? null :
+          getContainerMetricsAggregator(physicalOperators.iterator().next());
+      Map<String, Object> lm;
+      if (partialAggregator != null) {
+        // the containers report the partial aggregate of their partitions with one of them
+        List<Map<String, Object>> partialAggregates = Lists.newArrayList();
+        for (PTOperator operator : physicalOperators) {
+          EndWindowStats stats = endWindowStatsMap.get(operator.getId());
+          if (stats != null && stats.metrics != null) {
+            partialAggregates.add(stats.metrics);
+          }
+        }
+        if (partialAggregates.isEmpty()) {
+          continue;
+        }
+        lm = partialAggregator.mergePartialAggregates(windowId, partialAggregates);
+      } else {
+        List<AutoMetric.PhysicalMetricsContext> metricPool = Lists.newArrayList();
 
-      for (PTOperator operator : physicalOperators) {
-        EndWindowStats stats = endWindowStatsMap.get(operator.getId());
-        if (stats != null && stats.metrics != null) {
-          PhysicalMetricsContextImpl physicalMetrics = new PhysicalMetricsContextImpl(operator.getId(), stats.metrics);
-          metricPool.add(physicalMetrics);
+        for (PTOperator operator : physicalOperators) {
+          EndWindowStats stats = endWindowStatsMap.get(operator.getId());
+          if (stats != null && stats.metrics != null) {
+            PhysicalMetricsContextImpl physicalMetrics = new PhysicalMetricsContextImpl(operator.getId(), stats.metrics);
+            metricPool.add(physicalMetrics);
+          }
         }
+        if (metricPool.isEmpty()) {
+          //nothing to aggregate
+          continue;
+        }
+        lm = aggregator.aggregate(windowId, metricPool);
       }
-      if (metricPool.isEmpty()) {
-        //nothing to aggregate
-        continue;
-      }
-      Map<String, Object> lm = aggregator.aggregate(windowId, metricPool);
 
       if (lm != null && lm.size() > 0) {
         Queue<Pair<Long, Map<String, Object>>> windowMetrics = logicalMetrics.get(operatorMeta.getName());
@@ -972,13 +1301,29 @@ public class StreamingContainerManager implements PlanContext
     return logicalMetrics.get(operatorName);
   }
 
+  private void removeSlowestUpstream(PTOperator oper)
+  {
+    slowestUpstreamOp.remove(oper);
+    criticalPathChangedOperators.add(oper);
+  }
+
+  /**
+   * Find the path with the highest latency from an input operator to a leaf operator. The paths of the operators that
+   * did not change are taken from the previous calculation, only the paths through the changed operators are calculated
+   * again.
+   */
   private CriticalPathInfo findCriticalPath()
   {
+    Iterator<PTOperator> it = criticalPathChangedOperators.iterator();
+    while (it.hasNext()) {
+      PTOperator oper = it.next();
+      it.remove();
+      invalidateCriticalPath(oper);
+    }
     CriticalPathInfo result = null;
     List<PTOperator> leafOperators = plan.getLeafOperators();
-    Map<PTOperator, CriticalPathInfo> cache = new HashMap<>();
     for (PTOperator leafOperator : leafOperators) {
-      CriticalPathInfo cpi = findCriticalPathHelper(leafOperator, cache);
+      CriticalPathInfo cpi = findCriticalPathHelper(leafOperator, criticalPathCache);
       if (result == null || result.latency < cpi.latency) {
         result = cpi;
       }
@@ -986,6 +1331,28 @@ public class StreamingContainerManager implements PlanContext
     return result;
   }
 
+  /**
+   * Remove the path of the operator and of the downstream operators that have it as slowest upstream operator.
+   */
+  private void invalidateCriticalPath(PTOperator oper)
+  {
+    Deque<PTOperator> operators = new ArrayDeque<>();
+    operators.add(oper);
+    while ((oper = operators.poll()) != null) {
+      if (criticalPathCache.remove(oper) == null) {
+        // the paths of the downstream operators include the operator and are not calculated yet
+        continue;
+      }
+      for (PTOperator.PTOutput output : oper.getOutputs()) {
+        for (PTOperator.PTInput sink : output.sinks) {
+          if (slowestUpstreamOp.get(sink.target) == oper) {
+            operators.add(sink.target);
+          }
+        }
+      }
+    }
+  }
+
   private CriticalPathInfo findCriticalPathHelper(PTOperator operator, Map<PTOperator, CriticalPathInfo> cache)
   {
     CriticalPathInfo cpi = cache.get(operator);
@@ -1067,23 +1434,28 @@ public class StreamingContainerManager implements PlanContext
     Runnable command;
     while ((command = this.eventQueue.poll()) != null) {
       eventQueueProcessing.set(true);
+      eventProcessingThread.set(Boolean.TRUE);
       try {
         command.run();
         count++;
       } catch (Exception e) {
         // TODO: handle error
         LOG.error("Failed to execute {}", command, e);
+      } finally {
+        eventProcessingThread.remove();
       }
       eventQueueProcessing.set(false);
     }
 
-    if (count > 0) {
+    if (count > 0 || isJournalTruncationDue()) {
       try {
         checkpoint();
       } catch (Exception e) {
         throw new RuntimeException("Failed to checkpoint state.", e);
       }
     }
+    // operations written by other threads while the events were processed
+    journal.flush();
 
     return count;
   }
@@ -1136,7 +1508,56 @@ public class StreamingContainerManager implements PlanContext
 
     // redeploy cycle for all affected operators
     LOG.info("Affected operators {}", ctx.visited);
-    deploy(Collections.<PTContainer>emptySet(), ctx.visited, Sets.newHashSet(cs.container), ctx.visited);
+    if (promoteStandbyContainer(cs)) {
+      deploy(Collections.<PTContainer>emptySet(), ctx.visited, Collections.<PTContainer>emptySet(), ctx.visited);
+    } else {
+      deploy(Collections.<PTContainer>emptySet(), ctx.visited, Sets.newHashSet(cs.container), ctx.visited);
+    }
+  }
+
+  /**
+   * Let the running standby container of the failed container take over its operators, which are then deployed with
+   * the next heartbeat of the standby container instead of waiting for a new container. A new standby container is
+   * requested in place of the promoted one.
+   *
+   * @param failed agent of the failed container
+   * @return whether the standby container took over
+   */
+  private boolean promoteStandbyContainer(StreamingContainerAgent failed)
+  {
+    PTContainer c = failed.container;
+    PTContainer standby = plan.getStandbyContainer(c);
+    if (standby == null || standby.getState() != PTContainer.State.ACTIVE) {
+      return false;
+    }
+    StreamingContainerAgent sca = containers.get(standby.getExternalId());
+    if (sca == null || sca.shutdownRequested) {
+      return false;
+    }
+    LOG.info("Promoting standby container {} for {}", standby.getExternalId(), c.toIdStateString());
+    removeContainerAgent(c.getExternalId());
+
+    c.setExternalId(standby.getExternalId());
+    c.host = standby.host;
+    c.nodeHttpAddress = standby.nodeHttpAddress;
+    c.bufferServerAddress = standby.bufferServerAddress;
+    c.setBufferServerToken(standby.getBufferServerToken());
+    c.setResourceRequestPriority(standby.getResourceRequestPriority());
+    c.setAllocatedMemoryMB(standby.getAllocatedMemoryMB());
+    c.setAllocatedVCores(standby.getAllocatedVCores());
+    c.setStartedTime(standby.getStartedTime());
+    c.setFinishedTime(-1);
+    c.setState(PTContainer.State.ACTIVE);
+    writeJournal(c.getSetContainerState());
+
+    StreamingContainerAgent promoted = new StreamingContainerAgent(c, sca.getInitContext(), this);
+    promoted.jvmName = sca.jvmName;
+    promoted.createdMillis = sca.createdMillis;
+    promoted.lastHeartbeatMillis = sca.lastHeartbeatMillis;
+    containers.put(c.getExternalId(), promoted);
+
+    requestContainer(plan.replaceStandbyContainer(c));
+    return true;
   }
 
   /**
@@ -1279,8 +1700,10 @@ public class StreamingContainerManager implements PlanContext
   private StreamingContainerContext newStreamingContainerContext(PTContainer container)
   {
     try {
+      // a standby container runs the buffer server for the operators of the container it protects once promoted
+      PTContainer protectedContainer = getProtectedContainer(container);
       int bufferServerMemory = 0;
-      Iterator<PTOperator> operatorIterator = container.getOperators().iterator();
+      Iterator<PTOperator> operatorIterator = (protectedContainer != null ? protectedContainer : container).getOperators().iterator();
 
       while (operatorIterator.hasNext()) {
         bufferServerMemory += operatorIterator.next().getBufferServerMemory();
@@ -1293,6 +1716,12 @@ public class StreamingContainerManager implements PlanContext
       scc.attributes.put(ContainerContext.BUFFER_SERVER_MB, bufferServerMemory);
       scc.attributes.put(ContainerContext.BUFFER_SERVER_TOKEN, container.getBufferServerToken());
       scc.startWindowMillis = this.vars.windowStartMillis;
+      if (protectedContainer != null && protectedContainer.getExternalId() != null) {
+        StreamingContainerAgent protectedAgent = containers.get(protectedContainer.getExternalId());
+        if (protectedAgent != null) {
+          scc.deployBufferServer = protectedAgent.getInitContext().deployBufferServer;
+        }
+      }
       return scc;
     } catch (CloneNotSupportedException ex) {
       throw new RuntimeException("Cannot clone DAG attributes", ex);
@@ -1349,14 +1778,14 @@ public class StreamingContainerManager implements PlanContext
                 deactivatedOpers.add(oper);
               }
               sca.undeployOpers.add(oper.getId());
-              slowestUpstreamOp.remove(oper);
+              removeSlowestUpstream(oper);
               // record operator stop event
               recordEventAsync(new StramEvent.StopOperatorEvent(oper.getName(), oper.getId(), oper.getContainer().getExternalId()));
               break;
             case FAILED:
               processOperatorFailure(oper);
               sca.undeployOpers.add(oper.getId());
-              slowestUpstreamOp.remove(oper);
+              removeSlowestUpstream(oper);
               recordEventAsync(new StramEvent.StopOperatorEvent(oper.getName(), oper.getId(), oper.getContainer().getExternalId()));
               break;
             case ACTIVE:
@@ -1374,7 +1803,7 @@ public class StreamingContainerManager implements PlanContext
         } else {
           // operator is currently deployed, request undeploy
           sca.undeployOpers.add(oper.getId());
-          slowestUpstreamOp.remove(oper);
+          removeSlowestUpstream(oper);
         }
         break;
       case PENDING_DEPLOY:
@@ -1386,7 +1815,7 @@ public class StreamingContainerManager implements PlanContext
           PTContainer container = oper.getContainer();
           LOG.debug("{} marking deployed: {} remote status {}", container.getExternalId(), oper, ds);
           oper.setState(PTOperator.State.ACTIVE);
-          oper.stats.lastHeartbeat = null; // reset on redeploy
+          oper.stats.setLastHeartbeat(null); // reset on redeploy
           oper.stats.lastWindowIdChangeTms = clock.getTime();
           recordEventAsync(new StramEvent.StartOperatorEvent(oper.getName(), oper.getId(), container.getExternalId()));
         }
@@ -1396,7 +1825,7 @@ public class StreamingContainerManager implements PlanContext
         if (ds != null) {
           // operator was removed and needs to be undeployed from container
           sca.undeployOpers.add(oper.getId());
-          slowestUpstreamOp.remove(oper);
+          removeSlowestUpstream(oper);
           recordEventAsync(new StramEvent.StopOperatorEvent(oper.getName(), oper.getId(), oper.getContainer().getExternalId()));
         }
     }
@@ -1499,6 +1928,8 @@ public class StreamingContainerManager implements PlanContext
     sca.memoryMBFree = heartbeat.memoryMBFree;
     sca.gcCollectionCount = heartbeat.gcCollectionCount;
     sca.gcCollectionTime = heartbeat.gcCollectionTime;
+    sca.checkpointUploadQueueSize = heartbeat.checkpointUploadQueueSize;
+    sca.checkpointUploadBytesPS = heartbeat.checkpointUploadBytesPS;
 
     sca.undeployOpers.clear();
     sca.deployOpers.clear();
@@ -1506,6 +1937,7 @@ public class StreamingContainerManager implements PlanContext
       sca.deployCnt = this.deployChangeCnt;
     }
     Set<Integer> reportedOperators = Sets.newHashSetWithExpectedSize(sca.container.getOperators().size());
+    boolean statsListenerReported = false;
 
     for (OperatorHeartbeat shb : heartbeat.getContainerStats().operators) {
 
@@ -1538,7 +1970,11 @@ public class StreamingContainerManager implements PlanContext
         processOperatorDeployStatus(oper, shb, sca);
       }
 
-      oper.stats.lastHeartbeat = shb;
+      oper.stats.setLastHeartbeat(shb);
+      if (shb.getRestoreTimeMillis() >= 0) {
+        LOG.info("Operator {} restored from checkpoint {} in {} ms", oper, oper.getRecoveryCheckpoint(), shb.getRestoreTimeMillis());
+        oper.stats.restoreTimeMillis = shb.getRestoreTimeMillis();
+      }
       List<ContainerStats.OperatorStats> statsList = shb.getOperatorStatsContainer();
 
       if (!statsList.isEmpty()) {
@@ -1551,6 +1987,7 @@ public class StreamingContainerManager implements PlanContext
 
         final OperatorStatus status = oper.stats;
         status.statsRevs.checkout();
+        List<EndWindowStats> reportedEndWindowStats = new ArrayList<>(statsList.size());
 
         for (Map.Entry<String, PortStatus> entry : status.inputPortStatusList.entrySet()) {
           entry.getValue().recordingId = null;
@@ -1568,6 +2005,7 @@ public class StreamingContainerManager implements PlanContext
           if (stats.checkpoint instanceof Checkpoint) {
             if (oper.getRecentCheckpoint() == null || oper.getRecentCheckpoint().windowId < stats.checkpoint.getWindowId()) {
               addCheckpoint(oper, (Checkpoint)stats.checkpoint);
+              addToCheckpointManifest(oper, stats.checkpoint.getWindowId(), stats.checkpointStats);
               if (stats.checkpointStats != null) {
                 status.checkpointStats = stats.checkpointStats;
                 status.checkpointTimeMA.add(stats.checkpointStats.checkpointTime);
@@ -1599,18 +2037,14 @@ public class StreamingContainerManager implements PlanContext
               tuplesProcessed += s.tupleCount;
               endWindowStats.dequeueTimestamps.put(s.id, s.endWindowTimestamp);
 
-              Pair<Integer, String> operatorPortName = new Pair<>(oper.getId(), s.id);
-              Long lastEndWindowTimestamp = operatorPortLastEndWindowTimestamps.get(operatorPortName);
-              if (lastEndWindowTimestamp == null) {
-                lastEndWindowTimestamp = lastStatsTimestamp;
-              }
+              long lastEndWindowTimestamp = ps.lastEndWindowTimestamp >= 0 ? ps.lastEndWindowTimestamp : lastStatsTimestamp;
               long portElapsedMillis = Math.max(s.endWindowTimestamp - lastEndWindowTimestamp, 0);
-              //LOG.debug("=== PROCESSED TUPLE COUNT for {}: {}, {}, {}, {}", operatorPortName, s.tupleCount, portElapsedMillis, operatorPortLastEndWindowTimestamps.get(operatorPortName), lastStatsTimestamp);
+              //LOG.debug("=== PROCESSED TUPLE COUNT for {}: {}, {}, {}, {}", s.id, s.tupleCount, portElapsedMillis, ps.lastEndWindowTimestamp, lastStatsTimestamp);
               ps.tuplesPMSMA.add(s.tupleCount, portElapsedMillis);
               ps.bufferServerBytesPMSMA.add(s.bufferServerBytes, portElapsedMillis);
               ps.queueSizeMA.add(s.queueSize);
 
-              operatorPortLastEndWindowTimestamps.put(operatorPortName, s.endWindowTimestamp);
+              ps.lastEndWindowTimestamp = s.endWindowTimestamp;
               if (maxEndWindowTimestamp < s.endWindowTimestamp) {
                 maxEndWindowTimestamp = s.endWindowTimestamp;
               }
@@ -1623,6 +2057,7 @@ public class StreamingContainerManager implements PlanContext
             while (it.hasNext()) {
               Map.Entry<String, PortStatus> entry = it.next();
               if (!currentInputPortSet.contains(entry.getKey())) {
+                entry.getValue().release();
                 it.remove();
               }
             }
@@ -1643,17 +2078,13 @@ public class StreamingContainerManager implements PlanContext
               ps.recordingId = s.recordingId;
 
               tuplesEmitted += s.tupleCount;
-              Pair<Integer, String> operatorPortName = new Pair<>(oper.getId(), s.id);
-              Long lastEndWindowTimestamp = operatorPortLastEndWindowTimestamps.get(operatorPortName);
-              if (lastEndWindowTimestamp == null) {
-                lastEndWindowTimestamp = lastStatsTimestamp;
-              }
+              long lastEndWindowTimestamp = ps.lastEndWindowTimestamp >= 0 ? ps.lastEndWindowTimestamp : lastStatsTimestamp;
               long portElapsedMillis = Math.max(s.endWindowTimestamp - lastEndWindowTimestamp, 0);
-              //LOG.debug("=== EMITTED TUPLE COUNT for {}: {}, {}, {}, {}", operatorPortName, s.tupleCount, portElapsedMillis, operatorPortLastEndWindowTimestamps.get(operatorPortName), lastStatsTimestamp);
+              //LOG.debug("=== EMITTED TUPLE COUNT for {}: {}, {}, {}, {}", s.id, s.tupleCount, portElapsedMillis, ps.lastEndWindowTimestamp, lastStatsTimestamp);
               ps.tuplesPMSMA.add(s.tupleCount, portElapsedMillis);
               ps.bufferServerBytesPMSMA.add(s.bufferServerBytes, portElapsedMillis);
 
-              operatorPortLastEndWindowTimestamps.put(operatorPortName, s.endWindowTimestamp);
+              ps.lastEndWindowTimestamp = s.endWindowTimestamp;
               if (maxEndWindowTimestamp < s.endWindowTimestamp) {
                 maxEndWindowTimestamp = s.endWindowTimestamp;
               }
@@ -1666,6 +2097,7 @@ public class StreamingContainerManager implements PlanContext
             while (it.hasNext()) {
               Map.Entry<String, PortStatus> entry = it.next();
               if (!currentOutputPortSet.contains(entry.getKey())) {
+                entry.getValue().release();
                 it.remove();
               }
             }
@@ -1693,73 +2125,15 @@ public class StreamingContainerManager implements PlanContext
           }
 
           if (stats.windowId > currentEndWindowStatsWindowId) {
-            Map<Integer, EndWindowStats> endWindowStatsMap = endWindowStatsOperatorMap.get(stats.windowId);
-            if (endWindowStatsMap == null) {
-              endWindowStatsMap = new ConcurrentSkipListMap<>();
-              Map<Integer, EndWindowStats> endWindowStatsMapPrevious =
-                  endWindowStatsOperatorMap.putIfAbsent(stats.windowId, endWindowStatsMap);
-              if (endWindowStatsMapPrevious != null) {
-                endWindowStatsMap = endWindowStatsMapPrevious;
-              }
-            }
-            endWindowStatsMap.put(shb.getNodeId(), endWindowStats);
-
-            if (!oper.getInputs().isEmpty()) {
-              long latency = Long.MAX_VALUE;
-              long adjustedEndWindowEmitTimestamp = endWindowStats.emitTimestamp;
-              MovingAverageLong rpcLatency = rpcLatencies.get(oper.getContainer().getExternalId());
-              if (rpcLatency != null) {
-                adjustedEndWindowEmitTimestamp += rpcLatency.getAvg();
-              }
-              PTOperator slowestUpstream = null;
-              for (PTInput input : oper.getInputs()) {
-                PTOperator upstreamOp = input.source.source;
-                if (upstreamOp.getOperatorMeta().getOperator() instanceof Operator.DelayOperator) {
-                  continue;
-                }
-                EndWindowStats ews = endWindowStatsMap.get(upstreamOp.getId());
-                long portLatency;
-                if (ews == null) {
-                  // This is when the operator is likely to be behind too many windows. We need to give an estimate for
-                  // latency at this point, by looking at the number of windows behind
-                  int widthMillis = plan.getLogicalPlan().getValue(LogicalPlan.STREAMING_WINDOW_SIZE_MILLIS);
-                  portLatency = (upstreamOp.stats.currentWindowId.get() - oper.stats.currentWindowId.get()) * widthMillis;
-                } else {
-                  MovingAverageLong upstreamRPCLatency = rpcLatencies.get(upstreamOp.getContainer().getExternalId());
-                  portLatency = adjustedEndWindowEmitTimestamp - ews.emitTimestamp;
-                  if (upstreamRPCLatency != null) {
-                    portLatency -= upstreamRPCLatency.getAvg();
-                  }
-                }
-                if (portLatency < 0) {
-                  portLatency = 0;
-                }
-                if (latency > portLatency) {
-                  latency = portLatency;
-                  slowestUpstream = upstreamOp;
-                }
-              }
-              status.latencyMA.add(latency);
-              slowestUpstreamOp.put(oper, slowestUpstream);
-            }
-
-            Set<Integer> allCurrentOperators = plan.getAllOperators().keySet();
-            int numOperators = plan.getAllOperators().size();
-            if (allCurrentOperators.containsAll(endWindowStatsMap.keySet()) && endWindowStatsMap.size() == numOperators) {
-              completeEndWindowStatsWindowId = stats.windowId;
-            }
+            endWindowStats.windowId = stats.windowId;
+            reportedEndWindowStats.add(endWindowStats);
           }
         }
 
         status.totalTuplesProcessed.add(tuplesProcessed);
         status.totalTuplesEmitted.add(tuplesEmitted);
-        OperatorMeta logicalOperator = oper.getOperatorMeta();
-        LogicalOperatorStatus logicalStatus = logicalOperator.getStatus();
-        if (!oper.isUnifier()) {
-          logicalStatus.totalTuplesProcessed += tuplesProcessed;
-          logicalStatus.totalTuplesEmitted += tuplesEmitted;
-        }
-        long lastMaxEndWindowTimestamp = operatorLastEndWindowTimestamps.containsKey(oper.getId()) ? operatorLastEndWindowTimestamps.get(oper.getId()) : lastStatsTimestamp;
+        reportedStats.add(new ReportedStats(oper, tuplesProcessed, tuplesEmitted, reportedEndWindowStats));
+        long lastMaxEndWindowTimestamp = status.lastMaxEndWindowTimestamp >= 0 ? status.lastMaxEndWindowTimestamp : lastStatsTimestamp;
         if (maxEndWindowTimestamp >= lastMaxEndWindowTimestamp) {
           double tuplesProcessedPMSMA = 0.0;
           double tuplesEmittedPMSMA = 0.0;
@@ -1780,9 +2154,12 @@ public class StreamingContainerManager implements PlanContext
           //LOG.warn("This timestamp for {} is lower than the previous!! {} < {}", oper.getId(),
           // maxEndWindowTimestamp, lastMaxEndWindowTimestamp);
         }
-        operatorLastEndWindowTimestamps.put(oper.getId(), maxEndWindowTimestamp);
+        status.lastMaxEndWindowTimestamp = maxEndWindowTimestamp;
         status.listenerStats.add(statsList);
         this.reportStats.put(oper, oper);
+        if (oper.statsListeners != null) {
+          statsListenerReported = true;
+        }
 
         status.statsRevs.commit();
       }
@@ -1808,6 +2185,11 @@ public class StreamingContainerManager implements PlanContext
       if (sca.shutdownRequested) {
         LOG.info("requesting shutdown for container {}", heartbeat.getContainerId());
         rsp.shutdown = true;
+      } else if (sca.container.getOperators().isEmpty()) {
+        PTContainer protectedContainer = getProtectedContainer(sca.container);
+        if (protectedContainer != null) {
+          rsp.standbyRequest = sca.getStandbyDeployInfoList(protectedContainer);
+        }
       }
     }
 
@@ -1825,9 +2207,61 @@ public class StreamingContainerManager implements PlanContext
     rsp.stackTraceRequired = sca.stackTraceRequested;
     sca.stackTraceRequested = false;
 
+    if (statsListenerReported || forcedShutdown || !containerStartRequests.isEmpty()
+        || !containerStopRequests.isEmpty() || !eventQueue.isEmpty() || !shutdownOperators.isEmpty()) {
+      signalEvent();
+    }
     return rsp;
   }
 
+  /**
+   * Wake up the master main loop to process an event, such as a change of the plan, stats for a stats listener or a
+   * request to start or stop containers, without waiting for the next polling interval.
+   */
+  public void signalEvent()
+  {
+    synchronized (eventSignal) {
+      eventSignaled = true;
+      eventSignal.notifyAll();
+    }
+  }
+
+  /**
+   * Wait until an event is signaled or the timeout elapsed.
+   * Called from the master main loop.
+   *
+   * @param timeoutMillis maximum time to wait
+   * @return whether an event was signaled
+   * @throws InterruptedException
+   */
+  public boolean awaitEvent(long timeoutMillis) throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    synchronized (eventSignal) {
+      long remaining = timeoutMillis;
+      while (!eventSignaled && remaining > 0) {
+        eventSignal.wait(remaining);
+        remaining = deadline - System.currentTimeMillis();
+      }
+      boolean signaled = eventSignaled;
+      eventSignaled = false;
+      return signaled;
+    }
+  }
+
+  /**
+   * @return the container protected by the given standby container or null if it is not a standby container
+   */
+  private PTContainer getProtectedContainer(PTContainer standby)
+  {
+    for (Map.Entry<PTContainer, PTContainer> e : plan.getStandbyContainers().entrySet()) {
+      if (e.getValue() == standby) {
+        return e.getKey();
+      }
+    }
+    return null;
+  }
+
   private ContainerHeartbeatResponse getHeartbeatResponse(StreamingContainerAgent sca)
   {
     ContainerHeartbeatResponse rsp = new ContainerHeartbeatResponse();
@@ -1921,6 +2355,7 @@ public class StreamingContainerManager implements PlanContext
         node.checkpoints.add(checkpoint);
       }
     }
+    checkpointChangedOperators.add(node);
   }
 
   public static class UpdateCheckpointsContext
@@ -1928,6 +2363,15 @@ public class StreamingContainerManager implements PlanContext
     public final MutableLong committedWindowId = new MutableLong(Long.MAX_VALUE);
     public final Set<PTOperator> visited = new LinkedHashSet<>();
     public final Set<PTOperator> blocked = new LinkedHashSet<>();
+    /**
+     * Operators whose checkpoints were not updated because they are being deployed.
+     */
+    public final Set<PTOperator> frozen = new HashSet<>();
+    /**
+     * Operators whose recovery checkpoint may change, the traversal does not descend into other operators. Null to
+     * update all operators.
+     */
+    public Set<PTOperator> affected;
     public final long currentTms;
     public final boolean recovery;
     public final Map<OperatorMeta, Set<OperatorMeta>> checkpointGroups;
@@ -2025,7 +2469,7 @@ public class StreamingContainerManager implements PlanContext
           if (groupOpers.contains(sinkOperator)) {
             continue; // downstream operator within group
           }
-          if (!ctx.visited.contains(sinkOperator)) {
+          if (!ctx.visited.contains(sinkOperator) && (ctx.affected == null || ctx.affected.contains(sinkOperator))) {
             // downstream traversal
             updateRecoveryCheckpoints(sinkOperator, ctx);
           }
@@ -2065,7 +2509,7 @@ public class StreamingContainerManager implements PlanContext
             while (checkpoints.size() > 1 && ((c2 = checkpoints.get(1)).windowId) <= maxCheckpoint.windowId) {
               checkpoints.removeFirst();
               //LOG.debug("Checkpoint to delete: operator={} windowId={}", operator.getName(), c1);
-              this.purgeCheckpoints.add(new Pair<>(groupOper, c1.windowId));
+              addPurgeCheckpoint(groupOper, c1.windowId);
               c1 = c2;
             }
           } else {
@@ -2079,6 +2523,7 @@ public class StreamingContainerManager implements PlanContext
         groupOper.setRecoveryCheckpoint(c1);
       } else {
         LOG.debug("Skipping checkpoint update {} during {}", groupOper, groupOper.getState());
+        ctx.frozen.add(groupOper);
       }
     }
 
@@ -2121,15 +2566,34 @@ public class StreamingContainerManager implements PlanContext
   private long updateCheckpoints(boolean recovery)
   {
     UpdateCheckpointsContext ctx = new UpdateCheckpointsContext(clock, recovery, getCheckpointGroups());
-    for (OperatorMeta logicalOperator : plan.getLogicalPlan().getRootOperators()) {
-      //LOG.debug("Updating checkpoints for operator {}", logicalOperator.getName());
-      List<PTOperator> operators = plan.getOperators(logicalOperator);
-      if (operators != null) {
-        for (PTOperator operator : operators) {
+    Set<PTOperator> affected = recovery || updateAllCheckpoints ? null : getCheckpointAffectedOperators(ctx.currentTms);
+    if (affected == null) {
+      updateAllCheckpoints = false;
+      checkpointChangedOperators.clear();
+      for (OperatorMeta logicalOperator : plan.getLogicalPlan().getRootOperators()) {
+        //LOG.debug("Updating checkpoints for operator {}", logicalOperator.getName());
+        List<PTOperator> operators = plan.getOperators(logicalOperator);
+        if (operators != null) {
+          for (PTOperator operator : operators) {
+            updateRecoveryCheckpoints(operator, ctx);
+          }
+        }
+      }
+    } else {
+      // recovery checkpoints of the other operators remain, the committed window is the minimum over all operators
+      for (PTOperator operator : plan.getAllOperators().values()) {
+        if (operator.getRecoveryCheckpoint().windowId < ctx.committedWindowId.longValue()) {
+          ctx.committedWindowId.setValue(operator.getRecoveryCheckpoint().windowId);
+        }
+      }
+      ctx.affected = affected;
+      for (PTOperator operator : affected) {
+        if (!ctx.visited.contains(operator)) {
           updateRecoveryCheckpoints(operator, ctx);
         }
       }
     }
+    checkpointFrozenOperators = ctx.frozen;
     purgeCheckpoints();
 
     for (PTOperator oper : ctx.blocked) {
@@ -2142,6 +2606,49 @@ public class StreamingContainerManager implements PlanContext
     return ctx.committedWindowId.longValue();
   }
 
+  /**
+   * Find the operators whose recovery checkpoint may have changed since the last update: operators with new
+   * checkpoints or that were frozen during deployment, the operators in the same checkpoint group and all upstream
+   * operators, as the recovery checkpoint of an operator depends on those of its downstream operators.
+   *
+   * @return the affected operators or null when all operators need to be updated because an operator may be blocked
+   */
+  private Set<PTOperator> getCheckpointAffectedOperators(long currentTms)
+  {
+    Map<Integer, PTOperator> allOperators = plan.getAllOperators();
+    for (PTOperator operator : allOperators.values()) {
+      // the blocked operator detection depends on the traversal of all operators
+      if (operator.getState() == PTOperator.State.ACTIVE &&
+          (currentTms - operator.stats.lastWindowIdChangeTms) > operator.stats.windowProcessingTimeoutMillis) {
+        return null;
+      }
+    }
+
+    LinkedList<PTOperator> queue = new LinkedList<>(checkpointFrozenOperators);
+    Iterator<PTOperator> it = checkpointChangedOperators.iterator();
+    while (it.hasNext()) {
+      queue.add(it.next());
+      it.remove();
+    }
+    Set<PTOperator> affected = new LinkedHashSet<>();
+    PTOperator operator;
+    while ((operator = queue.poll()) != null) {
+      if (allOperators.get(operator.getId()) != operator || !affected.add(operator)) {
+        continue;
+      }
+      Set<OperatorMeta> checkpointGroup = getCheckpointGroups().get(operator.getOperatorMeta());
+      if (checkpointGroup != null && checkpointGroup.size() > 1) {
+        for (OperatorMeta om : checkpointGroup) {
+          queue.addAll(plan.getAllOperators(om));
+        }
+      }
+      for (PTInput input : operator.getInputs()) {
+        queue.add(input.source.source);
+      }
+    }
+    return affected;
+  }
+
   private BufferServerController getBufferServerClient(PTOperator operator)
   {
     BufferServerController bsc = new BufferServerController(operator.getLogicalId());
@@ -2151,28 +2658,107 @@ public class StreamingContainerManager implements PlanContext
     return bsc;
   }
 
+  private void addToCheckpointManifest(PTOperator oper, long windowId, Stats.CheckpointStats checkpointStats)
+  {
+    StorageAgent agent = oper.getOperatorMeta().getValue(OperatorContext.STORAGE_AGENT);
+    if (agent instanceof FSStorageAgent && !oper.isOperatorStateLess()) {
+      try {
+        ((FSStorageAgent)agent).addToManifest(oper.getId(), windowId,
+            checkpointStats == null ? -1 : checkpointStats.checkpointSize);
+      } catch (IOException ex) {
+        LOG.warn("Failed to record checkpoint {} of operator {} in the manifest", windowId, oper, ex);
+      }
+    }
+  }
+
   private void purgeCheckpoints()
   {
-    for (Pair<PTOperator, Long> p : purgeCheckpoints) {
-      final PTOperator operator = p.getFirst();
-      if (!operator.isOperatorStateLess()) {
-        final long windowId = p.getSecond();
-        Runnable r = new Runnable()
+    // records of the checkpoints reported and purged since the previous cycle
+    Set<FSStorageAgent> agents = Sets.newIdentityHashSet();
+    for (OperatorMeta om : plan.getLogicalPlan().getAllOperators()) {
+      StorageAgent agent = om.getValue(OperatorContext.STORAGE_AGENT);
+      if (agent instanceof FSStorageAgent && ((FSStorageAgent)agent).isCheckpointManifest()) {
+        FSStorageAgent fsAgent = (FSStorageAgent)agent;
+        if (agents.add(fsAgent)) {
+          try {
+            fsAgent.syncManifest();
+          } catch (IOException ex) {
+            LOG.warn("Failed to sync checkpoint manifest of {}", fsAgent.path, ex);
+          }
+        }
+      }
+    }
+
+    // apply backpressure when the file system cannot keep up, the purge work accumulates until the previous purge
+    // is complete and is then submitted as one batch per storage agent
+    for (Iterator<Future<?>> it = purgeFutures.iterator(); it.hasNext();) {
+      if (!it.next().isDone()) {
+        LOG.debug("Previous checkpoint purge in progress, deferring purge of {} operators", purgeCheckpoints.size());
+        return;
+      }
+      it.remove();
+    }
+
+    Map<StorageAgent, Map<Integer, long[]>> batches = Maps.newIdentityHashMap();
+    for (Map.Entry<PTOperator, List<Long>> e : purgeCheckpoints.entrySet()) {
+      final PTOperator operator = e.getKey();
+      if (operator.isOperatorStateLess()) {
+        continue;
+      }
+      final StorageAgent agent = operator.getOperatorMeta().getValue(OperatorContext.STORAGE_AGENT);
+      final List<Long> windowIds = e.getValue();
+      if (agent instanceof StorageAgent.BatchPurgeStorageAgent) {
+        Map<Integer, long[]> batch = batches.get(agent);
+        if (batch == null) {
+          batch = new HashMap<>();
+          batches.put(agent, batch);
+        }
+        batch.put(operator.getId(), Longs.toArray(windowIds));
+      } else {
+        purgeFutures.add(poolExecutor.submit(new Runnable()
         {
           @Override
           public void run()
           {
-            try {
-              operator.getOperatorMeta().getValue(OperatorContext.STORAGE_AGENT).delete(operator.getId(), windowId);
-            } catch (IOException ex) {
-              LOG.error("Failed to purge checkpoint for operator {} for windowId {}", operator, windowId, ex);
+            for (long windowId : windowIds) {
+              try {
+                agent.delete(operator.getId(), windowId);
+              } catch (IOException ex) {
+                LOG.error("Failed to purge checkpoint for operator {} for windowId {}", operator, windowId, ex);
+              }
             }
           }
-        };
-        poolExecutor.submit(r);
+        }));
       }
     }
     purgeCheckpoints.clear();
+
+    for (Map.Entry<StorageAgent, Map<Integer, long[]>> e : batches.entrySet()) {
+      final StorageAgent.BatchPurgeStorageAgent agent = (StorageAgent.BatchPurgeStorageAgent)e.getKey();
+      final Map<Integer, long[]> windowIds = e.getValue();
+      purgeFutures.add(poolExecutor.submit(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          try {
+            agent.delete(windowIds);
+          } catch (IOException ex) {
+            LOG.error("Failed to purge checkpoints of operators {}", windowIds, ex);
+          }
+        }
+      }));
+    }
+  }
+
+  private void addPurgeCheckpoint(PTOperator operator, long windowId)
+  {
+    List<Long> windowIds = purgeCheckpoints.get(operator);
+    if (windowIds == null) {
+      windowIds = new ArrayList<>();
+      purgeCheckpoints.put(operator, windowIds);
+    }
+    windowIds.add(windowId);
   }
 
   /**
@@ -2212,16 +2798,31 @@ public class StreamingContainerManager implements PlanContext
     containerStartRequests.add(dr);
     pendingAllocation.add(dr.container);
     lastResourceRequest = System.currentTimeMillis();
+    signalEvent();
     for (PTOperator operator : c.getOperators()) {
       operator.setState(PTOperator.State.INACTIVE);
     }
   }
 
+  /**
+   * Request the standby container of the given container, unless it is already running or requested.
+   */
+  private void requestStandbyContainer(PTContainer c)
+  {
+    PTContainer standby = c.getPlan().getStandbyContainer(c);
+    if (standby != null && standby.getState() == PTContainer.State.NEW && !pendingAllocation.contains(standby)) {
+      LOG.debug("Requesting standby container {} for {}", standby, c);
+      requestContainer(standby);
+    }
+  }
+
   @Override
   public void deploy(Set<PTContainer> releaseContainers, Collection<PTOperator> undeploy, Set<PTContainer> startContainers, Collection<PTOperator> deploy)
   {
     try {
       this.deployChangeInProgress.set(true);
+      this.updateAllCheckpoints = true;
+      this.resetPlanStats = true;
 
       Map<PTContainer, List<PTOperator>> undeployGroups = groupByContainer(undeploy);
 
@@ -2241,6 +2842,7 @@ public class StreamingContainerManager implements PlanContext
       // start new containers
       for (PTContainer c : startContainers) {
         requestContainer(c);
+        requestStandbyContainer(c);
       }
 
       // (re)deploy affected operators
@@ -2276,6 +2878,8 @@ public class StreamingContainerManager implements PlanContext
           }
         }
 
+        requestStandbyContainer(e.getKey());
+
         // add to operators that we expect to deploy
         LOG.debug("scheduling deploy {} {}", e.getKey().getExternalId(), e.getValue());
         for (PTOperator oper : e.getValue()) {
@@ -2318,6 +2922,7 @@ public class StreamingContainerManager implements PlanContext
   public void dispatch(Runnable r)
   {
     this.eventQueue.add(r);
+    signalEvent();
   }
 
   public OperatorInfo getOperatorInfo(int operatorId)
@@ -2416,14 +3021,20 @@ public class StreamingContainerManager implements PlanContext
     oi.failureCount = operator.failureCount;
     oi.recoveryWindowId = toWsWindowId(operator.getRecoveryCheckpoint().windowId);
     oi.currentWindowId = toWsWindowId(os.currentWindowId.get());
-    if (os.lastHeartbeat != null) {
-      oi.lastHeartbeat = os.lastHeartbeat.getGeneratedTms();
+    if (os.lastHeartbeatMillis >= 0) {
+      oi.lastHeartbeat = os.lastHeartbeatMillis;
     }
     if (os.checkpointStats != null) {
       oi.checkpointTime = os.checkpointStats.checkpointTime;
       oi.checkpointStartTime = os.checkpointStats.checkpointStartTime;
+      oi.checkpointSize = os.checkpointStats.checkpointSize;
+      oi.checkpointSerializedSize = os.checkpointStats.checkpointSerializedSize;
+      oi.checkpointCompressionTime = os.checkpointStats.checkpointCompressionTime;
+      oi.checkpointSerializeTime = os.checkpointStats.checkpointSerializeTime;
+      oi.checkpointUploadTime = os.checkpointStats.checkpointUploadTime;
     }
     oi.checkpointTimeMA = os.checkpointTimeMA.getAvg();
+    oi.restoreTime = os.restoreTimeMillis;
     for (PortStatus ps : os.inputPortStatusList.values()) {
       PortInfo pinfo = new PortInfo();
       pinfo.name = ps.portName;
@@ -2487,8 +3098,8 @@ public class StreamingContainerManager implements PlanContext
         checkpointTimeAggregate.addNumber(os.checkpointTimeMA.getAvg());
       }
       loi.cpuPercentageMA += os.cpuNanosPMSMA.getAvg() / 10000;
-      if (os.lastHeartbeat != null && (loi.lastHeartbeat == 0 || loi.lastHeartbeat > os.lastHeartbeat.getGeneratedTms())) {
-        loi.lastHeartbeat = os.lastHeartbeat.getGeneratedTms();
+      if (os.lastHeartbeatMillis >= 0 && (loi.lastHeartbeat == 0 || loi.lastHeartbeat > os.lastHeartbeatMillis)) {
+        loi.lastHeartbeat = os.lastHeartbeatMillis;
       }
       long currentWindowId = toWsWindowId(os.currentWindowId.get());
       if (loi.currentWindowId == 0 || loi.currentWindowId > currentWindowId) {
@@ -2543,8 +3154,8 @@ public class StreamingContainerManager implements PlanContext
         oai.tuplesProcessedPSMA.addNumber(os.tuplesProcessedPSMA.get());
         oai.currentWindowId.addNumber(os.currentWindowId.get());
         oai.recoveryWindowId.addNumber(toWsWindowId(physicalOperator.getRecoveryCheckpoint().windowId));
-        if (os.lastHeartbeat != null) {
-          oai.lastHeartbeat.addNumber(os.lastHeartbeat.getGeneratedTms());
+        if (os.lastHeartbeatMillis >= 0) {
+          oai.lastHeartbeat.addNumber(os.lastHeartbeatMillis);
         }
         oai.checkpointTime.addNumber(os.checkpointTimeMA.getAvg());
       }
@@ -2953,6 +3564,12 @@ public class StreamingContainerManager implements PlanContext
     return criticalPathInfo;
   }
 
+  private boolean isJournalTruncationDue()
+  {
+    long maxBytes = plan.getLogicalPlan().getValue(LogicalPlan.RECOVERY_JOURNAL_MAX_BYTES);
+    return recoveryHandler != null && maxBytes > 0 && journal.getOutputSize() > maxBytes;
+  }
+
   private void checkpoint() throws IOException
   {
     if (recoveryHandler != null) {
@@ -2972,7 +3589,14 @@ public class StreamingContainerManager implements PlanContext
   {
     try {
       if (journal != null) {
-        journal.write(operation);
+        Future<Void> durable = journal.write(operation);
+        // plan changes made while processing events are covered by the snapshot written afterwards, other operations,
+        // including those of other threads while events are processed, are flushed together with those written
+        // concurrently
+        if (eventProcessingThread.get() == null) {
+          journal.flush();
+          durable.get();
+        }
       }
     } catch (Exception e) {
       throw new IllegalStateException("Failed to write to journal " + operation, e);
@@ -3031,6 +3655,20 @@ public class StreamingContainerManager implements PlanContext
             scm.requestContainer(c);
           }
         }
+        // standby containers of the previous attempt have no agent and are shut down on their next heartbeat
+        for (Map.Entry<PTContainer, PTContainer> e : plan.getStandbyContainers().entrySet()) {
+          PTContainer standby = e.getValue();
+          if (standby.getState() != PTContainer.State.NEW) {
+            LOG.debug("Reset standby container {} of previous attempt for {}", standby.getExternalId(), e.getKey());
+            standby.setState(PTContainer.State.NEW);
+            standby.setExternalId(null);
+            standby.bufferServerAddress = null;
+            standby.setResourceRequestPriority(-1);
+            standby.setAllocatedMemoryMB(0);
+            standby.setAllocatedVCores(0);
+          }
+          scm.requestStandbyContainer(e.getKey());
+        }
       }
       scm.recoveryHandler = rh;
       scm.checkpoint();
@@ -3069,7 +3707,9 @@ public class StreamingContainerManager implements PlanContext
         attributes.put(LogicalPlan.CHECKPOINT_WINDOW_COUNT, 30000 / attributes.get(LogicalPlan.STREAMING_WINDOW_SIZE_MILLIS));
       }
 
-      this.heartbeatTimeoutMillis = dag.getValue(LogicalPlan.HEARTBEAT_TIMEOUT_MILLIS);
+      // allow for the longest interval the containers back off to when there is nothing to report
+      this.heartbeatTimeoutMillis = dag.getValue(LogicalPlan.HEARTBEAT_TIMEOUT_MILLIS) + Math.max(0,
+          dag.getValue(LogicalPlan.HEARTBEAT_MAX_INTERVAL_MILLIS) - dag.getValue(LogicalPlan.HEARTBEAT_INTERVAL_MILLIS));
       this.maxWindowsBehindForStats = dag.getValue(LogicalPlan.STATS_MAX_ALLOWABLE_WINDOWS_LAG);
       this.enableStatsRecording = dag.getValue(LogicalPlan.ENABLE_STATS_RECORDING);
       this.rpcLatencyCompensationSamples = dag.getValue(LogicalPlan.RPC_LATENCY_COMPENSATION_SAMPLES);
@@ -33,6 +33,7 @@ import com.datatorrent.api.Attribute.AttributeMap;
 import com.datatorrent.api.Context.OperatorContext;
 import com.datatorrent.api.DAG.Locality;
 import com.datatorrent.api.StreamCodec;
+import com.datatorrent.common.metric.PartialMetricsAggregator;
 
 /**
  * Operator deployment info passed from master to container as part of initialization
@@ -306,6 +307,11 @@ public class OperatorDeployInfo implements Serializable, OperatorContext
    * Context attributes for operator
    */
   public AttributeMap contextAttributes;
+  /**
+   * Aggregator for the partial aggregation of the metrics of the partitions of the logical operator in the container,
+   * null when the metrics of each partition are sent to the master.
+   */
+  public PartialMetricsAggregator metricsAggregator;
 
   /**
    *
@@ -18,15 +18,20 @@
  */
 package com.datatorrent.stram.api;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.ipc.VersionedProtocol;
 
 import com.datatorrent.api.Attribute.AttributeMap;
@@ -180,6 +185,22 @@ public interface StreamingContainerUmbilicalProtocol extends VersionedProtocol
       this.state = state;
     }
 
+    /**
+     * Milliseconds spent to load the checkpoint of the operator when it was deployed, reported with the first
+     * heartbeat after deployment only. -1 otherwise.
+     */
+    public long restoreTimeMillis = -1;
+
+    public long getRestoreTimeMillis()
+    {
+      return restoreTimeMillis;
+    }
+
+    public void setRestoreTimeMillis(long restoreTimeMillis)
+    {
+      this.restoreTimeMillis = restoreTimeMillis;
+    }
+
     /**
      * Return the response of the request
      */
@@ -233,6 +254,11 @@ public interface StreamingContainerUmbilicalProtocol extends VersionedProtocol
     public boolean restartRequested;
     public long gcCollectionTime;
     public long gcCollectionCount;
+    /**
+     * Asynchronous checkpoints queued or being uploaded and the bytes uploaded per second since the last heartbeat.
+     */
+    public int checkpointUploadQueueSize;
+    public long checkpointUploadBytesPS;
 
     public ContainerStats stats;
 
@@ -254,6 +280,252 @@ public interface StreamingContainerUmbilicalProtocol extends VersionedProtocol
     }
 
     public String stackTrace;
+
+    private static final int COMPACT_VERSION = 1;
+
+    @Override
+    protected int getCompactVersion()
+    {
+      return COMPACT_VERSION;
+    }
+
+    @Override
+    protected void writeCompact(DataOutput out) throws IOException
+    {
+      WritableUtils.writeString(out, bufferServerHost);
+      WritableUtils.writeVInt(out, bufferServerPort);
+      WritableUtils.writeString(out, jvmName);
+      WritableUtils.writeVInt(out, memoryMBFree);
+      out.writeBoolean(restartRequested);
+      WritableUtils.writeVLong(out, gcCollectionTime);
+      WritableUtils.writeVLong(out, gcCollectionCount);
+      WritableUtils.writeVInt(out, checkpointUploadQueueSize);
+      WritableUtils.writeVLong(out, checkpointUploadBytesPS);
+      WritableUtils.writeVLong(out, sentTms);
+      WritableUtils.writeString(out, stackTrace);
+      out.writeBoolean(stats != null);
+      if (stats != null) {
+        WritableUtils.writeString(out, stats.id);
+        writeSize(out, stats.operators);
+        if (stats.operators != null) {
+          // port and metric names repeat for every window, each is written once
+          Map<String, Integer> names = new HashMap<>();
+          for (OperatorHeartbeat ohb : stats.operators) {
+            writeOperatorHeartbeat(out, ohb, names);
+          }
+        }
+      }
+    }
+
+    @Override
+    protected void readCompact(DataInput in, int version) throws IOException
+    {
+      bufferServerHost = WritableUtils.readString(in);
+      bufferServerPort = WritableUtils.readVInt(in);
+      jvmName = WritableUtils.readString(in);
+      memoryMBFree = WritableUtils.readVInt(in);
+      restartRequested = in.readBoolean();
+      gcCollectionTime = WritableUtils.readVLong(in);
+      gcCollectionCount = WritableUtils.readVLong(in);
+      checkpointUploadQueueSize = WritableUtils.readVInt(in);
+      checkpointUploadBytesPS = WritableUtils.readVLong(in);
+      sentTms = WritableUtils.readVLong(in);
+      stackTrace = WritableUtils.readString(in);
+      stats = null;
+      if (in.readBoolean()) {
+        stats = new ContainerStats(WritableUtils.readString(in));
+        int size = WritableUtils.readVInt(in);
+        stats.operators = size < 0 ? null : new ArrayList<OperatorHeartbeat>(size);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+          stats.operators.add(readOperatorHeartbeat(in, names));
+        }
+      }
+    }
+
+    private static void writeSize(DataOutput out, List<?> list) throws IOException
+    {
+      WritableUtils.writeVInt(out, list == null ? -1 : list.size());
+    }
+
+    /**
+     * Write the index of a name written before or the name itself the first time.
+     */
+    private static void writeName(DataOutput out, String name, Map<String, Integer> names) throws IOException
+    {
+      if (name == null) {
+        WritableUtils.writeVInt(out, -1);
+        return;
+      }
+      Integer index = names.get(name);
+      if (index != null) {
+        WritableUtils.writeVInt(out, index + 1);
+      } else {
+        names.put(name, names.size());
+        WritableUtils.writeVInt(out, 0);
+        WritableUtils.writeString(out, name);
+      }
+    }
+
+    private static String readName(DataInput in, List<String> names) throws IOException
+    {
+      int index = WritableUtils.readVInt(in);
+      if (index < 0) {
+        return null;
+      } else if (index > 0) {
+        return names.get(index - 1);
+      }
+      String name = WritableUtils.readString(in);
+      names.add(name);
+      return name;
+    }
+
+    private static void writeOperatorHeartbeat(DataOutput out, OperatorHeartbeat ohb, Map<String, Integer> names)
+        throws IOException
+    {
+      WritableUtils.writeVInt(out, ohb.nodeId);
+      WritableUtils.writeVLong(out, ohb.generatedTms);
+      WritableUtils.writeVLong(out, ohb.intervalMs);
+      WritableUtils.writeVInt(out, ohb.state == null ? -1 : ohb.state.ordinal());
+      WritableUtils.writeVLong(out, ohb.restoreTimeMillis);
+      writeSerialized(out, ohb.requestResponse);
+      writeSize(out, ohb.windowStats);
+      if (ohb.windowStats != null) {
+        for (Stats.OperatorStats os : ohb.windowStats) {
+          writeOperatorStats(out, os, names);
+        }
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static OperatorHeartbeat readOperatorHeartbeat(DataInput in, List<String> names) throws IOException
+    {
+      OperatorHeartbeat ohb = new OperatorHeartbeat();
+      ohb.nodeId = WritableUtils.readVInt(in);
+      ohb.generatedTms = WritableUtils.readVLong(in);
+      ohb.intervalMs = WritableUtils.readVLong(in);
+      int state = WritableUtils.readVInt(in);
+      ohb.state = state < 0 ? null : OperatorHeartbeat.DeployState.values()[state];
+      ohb.restoreTimeMillis = WritableUtils.readVLong(in);
+      ohb.requestResponse = (ArrayList<StatsListener.OperatorResponse>)readSerialized(in);
+      int size = WritableUtils.readVInt(in);
+      ohb.windowStats = size < 0 ? null : new ArrayList<Stats.OperatorStats>(size);
+      for (int i = 0; i < size; i++) {
+        ohb.windowStats.add(readOperatorStats(in, names));
+      }
+      return ohb;
+    }
+
+    private static void writeOperatorStats(DataOutput out, Stats.OperatorStats os, Map<String, Integer> names)
+        throws IOException
+    {
+      WritableUtils.writeVLong(out, os.windowId);
+      if (os.checkpoint instanceof Checkpoint) {
+        Checkpoint checkpoint = (Checkpoint)os.checkpoint;
+        out.writeBoolean(true);
+        WritableUtils.writeVLong(out, checkpoint.windowId);
+        WritableUtils.writeVInt(out, checkpoint.applicationWindowCount);
+        WritableUtils.writeVInt(out, checkpoint.checkpointWindowCount);
+      } else {
+        out.writeBoolean(false);
+        writeSerialized(out, os.checkpoint);
+      }
+      writePortStats(out, os.inputPorts, names);
+      writePortStats(out, os.outputPorts, names);
+      WritableUtils.writeVLong(out, os.cpuTimeUsed);
+      Stats.CheckpointStats cs = os.checkpointStats;
+      out.writeBoolean(cs != null);
+      if (cs != null) {
+        WritableUtils.writeVLong(out, cs.checkpointStartTime);
+        WritableUtils.writeVLong(out, cs.checkpointTime);
+        WritableUtils.writeVLong(out, cs.checkpointSize);
+        WritableUtils.writeVLong(out, cs.checkpointSerializedSize);
+        WritableUtils.writeVLong(out, cs.checkpointCompressionTime);
+        WritableUtils.writeVLong(out, cs.checkpointSerializeTime);
+        WritableUtils.writeVLong(out, cs.checkpointUploadTime);
+      }
+      writeSerialized(out, os.counters);
+      WritableUtils.writeVInt(out, os.metrics == null ? -1 : os.metrics.size());
+      if (os.metrics != null) {
+        for (Map.Entry<String, Object> e : os.metrics.entrySet()) {
+          writeName(out, e.getKey(), names);
+          writeValue(out, e.getValue());
+        }
+      }
+      WritableUtils.writeString(out, os.recordingId);
+    }
+
+    private static Stats.OperatorStats readOperatorStats(DataInput in, List<String> names) throws IOException
+    {
+      Stats.OperatorStats os = new Stats.OperatorStats();
+      os.windowId = WritableUtils.readVLong(in);
+      if (in.readBoolean()) {
+        os.checkpoint = new Checkpoint(WritableUtils.readVLong(in), WritableUtils.readVInt(in), WritableUtils.readVInt(in));
+      } else {
+        os.checkpoint = (Stats.Checkpoint)readSerialized(in);
+      }
+      os.inputPorts = readPortStats(in, names);
+      os.outputPorts = readPortStats(in, names);
+      os.cpuTimeUsed = WritableUtils.readVLong(in);
+      if (in.readBoolean()) {
+        Stats.CheckpointStats cs = new Stats.CheckpointStats();
+        cs.checkpointStartTime = WritableUtils.readVLong(in);
+        cs.checkpointTime = WritableUtils.readVLong(in);
+        cs.checkpointSize = WritableUtils.readVLong(in);
+        cs.checkpointSerializedSize = WritableUtils.readVLong(in);
+        cs.checkpointCompressionTime = WritableUtils.readVLong(in);
+        cs.checkpointSerializeTime = WritableUtils.readVLong(in);
+        cs.checkpointUploadTime = WritableUtils.readVLong(in);
+        os.checkpointStats = cs;
+      }
+      os.counters = readSerialized(in);
+      int size = WritableUtils.readVInt(in);
+      if (size >= 0) {
+        os.metrics = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+          String key = readName(in, names);
+          os.metrics.put(key, readValue(in));
+        }
+      }
+      os.recordingId = WritableUtils.readString(in);
+      return os;
+    }
+
+    private static void writePortStats(DataOutput out, List<Stats.OperatorStats.PortStats> ports,
+        Map<String, Integer> names) throws IOException
+    {
+      writeSize(out, ports);
+      if (ports != null) {
+        for (Stats.OperatorStats.PortStats ps : ports) {
+          writeName(out, ps.id, names);
+          WritableUtils.writeVInt(out, ps.tupleCount);
+          WritableUtils.writeVLong(out, ps.endWindowTimestamp);
+          WritableUtils.writeVLong(out, ps.bufferServerBytes);
+          WritableUtils.writeVInt(out, ps.queueSize);
+          WritableUtils.writeString(out, ps.recordingId);
+        }
+      }
+    }
+
+    private static ArrayList<Stats.OperatorStats.PortStats> readPortStats(DataInput in, List<String> names)
+        throws IOException
+    {
+      int size = WritableUtils.readVInt(in);
+      if (size < 0) {
+        return null;
+      }
+      ArrayList<Stats.OperatorStats.PortStats> ports = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        Stats.OperatorStats.PortStats ps = new Stats.OperatorStats.PortStats(readName(in, names));
+        ps.tupleCount = WritableUtils.readVInt(in);
+        ps.endWindowTimestamp = WritableUtils.readVLong(in);
+        ps.bufferServerBytes = WritableUtils.readVLong(in);
+        ps.queueSize = WritableUtils.readVInt(in);
+        ps.recordingId = WritableUtils.readString(in);
+        ports.add(ps);
+      }
+      return ports;
+    }
   }
 
   /**
@@ -377,12 +649,64 @@ public interface StreamingContainerUmbilicalProtocol extends VersionedProtocol
      */
     public List<OperatorDeployInfo> deployRequest;
 
+    /**
+     * Set for a standby container when the recovery checkpoint of operators in the container it protects changed.
+     * The standby container restores the operators in the background, to deploy them without loading the checkpoint
+     * when it takes over.
+     */
+    public List<OperatorDeployInfo> standbyRequest;
+
     /**
      * Set when dag purges a particular windowId as it's processed by all the operators.
      */
     public long committedWindowId = -1;
 
     public boolean stackTraceRequired = false;
+
+    private static final int COMPACT_VERSION = 1;
+
+    @Override
+    protected int getCompactVersion()
+    {
+      return COMPACT_VERSION;
+    }
+
+    @Override
+    protected void writeCompact(DataOutput out) throws IOException
+    {
+      out.writeBoolean(shutdown);
+      out.writeBoolean(hasPendingRequests);
+      out.writeBoolean(stackTraceRequired);
+      WritableUtils.writeVLong(out, committedWindowId);
+      WritableUtils.writeVInt(out, undeployRequest == null ? -1 : undeployRequest.size());
+      if (undeployRequest != null) {
+        for (Integer operatorId : undeployRequest) {
+          WritableUtils.writeVInt(out, operatorId);
+        }
+      }
+      // requests are rare compared to the heartbeats and deploy info has no fixed schema
+      writeSerialized(out, nodeRequests);
+      writeSerialized(out, deployRequest);
+      writeSerialized(out, standbyRequest);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void readCompact(DataInput in, int version) throws IOException
+    {
+      shutdown = in.readBoolean();
+      hasPendingRequests = in.readBoolean();
+      stackTraceRequired = in.readBoolean();
+      committedWindowId = WritableUtils.readVLong(in);
+      int size = WritableUtils.readVInt(in);
+      undeployRequest = size < 0 ? null : new ArrayList<Integer>(size);
+      for (int i = 0; i < size; i++) {
+        undeployRequest.add(WritableUtils.readVInt(in));
+      }
+      nodeRequests = (List<StramToNodeRequest>)readSerialized(in);
+      deployRequest = (List<OperatorDeployInfo>)readSerialized(in);
+      standbyRequest = (List<OperatorDeployInfo>)readSerialized(in);
+    }
   }
 
   /**
@@ -0,0 +1,342 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.stram.engine;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datatorrent.api.Stats;
+import com.datatorrent.api.StorageAgent;
+import com.datatorrent.common.util.AsyncFSStorageAgent;
+import com.datatorrent.common.util.CheckpointChunkPool;
+import com.datatorrent.common.util.NameableThreadFactory;
+import com.datatorrent.stram.plan.logical.LogicalPlan;
+
+/**
+ * Copies the checkpoints saved locally by {@link AsyncFSStorageAgent} to the distributed file system for all the
+ * operators of a container.<p>
+ * <br>
+ * The number of concurrent uploads is bounded and the aggregate upload rate can be capped, so that the uploads
+ * following a checkpoint window do not saturate the network shared with the buffer server. Pending uploads are served
+ * oldest window first, as the oldest checkpoint not yet uploaded holds back the committed window of the application.
+ * The checkpoints of an operator are uploaded one at a time in the order they were taken. The scheduler also saves
+ * the snapshots of operators that implement {@link com.datatorrent.api.Operator.CheckpointSnapshotProvider} in the
+ * background, and it is the {@link AsyncFSStorageAgent.UploadContext} that runs the writes of streamed checkpoints
+ * within the same limits and provides the memory for their chunks.
+ *
+ * @since 3.5.0
+ */
+public class CheckpointUploadScheduler implements AsyncFSStorageAgent.UploadContext
+{
+  private final ThreadPoolExecutor executor;
+  private final CheckpointChunkPool chunkPool;
+  private final long maxBytesPerSecond;
+  private final AtomicLong sequence = new AtomicLong();
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  private final AtomicLong uploadedBytes = new AtomicLong();
+  /**
+   * Uploads waiting for the upload of an earlier checkpoint of the same operator, by operator id.
+   */
+  private final Map<Integer, Queue<UploadTask>> operatorQueues = new HashMap<>();
+  private long nextUploadNanos;
+  private long lastUploadedBytes;
+  private long lastThroughputMillis = System.currentTimeMillis();
+
+  /**
+   * @param parallelism maximum number of concurrent uploads
+   * @param maxBytesPerSecond aggregate upload rate, zero or less for no limit
+   */
+  public CheckpointUploadScheduler(int parallelism, long maxBytesPerSecond)
+  {
+    this(parallelism, maxBytesPerSecond, LogicalPlan.CHECKPOINT_CHUNK_MEMORY_BYTES.defaultValue);
+  }
+
+  /**
+   * @param parallelism maximum number of concurrent uploads
+   * @param maxBytesPerSecond aggregate upload rate, zero or less for no limit
+   * @param chunkMemoryBytes memory for the chunks of streamed checkpoints
+   */
+  public CheckpointUploadScheduler(int parallelism, long maxBytesPerSecond, long chunkMemoryBytes)
+  {
+    this.maxBytesPerSecond = maxBytesPerSecond;
+    this.chunkPool = new CheckpointChunkPool(chunkMemoryBytes);
+    executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<Runnable>(), new NameableThreadFactory("CheckpointUpload", true));
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Task of the executor, ordered by window.
+   */
+  private class ScheduledTask<V> extends FutureTask<V> implements Comparable<ScheduledTask<?>>
+  {
+    final long windowId;
+    final long seq;
+
+    ScheduledTask(Callable<V> callable, long windowId)
+    {
+      super(callable);
+      this.windowId = windowId;
+      this.seq = sequence.getAndIncrement();
+    }
+
+    ScheduledTask(Runnable runnable, long windowId)
+    {
+      super(runnable, null);
+      this.windowId = windowId;
+      this.seq = sequence.getAndIncrement();
+    }
+
+    @Override
+    public int compareTo(ScheduledTask<?> o)
+    {
+      int cmp = Long.compare(windowId, o.windowId);
+      return cmp != 0 ? cmp : Long.compare(seq, o.seq);
+    }
+  }
+
+  private class UploadTask extends ScheduledTask<Stats.CheckpointStats>
+  {
+    final int operatorId;
+    final AtomicBoolean pending = new AtomicBoolean(true);
+
+    UploadTask(Callable<Stats.CheckpointStats> callable, int operatorId, long windowId)
+    {
+      super(callable, windowId);
+      this.operatorId = operatorId;
+    }
+
+    /**
+     * The task is no longer pending once it completed or was cancelled, whether it ran or not. The count is updated
+     * before the result is visible to the callers waiting for it.
+     */
+    private void complete()
+    {
+      if (pending.compareAndSet(true, false)) {
+        pendingCount.decrementAndGet();
+      }
+    }
+
+    @Override
+    protected void set(Stats.CheckpointStats v)
+    {
+      complete();
+      super.set(v);
+    }
+
+    @Override
+    protected void setException(Throwable t)
+    {
+      complete();
+      super.setException(t);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+      complete();
+      return super.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    protected void done()
+    {
+      UploadTask next;
+      synchronized (operatorQueues) {
+        Queue<UploadTask> queue = operatorQueues.get(operatorId);
+        if (queue.remove(this)) {
+          // cancelled while waiting for an earlier upload of the operator
+          return;
+        }
+        next = queue.poll();
+        if (next == null) {
+          operatorQueues.remove(operatorId);
+        }
+      }
+      if (next != null && !executor.isShutdown()) {
+        executor.execute(next);
+      }
+    }
+  }
+
+  /**
+   * Schedule the upload of a checkpoint saved locally.
+   *
+   * @param agent the storage agent that saved the checkpoint
+   * @param operatorId operator id
+   * @param windowId checkpoint window id
+   * @param stats checkpoint stats to be completed with the checkpoint time
+   * @return future that completes when the checkpoint was copied
+   */
+  public FutureTask<Stats.CheckpointStats> submit(final AsyncFSStorageAgent agent, final int operatorId,
+      final long windowId, final Stats.CheckpointStats stats)
+  {
+    UploadTask task = new UploadTask(new Callable<Stats.CheckpointStats>()
+    {
+      @Override
+      public Stats.CheckpointStats call() throws Exception
+      {
+        upload(agent, operatorId, windowId, stats);
+        return stats;
+      }
+    }, operatorId, windowId);
+    return schedule(task);
+  }
+
+  /**
+   * Schedule the save of the snapshot of an operator, followed by its upload when the storage agent saves locally.
+   *
+   * @param agent the storage agent of the operator
+   * @param snapshot the snapshot of the operator state
+   * @param operatorId operator id
+   * @param windowId checkpoint window id
+   * @param stats checkpoint stats to be completed with the checkpoint time
+   * @return future that completes when the checkpoint was saved
+   */
+  public FutureTask<Stats.CheckpointStats> submitSnapshot(final StorageAgent agent, final Object snapshot,
+      final int operatorId, final long windowId, final Stats.CheckpointStats stats)
+  {
+    UploadTask task = new UploadTask(new Callable<Stats.CheckpointStats>()
+    {
+      @Override
+      public Stats.CheckpointStats call() throws Exception
+      {
+        long saveStartTime = System.currentTimeMillis();
+        agent.save(snapshot, operatorId, windowId);
+        stats.checkpointSerializeTime = System.currentTimeMillis() - saveStartTime;
+        Node.setCheckpointSizes(agent, operatorId, stats);
+        if (agent instanceof AsyncFSStorageAgent && !((AsyncFSStorageAgent)agent).isSyncCheckpoint()) {
+          upload((AsyncFSStorageAgent)agent, operatorId, windowId, stats);
+        } else {
+          stats.checkpointTime = System.currentTimeMillis() - stats.checkpointStartTime;
+        }
+        return stats;
+      }
+    }, operatorId, windowId);
+    return schedule(task);
+  }
+
+  private void upload(AsyncFSStorageAgent agent, int operatorId, long windowId, Stats.CheckpointStats stats)
+      throws Exception
+  {
+    long bytes = agent.getLocalCheckpointSize(operatorId, windowId);
+    if (!agent.isStreamed(operatorId, windowId)) {
+      // the chunks of streamed checkpoints are charged when they are written
+      throttle(bytes);
+    }
+    long uploadStartTime = System.currentTimeMillis();
+    agent.copyToHDFS(operatorId, windowId);
+    uploadedBytes.addAndGet(bytes);
+    long currentTime = System.currentTimeMillis();
+    stats.checkpointUploadTime = currentTime - uploadStartTime;
+    stats.checkpointTime = currentTime - stats.checkpointStartTime;
+  }
+
+  private UploadTask schedule(UploadTask task)
+  {
+    int operatorId = task.operatorId;
+    pendingCount.incrementAndGet();
+    synchronized (operatorQueues) {
+      Queue<UploadTask> queue = operatorQueues.get(operatorId);
+      if (queue != null) {
+        queue.add(task);
+        return task;
+      }
+      operatorQueues.put(operatorId, new ArrayDeque<UploadTask>());
+    }
+    executor.execute(task);
+    return task;
+  }
+
+  @Override
+  public void execute(long windowId, Runnable write)
+  {
+    executor.execute(new ScheduledTask<Void>(write, windowId));
+  }
+
+  /**
+   * Delay the upload so that the aggregate rate of all uploads stays within the limit.
+   */
+  @Override
+  public void throttle(long bytes) throws InterruptedException
+  {
+    if (maxBytesPerSecond <= 0) {
+      return;
+    }
+    long waitNanos;
+    synchronized (this) {
+      long now = System.nanoTime();
+      long start = Math.max(now, nextUploadNanos);
+      nextUploadNanos = start + (long)(bytes * 1e9 / maxBytesPerSecond);
+      waitNanos = start - now;
+    }
+    if (waitNanos > 0) {
+      logger.debug("Delaying upload of {} bytes by {} ms", bytes, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  @Override
+  public CheckpointChunkPool getChunkPool()
+  {
+    return chunkPool;
+  }
+
+  /**
+   * @return number of uploads queued or in progress
+   */
+  public int getQueueSize()
+  {
+    return pendingCount.get();
+  }
+
+  /**
+   * @return bytes uploaded per second since the previous call
+   */
+  public synchronized long getThroughput()
+  {
+    long currentMillis = System.currentTimeMillis();
+    long bytes = uploadedBytes.get();
+    long elapsed = currentMillis - lastThroughputMillis;
+    long throughput = elapsed > 0 ? (bytes - lastUploadedBytes) * 1000 / elapsed : 0;
+    lastUploadedBytes = bytes;
+    lastThroughputMillis = currentMillis;
+    return throughput;
+  }
+
+  public void shutdown()
+  {
+    executor.shutdownNow();
+  }
+
+  private static final Logger logger = LoggerFactory.getLogger(CheckpointUploadScheduler.class);
+}
@@ -174,10 +174,10 @@ public class GenericNode extends Node<Operator>
     }
 
     ContainerStats.OperatorStats stats = new ContainerStats.OperatorStats();
-    reportStats(stats, currentWindowId);
     if (!insideWindow) {
       stats.metrics = collectMetrics();
     }
+    reportStats(stats, currentWindowId);
     handleRequests(currentWindowId);
   }
 
@@ -649,8 +649,8 @@ public class GenericNode extends Node<Operator>
 
       ContainerStats.OperatorStats stats = new ContainerStats.OperatorStats();
       fixEndWindowDequeueTimesBeforeDeactivate();
-      reportStats(stats, currentWindowId);
       stats.metrics = collectMetrics();
+      reportStats(stats, currentWindowId);
       handleRequests(currentWindowId);
     }
 
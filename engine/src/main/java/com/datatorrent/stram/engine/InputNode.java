@@ -156,10 +156,10 @@ public class InputNode extends Node<InputOperator>
               }
 
               ContainerStats.OperatorStats stats = new ContainerStats.OperatorStats();
-              reportStats(stats, currentWindowId);
               if (!insideApplicationWindow) {
                 stats.metrics = collectMetrics();
               }
+              reportStats(stats, currentWindowId);
               handleRequests(currentWindowId);
               break;
 
@@ -246,8 +246,8 @@ public class InputNode extends Node<InputOperator>
       }
 
       ContainerStats.OperatorStats stats = new ContainerStats.OperatorStats();
-      reportStats(stats, currentWindowId);
       stats.metrics = collectMetrics();
+      reportStats(stats, currentWindowId);
       handleRequests(currentWindowId);
     }
   }
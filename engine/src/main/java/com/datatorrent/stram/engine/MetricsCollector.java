@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.stram.engine;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.google.common.base.Throwables;
+
+import com.datatorrent.api.AutoMetric;
+
+/**
+ * Collects the values of the {@link AutoMetric} fields and getters of an operator.<p>
+ * <br>
+ * The accessors are looked up and bound to method handles once, so that the metrics of a window are read without the
+ * access checks and argument arrays of reflection. The map of the values is sized for all metrics up front.
+ *
+ * @since 3.5.0
+ */
+class MetricsCollector
+{
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+  private final String[] names;
+  private final MethodHandle[] getters;
+  private final int capacity;
+
+  MetricsCollector(Class<?> operatorClass)
+  {
+    // the getters override fields of the same name
+    Map<String, MethodHandle> accessors = new LinkedHashMap<>();
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      for (Field field : ReflectionUtils.getDeclaredFieldsIncludingInherited(operatorClass)) {
+        if (field.isAnnotationPresent(AutoMetric.class)) {
+          field.setAccessible(true);
+          accessors.put(field.getName(), lookup.unreflectGetter(field).asType(GETTER_TYPE));
+        }
+      }
+
+      for (PropertyDescriptor pd : Introspector.getBeanInfo(operatorClass).getPropertyDescriptors()) {
+        Method readMethod = pd.getReadMethod();
+        if (readMethod != null && readMethod.getAnnotation(AutoMetric.class) != null) {
+          readMethod.setAccessible(true);
+          accessors.put(pd.getName(), lookup.unreflect(readMethod).asType(GETTER_TYPE));
+        }
+      }
+    } catch (IntrospectionException e) {
+      throw new RuntimeException("introspecting " + operatorClass, e);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+
+    names = accessors.keySet().toArray(new String[accessors.size()]);
+    getters = accessors.values().toArray(new MethodHandle[accessors.size()]);
+    capacity = (int)(names.length / 0.75f) + 1;
+  }
+
+  /**
+   * Read the metrics of the operator.
+   *
+   * @param operator operator instance of the class the collector was created for
+   * @param metricsToSend names of the metrics to collect, null to collect all metrics
+   * @return metric values by name
+   */
+  Map<String, Object> collect(Object operator, Collection<String> metricsToSend)
+  {
+    Map<String, Object> metricValues = new HashMap<>(capacity);
+    try {
+      for (int i = 0; i < names.length; i++) {
+        if (metricsToSend != null && !metricsToSend.contains(names[i])) {
+          continue;
+        }
+        metricValues.put(names[i], (Object)getters[i].invokeExact(operator));
+      }
+    } catch (Throwable t) {
+      throw Throwables.propagate(t);
+    }
+    return metricValues;
+  }
+}
@@ -18,43 +18,29 @@
  */
 package com.datatorrent.stram.engine;
 
-import java.beans.IntrospectionException;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.apache.hadoop.util.ReflectionUtils;
-
 import com.google.common.base.Throwables;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.math.IntMath;
 
-import com.datatorrent.api.AutoMetric;
 import com.datatorrent.api.Component;
 import com.datatorrent.api.Context;
 import com.datatorrent.api.InputOperator;
@@ -70,11 +56,13 @@ import com.datatorrent.api.StatsListener.OperatorRequest;
 import com.datatorrent.api.StorageAgent;
 import com.datatorrent.bufferserver.util.Codec;
 import com.datatorrent.common.util.AsyncFSStorageAgent;
+import com.datatorrent.common.util.FSStorageAgent;
 import com.datatorrent.common.util.Pair;
 import com.datatorrent.stram.api.Checkpoint;
 import com.datatorrent.stram.api.OperatorDeployInfo;
 import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol.ContainerStats;
 import com.datatorrent.stram.debug.MuxSink;
+import com.datatorrent.stram.plan.logical.LogicalPlan;
 import com.datatorrent.stram.plan.logical.Operators;
 import com.datatorrent.stram.plan.logical.Operators.PortContextPair;
 import com.datatorrent.stram.plan.logical.Operators.PortMappingDescriptor;
@@ -126,9 +114,9 @@ public abstract class Node<OPERATOR extends Operator> implements Component<Opera
   protected int controlTupleCount;
   public final OperatorContext context;
   public final BlockingQueue<StatsListener.OperatorResponse> commandResponse;
-  private final List<Field> metricFields;
-  private final Map<String, Method> metricMethods;
-  private ExecutorService executorService;
+  private final MetricsCollector metricsCollector;
+  private CheckpointUploadScheduler uploadScheduler;
+  private boolean ownUploadScheduler;
   private Queue<Pair<FutureTask<Stats.CheckpointStats>, CheckpointWindowInfo>> taskQueue;
   protected Stats.CheckpointStats checkpointStats;
   public long firstWindowMillis;
@@ -138,7 +126,6 @@ public abstract class Node<OPERATOR extends Operator> implements Component<Opera
   {
     this.operator = operator;
     this.context = context;
-    executorService = Executors.newSingleThreadExecutor();
     taskQueue = new LinkedList<>();
 
     outputs = new HashMap<>();
@@ -150,28 +137,7 @@ public abstract class Node<OPERATOR extends Operator> implements Component<Opera
     tmb = ManagementFactory.getThreadMXBean();
     commandResponse = new LinkedBlockingQueue<>();
 
-    metricFields = Lists.newArrayList();
-    for (Field field : ReflectionUtils.getDeclaredFieldsIncludingInherited(operator.getClass())) {
-      if (field.isAnnotationPresent(AutoMetric.class)) {
-        metricFields.add(field);
-        field.setAccessible(true);
-      }
-    }
-
-    metricMethods = Maps.newHashMap();
-    try {
-      for (PropertyDescriptor pd : Introspector.getBeanInfo(operator.getClass()).getPropertyDescriptors()) {
-        Method readMethod = pd.getReadMethod();
-        if (readMethod != null) {
-          AutoMetric rfa = readMethod.getAnnotation(AutoMetric.class);
-          if (rfa != null) {
-            metricMethods.put(pd.getName(), readMethod);
-          }
-        }
-      }
-    } catch (IntrospectionException e) {
-      throw new RuntimeException("introspecting {}", e);
-    }
+    metricsCollector = new MetricsCollector(operator.getClass());
   }
 
   public Operator getOperator()
@@ -208,12 +174,30 @@ public abstract class Node<OPERATOR extends Operator> implements Component<Opera
       pcpair.component.teardown();
     }
 
-    if (executorService != null) {
-      executorService.shutdownNow();
+    // the checkpoints not uploaded yet will not be reported, the scheduler may be shared with other nodes
+    for (Pair<FutureTask<Stats.CheckpointStats>, CheckpointWindowInfo> pair : taskQueue) {
+      pair.getFirst().cancel(true);
+    }
+    taskQueue.clear();
+    if (ownUploadScheduler) {
+      uploadScheduler.shutdown();
+      uploadScheduler = null;
+      ownUploadScheduler = false;
     }
     operator.teardown();
   }
 
+  /**
+   * Set the scheduler shared by the operators of the container to upload asynchronous checkpoints. When not set, the
+   * node uploads its checkpoints one at a time.
+   *
+   * @param uploadScheduler the container wide scheduler
+   */
+  public void setCheckpointUploadScheduler(CheckpointUploadScheduler uploadScheduler)
+  {
+    this.uploadScheduler = uploadScheduler;
+  }
+
   public PortMappingDescriptor getPortMappingDescriptor()
   {
     return descriptor;
@@ -374,13 +358,18 @@ public abstract class Node<OPERATOR extends Operator> implements Component<Opera
       int size;
       StatsListener.OperatorResponse response;
       if ((size = requests.size()) > 0) {
+        boolean responded = false;
         while (size-- > 0) {
           //logger.debug("endwindow: " + t.getWindowId() + " lastprocessed: " + context.getLastProcessedWindowId());
           response = requests.remove().execute(operator, context.getId(), windowId);
           if (response != null) {
             commandResponse.add(response);
+            responded = true;
           }
         }
+        if (responded) {
+          context.triggerHeartbeat();
+        }
       }
     } catch (Error er) {
       throw er;
@@ -396,27 +385,9 @@ public abstract class Node<OPERATOR extends Operator> implements Component<Opera
     if (context.areMetricsListed() && (context.metricsToSend == null || context.metricsToSend.isEmpty())) {
       return null;
     }
-    Map<String, Object> metricValues = Maps.newHashMap();
-    try {
-      for (Field field : metricFields) {
-        if (context.metricsToSend != null && !context.metricsToSend.contains(field.getName())) {
-          continue;
-        }
-        metricValues.put(field.getName(), field.get(operator));
-      }
-
-      for (Map.Entry<String, Method> methodEntry : metricMethods.entrySet()) {
-        if (context.metricsToSend != null && !context.metricsToSend.contains(methodEntry.getKey())) {
-          continue;
-        }
-        metricValues.put(methodEntry.getKey(), methodEntry.getValue().invoke(operator));
-      }
-
-      context.clearMetrics();
-      return metricValues;
-    } catch (IllegalAccessException | InvocationTargetException iae) {
-      throw new RuntimeException(iae);
-    }
+    Map<String, Object> metricValues = metricsCollector.collect(operator, context.metricsToSend);
+    context.clearMetrics();
+    return metricValues;
   }
 
   protected void reportStats(ContainerStats.OperatorStats stats, long windowId)
@@ -493,28 +464,35 @@ public abstract class Node<OPERATOR extends Operator> implements Component<Opera
         try {
           checkpointStats = new Stats.CheckpointStats();
           checkpointStats.checkpointStartTime = System.currentTimeMillis();
-          ba.save(operator, id, windowId);
+          if (operator instanceof Operator.CheckpointSnapshotProvider && PROCESSING_MODE != ProcessingMode.EXACTLY_ONCE) {
+            // the snapshot is saved in the background, the checkpoint is reported once done
+            Operator snapshot = ((Operator.CheckpointSnapshotProvider)operator).getCheckpointSnapshot(windowId);
+            FutureTask<Stats.CheckpointStats> futureTask = getUploadScheduler().submitSnapshot(ba, snapshot, id,
+                windowId, checkpointStats);
+            taskQueue.add(new Pair<>(futureTask, getCheckpointWindowInfo(windowId)));
+            checkpoint = null;
+            checkpointStats = null;
+            return;
+          }
+          Object state = operator instanceof Operator.CheckpointSnapshotProvider ?
+              ((Operator.CheckpointSnapshotProvider)operator).getCheckpointSnapshot(windowId) : operator;
+          ba.save(state, id, windowId);
+          checkpointStats.checkpointSerializeTime = System.currentTimeMillis() - checkpointStats.checkpointStartTime;
+          setCheckpointSizes(ba, id, checkpointStats);
           if (ba instanceof AsyncFSStorageAgent) {
             AsyncFSStorageAgent asyncFSStorageAgent = (AsyncFSStorageAgent)ba;
             if (!asyncFSStorageAgent.isSyncCheckpoint()) {
               if (PROCESSING_MODE != ProcessingMode.EXACTLY_ONCE) {
-                CheckpointWindowInfo checkpointWindowInfo = new CheckpointWindowInfo();
-                checkpointWindowInfo.windowId = windowId;
-                checkpointWindowInfo.applicationWindowCount = applicationWindowCount;
-                checkpointWindowInfo.checkpointWindowCount = checkpointWindowCount;
-                CheckpointHandler checkpointHandler = new CheckpointHandler();
-                checkpointHandler.agent = asyncFSStorageAgent;
-                checkpointHandler.operatorId = id;
-                checkpointHandler.windowId = windowId;
-                checkpointHandler.stats = checkpointStats;
-                FutureTask<Stats.CheckpointStats> futureTask = new FutureTask<>(checkpointHandler);
-                taskQueue.add(new Pair<>(futureTask, checkpointWindowInfo));
-                executorService.submit(futureTask);
+                FutureTask<Stats.CheckpointStats> futureTask = getUploadScheduler().submit(asyncFSStorageAgent, id,
+                    windowId, checkpointStats);
+                taskQueue.add(new Pair<>(futureTask, getCheckpointWindowInfo(windowId)));
                 checkpoint = null;
                 checkpointStats = null;
                 return;
               } else {
+                long uploadStartTime = System.currentTimeMillis();
                 asyncFSStorageAgent.copyToHDFS(id, windowId);
+                checkpointStats.checkpointUploadTime = System.currentTimeMillis() - uploadStartTime;
               }
             }
           }
@@ -540,6 +518,38 @@ public abstract class Node<OPERATOR extends Operator> implements Component<Opera
     }
   }
 
+  private CheckpointUploadScheduler getUploadScheduler()
+  {
+    if (uploadScheduler == null) {
+      uploadScheduler = new CheckpointUploadScheduler(1, 0);
+      ownUploadScheduler = true;
+    }
+    return uploadScheduler;
+  }
+
+  private CheckpointWindowInfo getCheckpointWindowInfo(long windowId)
+  {
+    CheckpointWindowInfo checkpointWindowInfo = new CheckpointWindowInfo();
+    checkpointWindowInfo.windowId = windowId;
+    checkpointWindowInfo.applicationWindowCount = applicationWindowCount;
+    checkpointWindowInfo.checkpointWindowCount = checkpointWindowCount;
+    return checkpointWindowInfo;
+  }
+
+  /**
+   * Set the sizes of the checkpoint just saved by the storage agent in the checkpoint stats.
+   */
+  static void setCheckpointSizes(StorageAgent ba, int id, Stats.CheckpointStats checkpointStats)
+  {
+    if (ba instanceof FSStorageAgent) {
+      FSStorageAgent fsStorageAgent = (FSStorageAgent)ba;
+      checkpointStats.checkpointSize = fsStorageAgent.getCheckpointSize(id);
+      checkpointStats.checkpointSerializedSize = fsStorageAgent.getCheckpointSerializedSize(id);
+      checkpointStats.checkpointCompressionTime =
+          TimeUnit.NANOSECONDS.toMillis(fsStorageAgent.getCheckpointCompressionTime(id));
+    }
+  }
+
   protected void calculateNextCheckpointWindow()
   {
     if (PROCESSING_MODE != ProcessingMode.EXACTLY_ONCE) {
@@ -632,6 +642,8 @@ public abstract class Node<OPERATOR extends Operator> implements Component<Opera
     if (!DATA_TUPLE_AWARE && (operator instanceof StatsListener)) {
       DATA_TUPLE_AWARE = operator.getClass().isAnnotationPresent(StatsListener.DataQueueSize.class);
     }
+    context.setStatsSampleWindowCount(DATA_TUPLE_AWARE ? 0 :
+        context.getValue(LogicalPlan.HEARTBEAT_STATS_SAMPLE_WINDOW_COUNT));
     /*
      * If there were any requests which needed to be executed before the operator started
      * its normal execution, execute those requests now - e.g. Restarting the operator
@@ -653,23 +665,6 @@ public abstract class Node<OPERATOR extends Operator> implements Component<Opera
     deactivateSinks();
   }
 
-  private class CheckpointHandler implements Callable<Stats.CheckpointStats>
-  {
-
-    public AsyncFSStorageAgent agent;
-    public int operatorId;
-    public long windowId;
-    public Stats.CheckpointStats stats;
-
-    @Override
-    public Stats.CheckpointStats call() throws Exception
-    {
-      agent.copyToHDFS(id, windowId);
-      stats.checkpointTime = System.currentTimeMillis() - stats.checkpointStartTime;
-      return stats;
-    }
-  }
-
   private class CheckpointWindowInfo
   {
     public int applicationWindowCount;
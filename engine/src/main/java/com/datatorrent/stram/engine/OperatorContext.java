@@ -18,7 +18,9 @@
  */
 package com.datatorrent.stram.engine;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
 import org.slf4j.Logger;
@@ -49,12 +51,14 @@ public class OperatorContext extends BaseContext implements Context.OperatorCont
   private final CircularBuffer<OperatorRequest> requests = new CircularBuffer<OperatorRequest>(1024);
   public final boolean stateless;
   private int windowsFromCheckpoint;
+  private volatile int statsSampleWindowCount;
 
   /**
    * The operator to which this context is passed, will timeout after the following milliseconds if no new tuple has been received by it.
    */
   // we should make it configurable somehow.
   private long idleTimeout = 1000L;
+  private volatile Runnable heartbeatTrigger;
 
   @SuppressWarnings("ReturnOfCollectionOrArrayField")
   public BlockingQueue<OperatorRequest> getRequests()
@@ -118,7 +122,114 @@ public class OperatorContext extends BaseContext implements Context.OperatorCont
   public final synchronized int drainStats(Collection<? super ContainerStats.OperatorStats> stats)
   {
     //logger.debug("{} draining {}", counters);
-    return statsBuffer.drainTo(stats);
+    if (statsSampleWindowCount <= 1) {
+      return statsBuffer.drainTo(stats);
+    }
+
+    List<ContainerStats.OperatorStats> windows = new ArrayList<>(statsBuffer.size());
+    statsBuffer.drainTo(windows);
+    int count = 0;
+    ContainerStats.OperatorStats merged = null;
+    for (int i = 0; i < windows.size(); i++) {
+      ContainerStats.OperatorStats window = windows.get(i);
+      if (merged != null) {
+        mergeStats(merged, window);
+      }
+      /*
+       * The last window is always sent, the heartbeat should report the latest window the operator processed.
+       */
+      if (i == windows.size() - 1 || isSampleWindow(window)) {
+        stats.add(window);
+        count++;
+        merged = null;
+      } else {
+        merged = window;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Set the number of windows after which the complete stats of a window are sent with the heartbeat.
+   *
+   * @param windowCount zero or one to send the stats of every window
+   * @see com.datatorrent.stram.plan.logical.LogicalPlan#HEARTBEAT_STATS_SAMPLE_WINDOW_COUNT
+   */
+  public void setStatsSampleWindowCount(int windowCount)
+  {
+    this.statsSampleWindowCount = windowCount;
+  }
+
+  /**
+   * Set the callback that requests a heartbeat ahead of the heartbeat interval, when the operator has a checkpoint or
+   * a response to a request to report.
+   *
+   * @param heartbeatTrigger callback of the container
+   */
+  public void setHeartbeatTrigger(Runnable heartbeatTrigger)
+  {
+    this.heartbeatTrigger = heartbeatTrigger;
+  }
+
+  void triggerHeartbeat()
+  {
+    Runnable trigger = heartbeatTrigger;
+    if (trigger != null) {
+      trigger.run();
+    }
+  }
+
+  private boolean isSampleWindow(ContainerStats.OperatorStats stats)
+  {
+    return (stats.windowId & WindowGenerator.WINDOW_MASK) % statsSampleWindowCount == 0
+        || stats.checkpoint != null || stats.checkpointStats != null || stats.counters != null
+        || (stats.metrics != null && !stats.metrics.isEmpty());
+  }
+
+  /**
+   * Merge the stats of a window that is not sent into the stats of the following window.
+   */
+  private static void mergeStats(ContainerStats.OperatorStats from, ContainerStats.OperatorStats to)
+  {
+    to.cpuTimeUsed += from.cpuTimeUsed;
+    to.inputPorts = mergePortStats(from.inputPorts, to.inputPorts);
+    to.outputPorts = mergePortStats(from.outputPorts, to.outputPorts);
+  }
+
+  private static ArrayList<ContainerStats.OperatorStats.PortStats> mergePortStats(
+      ArrayList<ContainerStats.OperatorStats.PortStats> from, ArrayList<ContainerStats.OperatorStats.PortStats> to)
+  {
+    if (from == null) {
+      return to;
+    }
+    if (to == null) {
+      return from;
+    }
+    List<ContainerStats.OperatorStats.PortStats> removed = null;
+    for (ContainerStats.OperatorStats.PortStats fromPort : from) {
+      ContainerStats.OperatorStats.PortStats toPort = null;
+      for (ContainerStats.OperatorStats.PortStats port : to) {
+        if (port.id.equals(fromPort.id)) {
+          toPort = port;
+          break;
+        }
+      }
+      if (toPort == null) {
+        // keep the tuples of a port that was removed, the following heartbeat drops it
+        if (removed == null) {
+          removed = new ArrayList<>();
+        }
+        removed.add(fromPort);
+      } else {
+        toPort.tupleCount += fromPort.tupleCount;
+        toPort.bufferServerBytes += fromPort.bufferServerBytes;
+        toPort.queueSize = Math.max(toPort.queueSize, fromPort.queueSize);
+      }
+    }
+    if (removed != null) {
+      to.addAll(removed);
+    }
+    return to;
   }
 
   public final synchronized long getLastProcessedWindowId()
@@ -138,6 +249,9 @@ public class OperatorContext extends BaseContext implements Context.OperatorCont
       statsBuffer.poll();
       statsBuffer.offer(stats);
     }
+    if (stats.checkpoint != null) {
+      triggerHeartbeat();
+    }
   }
 
   public void request(OperatorRequest request)
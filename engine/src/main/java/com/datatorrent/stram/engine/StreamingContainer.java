@@ -38,8 +38,19 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,7 +67,10 @@ import org.apache.hadoop.yarn.conf.YarnConfiguration;
 import org.apache.log4j.DTLoggerFactory;
 import org.apache.log4j.LogManager;
 
+import com.google.common.base.Throwables;
+
 import com.datatorrent.api.Attribute;
+import com.datatorrent.api.AutoMetric;
 import com.datatorrent.api.Component;
 import com.datatorrent.api.Context;
 import com.datatorrent.api.DAG.Locality;
@@ -74,10 +88,15 @@ import com.datatorrent.api.annotation.Stateless;
 import com.datatorrent.bufferserver.server.Server;
 import com.datatorrent.bufferserver.storage.DiskStorage;
 import com.datatorrent.bufferserver.util.Codec;
+import com.datatorrent.common.metric.PartialMetricsAggregator;
+import com.datatorrent.common.util.AsyncFSStorageAgent;
+import com.datatorrent.common.util.NameableThreadFactory;
+import com.datatorrent.common.util.Pair;
 import com.datatorrent.common.util.ScheduledThreadPoolExecutor;
 import com.datatorrent.netlet.DefaultEventLoop;
 import com.datatorrent.netlet.util.Slice;
 import com.datatorrent.stram.ComponentContextPair;
+import com.datatorrent.stram.PhysicalMetricsContextImpl;
 import com.datatorrent.stram.RecoverableRpcProxy;
 import com.datatorrent.stram.StramUtils;
 import com.datatorrent.stram.StramUtils.YarnContainerMain;
@@ -113,6 +132,7 @@ import com.datatorrent.stram.stream.BufferServerPublisher;
 import com.datatorrent.stram.stream.BufferServerSubscriber;
 import com.datatorrent.stram.stream.FastPublisher;
 import com.datatorrent.stram.stream.FastSubscriber;
+import com.datatorrent.stram.stream.FusedOiOStream;
 import com.datatorrent.stram.stream.InlineStream;
 import com.datatorrent.stram.stream.MuxStream;
 import com.datatorrent.stram.stream.OiOStream;
@@ -147,8 +167,21 @@ public class StreamingContainer extends YarnContainerMain
   private final Map<Stream, StreamContext> activeStreams = new ConcurrentHashMap<>();
   private final Map<WindowGenerator, Object> activeGenerators = new ConcurrentHashMap<>();
   private int heartbeatIntervalMillis = 1000;
+  private int heartbeatMaxIntervalMillis = 1000;
   private volatile boolean exitHeartbeatLoop = false;
   private final Object heartbeatTrigger = new Object();
+  /**
+   * Set when there is a change to report that should not wait for the heartbeat interval, guarded by the trigger.
+   */
+  private boolean heartbeatTriggered;
+  private final Runnable heartbeatTriggerCallback = new Runnable()
+  {
+    @Override
+    public void run()
+    {
+      triggerHeartbeat();
+    }
+  };
   public static DefaultEventLoop eventloop;
   /**
    * List of listeners interested in listening into the status change of the nodes.
@@ -159,12 +192,29 @@ public class StreamingContainer extends YarnContainerMain
   private com.datatorrent.bufferserver.server.Server bufferServer;
   private int checkpointWindowCount;
   private boolean fastPublisherSubscriber;
+  private boolean threadLocalFusion;
   private StreamingContainerContext containerContext;
   private List<StramToNodeRequest> nodeRequests;
   private final HashMap<String, Object> singletons;
   private final MBassador<ContainerEvent> eventBus; // event bus for publishing container events
   HashSet<Component<ContainerContext>> components;
   private RequestFactory requestFactory;
+  private ExecutorService restoreExecutor;
+  private CheckpointUploadScheduler uploadScheduler;
+  /**
+   * Time taken to load the checkpoint of the recently deployed operators, to be reported with the next heartbeat.
+   */
+  private final Map<Integer, Long> restoreTimes = new ConcurrentHashMap<>();
+  /**
+   * Operators restored in the background while this is a standby container, by operator id, with the window id of the
+   * checkpoint they are restored from.
+   */
+  private final Map<Integer, SimpleEntry<Long, Future<Object>>> standbyRestores = new ConcurrentHashMap<>();
+  private ExecutorService standbyExecutor;
+  /**
+   * Deploy info of the operators whose metrics are aggregated with the other partitions in this container.
+   */
+  private final Map<Integer, OperatorDeployInfo> partialMetricsOperators = new ConcurrentHashMap<>();
 
   static {
     try {
@@ -197,11 +247,21 @@ public class StreamingContainer extends YarnContainerMain
     ctx.attributes.put(ContainerContext.REQUEST_FACTORY, requestFactory);
 
     heartbeatIntervalMillis = ctx.getValue(Context.DAGContext.HEARTBEAT_INTERVAL_MILLIS);
+    heartbeatMaxIntervalMillis = Math.max(heartbeatIntervalMillis, ctx.getValue(LogicalPlan.HEARTBEAT_MAX_INTERVAL_MILLIS));
     firstWindowMillis = ctx.startWindowMillis;
     windowWidthMillis = ctx.getValue(Context.DAGContext.STREAMING_WINDOW_SIZE_MILLIS);
     checkpointWindowCount = ctx.getValue(Context.DAGContext.CHECKPOINT_WINDOW_COUNT);
 
     fastPublisherSubscriber = ctx.getValue(LogicalPlan.FAST_PUBLISHER_SUBSCRIBER);
+    threadLocalFusion = ctx.getValue(LogicalPlan.THREAD_LOCAL_FUSION);
+    int restoreThreads = ctx.getValue(LogicalPlan.CHECKPOINT_RESTORE_THREADS);
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(restoreThreads, restoreThreads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new NameableThreadFactory("CheckpointRestore", true));
+    executor.allowCoreThreadTimeOut(true);
+    restoreExecutor = executor;
+    uploadScheduler = new CheckpointUploadScheduler(ctx.getValue(LogicalPlan.CHECKPOINT_UPLOAD_THREADS),
+        ctx.getValue(LogicalPlan.CHECKPOINT_UPLOAD_MAX_BYTES_PER_SECOND),
+        ctx.getValue(LogicalPlan.CHECKPOINT_CHUNK_MEMORY_BYTES));
 
     Map<Class<?>, Class<? extends StringCodec<?>>> codecs = ctx.getValue(Context.DAGContext.STRING_CODECS);
     StringCodecs.loadConverters(codecs);
@@ -565,6 +625,53 @@ public class StreamingContainer extends YarnContainerMain
 
     for (Integer operatorId : nodeList) {
       nodes.remove(operatorId);
+      partialMetricsOperators.remove(operatorId);
+    }
+  }
+
+  /**
+   * Replace the metrics of the partitions of a logical operator in this container with their partial aggregate, per
+   * window. The partial aggregate is sent with the stats of one of the partitions and merged with the partial aggregates
+   * of the other containers in the master.
+   *
+   * @param stats stats of the operators in the container
+   */
+  private void aggregatePartialMetrics(ContainerStats stats)
+  {
+    // logical operator -> window id -> stats of the window of the partitions that have metrics
+    Map<String, Map<Long, List<Pair<Integer, ContainerStats.OperatorStats>>>> windows = new HashMap<>();
+    for (OperatorHeartbeat hb : stats.operators) {
+      OperatorDeployInfo ndi = partialMetricsOperators.get(hb.nodeId);
+      if (ndi == null) {
+        continue;
+      }
+      Map<Long, List<Pair<Integer, ContainerStats.OperatorStats>>> operatorWindows = windows.get(ndi.name);
+      if (operatorWindows == null) {
+        windows.put(ndi.name, operatorWindows = new HashMap<>());
+      }
+      for (ContainerStats.OperatorStats os : hb.getOperatorStatsContainer()) {
+        if (os.metrics == null) {
+          continue;
+        }
+        List<Pair<Integer, ContainerStats.OperatorStats>> partitions = operatorWindows.get(os.windowId);
+        if (partitions == null) {
+          operatorWindows.put(os.windowId, partitions = new ArrayList<>());
+        }
+        partitions.add(new Pair<>(hb.nodeId, os));
+      }
+    }
+
+    for (Map<Long, List<Pair<Integer, ContainerStats.OperatorStats>>> operatorWindows : windows.values()) {
+      for (Map.Entry<Long, List<Pair<Integer, ContainerStats.OperatorStats>>> e : operatorWindows.entrySet()) {
+        List<Pair<Integer, ContainerStats.OperatorStats>> partitions = e.getValue();
+        List<AutoMetric.PhysicalMetricsContext> metrics = new ArrayList<>(partitions.size());
+        for (Pair<Integer, ContainerStats.OperatorStats> partition : partitions) {
+          metrics.add(new PhysicalMetricsContextImpl(partition.first, partition.second.metrics));
+          partition.second.metrics = null;
+        }
+        PartialMetricsAggregator aggregator = partialMetricsOperators.get(partitions.get(0).first).metricsAggregator;
+        partitions.get(0).second.metrics = aggregator.aggregate(e.getKey(), metrics);
+      }
     }
   }
 
@@ -577,6 +684,11 @@ public class StreamingContainer extends YarnContainerMain
     assert (streams.isEmpty());
 
     eventBus.shutdown();
+    restoreExecutor.shutdownNow();
+    if (standbyExecutor != null) {
+      standbyExecutor.shutdownNow();
+    }
+    uploadScheduler.shutdown();
 
     nodes.clear();
 
@@ -598,6 +710,7 @@ public class StreamingContainer extends YarnContainerMain
   public void triggerHeartbeat()
   {
     synchronized (heartbeatTrigger) {
+      heartbeatTriggered = true;
       heartbeatTrigger.notifyAll();
     }
   }
@@ -617,18 +730,28 @@ public class StreamingContainer extends YarnContainerMain
       logger.debug("token: {}", token);
     }
     String hdfsKeyTabFile = containerContext.getValue(LogicalPlan.KEY_TAB_FILE);
+    int intervalMillis = heartbeatIntervalMillis;
     while (!exitHeartbeatLoop) {
 
       if (UserGroupInformation.isSecurityEnabled() && System.currentTimeMillis() >= expiryTime && hdfsKeyTabFile != null) {
         expiryTime = StramUserLogin.refreshTokens(tokenLifeTime, FileUtils.getTempDirectoryPath(), containerId, conf, hdfsKeyTabFile, credentials, null, false);
       }
+      boolean changed;
       synchronized (this.heartbeatTrigger) {
         try {
-          this.heartbeatTrigger.wait(heartbeatIntervalMillis);
+          long waitUntil = System.currentTimeMillis() + intervalMillis;
+          long waitMillis = intervalMillis;
+          // an interval of zero waits for a trigger
+          while (!heartbeatTriggered && (intervalMillis == 0 || waitMillis > 0)) {
+            this.heartbeatTrigger.wait(intervalMillis == 0 ? 0 : waitMillis);
+            waitMillis = waitUntil - System.currentTimeMillis();
+          }
         } catch (InterruptedException e1) {
           logger.warn("Interrupted in heartbeat loop, exiting..");
           break;
         }
+        changed = heartbeatTriggered;
+        heartbeatTriggered = false;
       }
 
       long currentTime = System.currentTimeMillis();
@@ -648,6 +771,8 @@ public class StreamingContainer extends YarnContainerMain
         msg.gcCollectionTime += bean.getCollectionTime();
         msg.gcCollectionCount += bean.getCollectionCount();
       }
+      msg.checkpointUploadQueueSize = uploadScheduler.getQueueSize();
+      msg.checkpointUploadBytesPS = uploadScheduler.getThroughput();
 
       ContainerHeartbeatResponse rsp;
       do {
@@ -658,7 +783,7 @@ public class StreamingContainer extends YarnContainerMain
           OperatorHeartbeat hb = new OperatorHeartbeat();
           hb.setNodeId(e.getKey());
           hb.setGeneratedTms(currentTime);
-          hb.setIntervalMs(heartbeatIntervalMillis);
+          hb.setIntervalMs(intervalMillis);
           if (e.getValue().commandResponse.size() > 0) {
             BlockingQueue<StatsListener.OperatorResponse> commandResponse = e.getValue().commandResponse;
             ArrayList<StatsListener.OperatorResponse> response = new ArrayList<>();
@@ -669,6 +794,10 @@ public class StreamingContainer extends YarnContainerMain
           }
           OperatorContext context = e.getValue().context;
           context.drainStats(hb.getOperatorStatsContainer());
+          Long restoreTime = restoreTimes.remove(e.getKey());
+          if (restoreTime != null) {
+            hb.setRestoreTimeMillis(restoreTime);
+          }
 
           if (context.getThread() == null || context.getThread().getState() != Thread.State.TERMINATED) {
             hb.setState(DeployState.ACTIVE);
@@ -678,10 +807,15 @@ public class StreamingContainer extends YarnContainerMain
             logger.debug("Reporting SHUTDOWN state because thread is {} and failedNodes is {}", context.getThread(), failedNodes);
             hb.setState(DeployState.SHUTDOWN);
           }
+          changed |= hb.getState() != DeployState.ACTIVE || hb.requestResponse != null;
 
           stats.addNodeStats(hb);
         }
 
+        if (!partialMetricsOperators.isEmpty()) {
+          aggregatePartialMetrics(stats);
+        }
+
         /**
          * Container stats published for whoever is interested in listening.
          * Currently interested candidates are TupleRecorderCollection and BufferServerStatsSubscriber
@@ -700,6 +834,7 @@ public class StreamingContainer extends YarnContainerMain
 
         if (rsp.stackTraceRequired) {
           stackTrace = StramUtils.getStackTrace().toString();
+          triggerHeartbeat();
         } else {
           stackTrace = null;
         }
@@ -717,8 +852,13 @@ public class StreamingContainer extends YarnContainerMain
             }
           }
         }
+        changed |= rsp.hasPendingRequests || rsp.deployRequest != null || rsp.undeployRequest != null
+            || rsp.standbyRequest != null || rsp.stackTraceRequired
+            || (rsp.nodeRequests != null && !rsp.nodeRequests.isEmpty());
       } while (rsp.hasPendingRequests);
 
+      // back off while there is nothing to report but the window stats
+      intervalMillis = changed ? heartbeatIntervalMillis : Math.min(intervalMillis * 2, heartbeatMaxIntervalMillis);
     }
     logger.debug("Exiting hearbeat loop");
     umbilical.log(containerId, "[" + containerId + "] Exiting heartbeat loop..");
@@ -807,6 +947,7 @@ public class StreamingContainer extends YarnContainerMain
       logger.info("Undeploy request: {}", rsp.undeployRequest);
       processNodeRequests(false);
       undeploy(rsp.undeployRequest);
+      triggerHeartbeat();
     }
 
     if (rsp.shutdown) {
@@ -816,6 +957,10 @@ public class StreamingContainer extends YarnContainerMain
       return;
     }
 
+    if (rsp.standbyRequest != null) {
+      restoreStandby(rsp.standbyRequest);
+    }
+
     if (rsp.deployRequest != null) {
       logger.info("Deploy request: {}", rsp.deployRequest);
       try {
@@ -830,6 +975,7 @@ public class StreamingContainer extends YarnContainerMain
         this.exitHeartbeatLoop = true;
         throw new IllegalStateException("Deploy request failed: " + rsp.deployRequest, e);
       }
+      triggerHeartbeat();
     }
 
     processNodeRequests(true);
@@ -850,6 +996,50 @@ public class StreamingContainer extends YarnContainerMain
     return PortContext.QUEUE_CAPACITY.defaultValue;
   }
 
+  /**
+   * Restore the operators of the container protected by this standby container in the background, so that they can
+   * be deployed without loading the checkpoint when this container takes over.
+   */
+  private synchronized void restoreStandby(List<OperatorDeployInfo> nodeList)
+  {
+    if (standbyExecutor == null) {
+      standbyExecutor = Executors.newSingleThreadExecutor(new NameableThreadFactory("StandbyRestore", true));
+    }
+    for (final OperatorDeployInfo ndi : nodeList) {
+      logger.debug("Standby restore of operator {} to checkpoint {}", ndi.id, Codec.getStringWindowId(ndi.checkpoint.windowId));
+      Future<Object> future = standbyExecutor.submit(new Callable<Object>()
+      {
+        @Override
+        public Object call() throws Exception
+        {
+          return getValue(OperatorContext.STORAGE_AGENT, ndi).load(ndi.id, ndi.checkpoint.windowId);
+        }
+
+      });
+      SimpleEntry<Long, Future<Object>> previous = standbyRestores.put(ndi.id, new SimpleEntry<>(ndi.checkpoint.windowId, future));
+      if (previous != null) {
+        previous.getValue().cancel(false);
+      }
+    }
+  }
+
+  /**
+   * @return the operator restored in the background for the given checkpoint or null
+   */
+  private Object getStandbyOperator(int operatorId, long windowId) throws InterruptedException
+  {
+    SimpleEntry<Long, Future<Object>> restore = standbyRestores.remove(operatorId);
+    if (restore == null || restore.getKey() != windowId) {
+      return null;
+    }
+    try {
+      return restore.getValue().get();
+    } catch (ExecutionException | CancellationException e) {
+      logger.warn("Standby restore of operator {} failed", operatorId, e);
+      return null;
+    }
+  }
+
   private synchronized void deploy(List<OperatorDeployInfo> nodeList) throws Exception
   {
     /*
@@ -860,20 +1050,111 @@ public class StreamingContainer extends YarnContainerMain
         throw new IllegalStateException("Node with id: " + ndi.id + " already present in container " + containerId + "!");
       }
     }
+    for (OperatorDeployInfo ndi : nodeList) {
+      if (ndi.metricsAggregator != null) {
+        partialMetricsOperators.put(ndi.id, ndi);
+      }
+    }
 
-    deployNodes(nodeList);
+    /*
+     * Checkpoints are loaded in parallel. The operators connected to each other within this request are deployed
+     * together as soon as all of them are restored, independent of the operators which are still being restored.
+     */
+    Map<Integer, Set<Integer>> groups = groupConnectedNodes(nodeList);
 
+    /*
+     * The input operators of all the groups share one window generator, it starts from the smallest checkpoint
+     * and is activated once all of them are deployed.
+     */
+    Set<Integer> inputNodeIds = new HashSet<>();
+    long smallestCheckpointedWindowId = Long.MAX_VALUE;
+    for (OperatorDeployInfo ndi : nodeList) {
+      if (ndi.inputs == null || ndi.inputs.isEmpty()) {
+        inputNodeIds.add(ndi.id);
+        smallestCheckpointedWindowId = Math.min(smallestCheckpointedWindowId, getFinishedCheckpoint(ndi).windowId);
+      }
+    }
+    WindowGenerator windowGenerator = inputNodeIds.isEmpty() ? null : setupWindowGenerator(smallestCheckpointedWindowId);
+
+    long start = System.currentTimeMillis();
+    List<Future<Node<?>>> futures = new ArrayList<>(nodeList.size());
+    CompletionService<Node<?>> restores = new ExecutorCompletionService<>(restoreExecutor);
+    for (final OperatorDeployInfo ndi : nodeList) {
+      futures.add(restores.submit(new Callable<Node<?>>()
+      {
+        @Override
+        public Node<?> call() throws Exception
+        {
+          return restoreNode(ndi);
+        }
+
+      }));
+    }
+
+    try {
+      Set<Integer> restored = new HashSet<>();
+      Set<Integer> deployed = new HashSet<>();
+      for (int i = nodeList.size(); i-- > 0; ) {
+        Node<?> node;
+        try {
+          node = restores.take().get();
+        } catch (ExecutionException ex) {
+          Throwables.propagateIfPossible(ex.getCause(), Exception.class);
+          throw ex;
+        }
+        nodes.put(node.getId(), node);
+        logger.debug("Marking operator {} as deployed.", node);
+
+        restored.add(node.getId());
+        Set<Integer> group = groups.get(node.getId());
+        if (restored.containsAll(group)) {
+          List<OperatorDeployInfo> groupList = new ArrayList<>(group.size());
+          for (OperatorDeployInfo ndi : nodeList) {
+            if (group.contains(ndi.id)) {
+              groupList.add(ndi);
+            }
+          }
+          deployStreamsAndActivate(groupList, windowGenerator);
+          deployed.addAll(group);
+          if (windowGenerator != null && deployed.containsAll(inputNodeIds)) {
+            activeGenerators.put(windowGenerator, generators);
+            windowGenerator.activate(null);
+            windowGenerator = null;
+          }
+        }
+      }
+    } finally {
+      for (Future<Node<?>> future : futures) {
+        future.cancel(true);
+      }
+      // operators restored by a standby container are no longer needed after it took over
+      for (SimpleEntry<Long, Future<Object>> restore : standbyRestores.values()) {
+        restore.getValue().cancel(true);
+      }
+      standbyRestores.clear();
+    }
+    logger.info("Deployed {} operators in {} ms", nodeList.size(), System.currentTimeMillis() - start);
+  }
+
+  private void deployStreamsAndActivate(List<OperatorDeployInfo> nodeList, WindowGenerator windowGenerator) throws Exception
+  {
     HashMap<String, ArrayList<String>> groupedInputStreams = new HashMap<>();
     for (OperatorDeployInfo ndi : nodeList) {
       groupInputStreams(groupedInputStreams, ndi);
     }
 
     HashMap<String, ComponentContextPair<Stream, StreamContext>> newStreams = deployOutputStreams(nodeList, groupedInputStreams);
-    deployInputStreams(nodeList, newStreams);
+    deployInputStreams(nodeList, newStreams, groupedInputStreams, windowGenerator);
     for (ComponentContextPair<Stream, StreamContext> pair : newStreams.values()) {
       pair.component.setup(pair.context);
     }
     streams.putAll(newStreams);
+    for (ComponentContextPair<Stream, StreamContext> pair : newStreams.values()) {
+      if (pair.component instanceof FusedOiOStream) {
+        // like other streams without a mux, stored against both the source and the sink identifiers
+        streams.put(pair.context.getSinkId(), pair);
+      }
+    }
 
     HashMap<Integer, OperatorDeployInfo> operatorMap = new HashMap<>(nodeList.size());
     for (OperatorDeployInfo o : nodeList) {
@@ -882,6 +1163,37 @@ public class StreamingContainer extends YarnContainerMain
     activate(operatorMap, newStreams);
   }
 
+  /**
+   * Group the operators which are connected by a stream within the deploy request.
+   *
+   * @param nodeList operators to be deployed
+   * @return group of connected operators for each operator id
+   */
+  private static Map<Integer, Set<Integer>> groupConnectedNodes(List<OperatorDeployInfo> nodeList)
+  {
+    Map<Integer, Set<Integer>> groups = new HashMap<>(nodeList.size());
+    for (OperatorDeployInfo ndi : nodeList) {
+      Set<Integer> group = new HashSet<>();
+      group.add(ndi.id);
+      groups.put(ndi.id, group);
+    }
+
+    for (OperatorDeployInfo ndi : nodeList) {
+      for (OperatorDeployInfo.InputDeployInfo nidi : ndi.inputs) {
+        Set<Integer> sourceGroup = groups.get(nidi.sourceNodeId);
+        Set<Integer> group = groups.get(ndi.id);
+        if (sourceGroup != null && sourceGroup != group) {
+          sourceGroup.addAll(group);
+          for (Integer id : group) {
+            groups.put(id, sourceGroup);
+          }
+        }
+      }
+    }
+
+    return groups;
+  }
+
   public static String getUnifierInputPortName(String portName, int sourceNodeId, String sourcePortName)
   {
     return portName + "(" + sourceNodeId + Component.CONCAT_SEPARATOR + sourcePortName + ")";
@@ -894,34 +1206,50 @@ public class StreamingContainer extends YarnContainerMain
     }
   }
 
-  private void deployNodes(List<OperatorDeployInfo> nodeList) throws IOException
+  private Node<?> restoreNode(OperatorDeployInfo ndi) throws IOException
   {
-    for (OperatorDeployInfo ndi : nodeList) {
-      StorageAgent backupAgent = getValue(OperatorContext.STORAGE_AGENT, ndi);
-      assert (backupAgent != null);
-
-      Context parentContext;
-      if (ndi instanceof UnifierDeployInfo) {
-        OperatorContext unifiedOperatorContext = new OperatorContext(0, ((UnifierDeployInfo)ndi).operatorAttributes, containerContext);
-        parentContext = new PortContext(ndi.inputs.get(0).contextAttributes, unifiedOperatorContext);
-        massageUnifierDeployInfo(ndi);
-      } else {
-        parentContext = containerContext;
-      }
+    StorageAgent backupAgent = getValue(OperatorContext.STORAGE_AGENT, ndi);
+    assert (backupAgent != null);
+    if (backupAgent instanceof AsyncFSStorageAgent) {
+      ((AsyncFSStorageAgent)backupAgent).setUploadContext(uploadScheduler);
+    }
 
-      OperatorContext ctx = new OperatorContext(ndi.id, ndi.contextAttributes, parentContext);
-      ctx.attributes.put(OperatorContext.ACTIVATION_WINDOW_ID, ndi.checkpoint.windowId);
-      logger.debug("Restoring operator {} to checkpoint {} stateless={}.", ndi.id, Codec.getStringWindowId(ndi.checkpoint.windowId), ctx.stateless);
-      Node<?> node = Node.retrieveNode(backupAgent.load(ndi.id, ctx.stateless ? Stateless.WINDOW_ID : ndi.checkpoint.windowId), ctx, ndi.type);
-      node.currentWindowId = ndi.checkpoint.windowId;
-      node.applicationWindowCount = ndi.checkpoint.applicationWindowCount;
-      node.firstWindowMillis = firstWindowMillis;
-      node.windowWidthMillis = windowWidthMillis;
+    Context parentContext;
+    if (ndi instanceof UnifierDeployInfo) {
+      OperatorContext unifiedOperatorContext = new OperatorContext(0, ((UnifierDeployInfo)ndi).operatorAttributes, containerContext);
+      parentContext = new PortContext(ndi.inputs.get(0).contextAttributes, unifiedOperatorContext);
+      massageUnifierDeployInfo(ndi);
+    } else {
+      parentContext = containerContext;
+    }
 
-      node.setId(ndi.id);
-      nodes.put(ndi.id, node);
-      logger.debug("Marking operator {} as deployed.", node);
+    OperatorContext ctx = new OperatorContext(ndi.id, ndi.contextAttributes, parentContext);
+    ctx.setHeartbeatTrigger(heartbeatTriggerCallback);
+    ctx.attributes.put(OperatorContext.ACTIVATION_WINDOW_ID, ndi.checkpoint.windowId);
+    logger.debug("Restoring operator {} to checkpoint {} stateless={}.", ndi.id, Codec.getStringWindowId(ndi.checkpoint.windowId), ctx.stateless);
+    long start = System.currentTimeMillis();
+    long windowId = ctx.stateless ? Stateless.WINDOW_ID : ndi.checkpoint.windowId;
+    Object operator;
+    try {
+      operator = getStandbyOperator(ndi.id, windowId);
+    } catch (InterruptedException e) {
+      throw new IOException(e);
     }
+    if (operator == null) {
+      operator = backupAgent.load(ndi.id, windowId);
+    } else {
+      logger.debug("Using operator {} restored by standby container.", ndi.id);
+    }
+    Node<?> node = Node.retrieveNode(operator, ctx, ndi.type);
+    restoreTimes.put(ndi.id, System.currentTimeMillis() - start);
+    node.currentWindowId = ndi.checkpoint.windowId;
+    node.applicationWindowCount = ndi.checkpoint.applicationWindowCount;
+    node.firstWindowMillis = firstWindowMillis;
+    node.windowWidthMillis = windowWidthMillis;
+
+    node.setId(ndi.id);
+    node.setCheckpointUploadScheduler(uploadScheduler);
+    return node;
   }
 
   private HashMap.SimpleEntry<String, ComponentContextPair<Stream, StreamContext>> deployBufferServerPublisher(
@@ -1063,14 +1391,12 @@ public class StreamingContainer extends YarnContainerMain
   }
 
   @SuppressWarnings("unchecked")
-  private void deployInputStreams(List<OperatorDeployInfo> operatorList, HashMap<String, ComponentContextPair<Stream, StreamContext>> newStreams) throws UnknownHostException
+  private void deployInputStreams(List<OperatorDeployInfo> operatorList, HashMap<String, ComponentContextPair<Stream, StreamContext>> newStreams, HashMap<String, ArrayList<String>> groupedInputStreams, WindowGenerator windowGenerator) throws UnknownHostException
   {
     /*
-     * collect any input operators along with their smallest window id,
-     * those are subsequently used to setup the window generator
+     * collect any input operators, those are subsequently connected to the window generator
      */
     ArrayList<OperatorDeployInfo> inputNodes = new ArrayList<>();
-    long smallestCheckpointedWindowId = Long.MAX_VALUE;
     //a simple map which maps the oio node to it's the node which owns the thread.
     Map<Integer, Integer> oioNodes = new ConcurrentHashMap<>();
 
@@ -1094,9 +1420,6 @@ public class StreamingContainer extends YarnContainerMain
          * When we activate the window Generator, we plan to activate it only from required windowId.
          */
         ndi.checkpoint = getFinishedCheckpoint(ndi);
-        if (ndi.checkpoint.windowId < smallestCheckpointedWindowId) {
-          smallestCheckpointedWindowId = ndi.checkpoint.windowId;
-        }
       } else {
         Node<?> node = nodes.get(ndi.id);
 
@@ -1158,6 +1481,28 @@ public class StreamingContainer extends YarnContainerMain
 
             newStreams.put(sinkIdentifier, new ComponentContextPair<Stream, StreamContext>(subscriber, context));
             logger.debug("put input stream {} against key {}", subscriber, sinkIdentifier);
+          } else if (isFusible(nidi, streamCodec, pair, newStreams, groupedInputStreams.get(sourceIdentifier))) {
+            /*
+             * The MuxStream created for this output port does not have anyone else to serve, so we drop it and
+             * connect the output port directly to the OiO stream. The stream is deployed once, under the source
+             * identifier, it is also registered against the sink identifier when the deploy is complete.
+             */
+            StreamContext fusedContext = new StreamContext(nidi.declaredStreamId);
+            fusedContext.setSourceId(sourceIdentifier);
+            fusedContext.setSinkId(sinkIdentifier);
+            fusedContext.setFinishedWindowId(checkpoint.windowId);
+
+            FusedOiOStream stream = new FusedOiOStream();
+            OiOStream.OiOReservoir reservoir = (OiOStream.OiOReservoir)stream.getReservoir();
+            reservoir.setControlSink(((OiONode)node).getControlSink(reservoir));
+            oioNodes.put(ndi.id, nidi.sourceNodeId);
+
+            node.connectInputPort(nidi.portName, reservoir);
+            nodes.get(nidi.sourceNodeId).connectOutputPort(nidi.sourcePortName, stream);
+
+            pair = new ComponentContextPair<Stream, StreamContext>(stream, fusedContext);
+            newStreams.put(sourceIdentifier, pair);
+            logger.debug("fused thread local stream {} from {} to {}", nidi.declaredStreamId, sourceIdentifier, sinkIdentifier);
           } else {
             assert (nidi.locality == Locality.CONTAINER_LOCAL || nidi.locality == Locality.THREAD_LOCAL);
             /* we are still dealing with the MuxStream originating at the output of the source port */
@@ -1247,22 +1592,38 @@ public class StreamingContainer extends YarnContainerMain
 
     setupOiOGroups(oioNodes);
 
-    if (!inputNodes.isEmpty()) {
-      WindowGenerator windowGenerator = setupWindowGenerator(smallestCheckpointedWindowId);
-      for (OperatorDeployInfo ndi : inputNodes) {
-        generators.put(ndi.id, windowGenerator);
+    for (OperatorDeployInfo ndi : inputNodes) {
+      generators.put(ndi.id, windowGenerator);
 
-        Node<?> node = nodes.get(ndi.id);
-        SweepableReservoir reservoir = windowGenerator.acquireReservoir(String.valueOf(ndi.id), 1024);
-        if (ndi.checkpoint.windowId >= 0) {
-          node.connectInputPort(Node.INPUT, new WindowIdActivatedReservoir(Integer.toString(ndi.id), reservoir, ndi.checkpoint.windowId));
-        }
-        node.connectInputPort(Node.INPUT, reservoir);
+      Node<?> node = nodes.get(ndi.id);
+      SweepableReservoir reservoir = windowGenerator.acquireReservoir(String.valueOf(ndi.id), 1024);
+      if (ndi.checkpoint.windowId >= 0) {
+        node.connectInputPort(Node.INPUT, new WindowIdActivatedReservoir(Integer.toString(ndi.id), reservoir, ndi.checkpoint.windowId));
       }
+      node.connectInputPort(Node.INPUT, reservoir);
     }
 
   }
 
+  /**
+   * Checks whether the ThreadLocal input can be fed by the upstream output port without the MuxStream in between.
+   * This is the case when the fusion is enabled, the MuxStream was created by this deploy request and the input is
+   * its only consumer, i.e. there are no buffer server publishers, partition filters or persisting codecs to serve.
+   */
+  private boolean isFusible(OperatorDeployInfo.InputDeployInfo nidi, StreamCodec<?> streamCodec,
+      ComponentContextPair<Stream, StreamContext> pair, Map<String, ComponentContextPair<Stream, StreamContext>> newStreams,
+      List<String> groupedSinks)
+  {
+    return threadLocalFusion
+        && nidi.locality == Locality.THREAD_LOCAL
+        && pair.component instanceof MuxStream
+        && pair.context.getSinkId() == null
+        && newStreams.get(pair.context.getSourceId()) == pair
+        && groupedSinks != null && groupedSinks.size() == 1
+        && (nidi.partitionKeys == null || nidi.partitionKeys.isEmpty())
+        && !(streamCodec instanceof StreamCodecWrapperForPersistance);
+  }
+
   /**
    * Populates oioGroups with owner OIO Node as key and list of corresponding OIO nodes which will run in its thread as value
    * This method assumes that the DAG is valid as per OIO constraints
@@ -1468,6 +1829,8 @@ public class StreamingContainer extends YarnContainerMain
                 }
               }
             }
+            // report the shutdown or failure of the operators
+            triggerHeartbeat();
           }
         }
       };
@@ -1491,13 +1854,6 @@ public class StreamingContainer extends YarnContainerMain
         eventBus.publish(new StreamActivationEvent(pair));
       }
     }
-
-    for (WindowGenerator wg : generators.values()) {
-      if (!activeGenerators.containsKey(wg)) {
-        activeGenerators.put(wg, generators);
-        wg.activate(null);
-      }
-    }
   }
 
   private void groupInputStreams(HashMap<String, ArrayList<String>> groupedInputStreams, OperatorDeployInfo ndi)
@@ -155,6 +155,85 @@ public class LogicalPlan implements Serializable, DAG
    * Then it can be moved back to DAGContext.
    */
   public static Attribute<Boolean> FAST_PUBLISHER_SUBSCRIBER = new Attribute<>(false);
+  /**
+   * A flag to connect the output port of an operator directly to its only ThreadLocal downstream input port, skipping
+   * the intermediate multiplexing stream. This is engine internal till the fused chains are tested enough to be moved
+   * to DAGContext.
+   */
+  public static Attribute<Boolean> THREAD_LOCAL_FUSION = new Attribute<>(false);
+  /**
+   * Interval at which the buffer server traffic of the streams is evaluated to recommend streams that should be
+   * container local. The recommendations are logged and available through the streaming container manager.
+   * Zero disables the evaluation.
+   */
+  public static Attribute<Integer> LOCALITY_PROMOTION_INTERVAL_MILLIS = new Attribute<>(0);
+  /**
+   * Whether the recommended streams are made container local automatically, which redeploys the affected operators.
+   */
+  public static Attribute<Boolean> LOCALITY_PROMOTION_AUTO_APPLY = new Attribute<>(false);
+  /**
+   * Number of threads a container uses to load the checkpoints of the operators it deploys.
+   */
+  public static Attribute<Integer> CHECKPOINT_RESTORE_THREADS = new Attribute<>(4);
+  /**
+   * Number of checkpoints saved by {@link com.datatorrent.common.util.AsyncFSStorageAgent} a container uploads
+   * concurrently.
+   */
+  public static Attribute<Integer> CHECKPOINT_UPLOAD_THREADS = new Attribute<>(4);
+  /**
+   * Limit of the bytes per second a container uploads for asynchronous checkpoints. Zero means no limit.
+   */
+  public static Attribute<Long> CHECKPOINT_UPLOAD_MAX_BYTES_PER_SECOND = new Attribute<>(0L);
+  /**
+   * Memory a container uses for the chunks of the checkpoints streamed by
+   * {@link com.datatorrent.common.util.AsyncFSStorageAgent}, beyond which the checkpoints spill to the local disk.
+   */
+  public static Attribute<Long> CHECKPOINT_CHUNK_MEMORY_BYTES = new Attribute<>(64L * 1024 * 1024);
+  /**
+   * Size of the recovery journal of the application master after which the state is written to a new snapshot and
+   * the journal is truncated, which bounds the time to replay the journal on restart. Zero disables the limit, the
+   * snapshot is then only written when the physical plan changes.
+   */
+  public static Attribute<Long> RECOVERY_JOURNAL_MAX_BYTES = new Attribute<>(16L * 1024 * 1024);
+  /**
+   * Number of streaming windows after which a container sends the complete stats of a window with the heartbeat.
+   * The stats of the windows in between are merged into the next window that is sent: tuple counts, buffer server
+   * bytes and cpu time are summed up, the queue size is the maximum and the timestamps are those of the last window.
+   * Windows are selected by their id, so that the end window stats of all operators line up for the latency and the
+   * metrics aggregation. Windows with a checkpoint, metrics or counters and the last window of a heartbeat are always
+   * sent. Operators that have a stats listener annotated with
+   * {@link com.datatorrent.api.StatsListener.DataQueueSize} send every window. Zero or one sends every window.
+   */
+  public static Attribute<Integer> HEARTBEAT_STATS_SAMPLE_WINDOW_COUNT = new Attribute<>(0);
+  /**
+   * Minimum time between two iterations of the main loop of the application master, which limits the rate of the
+   * container requests to the resource manager. The loop runs when an event such as a plan change, a failed container
+   * or stats for a stats listener is signaled, otherwise every second. The resource manager is called when there are
+   * container requests, releases or blacklist changes, otherwise every second.
+   */
+  public static Attribute<Integer> MASTER_LOOP_MIN_INTERVAL_MILLIS = new Attribute<>(50);
+  /**
+   * Maximum number of windows for which the metrics are aggregated in one iteration of the main loop of the
+   * application master. When the stats of more windows were completed since the last iteration, the metrics of the
+   * oldest windows are dropped, so that the application master keeps up with the latest windows.
+   */
+  public static Attribute<Integer> STATS_MAX_WINDOWS_PER_CYCLE = new Attribute<>(100);
+  /**
+   * Whether the auto metrics of the partitions of an operator are aggregated in each container before they are sent
+   * to the application master, which merges the partial aggregates of the containers. Applies to operators whose metrics
+   * aggregator supports partial aggregation and that have no stats listener. The metrics of the individual partitions
+   * of these operators are not available in the application master.
+   */
+  public static Attribute<Boolean> METRICS_CONTAINER_AGGREGATION = new Attribute<>(false);
+  /**
+   * Longest interval between two heartbeats of a container, in milliseconds. A container starts with
+   * {@link com.datatorrent.api.Context.DAGContext#HEARTBEAT_INTERVAL_MILLIS} and doubles the interval after every
+   * heartbeat without changes, up to this maximum. Deploy state changes, checkpoints and responses to requests are
+   * reported right away and reset the interval, as do requests from the master. The stats of the processed windows
+   * are reported with the next heartbeat. The master extends the heartbeat timeout by the time this exceeds the
+   * heartbeat interval. Values up to the heartbeat interval keep the interval fixed.
+   */
+  public static Attribute<Integer> HEARTBEAT_MAX_INTERVAL_MILLIS = new Attribute<>(0);
   public static Attribute<Long> HDFS_TOKEN_LIFE_TIME = new Attribute<>(604800000L);
   public static Attribute<Long> RM_TOKEN_LIFE_TIME = new Attribute<>(YarnConfiguration.DELEGATION_TOKEN_MAX_LIFETIME_DEFAULT);
   public static Attribute<String> KEY_TAB_FILE = new Attribute<>((String)null, new StringCodec.String2String());
@@ -34,11 +34,12 @@ import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol.OperatorHea
 import com.datatorrent.stram.engine.OperatorContext;
 import com.datatorrent.stram.plan.logical.LogicalPlan;
 import com.datatorrent.stram.plan.physical.StatsRevisions.VersionedLong;
-import com.datatorrent.stram.util.MovingAverage.MovingAverageLong;
-import com.datatorrent.stram.util.MovingAverage.TimedMovingAverageLong;
+import com.datatorrent.stram.plan.physical.StatsStore.Average;
+import com.datatorrent.stram.plan.physical.StatsStore.TimedAverage;
 
 /**
  * <p>OperatorStatus class.</p>
+ * The moving averages are views of the {@link StatsStore} of the physical plan.
  *
  * @since 0.9.1
  */
@@ -51,21 +52,39 @@ public class OperatorStatus implements BatchedOperatorStats, java.io.Serializabl
     public String portName;
     public long totalTuples;
     public String recordingId;
-    public final TimedMovingAverageLong tuplesPMSMA;
-    public final TimedMovingAverageLong bufferServerBytesPMSMA;
-    public final MovingAverageLong queueSizeMA;
+    /**
+     * End window timestamp of the last reported window, -1 if none was reported yet.
+     */
+    public long lastEndWindowTimestamp = -1;
+    public final TimedAverage tuplesPMSMA;
+    public final TimedAverage bufferServerBytesPMSMA;
+    public final Average queueSizeMA;
 
     public PortStatus()
     {
-      tuplesPMSMA = new TimedMovingAverageLong(throughputCalculationMaxSamples, throughputCalculationInterval);
-      bufferServerBytesPMSMA = new TimedMovingAverageLong(throughputCalculationMaxSamples, throughputCalculationInterval);
-      queueSizeMA = new MovingAverageLong(10);
+      tuplesPMSMA = store.newTimedAverage();
+      bufferServerBytesPMSMA = store.newTimedAverage();
+      queueSizeMA = store.newAverage(10);
+    }
+
+    /**
+     * Return the averages to the store when the port was removed.
+     */
+    public void release()
+    {
+      tuplesPMSMA.release();
+      bufferServerBytesPMSMA.release();
+      queueSizeMA.release();
     }
   }
 
   private final int operatorId;
   public final StatsRevisions statsRevs = new StatsRevisions();
-  public OperatorHeartbeat lastHeartbeat;
+  /**
+   * Time the last heartbeat of the operator was generated, -1 if there was none since the operator was deployed.
+   */
+  public volatile long lastHeartbeatMillis = -1;
+  private volatile DeployState lastHeartbeatState;
   public final VersionedLong totalTuplesProcessed = statsRevs.newVersionedLong();
   public final VersionedLong totalTuplesEmitted = statsRevs.newVersionedLong();
   public final VersionedLong currentWindowId = statsRevs.newVersionedLong();
@@ -73,45 +92,87 @@ public class OperatorStatus implements BatchedOperatorStats, java.io.Serializabl
   public final VersionedLong tuplesEmittedPSMA = statsRevs.newVersionedLong();
   public String recordingId;
   public Stats.CheckpointStats checkpointStats;
-  public final MovingAverageLong checkpointTimeMA;
-  public final TimedMovingAverageLong cpuNanosPMSMA;
-  public final MovingAverageLong latencyMA;
+  public final Average checkpointTimeMA;
+  /**
+   * Time it took the container to load the checkpoint when the operator was last deployed.
+   */
+  public long restoreTimeMillis;
+  public final TimedAverage cpuNanosPMSMA;
+  public final Average latencyMA;
   public final Map<String, PortStatus> inputPortStatusList = new ConcurrentHashMap<>();
   public final Map<String, PortStatus> outputPortStatusList = new ConcurrentHashMap<>();
   public List<OperatorStats> lastWindowedStats = Collections.emptyList();
   public final ConcurrentLinkedQueue<List<OperatorStats>> listenerStats = new ConcurrentLinkedQueue<>();
   public volatile long lastWindowIdChangeTms = 0;
+  /**
+   * Latest end window timestamp of the ports in the last heartbeat, -1 before the first heartbeat with stats.
+   */
+  public long lastMaxEndWindowTimestamp = -1;
   public final int windowProcessingTimeoutMillis;
   public final ConcurrentLinkedQueue<StatsListener.OperatorResponse> responses = new ConcurrentLinkedQueue<>();
   public List<StatsListener.OperatorResponse> operatorResponses;
 
   private final LogicalPlan.OperatorMeta operatorMeta;
-  private final int throughputCalculationInterval;
-  private final int throughputCalculationMaxSamples;
-
+  private final StatsStore store;
 
-  public OperatorStatus(int operatorId, LogicalPlan.OperatorMeta om)
+  public OperatorStatus(int operatorId, LogicalPlan.OperatorMeta om, StatsStore store)
   {
     this.operatorId = operatorId;
     this.operatorMeta = om;
+    this.store = store;
     LogicalPlan dag = om.getDAG();
-    throughputCalculationInterval = dag.getValue(LogicalPlan.THROUGHPUT_CALCULATION_INTERVAL);
-    throughputCalculationMaxSamples = dag.getValue(LogicalPlan.THROUGHPUT_CALCULATION_MAX_SAMPLES);
+    int throughputCalculationInterval = dag.getValue(LogicalPlan.THROUGHPUT_CALCULATION_INTERVAL);
     int heartbeatInterval = dag.getValue(LogicalPlan.HEARTBEAT_INTERVAL_MILLIS);
 
-    cpuNanosPMSMA = new TimedMovingAverageLong(throughputCalculationMaxSamples, throughputCalculationInterval);
-    latencyMA = new MovingAverageLong(throughputCalculationInterval / heartbeatInterval);
-    checkpointTimeMA = new MovingAverageLong(throughputCalculationInterval / heartbeatInterval);
+    cpuNanosPMSMA = store.newTimedAverage();
+    latencyMA = store.newAverage(throughputCalculationInterval / heartbeatInterval);
+    checkpointTimeMA = store.newAverage(throughputCalculationInterval / heartbeatInterval);
+    // allow for the longest interval the containers back off to when there is nothing to report
     this.windowProcessingTimeoutMillis = dag.getValue(LogicalPlan.STREAMING_WINDOW_SIZE_MILLIS)
-      * om.getValue(OperatorContext.TIMEOUT_WINDOW_COUNT);
+      * om.getValue(OperatorContext.TIMEOUT_WINDOW_COUNT)
+      + Math.max(0, dag.getValue(LogicalPlan.HEARTBEAT_MAX_INTERVAL_MILLIS) - heartbeatInterval);
+  }
+
+  StatsStore getStatsStore()
+  {
+    return store;
   }
 
   public boolean isIdle()
   {
-    if (lastHeartbeat != null && DeployState.SHUTDOWN == lastHeartbeat.getState()) {
-      return true;
+    return DeployState.SHUTDOWN == lastHeartbeatState;
+  }
+
+  /**
+   * Keep the time and state of the heartbeat, the heartbeat itself is not retained.
+   *
+   * @param hb the last heartbeat, null to reset after the operator was deployed
+   */
+  public void setLastHeartbeat(OperatorHeartbeat hb)
+  {
+    if (hb == null) {
+      lastHeartbeatState = null;
+      lastHeartbeatMillis = -1;
+    } else {
+      lastHeartbeatState = hb.getState();
+      lastHeartbeatMillis = hb.getGeneratedTms();
+    }
+  }
+
+  /**
+   * Return the averages of the operator and its ports to the store when the operator was removed from the plan.
+   */
+  public void release()
+  {
+    cpuNanosPMSMA.release();
+    latencyMA.release();
+    checkpointTimeMA.release();
+    for (PortStatus ps : inputPortStatusList.values()) {
+      ps.release();
+    }
+    for (PortStatus ps : outputPortStatusList.values()) {
+      ps.release();
     }
-    return false;
   }
 
   @Override
@@ -167,16 +228,19 @@ public class OperatorStatus implements BatchedOperatorStats, java.io.Serializabl
     private static final long serialVersionUID = 201312231635L;
     final int operatorId;
     final LogicalPlan.OperatorMeta operatorMeta;
+    final StatsStore store;
 
     private SerializationProxy(OperatorStatus s)
     {
       this.operatorId = s.operatorId;
       this.operatorMeta = s.operatorMeta;
+      this.store = s.store;
     }
 
     private Object readResolve() throws java.io.ObjectStreamException
     {
-      OperatorStatus s = new OperatorStatus(operatorId, operatorMeta);
+      OperatorStatus s = new OperatorStatus(operatorId, operatorMeta,
+          store != null ? store : new StatsStore(operatorMeta.getDAG()));
       return s;
     }
   }
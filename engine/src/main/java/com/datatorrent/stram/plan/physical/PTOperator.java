@@ -238,7 +238,7 @@ public class PTOperator implements java.io.Serializable
     this.name = name;
     this.id = id;
     this.operatorMeta = om;
-    this.stats = new OperatorStatus(this.id, om);
+    this.stats = new OperatorStatus(this.id, om, plan.getStatsStore());
   }
 
   private volatile PTOperator.State state = State.INACTIVE;
@@ -256,7 +256,7 @@ public class PTOperator implements java.io.Serializable
   public int failureCount = 0;
   public int loadIndicator = 0;
   public List<? extends StatsListener> statsListeners;
-  public final OperatorStatus stats;
+  public OperatorStatus stats;
 
   final Map<Locality, HostOperatorSet> groupings = Maps.newHashMapWithExpectedSize(3);
 
@@ -19,6 +19,7 @@
 package com.datatorrent.stram.plan.physical;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -69,6 +70,7 @@ import com.datatorrent.api.StorageAgent;
 import com.datatorrent.api.StreamCodec;
 import com.datatorrent.api.annotation.Stateless;
 import com.datatorrent.common.util.AsyncFSStorageAgent;
+import com.datatorrent.common.util.FSStorageAgent;
 import com.datatorrent.stram.Journal.Recoverable;
 import com.datatorrent.stram.api.Checkpoint;
 import com.datatorrent.stram.api.StramEvent;
@@ -122,6 +124,11 @@ public class PhysicalPlan implements Serializable
   final AtomicInteger containerSeq = new AtomicInteger();
   private LinkedHashMap<OperatorMeta, PMapping> logicalToPTOperator = new LinkedHashMap<>();
   private final List<PTContainer> containers = new CopyOnWriteArrayList<>();
+  /**
+   * Standby containers by the container they protect. The standby containers have no operators and are not part of
+   * the list of containers, which would release them.
+   */
+  private final Map<PTContainer, PTContainer> standbyContainers = Maps.newConcurrentMap();
   private final LogicalPlan dag;
   private final transient PlanContext ctx;
   private int maxContainers = 1;
@@ -134,6 +141,7 @@ public class PhysicalPlan implements Serializable
   final Set<PTOperator> undeployOpers = Sets.newHashSet();
   final ConcurrentMap<Integer, PTOperator> allOperators = Maps.newConcurrentMap();
   private final ConcurrentMap<OperatorMeta, OperatorMeta> pendingRepartition = Maps.newConcurrentMap();
+  private StatsStore statsStore;
 
   private final AtomicInteger strCodecIdSequence = new AtomicInteger();
   private final Map<StreamCodec<?>, Integer> streamCodecIdentifiers = Maps.newHashMap();
@@ -494,6 +502,7 @@ public class PhysicalPlan implements Serializable
     for (Map.Entry<PTOperator, Operator> operEntry : this.newOpers.entrySet()) {
       initCheckpoint(operEntry.getKey(), operEntry.getValue(), Checkpoint.INITIAL_CHECKPOINT);
     }
+    updateStandbyContainers(Sets.<PTContainer>newHashSet());
     // request initial deployment
     ctx.deploy(Collections.<PTContainer>emptySet(), Collections.<PTOperator>emptySet(), Sets.newHashSet(containers), deployOperators);
     this.newOpers.clear();
@@ -1142,6 +1151,76 @@ public class PhysicalPlan implements Serializable
     this.undeployOpers.clear();
   }
 
+  /**
+   * Change the locality of a stream to container local at runtime. The containers of the source and the sinks,
+   * including the other operators they host, are replaced by a single new container and the affected operators are
+   * redeployed from their recovery checkpoint. Nothing changes when the operators are not deployed yet or already share
+   * a container.
+   *
+   * @param stream
+   * @return whether the containers were merged and the operators redeployed
+   */
+  public boolean setContainerLocal(StreamMeta stream)
+  {
+    PMapping sourceMapping = this.logicalToPTOperator.get(stream.getSource().getOperatorMeta());
+    Set<PTContainer> mergeContainers = Sets.newLinkedHashSet();
+    for (PTOperator oper : sourceMapping.partitions) {
+      mergeContainers.add(oper.container);
+    }
+    for (InputPortMeta sink : stream.getSinks()) {
+      for (PTOperator oper : this.logicalToPTOperator.get(sink.getOperatorWrapper()).partitions) {
+        mergeContainers.add(oper.container);
+      }
+    }
+
+    if (mergeContainers.contains(null) || mergeContainers.size() < 2) {
+      // not deployed yet or already in the same container
+      return false;
+    }
+
+    for (InputPortMeta sink : stream.getSinks()) {
+      inlinePrefs.setLocal(sourceMapping, this.logicalToPTOperator.get(sink.getOperatorWrapper()));
+    }
+    stream.setLocality(Locality.CONTAINER_LOCAL);
+
+    PTContainer newContainer = new PTContainer(this);
+    Set<PTOperator> inlineOperators = Sets.newHashSet();
+    int memoryMB = 0;
+    for (PTContainer c : mergeContainers) {
+      for (PTOperator oper : c.operators) {
+        oper.container = newContainer;
+        newContainer.operators.add(oper);
+        memoryMB += oper.operatorMeta.getValue(OperatorContext.MEMORY_MB);
+        if (!oper.isUnifier()) {
+          inlineOperators.add(oper);
+          inlineOperators.addAll(oper.getGrouping(Locality.CONTAINER_LOCAL).getOperatorSet());
+        }
+      }
+      c.operators.clear();
+      this.containers.remove(c);
+    }
+    // operators placed later with any of the merged operators go into the new container
+    HostOperatorSet grouping = null;
+    for (PTOperator oper : inlineOperators) {
+      if (grouping == null) {
+        grouping = oper.getGrouping(Locality.CONTAINER_LOCAL);
+        grouping.getOperatorSet().addAll(inlineOperators);
+      }
+      oper.groupings.put(Locality.CONTAINER_LOCAL, grouping);
+    }
+    this.containers.add(newContainer);
+    newContainer.setRequiredMemoryMB(memoryMB);
+    updateContainerMemoryWithBufferServer(newContainer);
+    newContainer.setRequiredVCores(getVCores(newContainer.operators));
+    LOG.info("Merged containers {} into {} for stream {}", mergeContainers, newContainer, stream.getName());
+
+    updateStandbyContainers(mergeContainers);
+
+    Set<PTOperator> redeploy = getDependents(newContainer.operators);
+    ctx.deploy(mergeContainers, redeploy, Collections.singleton(newContainer), redeploy);
+    return true;
+  }
+
   private void assignContainers(Set<PTContainer> newContainers, Set<PTContainer> releaseContainers)
   {
     Set<PTOperator> mxnUnifiers = Sets.newHashSet();
@@ -1216,6 +1295,7 @@ public class PhysicalPlan implements Serializable
       updateContainerMemoryWithBufferServer(c);
       c.setRequiredVCores(getVCores(c.getOperators()));
     }
+    updateStandbyContainers(releaseContainers);
 
     AffinityRulesSet affinityRuleSet = dag.getAttributes().get(DAGContext.AFFINITY_RULES_SET);
     // Add anti-affinity restrictions in Containers
@@ -1492,6 +1572,7 @@ public class PhysicalPlan implements Serializable
     this.deployOpers.remove(oper);
     this.undeployOpers.add(oper);
     this.allOperators.remove(oper.id);
+    oper.stats.release();
     this.ctx.recordEventAsync(new StramEvent.RemoveOperatorEvent(oper.getName(), oper.getId()));
   }
 
@@ -1510,6 +1591,79 @@ public class PhysicalPlan implements Serializable
     return this.containers;
   }
 
+  /**
+   * Get the standby container that takes over the operators of the given container when it fails.
+   *
+   * @param container
+   * @return the standby container or null when none of the operators of the container has a hot standby
+   */
+  public PTContainer getStandbyContainer(PTContainer container)
+  {
+    return standbyContainers.get(container);
+  }
+
+  /**
+   * @return standby containers by the container they protect
+   */
+  public Map<PTContainer, PTContainer> getStandbyContainers()
+  {
+    return Collections.unmodifiableMap(standbyContainers);
+  }
+
+  /**
+   * Replace the standby container of a container after it took over the operators of the container.
+   *
+   * @param container
+   * @return the new standby container
+   */
+  public PTContainer replaceStandbyContainer(PTContainer container)
+  {
+    PTContainer standby = new PTContainer(this);
+    standby.setRequiredMemoryMB(container.getRequiredMemoryMB());
+    standby.setRequiredVCores(container.getRequiredVCores());
+    standbyContainers.put(container, standby);
+    return standby;
+  }
+
+  /**
+   * Add standby containers for the containers with operators that have {@link OperatorContext#HOT_STANDBY} set and
+   * remove the standby containers that are no longer needed.
+   *
+   * @param releaseContainers standby containers to be released are added to this set
+   */
+  private void updateStandbyContainers(Set<PTContainer> releaseContainers)
+  {
+    for (PTContainer c : containers) {
+      boolean hotStandby = false;
+      for (PTOperator oper : c.operators) {
+        if (!oper.isUnifier() && oper.operatorMeta.getValue(OperatorContext.HOT_STANDBY)) {
+          hotStandby = true;
+          break;
+        }
+      }
+      PTContainer standby = standbyContainers.get(c);
+      if (hotStandby) {
+        if (standby == null) {
+          standby = replaceStandbyContainer(c);
+          LOG.debug("Standby container {} for {}", standby, c);
+        }
+        standby.setRequiredMemoryMB(c.getRequiredMemoryMB());
+        standby.setRequiredVCores(c.getRequiredVCores());
+      } else if (standby != null) {
+        standbyContainers.remove(c);
+        releaseContainers.add(standby);
+      }
+    }
+    for (Iterator<Map.Entry<PTContainer, PTContainer>> it = standbyContainers.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry<PTContainer, PTContainer> e = it.next();
+      if (!containers.contains(e.getKey())) {
+        LOG.debug("Standby container {} to be released", e.getValue());
+        releaseContainers.add(e.getValue());
+        it.remove();
+      }
+    }
+  }
+
   public Map<Integer, PTOperator> getAllOperators()
   {
     return this.allOperators;
@@ -1531,6 +1685,29 @@ public class PhysicalPlan implements Serializable
     return this.logicalToPTOperator.get(logicalOperator).getAllOperators();
   }
 
+  /**
+   * @return store for the moving averages of the stats of the operators
+   */
+  public synchronized StatsStore getStatsStore()
+  {
+    if (statsStore == null) {
+      statsStore = new StatsStore(dag);
+    }
+    return statsStore;
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+  {
+    in.defaultReadObject();
+    // snapshots of earlier versions have no store, the stats of the operators are restored with a store each
+    StatsStore store = getStatsStore();
+    for (PTOperator oper : allOperators.values()) {
+      if (oper.stats.getStatsStore() != store) {
+        oper.stats = new OperatorStatus(oper.id, oper.operatorMeta, store);
+      }
+    }
+  }
+
   public List<PTOperator> getLeafOperators()
   {
     List<PTOperator> operators = new ArrayList<>();
@@ -1844,16 +2021,31 @@ public class PhysicalPlan implements Serializable
   }
 
   /**
-   * Read available checkpoints from storage agent for all operators.
+   * Read available checkpoints from storage agent for all operators. Storage agents that keep a checkpoint manifest
+   * are read once for all operators, operators not found in the manifest are listed individually.
    * @param startTime
    * @param currentTime
    * @throws IOException
    */
   public void syncCheckpoints(long startTime, long currentTime) throws IOException
   {
+    Map<StorageAgent, Map<Integer, long[]>> manifests = Maps.newIdentityHashMap();
     for (PTOperator oper : getAllOperators().values()) {
       StorageAgent sa = oper.operatorMeta.getValue(OperatorContext.STORAGE_AGENT);
-      long[] windowIds = sa.getWindowIds(oper.getId());
+      long[] windowIds = null;
+      if (sa instanceof FSStorageAgent) {
+        if (!manifests.containsKey(sa)) {
+          manifests.put(sa, ((FSStorageAgent)sa).getManifestWindowIds());
+        }
+        Map<Integer, long[]> manifest = manifests.get(sa);
+        if (manifest != null) {
+          // stateless operators only have the initial checkpoint, which is not recorded
+          windowIds = oper.isOperatorStateLess() ? new long[0] : manifest.get(oper.getId());
+        }
+      }
+      if (windowIds == null) {
+        windowIds = sa.getWindowIds(oper.getId());
+      }
       Arrays.sort(windowIds);
       oper.checkpoints.clear();
       for (long wid : windowIds) {
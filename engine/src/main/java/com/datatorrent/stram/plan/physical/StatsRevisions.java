@@ -20,7 +20,6 @@ package com.datatorrent.stram.plan.physical;
 
 import java.io.Serializable;
 import java.util.Arrays;
-import java.util.IdentityHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,15 +33,13 @@ import org.slf4j.LoggerFactory;
  */
 public class StatsRevisions implements Serializable
 {
-  private final IdentityHashMap<Object, Integer> longsIndex = new IdentityHashMap<>();
+  private int longsCount;
   private transient ThreadLocal<Revision> VERSION = new ThreadLocal<>();
   private Revision current = new Revision();
 
   public VersionedLong newVersionedLong()
   {
-    VersionedLong vl = new VersionedLong(longsIndex.size());
-    longsIndex.put(vl, vl.index);
-    return vl;
+    return new VersionedLong(longsCount++);
   }
 
   private class Revision implements Serializable
@@ -0,0 +1,362 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.stram.plan.physical;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.datatorrent.stram.plan.logical.LogicalPlan;
+
+/**
+ * Columnar store for the moving averages of the operator and port stats of a physical plan.<p>
+ * <br>
+ * The samples of all averages with the same number of periods are kept in shared primitive arrays instead of arrays
+ * and objects per average. Each average is a ring buffer at a fixed range of a column and is accessed through a view
+ * that holds its slot. Columns grow in chunks that never move, so that the heartbeats of different operators update
+ * their averages concurrently with a lock per chunk. The slots of removed operators and ports are reused, the
+ * generation of the slot keeps a stale view from updating the average that reuses it.<p>
+ * <br>
+ * The averages over time hold enough samples to cover the throughput calculation interval with samples of a quarter of
+ * the streaming window width, at most {@link LogicalPlan#THROUGHPUT_CALCULATION_MAX_SAMPLES}. Older samples do not
+ * contribute to the average.
+ *
+ * @since 3.5.0
+ */
+public class StatsStore implements java.io.Serializable
+{
+  private static final long serialVersionUID = 201610190000L;
+  private static final int CHUNK_SLOTS = 64;
+
+  private final int throughputCalculationInterval;
+  private final int timedPeriods;
+  private final Column timedColumn;
+  private final Map<Integer, Column> columns = new HashMap<>();
+
+  public StatsStore(LogicalPlan dag)
+  {
+    this(dag.getValue(LogicalPlan.THROUGHPUT_CALCULATION_INTERVAL),
+        dag.getValue(LogicalPlan.THROUGHPUT_CALCULATION_MAX_SAMPLES),
+        dag.getValue(LogicalPlan.STREAMING_WINDOW_SIZE_MILLIS));
+  }
+
+  StatsStore(int throughputCalculationInterval, int throughputCalculationMaxSamples, int windowWidthMillis)
+  {
+    this(throughputCalculationInterval, (int)Math.max(2, Math.min(throughputCalculationMaxSamples,
+        4L * throughputCalculationInterval / Math.max(windowWidthMillis, 1) + 1)));
+  }
+
+  private StatsStore(int throughputCalculationInterval, int timedPeriods)
+  {
+    this.throughputCalculationInterval = throughputCalculationInterval;
+    this.timedPeriods = timedPeriods;
+    this.timedColumn = new Column(timedPeriods, throughputCalculationInterval);
+  }
+
+  /**
+   * @return average of the values over the throughput calculation interval per unit of time
+   */
+  public TimedAverage newTimedAverage()
+  {
+    return new TimedAverage(timedColumn);
+  }
+
+  /**
+   * @return average of the given number of last values
+   */
+  public Average newAverage(int periods)
+  {
+    periods = Math.max(periods, 1);
+    Column column;
+    synchronized (columns) {
+      column = columns.get(periods);
+      if (column == null) {
+        columns.put(periods, column = new Column(periods, -1));
+      }
+    }
+    return new Average(column);
+  }
+
+  int getTimedPeriods()
+  {
+    return timedPeriods;
+  }
+
+  /**
+   * @return number of slots that are allocated, including the free slots
+   */
+  int getCapacity()
+  {
+    int capacity = timedColumn.getCapacity();
+    synchronized (columns) {
+      for (Column column : columns.values()) {
+        capacity += column.getCapacity();
+      }
+    }
+    return capacity;
+  }
+
+  /**
+   * Ring buffers of the same width, in chunks of primitive arrays.
+   */
+  private static class Column
+  {
+    private final int width;
+    private final boolean timed;
+    private final long baseTimeInterval;
+    private volatile Chunk[] chunks = new Chunk[0];
+    private int[] free = new int[16];
+    private int freeCount;
+    private int nextSlot;
+
+    /**
+     * @param baseTimeInterval interval of the averages over time, -1 for averages of the last values
+     */
+    private Column(int width, long baseTimeInterval)
+    {
+      this.width = width;
+      this.timed = baseTimeInterval >= 0;
+      this.baseTimeInterval = baseTimeInterval;
+    }
+
+    private class Chunk
+    {
+      final long[] values = new long[CHUNK_SLOTS * width];
+      final long[] times = timed ? new long[CHUNK_SLOTS * width] : null;
+      final int[] positions = new int[CHUNK_SLOTS];
+      final int[] counts = new int[CHUNK_SLOTS];
+      final int[] generations = new int[CHUNK_SLOTS];
+    }
+
+    private synchronized int allocate()
+    {
+      if (freeCount > 0) {
+        return free[--freeCount];
+      }
+      int slot = nextSlot++;
+      if (slot / CHUNK_SLOTS >= chunks.length) {
+        Chunk[] newChunks = Arrays.copyOf(chunks, chunks.length + 1);
+        newChunks[chunks.length] = new Chunk();
+        chunks = newChunks;
+      }
+      return slot;
+    }
+
+    private int generation(int slot)
+    {
+      Chunk chunk = chunks[slot / CHUNK_SLOTS];
+      synchronized (chunk) {
+        return chunk.generations[slot % CHUNK_SLOTS];
+      }
+    }
+
+    private void release(int slot, int generation)
+    {
+      Chunk chunk = chunks[slot / CHUNK_SLOTS];
+      int i = slot % CHUNK_SLOTS;
+      synchronized (chunk) {
+        if (chunk.generations[i] != generation) {
+          return;
+        }
+        chunk.generations[i]++;
+        chunk.positions[i] = 0;
+        chunk.counts[i] = 0;
+        Arrays.fill(chunk.values, i * width, (i + 1) * width, 0);
+        if (timed) {
+          Arrays.fill(chunk.times, i * width, (i + 1) * width, 0);
+        }
+      }
+      synchronized (this) {
+        if (freeCount == free.length) {
+          free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = slot;
+      }
+    }
+
+    private synchronized int getCapacity()
+    {
+      return nextSlot;
+    }
+
+    private void add(int slot, int generation, long value, long time)
+    {
+      Chunk chunk = chunks[slot / CHUNK_SLOTS];
+      int i = slot % CHUNK_SLOTS;
+      synchronized (chunk) {
+        if (chunk.generations[i] != generation) {
+          return;
+        }
+        int position = chunk.positions[i];
+        chunk.values[i * width + position] = value;
+        if (timed) {
+          chunk.times[i * width + position] = time;
+        }
+        chunk.positions[i] = (position + 1) % width;
+        if (chunk.counts[i] < width) {
+          chunk.counts[i]++;
+        }
+      }
+    }
+
+    private long getAvg(int slot, int generation)
+    {
+      Chunk chunk = chunks[slot / CHUNK_SLOTS];
+      int i = slot % CHUNK_SLOTS;
+      synchronized (chunk) {
+        int count = chunk.counts[i];
+        if (chunk.generations[i] != generation || count == 0) {
+          return 0;
+        }
+        long sum = 0;
+        for (int j = i * width, end = j + width; j < end; j++) {
+          sum += chunk.values[j];
+        }
+        return sum / count;
+      }
+    }
+
+    private double getTimedAvg(int slot, int generation)
+    {
+      Chunk chunk = chunks[slot / CHUNK_SLOTS];
+      int i = slot % CHUNK_SLOTS;
+      synchronized (chunk) {
+        if (chunk.generations[i] != generation) {
+          return 0;
+        }
+        long sumValues = 0;
+        long sumTimeIntervals = 0;
+        int offset = i * width;
+        int index = chunk.positions[i];
+        int j = index;
+        while (true) {
+          j--;
+          if (j < 0) {
+            j = width - 1;
+          }
+          if (j == index) {
+            break;
+          }
+          sumValues += chunk.values[offset + j];
+          sumTimeIntervals += chunk.times[offset + j];
+          if (sumTimeIntervals >= baseTimeInterval) {
+            break;
+          }
+        }
+        return sumTimeIntervals == 0 ? 0 : ((double)sumValues) / sumTimeIntervals;
+      }
+    }
+  }
+
+  /**
+   * View of an average of the last values in the store.
+   */
+  public static class Average
+  {
+    private final Column column;
+    private final int slot;
+    private final int generation;
+
+    private Average(Column column)
+    {
+      this.column = column;
+      this.slot = column.allocate();
+      this.generation = column.generation(slot);
+    }
+
+    public void add(long val)
+    {
+      column.add(slot, generation, val, 0);
+    }
+
+    public long getAvg()
+    {
+      return column.getAvg(slot, generation);
+    }
+
+    /**
+     * Return the slot to the store. The view is empty afterwards.
+     */
+    public void release()
+    {
+      column.release(slot, generation);
+    }
+  }
+
+  /**
+   * View of an average over time in the store.
+   */
+  public static class TimedAverage
+  {
+    private final Column column;
+    private final int slot;
+    private final int generation;
+
+    private TimedAverage(Column column)
+    {
+      this.column = column;
+      this.slot = column.allocate();
+      this.generation = column.generation(slot);
+    }
+
+    public void add(long val, long time)
+    {
+      column.add(slot, generation, val, time);
+    }
+
+    public double getAvg()
+    {
+      return column.getTimedAvg(slot, generation);
+    }
+
+    /**
+     * Return the slot to the store. The view is empty afterwards.
+     */
+    public void release()
+    {
+      column.release(slot, generation);
+    }
+  }
+
+  /**
+   * The averages are not part of the checkpoint of the plan, the store is empty after recovery.
+   */
+  private static class SerializationProxy implements java.io.Serializable
+  {
+    private static final long serialVersionUID = 201610190000L;
+    final int throughputCalculationInterval;
+    final int timedPeriods;
+
+    private SerializationProxy(StatsStore s)
+    {
+      this.throughputCalculationInterval = s.throughputCalculationInterval;
+      this.timedPeriods = s.timedPeriods;
+    }
+
+    private Object readResolve() throws java.io.ObjectStreamException
+    {
+      return new StatsStore(throughputCalculationInterval, timedPeriods);
+    }
+  }
+
+  private Object writeReplace() throws java.io.ObjectStreamException
+  {
+    return new SerializationProxy(this);
+  }
+}
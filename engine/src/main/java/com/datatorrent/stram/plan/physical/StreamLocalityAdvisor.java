@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.stram.plan.physical;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Sets;
+
+import com.datatorrent.api.Context.OperatorContext;
+import com.datatorrent.api.Context.PortContext;
+import com.datatorrent.api.DAG.Locality;
+import com.datatorrent.stram.plan.logical.LogicalPlan;
+import com.datatorrent.stram.plan.logical.LogicalPlan.InputPortMeta;
+import com.datatorrent.stram.plan.logical.LogicalPlan.StreamMeta;
+import com.datatorrent.stram.plan.physical.OperatorStatus.PortStatus;
+
+/**
+ * Recommends streams to be made container local based on the traffic observed through the buffer server.<p>
+ * <br>
+ * Streams without locality or with node locality are ranked by the bytes per second their source ports write to the
+ * buffer server. Starting with the heaviest stream, the containers of the source and the sinks are merged as long as
+ * the merged container stays within the memory and vcore limits. Only streams between single partition operators are
+ * considered, so that the promotion does not change the partitioning or the unifiers of the plan.
+ *
+ * @since 3.5.0
+ */
+public class StreamLocalityAdvisor
+{
+  private final PhysicalPlan plan;
+  private int maxMemoryMB = Integer.MAX_VALUE;
+  private int maxVCores = Integer.MAX_VALUE;
+
+  public static class Recommendation
+  {
+    public final String streamName;
+    public final Locality currentLocality;
+    /**
+     * Bytes per second that would no longer go through the buffer server.
+     */
+    public final long bufferServerBytesPS;
+    public final int containerMemoryMB;
+    public final int containerVCores;
+
+    private Recommendation(StreamMeta stream, long bufferServerBytesPS, int containerMemoryMB, int containerVCores)
+    {
+      this.streamName = stream.getName();
+      this.currentLocality = stream.getLocality();
+      this.bufferServerBytesPS = bufferServerBytesPS;
+      this.containerMemoryMB = containerMemoryMB;
+      this.containerVCores = containerVCores;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "Recommendation{" + "stream=" + streamName + ", locality=" + currentLocality + ", bufferServerBytesPS="
+          + bufferServerBytesPS + ", containerMemoryMB=" + containerMemoryMB + ", containerVCores=" + containerVCores + '}';
+    }
+
+  }
+
+  private static class Candidate
+  {
+    final StreamMeta stream;
+    final long bytesPS;
+    final Set<PTContainer> containers;
+
+    Candidate(StreamMeta stream, long bytesPS, Set<PTContainer> containers)
+    {
+      this.stream = stream;
+      this.bytesPS = bytesPS;
+      this.containers = containers;
+    }
+
+  }
+
+  public StreamLocalityAdvisor(PhysicalPlan plan)
+  {
+    this.plan = plan;
+  }
+
+  /**
+   * Set the largest container the resource manager will grant. Promotions that would require a bigger container are
+   * not recommended.
+   *
+   * @param maxMemoryMB maximum container memory
+   * @param maxVCores maximum container vcores
+   */
+  public void setContainerLimits(int maxMemoryMB, int maxVCores)
+  {
+    this.maxMemoryMB = maxMemoryMB;
+    this.maxVCores = maxVCores;
+  }
+
+  public List<Recommendation> getRecommendations()
+  {
+    List<Candidate> candidates = new ArrayList<>();
+    for (StreamMeta stream : plan.getLogicalPlan().getAllStreams()) {
+      Candidate candidate = getCandidate(stream);
+      if (candidate != null) {
+        candidates.add(candidate);
+      }
+    }
+
+    Collections.sort(candidates, new Comparator<Candidate>()
+    {
+      @Override
+      public int compare(Candidate o1, Candidate o2)
+      {
+        return Long.compare(o2.bytesPS, o1.bytesPS);
+      }
+    });
+
+    List<Recommendation> recommendations = new ArrayList<>();
+    Map<PTContainer, Set<PTContainer>> mergedContainers = new HashMap<>();
+    for (Candidate candidate : candidates) {
+      Set<PTContainer> merged = Sets.newHashSet();
+      for (PTContainer c : candidate.containers) {
+        Set<PTContainer> group = mergedContainers.get(c);
+        if (group == null) {
+          merged.add(c);
+        } else {
+          merged.addAll(group);
+        }
+      }
+
+      int memoryMB = getMergedMemoryMB(merged);
+      int vCores = 0;
+      boolean antiAffinity = false;
+      for (PTContainer c : merged) {
+        vCores += c.getRequiredVCores();
+        antiAffinity |= !Collections.disjoint(c.getStrictAntiPrefs(), merged);
+      }
+
+      if (antiAffinity) {
+        LOG.debug("Not promoting {} due to anti-affinity between {}", candidate.stream, merged);
+      } else if (memoryMB > maxMemoryMB || vCores > maxVCores) {
+        LOG.debug("Not promoting {}, container would need {}m and {} vcores", candidate.stream, memoryMB, vCores);
+      } else {
+        for (PTContainer c : merged) {
+          mergedContainers.put(c, merged);
+        }
+        recommendations.add(new Recommendation(candidate.stream, candidate.bytesPS, memoryMB, vCores));
+      }
+    }
+
+    return recommendations;
+  }
+
+  /**
+   * Memory of the container that replaces the merged containers, sized like {@link PhysicalPlan#setContainerLocal}:
+   * the operator memory plus buffer server memory for the outputs that still have sinks outside of the container.
+   */
+  private static int getMergedMemoryMB(Set<PTContainer> merged)
+  {
+    int memoryMB = 0;
+    for (PTContainer c : merged) {
+      for (PTOperator oper : c.getOperators()) {
+        memoryMB += oper.getOperatorMeta().getValue(OperatorContext.MEMORY_MB);
+        for (PTOperator.PTOutput out : oper.getOutputs()) {
+          for (PTOperator.PTInput sink : out.sinks) {
+            if (!merged.contains(sink.target.getContainer())) {
+              memoryMB += out.logicalStream.getSource().getValue(PortContext.BUFFER_MEMORY_MB);
+              break;
+            }
+          }
+        }
+      }
+    }
+    return memoryMB;
+  }
+
+  private Candidate getCandidate(StreamMeta stream)
+  {
+    if (stream.getLocality() != null && stream.getLocality() != Locality.NODE_LOCAL) {
+      return null;
+    }
+    if (stream.getSource() == null || stream.getPersistOperator() != null || stream.getSinks().isEmpty()) {
+      return null;
+    }
+
+    List<PTOperator> sources = plan.getOperators(stream.getSource().getOperatorMeta());
+    if (sources.size() != 1) {
+      return null;
+    }
+
+    Set<PTContainer> containers = Sets.newHashSet();
+    PTOperator source = sources.get(0);
+    if (source.getContainer() == null) {
+      return null;
+    }
+    containers.add(source.getContainer());
+
+    for (InputPortMeta sink : stream.getSinks()) {
+      if (sink.getValue(LogicalPlan.IS_CONNECTED_TO_DELAY_OPERATOR)) {
+        return null;
+      }
+      List<PTOperator> targets = plan.getOperators(sink.getOperatorWrapper());
+      if (targets.size() != 1 || targets.get(0).getContainer() == null) {
+        return null;
+      }
+      containers.add(targets.get(0).getContainer());
+    }
+    if (containers.size() < 2) {
+      // already in the same container, there is nothing to merge
+      return null;
+    }
+
+    PortStatus ps = source.stats.outputPortStatusList.get(stream.getSource().getPortName());
+    long bytesPS = ps == null ? 0 : Math.round(ps.bufferServerBytesPMSMA.getAvg() * 1000);
+    if (bytesPS <= 0) {
+      return null;
+    }
+
+    return new Candidate(stream, bytesPS, containers);
+  }
+
+  private static final Logger LOG = LoggerFactory.getLogger(StreamLocalityAdvisor.class);
+}
@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.stram.stream;
+
+import com.datatorrent.stram.tuple.Tuple;
+
+/**
+ * An {@link OiOStream} which is connected straight to the output port of the upstream operator.<p>
+ * <br>
+ * When an output port feeds exactly one ThreadLocal input port and nothing else, the {@link MuxStream} that
+ * normally sits between the output port and the {@link OiOStream} is redundant. This stream takes its place, so
+ * that an emit on the upstream port turns into a direct call to the downstream input port and control tuples are
+ * handed to the downstream {@link com.datatorrent.stram.engine.OiONode} in a single dispatch.<br>
+ * <br>
+ * Since the stream also stands in for the output port sink, its own count includes the control tuples just like
+ * the {@link MuxStream} would, while the reservoir count keeps tracking the data tuples only.
+ *
+ * @since 3.5.0
+ */
+public class FusedOiOStream extends OiOStream
+{
+  @Override
+  public void put(Object t)
+  {
+    count++;
+    if (t instanceof Tuple) {
+      control.put((Tuple)t);
+    } else {
+      reservoir.count++;
+      sink.put(t);
+    }
+  }
+
+}
@@ -39,10 +39,10 @@ import com.datatorrent.stram.tuple.Tuple;
  */
 public class OiOStream implements Stream
 {
-  private Sink<Object> sink;
-  private Sink<Tuple> control;
-  private int count;
-  private OiOReservoir reservoir = new OiOReservoir();
+  protected Sink<Object> sink;
+  protected Sink<Tuple> control;
+  protected int count;
+  protected final OiOReservoir reservoir = new OiOReservoir();
 
   @Override
   public void setup(StreamContext context)
@@ -95,7 +95,7 @@ public class OiOStream implements Stream
 
   public class OiOReservoir implements SweepableReservoir
   {
-    private int count;
+    int count;
 
     public void setControlSink(Sink<Tuple> control)
     {
@@ -31,21 +31,92 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.Map;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 
 /**
- * Adapter for Hadoop RPC to implement Writable using Java serialization.
+ * Adapter for Hadoop RPC to implement Writable using Java serialization.<p>
+ * <br>
+ * Subclasses can provide a compact encoding specific to their fields, which is written with a version in place of
+ * the Java serialized fields. Both encodings are accepted when reading. Values that the compact encoding does not
+ * know are written with Java serialization.
  *
  * @since 0.3.2
  */
 public abstract class AbstractWritableAdapter implements Writable, Serializable
 {
   private static final long serialVersionUID = 201306061421L;
+  /**
+   * Written in place of the length of the Java serialized fields to indicate the compact encoding.
+   */
+  private static final int COMPACT_ENCODING = -1;
+
+  private static final byte NULL = 0;
+  private static final byte INTEGER = 1;
+  private static final byte LONG = 2;
+  private static final byte DOUBLE = 3;
+  private static final byte FLOAT = 4;
+  private static final byte STRING = 5;
+  private static final byte BOOLEAN = 6;
+  private static final byte SERIALIZED = 7;
+
+  private transient boolean compactEncoding = true;
+
+  /**
+   * Whether to write the compact encoding, if the class has one, or Java serialization of the public fields.
+   *
+   * @param compactEncoding
+   */
+  public void setCompactEncoding(boolean compactEncoding)
+  {
+    this.compactEncoding = compactEncoding;
+  }
+
+  /**
+   * @return version of the compact encoding written by the class, 0 if the class has no compact encoding
+   */
+  protected int getCompactVersion()
+  {
+    return 0;
+  }
+
+  /**
+   * Write the fields in the compact encoding of the current version.
+   */
+  protected void writeCompact(DataOutput out) throws IOException
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Read the fields written in the compact encoding.
+   *
+   * @param version version of the compact encoding that the fields were written with
+   */
+  protected void readCompact(DataInput in, int version) throws IOException
+  {
+    throw new IOException("Unsupported encoding version " + version + " for " + getClass().getName());
+  }
 
   @Override
   public void readFields(DataInput arg0) throws IOException
   {
     int len = arg0.readInt();
+    if (len == COMPACT_ENCODING) {
+      int version = arg0.readUnsignedByte();
+      if (version == 0 || version > getCompactVersion()) {
+        throw new IOException("Unsupported encoding version " + version + " for " + getClass().getName());
+      }
+      byte[] bytes = new byte[arg0.readInt()];
+      arg0.readFully(bytes);
+      DataInputBuffer in = new DataInputBuffer();
+      in.reset(bytes, bytes.length);
+      readCompact(in, version);
+      return;
+    }
     byte[] bytes = new byte[len];
     arg0.readFully(bytes);
     try {
@@ -70,6 +141,17 @@ public abstract class AbstractWritableAdapter implements Writable, Serializable
   @Override
   public void write(DataOutput arg0) throws IOException
   {
+    int version = getCompactVersion();
+    if (compactEncoding && version > 0) {
+      // encode into an array first, the RPC output does not perform well with the many small writes
+      DataOutputBuffer out = new DataOutputBuffer();
+      writeCompact(out);
+      arg0.writeInt(COMPACT_ENCODING);
+      arg0.writeByte(version);
+      arg0.writeInt(out.getLength());
+      arg0.write(out.getData(), 0, out.getLength());
+      return;
+    }
     ByteArrayOutputStream bos = new ByteArrayOutputStream();
     ObjectOutputStream oos = new ObjectOutputStream(bos);
     try {
@@ -95,4 +177,92 @@ public abstract class AbstractWritableAdapter implements Writable, Serializable
     oos.close();
   }
 
+  /**
+   * Write an object with Java serialization, for the compact encoding of values without schema.
+   */
+  protected static void writeSerialized(DataOutput out, Object value) throws IOException
+  {
+    if (value == null) {
+      WritableUtils.writeVInt(out, -1);
+      return;
+    }
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+      oos.writeObject(value);
+    }
+    WritableUtils.writeVInt(out, bos.size());
+    out.write(bos.toByteArray());
+  }
+
+  protected static Object readSerialized(DataInput in) throws IOException
+  {
+    int len = WritableUtils.readVInt(in);
+    if (len < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[len];
+    in.readFully(bytes);
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return ois.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Write a value of a common type with its type, other values with Java serialization.
+   */
+  protected static void writeValue(DataOutput out, Object value) throws IOException
+  {
+    if (value == null) {
+      out.writeByte(NULL);
+    } else if (value instanceof Integer) {
+      out.writeByte(INTEGER);
+      WritableUtils.writeVInt(out, (Integer)value);
+    } else if (value instanceof Long) {
+      out.writeByte(LONG);
+      WritableUtils.writeVLong(out, (Long)value);
+    } else if (value instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double)value);
+    } else if (value instanceof Float) {
+      out.writeByte(FLOAT);
+      out.writeFloat((Float)value);
+    } else if (value instanceof String) {
+      out.writeByte(STRING);
+      WritableUtils.writeString(out, (String)value);
+    } else if (value instanceof Boolean) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean((Boolean)value);
+    } else {
+      out.writeByte(SERIALIZED);
+      writeSerialized(out, value);
+    }
+  }
+
+  protected static Object readValue(DataInput in) throws IOException
+  {
+    byte type = in.readByte();
+    switch (type) {
+      case NULL:
+        return null;
+      case INTEGER:
+        return WritableUtils.readVInt(in);
+      case LONG:
+        return WritableUtils.readVLong(in);
+      case DOUBLE:
+        return in.readDouble();
+      case FLOAT:
+        return in.readFloat();
+      case STRING:
+        return WritableUtils.readString(in);
+      case BOOLEAN:
+        return in.readBoolean();
+      case SERIALIZED:
+        return readSerialized(in);
+      default:
+        throw new IOException("Unknown value type " + type);
+    }
+  }
+
 }
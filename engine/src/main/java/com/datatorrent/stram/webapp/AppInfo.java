@@ -211,6 +211,27 @@ public class AppInfo
     {
       return 0;
     }
+
+    @javax.xml.bind.annotation.XmlElement
+    @AutoMetric
+    public long getJournalFlushLatencyMA()
+    {
+      return 0;
+    }
+
+    @javax.xml.bind.annotation.XmlElement
+    @AutoMetric
+    public long getJournalOperationsPerFlushMA()
+    {
+      return 0;
+    }
+
+    @javax.xml.bind.annotation.XmlElement
+    @AutoMetric
+    public long getDroppedEndWindowStatsCount()
+    {
+      return 0;
+    }
   }
 
   /**
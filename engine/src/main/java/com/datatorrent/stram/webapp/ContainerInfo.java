@@ -51,6 +51,10 @@ public class ContainerInfo
   public long gcCollectionTime;
   @RecordField(type = "stats")
   public long gcCollectionCount;
+  @RecordField(type = "stats")
+  public int checkpointUploadQueueSize;
+  @RecordField(type = "stats")
+  public long checkpointUploadBytesPS;
   @RecordField(type = "meta", publish = false)
   public String containerLogsUrl;
   public long startedTime = -1;
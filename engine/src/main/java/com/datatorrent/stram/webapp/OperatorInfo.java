@@ -93,6 +93,18 @@ public class OperatorInfo
   public long checkpointTime;
   @RecordField(type = "stats")
   public long checkpointTimeMA;
+  @RecordField(type = "stats")
+  public long checkpointSize;
+  @RecordField(type = "stats")
+  public long checkpointSerializedSize;
+  @RecordField(type = "stats")
+  public long checkpointCompressionTime;
+  @RecordField(type = "stats")
+  public long checkpointSerializeTime;
+  @RecordField(type = "stats")
+  public long checkpointUploadTime;
+  @RecordField(type = "stats")
+  public long restoreTime;
 
   /**
    * @param info
@@ -25,6 +25,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -113,6 +114,54 @@ public class CheckpointTest
     }
   }
 
+  private static class SnapshotInputOperator extends BaseOperator implements InputOperator,
+      Operator.CheckpointSnapshotProvider, Operator.CheckpointListener
+  {
+    private static final List<Long> snapshots = new CopyOnWriteArrayList<>();
+    private static final List<Long> checkpointed = new CopyOnWriteArrayList<>();
+    @OutputPortFieldAnnotation(optional = true)
+    public final transient DefaultOutputPort<Object> outport = new DefaultOutputPort<>();
+    private transient int windowCount;
+    private boolean snapshot;
+    private long snapshotWindowId;
+
+    @Override
+    public void beginWindow(long windowId)
+    {
+      // the first save in the background may take many windows
+      if (checkpointed.size() >= 3 || ++windowCount == 1000) {
+        BaseOperator.shutdown();
+      }
+    }
+
+    @Override
+    public void emitTuples()
+    {
+    }
+
+    @Override
+    public Operator getCheckpointSnapshot(long windowId)
+    {
+      SnapshotInputOperator copy = new SnapshotInputOperator();
+      copy.snapshot = true;
+      copy.snapshotWindowId = windowId;
+      snapshots.add(windowId);
+      return copy;
+    }
+
+    @Override
+    public void checkpointed(long windowId)
+    {
+      checkpointed.add(windowId);
+    }
+
+    @Override
+    public void committed(long windowId)
+    {
+      Assert.assertTrue("committed after checkpointed " + windowId, checkpointed.contains(windowId));
+    }
+  }
+
   private LogicalPlan dag;
 
   @Before
@@ -484,6 +533,73 @@ public class CheckpointTest
 
   }
 
+  @Test
+  public void testIncrementalCheckpointUpdate()
+  {
+    MockClock clock = new MockClock();
+    dag.setAttribute(com.datatorrent.api.Context.OperatorContext.STORAGE_AGENT, new MemoryStorageAgent());
+
+    GenericTestOperator o1 = dag.addOperator("o1", GenericTestOperator.class);
+    GenericTestOperator o2 = dag.addOperator("o2", GenericTestOperator.class);
+    GenericTestOperator o3 = dag.addOperator("o3", GenericTestOperator.class);
+    dag.addStream("o1.outport1", o1.outport1, o2.inport1);
+    dag.addStream("o2.outport1", o2.outport1, o3.inport1);
+
+    StreamingContainerManager scm = new StreamingContainerManager(dag, false, clock);
+    PhysicalPlan plan = scm.getPhysicalPlan();
+    Map<PTOperator, MockContainer> mockContainers = Maps.newHashMap();
+    for (PTContainer c : plan.getContainers()) {
+      MockContainer mc = new MockContainer(scm, c);
+      for (PTOperator oper : c.getOperators()) {
+        mockContainers.put(oper, mc);
+      }
+    }
+    for (MockContainer mc : Sets.newHashSet(mockContainers.values())) {
+      mc.deploy();
+    }
+    PTOperator o1p1 = plan.getOperators(dag.getMeta(o1)).get(0);
+    PTOperator o2p1 = plan.getOperators(dag.getMeta(o2)).get(0);
+    PTOperator o3p1 = plan.getOperators(dag.getMeta(o3)).get(0);
+    for (PTOperator oper : mockContainers.keySet()) {
+      reportCheckpoint(mockContainers.get(oper), oper, 0);
+    }
+    scm.monitorHeartbeat();
+    Assert.assertEquals("recovery checkpoint o1", 0, o1p1.getRecoveryCheckpoint().windowId);
+
+    reportCheckpoint(mockContainers.get(o1p1), o1p1, 10);
+    reportCheckpoint(mockContainers.get(o2p1), o2p1, 10);
+    scm.monitorHeartbeat();
+    Assert.assertEquals("recovery checkpoint o1 bounded by o3", 0, o1p1.getRecoveryCheckpoint().windowId);
+
+    reportCheckpoint(mockContainers.get(o3p1), o3p1, 10);
+    scm.monitorHeartbeat();
+    for (PTOperator oper : mockContainers.keySet()) {
+      Assert.assertEquals("recovery checkpoint " + oper, 10, oper.getRecoveryCheckpoint().windowId);
+    }
+    scm.monitorHeartbeat();
+    Assert.assertEquals("committed window", 10, scm.getCommittedWindowId());
+
+    // only operators with reported checkpoints and their upstream operators are updated
+    reportCheckpoint(mockContainers.get(o2p1), o2p1, 20);
+    reportCheckpoint(mockContainers.get(o3p1), o3p1, 20);
+    o1p1.checkpoints.add(new Checkpoint(20, 0, 0));
+    scm.monitorHeartbeat();
+    Assert.assertEquals("recovery checkpoint o3", 20, o3p1.getRecoveryCheckpoint().windowId);
+    Assert.assertEquals("recovery checkpoint o2", 20, o2p1.getRecoveryCheckpoint().windowId);
+    Assert.assertEquals("recovery checkpoint o1", 20, o1p1.getRecoveryCheckpoint().windowId);
+    o1p1.checkpoints.add(new Checkpoint(30, 0, 0));
+    o2p1.checkpoints.add(new Checkpoint(30, 0, 0));
+    o3p1.checkpoints.add(new Checkpoint(30, 0, 0));
+    scm.monitorHeartbeat();
+    Assert.assertEquals("checkpoints not reported", 20, o3p1.getRecoveryCheckpoint().windowId);
+  }
+
+  private static void reportCheckpoint(MockContainer mc, PTOperator oper, long windowId)
+  {
+    mc.stats(oper.getId()).deployState(DeployState.ACTIVE).currentWindowId(windowId).checkpointWindowId(windowId);
+    mc.sendHeartbeat();
+  }
+
   @Test
   public void testBeforeCheckpointNotification() throws IOException, ClassNotFoundException
   {
@@ -519,4 +635,32 @@ public class CheckpointTest
     }
   }
 
+  @Test
+  public void testCheckpointSnapshot() throws Exception
+  {
+    AsyncFSStorageAgent storageAgent = new AsyncFSStorageAgent(testMeta.getPath(), null);
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, storageAgent);
+    dag.setAttribute(LogicalPlan.CHECKPOINT_WINDOW_COUNT, 1);
+    dag.setAttribute(LogicalPlan.STREAMING_WINDOW_SIZE_MILLIS, 50);
+    SnapshotInputOperator.snapshots.clear();
+    SnapshotInputOperator.checkpointed.clear();
+
+    SnapshotInputOperator o1 = dag.addOperator("o1", new SnapshotInputOperator());
+    StramLocalCluster sc = new StramLocalCluster(dag);
+    sc.setHeartbeatMonitoringEnabled(false);
+    sc.run();
+
+    PTOperator o1p1 = sc.dnmgr.getPhysicalPlan().getOperators(dag.getMeta(o1)).get(0);
+    Assert.assertFalse("checkpointed " + SnapshotInputOperator.snapshots, SnapshotInputOperator.checkpointed.isEmpty());
+    List<Long> sorted = new ArrayList<>(SnapshotInputOperator.checkpointed);
+    Collections.sort(sorted);
+    Assert.assertEquals("checkpointed in order", sorted, SnapshotInputOperator.checkpointed);
+    Assert.assertEquals("checkpointed snapshots", SnapshotInputOperator.snapshots.subList(0, sorted.size()), sorted);
+    for (long windowId : SnapshotInputOperator.checkpointed) {
+      SnapshotInputOperator state = (SnapshotInputOperator)storageAgent.load(o1p1.getId(), windowId);
+      Assert.assertTrue("snapshot saved", state.snapshot);
+      Assert.assertEquals("snapshot window", windowId, state.snapshotWindowId);
+    }
+  }
+
 }
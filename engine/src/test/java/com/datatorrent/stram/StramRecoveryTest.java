@@ -23,6 +23,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -30,11 +31,13 @@ import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -42,6 +45,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.mutable.MutableBoolean;
 import org.apache.commons.lang.mutable.MutableInt;
 import org.apache.hadoop.conf.Configuration;
@@ -54,8 +58,10 @@ import org.apache.hadoop.test.MockitoUtil;
 import com.google.common.collect.Lists;
 
 import com.datatorrent.api.Context.OperatorContext;
+import com.datatorrent.api.Context.PortContext;
 import com.datatorrent.api.StatsListener;
 import com.datatorrent.api.StorageAgent;
+import com.datatorrent.common.partitioner.StatelessPartitioner;
 import com.datatorrent.common.util.AsyncFSStorageAgent;
 import com.datatorrent.common.util.FSStorageAgent;
 import com.datatorrent.stram.api.Checkpoint;
@@ -63,6 +69,7 @@ import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol;
 import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol.OperatorHeartbeat;
 import com.datatorrent.stram.engine.GenericTestOperator;
 import com.datatorrent.stram.engine.TestGeneratorInputOperator;
+import com.datatorrent.stram.engine.WindowGenerator;
 import com.datatorrent.stram.plan.TestPlanContext;
 import com.datatorrent.stram.plan.logical.LogicalPlan;
 import com.datatorrent.stram.plan.logical.LogicalPlan.OperatorMeta;
@@ -277,6 +284,39 @@ public class StramRecoveryTest
     assertEquals("checkpoints after recovery", Lists.newArrayList(firstCheckpoint, offlineCheckpoint), o1p1.checkpoints);
   }
 
+  @Test
+  public void testCheckpointManifest() throws Exception
+  {
+    FSStorageAgent agent = new FSStorageAgent(testMeta.getPath(), null);
+    agent.setCheckpointManifest(true);
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, agent);
+    StatsListeningOperator o1 = dag.addOperator("o1", StatsListeningOperator.class);
+
+    StreamingContainerManager scm = StreamingContainerManager.getInstance(new FSRecoveryHandler(dag.assertAppPath(),
+        new Configuration(false)), dag, false);
+    PTOperator o1p1 = scm.getPhysicalPlan().getOperators(dag.getMeta(o1)).get(0);
+    MockContainer mc = new MockContainer(scm, o1p1.getContainer());
+    long windowId = WindowGenerator.getWindowId(scm.getWindowStartMillis() + 3000, scm.getWindowStartMillis(),
+        dag.getValue(LogicalPlan.STREAMING_WINDOW_SIZE_MILLIS));
+    Checkpoint checkpoint = new Checkpoint(windowId, 0, 0);
+    checkpoint(scm, o1p1, checkpoint);
+    mc.stats(o1p1.getId()).deployState(OperatorHeartbeat.DeployState.ACTIVE).currentWindowId(windowId)
+        .checkpointWindowId(windowId);
+    mc.sendHeartbeat();
+    scm.monitorHeartbeat();
+    agent.closeManifest();
+
+    // checkpoints are found through the manifest without listing the operator directory
+    FileUtils.deleteDirectory(new File(testMeta.getPath(), String.valueOf(o1p1.getId())));
+    dag = StramTestSupport.createDAG(testMeta);
+    scm = StreamingContainerManager.getInstance(new FSRecoveryHandler(dag.assertAppPath(), new Configuration(false)),
+        dag, false);
+    o1p1 = scm.getPhysicalPlan().getOperators(scm.getLogicalPlan().getOperatorMeta("o1")).get(0);
+    assertEquals("checkpoints after recovery", 1, o1p1.checkpoints.size());
+    assertEquals("checkpoint after recovery", windowId, o1p1.checkpoints.get(0).windowId);
+    ((FSStorageAgent)o1p1.getOperatorMeta().getValue(OperatorContext.STORAGE_AGENT)).closeManifest();
+  }
+
   @Test
   public void testContainerManagerWithSyncAgent() throws Exception
   {
@@ -355,6 +395,7 @@ public class StramRecoveryTest
 
     j.setOutputStream(new DataOutputStream(bos));
     j.write(c1.getSetContainerState());
+    j.flush();
 
     c1.setExternalId(null);
     c1.setState(PTContainer.State.NEW);
@@ -396,6 +437,231 @@ public class StramRecoveryTest
     scm.setPhysicalOperatorProperty(o1p1.getId(), "maxTuples", "50");
   }
 
+  @Test
+  public void testJournalGroupCommit() throws Exception
+  {
+    final MutableInt flushCount = new MutableInt();
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new FSStorageAgent(testMeta.getPath(), null));
+    TestGeneratorInputOperator o1 = dag.addOperator("o1", TestGeneratorInputOperator.class);
+    StreamingContainerManager scm = new StreamingContainerManager(dag);
+    Journal j = scm.getJournal();
+    ByteArrayOutputStream bos = new ByteArrayOutputStream()
+    {
+      @Override
+      public void flush() throws IOException
+      {
+        super.flush();
+        flushCount.increment();
+      }
+    };
+    j.setOutputStream(new DataOutputStream(bos));
+
+    PTOperator o1p1 = scm.getPhysicalPlan().getOperators(dag.getMeta(o1)).get(0);
+    List<Future<Void>> futures = Lists.newArrayList();
+    for (int i = 0; i < 100; i++) {
+      futures.add(j.write(o1p1.getContainer().getSetContainerState()));
+    }
+    assertEquals("flush count", 0, flushCount.intValue());
+    Assert.assertFalse("not durable", futures.get(99).isDone());
+
+    j.flush();
+    assertEquals("flush count", 1, flushCount.intValue());
+    for (Future<Void> future : futures) {
+      Assert.assertTrue("durable", future.isDone());
+      future.get();
+    }
+    assertEquals("operations per flush", 100, j.getOperationsPerFlushMA());
+
+    // nothing to flush
+    j.flush();
+    assertEquals("flush count", 1, flushCount.intValue());
+    j.setOutputStream(null);
+  }
+
+  @Test
+  public void testJournalFlushDuringEventProcessing() throws Exception
+  {
+    final MutableInt flushCount = new MutableInt();
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new FSStorageAgent(testMeta.getPath(), null));
+    dag.addOperator("o1", TestGeneratorInputOperator.class);
+
+    FSRecoveryHandler recoveryHandler = new FSRecoveryHandler(dag.assertAppPath(), new Configuration(false));
+    final StreamingContainerManager scm = StreamingContainerManager.getInstance(recoveryHandler, dag, false);
+    scm.getJournal().setOutputStream(new DataOutputStream(new ByteArrayOutputStream()
+    {
+      @Override
+      public void flush() throws IOException
+      {
+        super.flush();
+        flushCount.increment();
+      }
+    }));
+    final PTOperator o1p1 = scm.getPhysicalPlan().getOperators(dag.getOperatorMeta("o1")).get(0);
+    o1p1.setState(PTOperator.State.ACTIVE);
+    flushCount.setValue(0);
+
+    final MutableInt eventThreadFlushCount = new MutableInt(-1);
+    final MutableInt otherThreadFlushCount = new MutableInt(-1);
+    scm.dispatch(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        scm.writeJournal(o1p1.getContainer().getSetContainerState());
+        eventThreadFlushCount.setValue(flushCount.intValue());
+
+        // operations of other threads are durable when written, also while events are processed
+        Thread t = new Thread()
+        {
+          @Override
+          public void run()
+          {
+            scm.writeJournal(o1p1.getContainer().getSetContainerState());
+            otherThreadFlushCount.setValue(flushCount.intValue());
+          }
+        };
+        t.start();
+        try {
+          t.join();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    Assert.assertEquals("events", 1, scm.processEvents());
+    Assert.assertEquals("event processing thread", 0, eventThreadFlushCount.intValue());
+    Assert.assertEquals("other thread", 1, otherThreadFlushCount.intValue());
+  }
+
+  @Test
+  public void testStandbyContainerRecovery() throws Exception
+  {
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new FSStorageAgent(testMeta.getPath(), null));
+    dag.setAttribute(LogicalPlan.RECOVERY_JOURNAL_MAX_BYTES, 1L);
+    TestGeneratorInputOperator o1 = dag.addOperator("o1", TestGeneratorInputOperator.class);
+    dag.setOperatorAttribute(o1, OperatorContext.HOT_STANDBY, true);
+
+    FSRecoveryHandler recoveryHandler = new FSRecoveryHandler(dag.assertAppPath(), new Configuration(false));
+    StreamingContainerManager scm = StreamingContainerManager.getInstance(recoveryHandler, dag, false);
+    PhysicalPlan plan = scm.getPhysicalPlan();
+    PTContainer c1 = plan.getContainers().get(0);
+    PTContainer standby = plan.getStandbyContainer(c1);
+    Assert.assertNotNull("standby container", standby);
+    new MockContainer(scm, c1);
+    new MockContainer(scm, standby);
+    String standbyId = standby.getExternalId();
+    Assert.assertEquals("standby state", PTContainer.State.ACTIVE, standby.getState());
+    // snapshot with the running standby container, written because of the journal size
+    scm.processEvents();
+
+    // simulate AM restart
+    dag = StramTestSupport.createDAG(testMeta);
+    scm = StreamingContainerManager.getInstance(new FSRecoveryHandler(dag.assertAppPath(), new Configuration(false)), dag, false);
+    plan = scm.getPhysicalPlan();
+    c1 = plan.getContainers().get(0);
+    standby = plan.getStandbyContainer(c1);
+    Assert.assertNotNull("container agent", scm.getContainerAgent(c1.getExternalId()));
+    Assert.assertNull("standby agent", scm.getContainerAgent(standbyId));
+    Assert.assertEquals("standby state", PTContainer.State.NEW, standby.getState());
+    Assert.assertNull("standby id", standby.getExternalId());
+    Assert.assertEquals("standby requested " + scm.containerStartRequests, 1, scm.containerStartRequests.size());
+    Assert.assertSame("standby requested", standby, scm.containerStartRequests.peek().container);
+  }
+
+  @Test
+  public void testJournalTruncation() throws Exception
+  {
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new FSStorageAgent(testMeta.getPath(), null));
+    dag.setAttribute(LogicalPlan.RECOVERY_JOURNAL_MAX_BYTES, 1L);
+    dag.addOperator("o1", TestGeneratorInputOperator.class);
+
+    FSRecoveryHandler recoveryHandler = new FSRecoveryHandler(dag.assertAppPath(), new Configuration(false));
+    StreamingContainerManager scm = StreamingContainerManager.getInstance(recoveryHandler, dag, false);
+    PTOperator o1p1 = scm.getPhysicalPlan().getOperators(dag.getOperatorMeta("o1")).get(0);
+    o1p1.getContainer().setExternalId("cid1");
+    scm.writeJournal(o1p1.getContainer().getSetContainerState());
+    File logFile = new File(recoveryHandler.getDir(), FSRecoveryHandler.FILE_LOG);
+    Assert.assertTrue("journal written", logFile.length() > 0);
+
+    // no plan change, the snapshot is written because of the journal size
+    Assert.assertEquals("events", 0, scm.processEvents());
+    Assert.assertEquals("journal truncated", 0, logFile.length());
+    Assert.assertEquals("journal size", 0, scm.getJournal().getOutputSize());
+
+    dag = StramTestSupport.createDAG(testMeta);
+    scm = StreamingContainerManager.getInstance(new FSRecoveryHandler(dag.assertAppPath(), new Configuration(false)),
+        dag, false);
+    o1p1 = scm.getPhysicalPlan().getOperators(scm.getLogicalPlan().getOperatorMeta("o1")).get(0);
+    assertEquals("container state from snapshot", "cid1", o1p1.getContainer().getExternalId());
+  }
+
+  @Test
+  public void testRestoreSnapshotOfEarlierVersion() throws Exception
+  {
+    FSRecoveryHandler recoveryHandler = new FSRecoveryHandler(testMeta.getPath(), new Configuration(false));
+    File snapshotFile = new File(recoveryHandler.getDir(), FSRecoveryHandler.FILE_SNAPSHOT);
+    FileUtils.forceMkdir(snapshotFile.getParentFile());
+    List<String> state = Lists.newArrayList("o1", "o2");
+    try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(snapshotFile))) {
+      oos.writeObject(state);
+    }
+    assertEquals("state", state, recoveryHandler.restore());
+
+    recoveryHandler.save(state);
+    assertEquals("state", state, recoveryHandler.restore());
+  }
+
+  /**
+   * Compares the size of the application master snapshot of a plan with 5000 operators and the time to write and
+   * restore it for the plain Java serialization used by earlier versions and the compressed snapshot.
+   */
+  @Test
+  @Ignore
+  public void testSnapshotBenchmark() throws Exception
+  {
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new StramTestSupport.MemoryStorageAgent());
+    dag.setAttribute(LogicalPlan.CONTAINERS_MAX_COUNT, 500);
+    for (int i = 0; i < 25; i++) {
+      TestGeneratorInputOperator input = dag.addOperator("input" + i, TestGeneratorInputOperator.class);
+      dag.setOperatorAttribute(input, OperatorContext.PARTITIONER,
+          new StatelessPartitioner<TestGeneratorInputOperator>(100));
+      GenericTestOperator o = dag.addOperator("o" + i, GenericTestOperator.class);
+      dag.addStream("s" + i, input.outport, o.inport1);
+      dag.setInputPortAttribute(o.inport1, PortContext.PARTITION_PARALLEL, true);
+    }
+    PhysicalPlan plan = new PhysicalPlan(dag, new TestPlanContext());
+    assertEquals("operators", 5000, plan.getAllOperators().size());
+
+    FSRecoveryHandler recoveryHandler = new FSRecoveryHandler(dag.assertAppPath(), new Configuration(false));
+    File snapshotFile = new File(recoveryHandler.getDir(), FSRecoveryHandler.FILE_SNAPSHOT);
+    FileUtils.forceMkdir(snapshotFile.getParentFile());
+    for (int round = 0; round < 5; round++) {
+      long start = System.nanoTime();
+      try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(snapshotFile))) {
+        oos.writeObject(plan);
+      }
+      long javaWrite = System.nanoTime() - start;
+      long javaSize = snapshotFile.length();
+      start = System.nanoTime();
+      recoveryHandler.restore();
+      long javaRestore = System.nanoTime() - start;
+
+      snapshotFile.delete();
+      start = System.nanoTime();
+      recoveryHandler.save(plan);
+      long compactWrite = System.nanoTime() - start;
+      long compactSize = snapshotFile.length();
+      start = System.nanoTime();
+      recoveryHandler.restore();
+      long compactRestore = System.nanoTime() - start;
+      snapshotFile.delete();
+
+      LOG.info("java serialization: {} bytes, write {} ms, restore {} ms; compressed: {} bytes, write {} ms, "
+          + "restore {} ms", javaSize, javaWrite / 1000000, javaRestore / 1000000, compactSize,
+          compactWrite / 1000000, compactRestore / 1000000);
+    }
+  }
+
   private void testRestartApp(StorageAgent agent, String appPath1) throws Exception
   {
     String appId1 = "app1";
@@ -20,26 +20,36 @@ package com.datatorrent.stram;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.codehaus.jettison.json.JSONObject;
 import org.eclipse.jetty.websocket.WebSocket;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.DataInputByteBuffer;
 import org.apache.hadoop.io.DataOutputByteBuffer;
 
@@ -51,6 +61,7 @@ import com.datatorrent.api.Context;
 import com.datatorrent.api.Context.OperatorContext;
 import com.datatorrent.api.Context.PortContext;
 import com.datatorrent.api.DAG.Locality;
+import com.datatorrent.api.Stats;
 import com.datatorrent.api.Stats.OperatorStats;
 import com.datatorrent.api.Stats.OperatorStats.PortStats;
 import com.datatorrent.api.StatsListener;
@@ -73,6 +84,7 @@ import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol.ContainerHe
 import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol.ContainerStats;
 import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol.OperatorHeartbeat;
 import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol.OperatorHeartbeat.DeployState;
+import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol.StreamingContainerContext;
 import com.datatorrent.stram.appdata.AppDataPushAgent;
 import com.datatorrent.stram.codec.DefaultStatefulStreamCodec;
 import com.datatorrent.stram.engine.DefaultUnifier;
@@ -85,6 +97,7 @@ import com.datatorrent.stram.engine.WindowGenerator;
 import com.datatorrent.stram.plan.TestPlanContext;
 import com.datatorrent.stram.plan.logical.LogicalPlan;
 import com.datatorrent.stram.plan.logical.LogicalPlan.OperatorMeta;
+import com.datatorrent.stram.plan.logical.LogicalPlanConfiguration;
 import com.datatorrent.stram.plan.physical.OperatorStatus.PortStatus;
 import com.datatorrent.stram.plan.physical.PTContainer;
 import com.datatorrent.stram.plan.physical.PTOperator;
@@ -161,6 +174,146 @@ public class StreamingContainerManagerTest
 
   }
 
+  @Test
+  public void testHeartbeatSerialization() throws Exception
+  {
+    ContainerHeartbeat hb = createHeartbeat(2, 3);
+    hb.stackTrace = "trace";
+    OperatorHeartbeat ohb = hb.getContainerStats().operators.get(0);
+    ohb.requestResponse = Lists.newArrayList();
+    OperatorStats os = ohb.windowStats.get(0);
+    os.metrics.put("object", new Checkpoint(1, 2, 3));
+    os.metrics.put("null", null);
+    os.recordingId = "recording";
+
+    for (boolean compact : new boolean[] {true, false}) {
+      hb.setCompactEncoding(compact);
+      DataOutputByteBuffer out = new DataOutputByteBuffer();
+      hb.write(out);
+      DataInputByteBuffer in = new DataInputByteBuffer();
+      in.reset(out.getData());
+      ContainerHeartbeat clone = new ContainerHeartbeat();
+      clone.readFields(in);
+
+      Assert.assertEquals("container id", hb.getContainerId(), clone.getContainerId());
+      Assert.assertEquals("buffer server", hb.bufferServerHost + ":" + hb.bufferServerPort,
+          clone.bufferServerHost + ":" + clone.bufferServerPort);
+      Assert.assertEquals("gc", hb.gcCollectionTime, clone.gcCollectionTime);
+      Assert.assertEquals("upload", hb.checkpointUploadBytesPS, clone.checkpointUploadBytesPS);
+      Assert.assertEquals("sent", hb.sentTms, clone.sentTms);
+      Assert.assertEquals("stack trace", hb.stackTrace, clone.stackTrace);
+      Assert.assertEquals("operators", 2, clone.getContainerStats().operators.size());
+      OperatorHeartbeat ohbClone = clone.getContainerStats().operators.get(0);
+      Assert.assertEquals("node id", ohb.nodeId, ohbClone.nodeId);
+      Assert.assertEquals("state", ohb.state, ohbClone.state);
+      Assert.assertEquals("restore time", ohb.restoreTimeMillis, ohbClone.restoreTimeMillis);
+      Assert.assertEquals("request response", ohb.requestResponse, ohbClone.requestResponse);
+      Assert.assertEquals("windows", 3, ohbClone.windowStats.size());
+      OperatorStats osClone = ohbClone.windowStats.get(0);
+      Assert.assertEquals("window", os.windowId, osClone.windowId);
+      Assert.assertEquals("checkpoint", os.checkpoint, osClone.checkpoint);
+      Assert.assertEquals("metrics", os.metrics, osClone.metrics);
+      Assert.assertEquals("recording", os.recordingId, osClone.recordingId);
+      Assert.assertEquals("checkpoint size", os.checkpointStats.checkpointSize, osClone.checkpointStats.checkpointSize);
+      Assert.assertEquals("ports", os.inputPorts.toString(), osClone.inputPorts.toString());
+      Assert.assertEquals("ports", os.outputPorts.toString(), osClone.outputPorts.toString());
+      Assert.assertNull("window stats without checkpoint stats", ohbClone.windowStats.get(1).checkpointStats);
+    }
+  }
+
+  /**
+   * Compares the CPU time for the application master to read the heartbeats of the containers, and the size of the
+   * heartbeats, with Java serialization of the fields and with the compact encoding.
+   */
+  @Test
+  @Ignore
+  public void testHeartbeatSerializationBenchmark() throws Exception
+  {
+    ContainerHeartbeat hb = createHeartbeat(10, 10);
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    int heartbeats = 20000;
+    for (int round = 0; round < 3; round++) {
+      for (boolean compact : new boolean[] {false, true}) {
+        hb.setCompactEncoding(compact);
+        DataOutputByteBuffer out = new DataOutputByteBuffer();
+        hb.write(out);
+        ByteBuffer data = ByteBuffer.allocate(out.getLength());
+        for (ByteBuffer b : out.getData()) {
+          data.put(b);
+        }
+        long start = threadMXBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < heartbeats; i++) {
+          DataInputByteBuffer in = new DataInputByteBuffer();
+          in.reset(ByteBuffer.wrap(data.array()));
+          new ContainerHeartbeat().readFields(in);
+        }
+        long readNanos = threadMXBean.getCurrentThreadCpuTime() - start;
+        start = threadMXBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < heartbeats; i++) {
+          hb.write(new DataOutputByteBuffer());
+        }
+        long writeNanos = threadMXBean.getCurrentThreadCpuTime() - start;
+        LOG.info("{} heartbeats compact={}: {} bytes each, read {} ms CPU, write {} ms CPU", heartbeats, compact, data.capacity(),
+            TimeUnit.NANOSECONDS.toMillis(readNanos), TimeUnit.NANOSECONDS.toMillis(writeNanos));
+      }
+    }
+  }
+
+  /**
+   * Heartbeat of a container with the given number of operators, each reporting the given number of windows.
+   */
+  private static ContainerHeartbeat createHeartbeat(int operators, int windows)
+  {
+    ContainerHeartbeat hb = new ContainerHeartbeat();
+    hb.setContainerStats(new ContainerStats("container_1_0001_01_000002"));
+    hb.bufferServerHost = "node1.example.com";
+    hb.bufferServerPort = 41234;
+    hb.jvmName = "1234@node1.example.com";
+    hb.memoryMBFree = 512;
+    hb.gcCollectionTime = 1200;
+    hb.gcCollectionCount = 34;
+    hb.checkpointUploadBytesPS = 1 << 20;
+    long windowId = WindowGenerator.getWindowId(System.currentTimeMillis(), System.currentTimeMillis(), 500);
+    for (int o = 0; o < operators; o++) {
+      OperatorHeartbeat ohb = new OperatorHeartbeat();
+      ohb.setNodeId(o + 1);
+      ohb.setState(DeployState.ACTIVE);
+      ohb.setGeneratedTms(System.currentTimeMillis());
+      ohb.setIntervalMs(1000);
+      for (int w = 0; w < windows; w++) {
+        OperatorStats os = new OperatorStats();
+        os.windowId = windowId + w;
+        os.checkpoint = new Checkpoint(windowId - 60, 0, 60);
+        os.cpuTimeUsed = 1000 + w;
+        os.inputPorts = Lists.newArrayList();
+        os.outputPorts = Lists.newArrayList();
+        for (String port : new String[] {"input1", "input2"}) {
+          PortStats ps = new PortStats(port);
+          ps.tupleCount = 10000;
+          ps.endWindowTimestamp = System.currentTimeMillis();
+          ps.bufferServerBytes = 1 << 20;
+          ps.queueSize = 16;
+          os.inputPorts.add(ps);
+        }
+        PortStats ps = new PortStats("output");
+        ps.tupleCount = 20000;
+        ps.endWindowTimestamp = System.currentTimeMillis();
+        os.outputPorts.add(ps);
+        os.metrics = new HashMap<>();
+        os.metrics.put("count", 100L + w);
+        os.metrics.put("average", 1.5);
+        if (w == 0) {
+          os.checkpointStats = new Stats.CheckpointStats();
+          os.checkpointStats.checkpointSize = 1 << 16;
+          os.checkpointStats.checkpointTime = 25;
+        }
+        ohb.windowStats.add(os);
+      }
+      hb.getContainerStats().addNodeStats(ohb);
+    }
+    return hb;
+  }
+
   @Test
   public void testGenerateDeployInfo()
   {
@@ -458,6 +611,357 @@ public class StreamingContainerManagerTest
 
   }
 
+  @Test
+  public void testHotStandby() throws Exception
+  {
+    GenericTestOperator o1 = dag.addOperator("o1", GenericTestOperator.class);
+    GenericTestOperator o2 = dag.addOperator("o2", GenericTestOperator.class);
+    GenericTestOperator o3 = dag.addOperator("o3", GenericTestOperator.class);
+    dag.addStream("o1o2", o1.outport1, o2.inport1);
+    dag.addStream("o2o3", o2.outport1, o3.inport1);
+
+    dag.getAttributes().put(LogicalPlan.CONTAINERS_MAX_COUNT, 3);
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new MemoryStorageAgent());
+    dag.setOperatorAttribute(o2, OperatorContext.HOT_STANDBY, true);
+
+    StreamingContainerManager scm = new StreamingContainerManager(dag);
+    PhysicalPlan plan = scm.getPhysicalPlan();
+    Assert.assertEquals("containers", 3, plan.getContainers().size());
+    Assert.assertEquals("start requests " + scm.containerStartRequests, 4, scm.containerStartRequests.size());
+    scm.containerStartRequests.clear();
+
+    PTOperator o2p1 = plan.getOperators(dag.getMeta(o2)).get(0);
+    PTContainer c2 = o2p1.getContainer();
+    PTContainer standby = plan.getStandbyContainer(c2);
+    Assert.assertNotNull("standby container", standby);
+    Assert.assertNull("no standby", plan.getStandbyContainer(plan.getOperators(dag.getMeta(o1)).get(0).getContainer()));
+
+    for (PTContainer c : plan.getContainers()) {
+      new MockContainer(scm, c);
+    }
+    new MockContainer(scm, standby);
+    String standbyId = standby.getExternalId();
+    StreamingContainerContext protectedContext = scm.getContainerAgent(c2.getExternalId()).getInitContext();
+    StreamingContainerContext standbyContext = scm.getContainerAgent(standbyId).getInitContext();
+    Assert.assertEquals("buffer server memory", protectedContext.getValue(ContainerContext.BUFFER_SERVER_MB), standbyContext.getValue(ContainerContext.BUFFER_SERVER_MB));
+    Assert.assertTrue("buffer server memory", standbyContext.getValue(ContainerContext.BUFFER_SERVER_MB) > 0);
+    Assert.assertNull("checkpoint unchanged", sendHeartbeat(scm, standbyId).standbyRequest);
+
+    o2p1.setRecoveryCheckpoint(new Checkpoint(10, 0, 0));
+    ContainerHeartbeatResponse rsp = sendHeartbeat(scm, standbyId);
+    Assert.assertNotNull("standby request", rsp.standbyRequest);
+    Assert.assertEquals("standby request " + rsp.standbyRequest, 1, rsp.standbyRequest.size());
+    Assert.assertEquals("operator", o2p1.getId(), rsp.standbyRequest.get(0).id);
+    Assert.assertEquals("checkpoint", 10, rsp.standbyRequest.get(0).checkpoint.windowId);
+
+    String failedId = c2.getExternalId();
+    scm.scheduleContainerRestart(failedId);
+    Assert.assertNull("failed container agent", scm.getContainerAgent(failedId));
+    Assert.assertEquals("promoted", standbyId, c2.getExternalId());
+    Assert.assertEquals("state", PTContainer.State.ACTIVE, c2.getState());
+    Assert.assertSame("promoted agent", c2, scm.getContainerAgent(standbyId).container);
+    Assert.assertEquals("new standby requested " + scm.containerStartRequests, 1, scm.containerStartRequests.size());
+    PTContainer newStandby = scm.containerStartRequests.peek().container;
+    Assert.assertSame("new standby", newStandby, plan.getStandbyContainer(c2));
+    Assert.assertNotSame("new standby", standby, newStandby);
+
+    // the downstream operator is undeployed before the promoted container deploys
+    PTOperator o3p1 = plan.getOperators(dag.getMeta(o3)).get(0);
+    Assert.assertEquals("state " + o3p1, PTOperator.State.PENDING_UNDEPLOY, o3p1.getState());
+    sendHeartbeat(scm, o3p1.getContainer().getExternalId());
+
+    rsp = sendHeartbeat(scm, standbyId);
+    Assert.assertNotNull("deploy request", rsp.deployRequest);
+    Assert.assertEquals("deploy request " + rsp.deployRequest, 1, rsp.deployRequest.size());
+    Assert.assertEquals("operator", o2p1.getId(), rsp.deployRequest.get(0).id);
+    Assert.assertEquals("checkpoint", 10, rsp.deployRequest.get(0).checkpoint.windowId);
+  }
+
+  private static ContainerHeartbeatResponse sendHeartbeat(StreamingContainerManager scm, String containerId)
+  {
+    ContainerHeartbeat hb = new ContainerHeartbeat();
+    hb.setContainerStats(new ContainerStats(containerId));
+    return scm.processHeartbeat(hb);
+  }
+
+  @Test
+  public void testMasterLoopEvents() throws Exception
+  {
+    dag.addOperator("o1", GenericTestOperator.class);
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new MemoryStorageAgent());
+    StreamingContainerManager scm = new StreamingContainerManager(dag);
+    Assert.assertTrue("container requested", scm.awaitEvent(0));
+    Assert.assertFalse("no event", scm.awaitEvent(10));
+
+    PTContainer c = scm.getPhysicalPlan().getContainers().get(0);
+    new MockContainer(scm, c);
+    scm.containerStartRequests.clear();
+    scm.awaitEvent(0); // events of the deployment
+    sendHeartbeat(scm, c.getExternalId());
+    Assert.assertFalse("heartbeat without event", scm.awaitEvent(0));
+
+    scm.containerStopRequests.put(c.getExternalId(), c.getExternalId());
+    sendHeartbeat(scm, c.getExternalId());
+    Assert.assertTrue("container stop request", scm.awaitEvent(0));
+    scm.containerStopRequests.clear();
+
+    scm.dispatch(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+      }
+    });
+    long start = System.currentTimeMillis();
+    Assert.assertTrue("plan event", scm.awaitEvent(10000));
+    Assert.assertTrue("woken up", System.currentTimeMillis() - start < 5000);
+  }
+
+  /**
+   * Measures the heartbeats per second that concurrent RPC handler threads process for thousands of containers, while
+   * the master loop aggregates the end window stats.
+   */
+  @Test
+  @Ignore
+  public void testHeartbeatProcessingBenchmark() throws Exception
+  {
+    final int partitions = 1000;
+    final int rounds = 50;
+    GenericTestOperator o1 = dag.addOperator("o1", GenericTestOperator.class);
+    GenericTestOperator o2 = dag.addOperator("o2", GenericTestOperator.class);
+    dag.addStream("o1o2", o1.outport1, o2.inport1);
+    dag.setOperatorAttribute(o1, OperatorContext.PARTITIONER, new StatelessPartitioner<GenericTestOperator>(partitions));
+    dag.setInputPortAttribute(o2.inport1, PortContext.PARTITION_PARALLEL, true);
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new MemoryStorageAgent());
+    dag.setAttribute(LogicalPlan.CONTAINERS_MAX_COUNT, Integer.MAX_VALUE);
+
+    final StreamingContainerManager scm = new StreamingContainerManager(dag);
+    final List<PTContainer> containers = scm.getPhysicalPlan().getContainers();
+    for (PTContainer c : containers) {
+      new MockContainer(scm, c);
+    }
+
+    long windowId = WindowGenerator.getWindowId(System.currentTimeMillis(), System.currentTimeMillis(), 500);
+    for (int threads = 1; threads <= 16; threads *= 2) {
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      final AtomicBoolean running = new AtomicBoolean(true);
+      Thread masterLoop = new Thread("master-loop")
+      {
+        @Override
+        public void run()
+        {
+          while (running.get()) {
+            scm.monitorHeartbeat();
+          }
+        }
+      };
+      masterLoop.start();
+      long start = System.currentTimeMillis();
+      for (int round = 0; round < rounds; round++) {
+        final long currentWindowId = ++windowId;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+          final int thread = i;
+          final int threadCount = threads;
+          tasks.add(new Callable<Void>()
+          {
+            @Override
+            public Void call() throws Exception
+            {
+              for (int c = thread; c < containers.size(); c += threadCount) {
+                scm.processHeartbeat(createStatsHeartbeat(containers.get(c), currentWindowId));
+              }
+              return null;
+            }
+          });
+        }
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+          future.get();
+        }
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      running.set(false);
+      masterLoop.join();
+      executor.shutdown();
+      LOG.info("{} containers, {} handler threads: {} heartbeats per second", containers.size(), threads,
+          containers.size() * rounds * 1000L / Math.max(elapsed, 1));
+    }
+  }
+
+  /**
+   * Measures the heap of the application master with the stats of a large plan.
+   */
+  @Test
+  @Ignore
+  public void testStatsHeapBenchmark() throws Exception
+  {
+    final int partitions = 5000;
+    GenericTestOperator o1 = dag.addOperator("o1", GenericTestOperator.class);
+    GenericTestOperator o2 = dag.addOperator("o2", GenericTestOperator.class);
+    dag.addStream("o1o2", o1.outport1, o2.inport1);
+    dag.setOperatorAttribute(o1, OperatorContext.PARTITIONER, new StatelessPartitioner<GenericTestOperator>(partitions));
+    dag.setInputPortAttribute(o2.inport1, PortContext.PARTITION_PARALLEL, true);
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new MemoryStorageAgent());
+    dag.setAttribute(LogicalPlan.CONTAINERS_MAX_COUNT, Integer.MAX_VALUE);
+
+    long heapBefore = getUsedHeap();
+    StreamingContainerManager scm = new StreamingContainerManager(dag);
+    List<PTContainer> containers = scm.getPhysicalPlan().getContainers();
+    for (PTContainer c : containers) {
+      new MockContainer(scm, c);
+    }
+    long windowId = WindowGenerator.getWindowId(System.currentTimeMillis(), System.currentTimeMillis(), 500);
+    for (int round = 0; round < 5; round++) {
+      windowId++;
+      for (PTContainer c : containers) {
+        scm.processHeartbeat(createStatsHeartbeat(c, windowId));
+      }
+      scm.monitorHeartbeat();
+    }
+    long heapAfter = getUsedHeap();
+    LOG.info("{} operators: {} MB heap", scm.getPhysicalPlan().getAllOperators().size(),
+        (heapAfter - heapBefore) / (1024 * 1024));
+    Assert.assertNotNull(scm.getPhysicalPlan());
+  }
+
+  private static long getUsedHeap() throws InterruptedException
+  {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static ContainerHeartbeat createStatsHeartbeat(PTContainer container, long windowId)
+  {
+    ContainerStats cstats = new ContainerStats(container.getExternalId());
+    for (PTOperator oper : container.getOperators()) {
+      OperatorHeartbeat ohb = new OperatorHeartbeat();
+      ohb.setNodeId(oper.getId());
+      ohb.setState(DeployState.ACTIVE);
+      ContainerStats.OperatorStats stats = new ContainerStats.OperatorStats();
+      stats.windowId = windowId;
+      long timestamp = System.currentTimeMillis();
+      stats.inputPorts = new ArrayList<>();
+      for (PTOperator.PTInput input : oper.getInputs()) {
+        PortStats ps = new PortStats(input.portName);
+        ps.tupleCount = 1000;
+        ps.endWindowTimestamp = timestamp;
+        stats.inputPorts.add(ps);
+      }
+      stats.metrics = Collections.<String, Object>singletonMap("tuples", 1000);
+      stats.outputPorts = new ArrayList<>();
+      for (PTOperator.PTOutput output : oper.getOutputs()) {
+        PortStats ps = new PortStats(output.portName);
+        ps.tupleCount = 1000;
+        ps.endWindowTimestamp = timestamp;
+        stats.outputPorts.add(ps);
+      }
+      ohb.windowStats = Lists.newArrayList(stats);
+      cstats.operators.add(ohb);
+    }
+    ContainerHeartbeat hb = new ContainerHeartbeat();
+    hb.setContainerStats(cstats);
+    return hb;
+  }
+
+  private static class WindowRecordingAggregator implements AutoMetric.Aggregator, Serializable
+  {
+    private static final long serialVersionUID = 201610190000L;
+    final List<Long> windowIds = new ArrayList<>();
+
+    @Override
+    public Map<String, Object> aggregate(long windowId, Collection<AutoMetric.PhysicalMetricsContext> physicalMetrics)
+    {
+      windowIds.add(windowId);
+      Map<String, Object> result = new HashMap<>();
+      result.put("partitions", physicalMetrics.size());
+      return result;
+    }
+  }
+
+  @Test
+  public void testEndWindowStatsAggregation() throws Exception
+  {
+    GenericTestOperator o1 = dag.addOperator("o1", GenericTestOperator.class);
+    GenericTestOperator o2 = dag.addOperator("o2", GenericTestOperator.class);
+    dag.addStream("o1o2", o1.outport1, o2.inport1);
+    dag.setOperatorAttribute(o1, OperatorContext.PARTITIONER, new StatelessPartitioner<GenericTestOperator>(2));
+    WindowRecordingAggregator aggregator = new WindowRecordingAggregator();
+    dag.setOperatorAttribute(o1, OperatorContext.METRICS_AGGREGATOR, aggregator);
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new MemoryStorageAgent());
+    dag.setAttribute(LogicalPlan.STATS_MAX_WINDOWS_PER_CYCLE, 2);
+    new LogicalPlanConfiguration(new Configuration()).prepareDAG(dag, null, "testEndWindowStatsAggregation");
+
+    StreamingContainerManager scm = new StreamingContainerManager(dag);
+    List<PTContainer> containers = scm.getPhysicalPlan().getContainers();
+    for (PTContainer c : containers) {
+      new MockContainer(scm, c);
+    }
+
+    // the window is aggregated once when the last partition reported
+    long windowId = WindowGenerator.getWindowId(System.currentTimeMillis(), System.currentTimeMillis(), 500);
+    scm.processHeartbeat(createStatsHeartbeat(containers.get(0), windowId));
+    scm.monitorHeartbeat();
+    Assert.assertEquals("incomplete window", Collections.<Long>emptyList(), aggregator.windowIds);
+    for (PTContainer c : containers.subList(1, containers.size())) {
+      scm.processHeartbeat(createStatsHeartbeat(c, windowId));
+    }
+    scm.monitorHeartbeat();
+    scm.monitorHeartbeat();
+    Assert.assertEquals("completed window", Lists.newArrayList(windowId), aggregator.windowIds);
+    Assert.assertEquals("partitions", 2, scm.getWindowMetrics("o1").peek().second.get("partitions"));
+    Assert.assertEquals("dropped windows", 0, scm.getDroppedEndWindowStatsCount());
+
+    StreamingContainerManager.CriticalPathInfo criticalPathInfo = scm.getCriticalPathInfo();
+    Assert.assertNotNull("critical path", criticalPathInfo);
+    PTOperator o2p1 = scm.getPhysicalPlan().getAllOperators(dag.getMeta(o2)).iterator().next();
+    Assert.assertEquals("critical path ends at leaf", o2p1.getId(), (int)criticalPathInfo.path.getLast());
+    Assert.assertEquals("critical path length", 3, criticalPathInfo.path.size());
+
+    // the oldest windows beyond the limit per iteration are dropped
+    aggregator.windowIds.clear();
+    for (int i = 0; i < 4; i++) {
+      windowId++;
+      for (PTContainer c : containers) {
+        scm.processHeartbeat(createStatsHeartbeat(c, windowId));
+      }
+    }
+    scm.monitorHeartbeat();
+    Assert.assertEquals("latest windows", Lists.newArrayList(windowId - 1, windowId), aggregator.windowIds);
+    Assert.assertEquals("dropped windows", 2, scm.getDroppedEndWindowStatsCount());
+  }
+
+  @Test
+  public void testHeartbeatTimeoutWithBackOff() throws Exception
+  {
+    GenericTestOperator o1 = dag.addOperator("o1", GenericTestOperator.class);
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new MemoryStorageAgent());
+    dag.setAttribute(LogicalPlan.HEARTBEAT_TIMEOUT_MILLIS, 10000);
+    dag.setAttribute(LogicalPlan.HEARTBEAT_MAX_INTERVAL_MILLIS, 21000);
+
+    StreamingContainerManager scm = new StreamingContainerManager(dag);
+    PTOperator o1p1 = scm.getPhysicalPlan().getOperators(dag.getMeta(o1)).get(0);
+    int timeoutMillis = dag.getValue(LogicalPlan.STREAMING_WINDOW_SIZE_MILLIS) * dag.getMeta(o1).getValue(OperatorContext.TIMEOUT_WINDOW_COUNT);
+    Assert.assertEquals("window processing timeout", timeoutMillis + 21000 - dag.getValue(LogicalPlan.HEARTBEAT_INTERVAL_MILLIS), o1p1.stats.windowProcessingTimeoutMillis);
+
+    PTContainer c = scm.getPhysicalPlan().getContainers().get(0);
+    MockContainer mc = new MockContainer(scm, c);
+    mc.deploy();
+    StreamingContainerAgent sca = scm.getContainerAgent(c.getExternalId());
+
+    // the timeout is extended by the time the containers may back off beyond the heartbeat interval
+    sca.lastHeartbeatMillis = System.currentTimeMillis() - 25000;
+    scm.monitorHeartbeat();
+    Assert.assertFalse("backed off container", scm.containerStopRequests.containsKey(c.getExternalId()));
+
+    sca.lastHeartbeatMillis = System.currentTimeMillis() - 35000;
+    scm.monitorHeartbeat();
+    Assert.assertTrue("heartbeat timeout", scm.containerStopRequests.containsKey(c.getExternalId()));
+  }
+
   @Test
   public void testCheckpointWindowIds() throws Exception
   {
@@ -23,7 +23,9 @@ import java.io.Serializable;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.validation.constraints.NotNull;
 
@@ -49,8 +51,13 @@ import com.datatorrent.api.Operator;
 import com.datatorrent.api.Partitioner;
 import com.datatorrent.api.Stats.OperatorStats;
 import com.datatorrent.api.StatsListener;
+import com.datatorrent.common.metric.MetricsAggregator;
+import com.datatorrent.common.metric.SingleMetricAggregator;
+import com.datatorrent.common.metric.sum.LongSumAggregator;
 import com.datatorrent.common.partitioner.StatelessPartitioner;
+import com.datatorrent.common.util.Pair;
 import com.datatorrent.stram.StramLocalCluster;
+import com.datatorrent.stram.StreamingContainerManager;
 import com.datatorrent.stram.engine.AutoMetricTest.TestOperator.TestStatsListener;
 import com.datatorrent.stram.plan.logical.LogicalPlan;
 import com.datatorrent.stram.plan.logical.LogicalPlanConfiguration;
@@ -338,6 +345,67 @@ public class AutoMetricTest
     lc.shutdown();
   }
 
+  @Test
+  public void testContainerMetricsAggregation() throws Exception
+  {
+    LogicalPlanConfiguration lpc = new LogicalPlanConfiguration(new Configuration());
+
+    TestGeneratorInputOperator inputOperator = dag.addOperator("input", TestGeneratorInputOperator.class);
+
+    OperatorWithMetrics o1 = dag.addOperator("o1", OperatorWithMetrics.class);
+    PartialCountingAggregator aggregator = new PartialCountingAggregator();
+    aggregator.addAggregators("progress", new SingleMetricAggregator[]{new LongSumAggregator()});
+    dag.setOperatorAttribute(o1, Context.OperatorContext.METRICS_AGGREGATOR, aggregator);
+    dag.setOperatorAttribute(o1, Context.OperatorContext.PARTITIONER, new StatelessPartitioner<OperatorWithMetrics>(3));
+
+    dag.setAttribute(Context.OperatorContext.STORAGE_AGENT, new StramTestSupport.MemoryStorageAgent());
+    dag.setAttribute(LogicalPlan.CONTAINERS_MAX_COUNT, 1);
+    dag.setAttribute(LogicalPlan.METRICS_CONTAINER_AGGREGATION, true);
+
+    dag.addStream("TestTuples", inputOperator.outport, o1.inport1);
+
+    lpc.prepareDAG(dag, null, "AutoMetricTest");
+    StramLocalCluster lc = new StramLocalCluster(dag);
+    lc.runAsync();
+    final StreamingContainerManager dnmgr = lc.getStreamingContainerManager();
+    StramTestSupport.WaitCondition c = new StramTestSupport.WaitCondition()
+    {
+      @Override
+      public boolean isComplete()
+      {
+        Queue<Pair<Long, Map<String, Object>>> windowMetrics = dnmgr.getWindowMetrics("o1");
+        return windowMetrics != null && !windowMetrics.isEmpty();
+      }
+    };
+    Assert.assertTrue("logical metrics", StramTestSupport.awaitCompletion(c, 30000));
+    Assert.assertEquals("progress of all partitions", 3L, dnmgr.getWindowMetrics("o1").peek().second.get("progress"));
+    Assert.assertTrue("aggregated in container", PartialCountingAggregator.AGGREGATES.get() > 0);
+    Assert.assertTrue("partial aggregates merged", PartialCountingAggregator.MERGES.get() > 0);
+    lc.shutdown();
+  }
+
+  public static class PartialCountingAggregator extends MetricsAggregator
+  {
+    static final AtomicInteger AGGREGATES = new AtomicInteger();
+    static final AtomicInteger MERGES = new AtomicInteger();
+
+    @Override
+    public Map<String, Object> aggregate(long windowId, Collection<AutoMetric.PhysicalMetricsContext> physicalMetrics)
+    {
+      AGGREGATES.incrementAndGet();
+      return super.aggregate(windowId, physicalMetrics);
+    }
+
+    @Override
+    public Map<String, Object> mergePartialAggregates(long windowId, Collection<Map<String, Object>> partialAggregates)
+    {
+      MERGES.incrementAndGet();
+      return super.mergePartialAggregates(windowId, partialAggregates);
+    }
+
+    private static final long serialVersionUID = 201610190000L;
+  }
+
   private static class MockAggregator implements AutoMetric.Aggregator, Serializable
   {
     long cachedSum = -1;
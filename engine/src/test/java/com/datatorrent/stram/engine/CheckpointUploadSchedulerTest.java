@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.stram.engine;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.datatorrent.api.Stats;
+import com.datatorrent.common.util.AsyncFSStorageAgent;
+import com.datatorrent.stram.support.StramTestSupport.TestMeta;
+
+public class CheckpointUploadSchedulerTest
+{
+  @Rule
+  public TestMeta testMeta = new TestMeta();
+
+  private static class RecordingStorageAgent extends AsyncFSStorageAgent
+  {
+    final List<Long> uploaded = new CopyOnWriteArrayList<>();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final long size;
+
+    RecordingStorageAgent(String path, long size)
+    {
+      super(path, null);
+      this.size = size;
+    }
+
+    @Override
+    public void copyToHDFS(int operatorId, long windowId) throws IOException
+    {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      uploaded.add(windowId);
+    }
+
+    @Override
+    public long getLocalCheckpointSize(int operatorId, long windowId)
+    {
+      return size;
+    }
+  }
+
+  @Test
+  public void testOldestWindowFirst() throws Exception
+  {
+    RecordingStorageAgent agent = new RecordingStorageAgent(testMeta.getPath(), 0);
+    CheckpointUploadScheduler scheduler = new CheckpointUploadScheduler(1, 0);
+    try {
+      List<FutureTask<Stats.CheckpointStats>> futures = Lists.newArrayList();
+      futures.add(scheduler.submit(agent, 1, 5, new Stats.CheckpointStats()));
+      Assert.assertTrue("first upload started", agent.started.await(10, TimeUnit.SECONDS));
+      futures.add(scheduler.submit(agent, 2, 7, new Stats.CheckpointStats()));
+      futures.add(scheduler.submit(agent, 3, 6, new Stats.CheckpointStats()));
+      futures.add(scheduler.submit(agent, 4, 8, new Stats.CheckpointStats()));
+      // checkpoints of the same operator in the order taken
+      futures.add(scheduler.submit(agent, 1, 9, new Stats.CheckpointStats()));
+      futures.add(scheduler.submit(agent, 2, 10, new Stats.CheckpointStats()));
+      Assert.assertEquals("queue size", 6, scheduler.getQueueSize());
+      agent.release.countDown();
+      for (FutureTask<Stats.CheckpointStats> future : futures) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+      Assert.assertEquals("upload order", Lists.newArrayList(5L, 6L, 7L, 8L, 9L, 10L), agent.uploaded);
+      Assert.assertEquals("queue size", 0, scheduler.getQueueSize());
+    } finally {
+      scheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void testCancel() throws Exception
+  {
+    RecordingStorageAgent agent = new RecordingStorageAgent(testMeta.getPath(), 0);
+    CheckpointUploadScheduler scheduler = new CheckpointUploadScheduler(1, 0);
+    try {
+      FutureTask<Stats.CheckpointStats> running = scheduler.submit(agent, 1, 5, new Stats.CheckpointStats());
+      Assert.assertTrue("first upload started", agent.started.await(10, TimeUnit.SECONDS));
+      // waiting for the upload of the same operator and waiting for a thread
+      scheduler.submit(agent, 1, 6, new Stats.CheckpointStats()).cancel(true);
+      scheduler.submit(agent, 2, 7, new Stats.CheckpointStats()).cancel(true);
+      Assert.assertEquals("queue size", 1, scheduler.getQueueSize());
+
+      agent.release.countDown();
+      running.get(10, TimeUnit.SECONDS);
+      scheduler.submit(agent, 1, 8, new Stats.CheckpointStats()).get(10, TimeUnit.SECONDS);
+      scheduler.submit(agent, 2, 9, new Stats.CheckpointStats()).get(10, TimeUnit.SECONDS);
+      Assert.assertEquals("uploads", Lists.newArrayList(5L, 8L, 9L), agent.uploaded);
+      Assert.assertEquals("queue size", 0, scheduler.getQueueSize());
+    } finally {
+      scheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void testStreamedCheckpoint() throws Exception
+  {
+    final List<Long> charged = new CopyOnWriteArrayList<>();
+    // one thread for the writes of the chunks and the upload waiting for them, two chunks before the state spills
+    CheckpointUploadScheduler scheduler = new CheckpointUploadScheduler(1, 0, 128)
+    {
+      @Override
+      public void throttle(long bytes) throws InterruptedException
+      {
+        charged.add(bytes);
+        super.throttle(bytes);
+      }
+    };
+    try {
+      AsyncFSStorageAgent agent = new AsyncFSStorageAgent(testMeta.getPath(), null);
+      agent.setStreamingCheckpoint(true);
+      agent.setCheckpointChunkSize(64);
+      agent.setUploadContext(scheduler);
+      Map<Integer, String> data = Maps.newHashMap();
+      for (int i = 0; i < 1000; i++) {
+        data.put(i, "value" + i);
+      }
+      agent.save(data, 1, 1);
+      Assert.assertTrue("streamed", agent.isStreamed(1, 1));
+      scheduler.submit(agent, 1, 1, new Stats.CheckpointStats()).get(10, TimeUnit.SECONDS);
+
+      long bytes = 0;
+      for (long b : charged) {
+        bytes += b;
+      }
+      Assert.assertTrue("charged per chunk " + charged, charged.size() > 1);
+      Assert.assertEquals("charged bytes " + charged, agent.getCheckpointSize(1), bytes);
+      Assert.assertEquals("data", data, agent.load(1, 1));
+    } finally {
+      scheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void testBandwidthLimit() throws Exception
+  {
+    RecordingStorageAgent agent = new RecordingStorageAgent(testMeta.getPath(), 1000);
+    agent.release.countDown();
+    CheckpointUploadScheduler scheduler = new CheckpointUploadScheduler(4, 10000);
+    try {
+      long start = System.currentTimeMillis();
+      List<FutureTask<Stats.CheckpointStats>> futures = Lists.newArrayList();
+      for (int i = 0; i < 4; i++) {
+        futures.add(scheduler.submit(agent, i, 1, new Stats.CheckpointStats()));
+      }
+      for (FutureTask<Stats.CheckpointStats> future : futures) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+      // 4000 bytes at 10000 bytes/s, the first upload is not delayed
+      Assert.assertTrue("throttled", System.currentTimeMillis() - start >= 300);
+      Assert.assertTrue("throughput", scheduler.getThroughput() > 0);
+    } finally {
+      scheduler.shutdown();
+    }
+  }
+}
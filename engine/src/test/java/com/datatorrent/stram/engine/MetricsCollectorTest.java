@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.stram.engine;
+
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.datatorrent.api.AutoMetric;
+
+public class MetricsCollectorTest
+{
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsCollectorTest.class);
+
+  public static class BaseOperator extends GenericTestOperator
+  {
+    @AutoMetric
+    private long inherited = 1;
+  }
+
+  public static class OperatorWithMetrics extends BaseOperator
+  {
+    @AutoMetric
+    protected int count;
+    @AutoMetric
+    double rate = 0.5;
+    @AutoMetric
+    private String state = "ok";
+    @AutoMetric
+    protected int overridden = 10;
+    private int notAMetric = -1;
+
+    @AutoMetric
+    public int getOverridden()
+    {
+      return overridden * 2;
+    }
+
+    @AutoMetric
+    public long getComputed()
+    {
+      return count + 100;
+    }
+  }
+
+  public static class FailingMetricOperator extends GenericTestOperator
+  {
+    @AutoMetric
+    public int getFailing()
+    {
+      throw new IllegalStateException("metric failed");
+    }
+  }
+
+  @Test
+  public void testCollect()
+  {
+    OperatorWithMetrics operator = new OperatorWithMetrics();
+    operator.count = 5;
+    MetricsCollector collector = new MetricsCollector(operator.getClass());
+
+    Map<String, Object> expected = ImmutableMap.<String, Object>builder().put("inherited", 1L).put("count", 5)
+        .put("rate", 0.5).put("state", "ok").put("overridden", 20).put("computed", 105L).build();
+    Assert.assertEquals("all metrics", expected, collector.collect(operator, null));
+
+    operator.count = 6;
+    Assert.assertEquals("listed metrics", ImmutableMap.<String, Object>of("count", 6, "computed", 106L),
+        collector.collect(operator, Lists.newArrayList("count", "computed", "notAMetric")));
+    Assert.assertEquals("no metrics", Collections.emptyMap(),
+        collector.collect(operator, Collections.<String>emptyList()));
+  }
+
+  @Test
+  public void testMetricException()
+  {
+    MetricsCollector collector = new MetricsCollector(FailingMetricOperator.class);
+    try {
+      collector.collect(new FailingMetricOperator(), null);
+      Assert.fail("exception expected");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("metric failed", e.getMessage());
+    }
+  }
+
+  /**
+   * Compares the metric collection with the reflective field and method access that it replaces.
+   */
+  @Test
+  @Ignore
+  public void testCollectBenchmark() throws Exception
+  {
+    OperatorWithMetrics operator = new OperatorWithMetrics();
+    MetricsCollector collector = new MetricsCollector(operator.getClass());
+    ReflectiveCollector reflectiveCollector = new ReflectiveCollector(operator.getClass());
+    int iterations = 5000000;
+    long sink = 0;
+    for (int round = 0; round < 5; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        operator.count = i;
+        sink += reflectiveCollector.collect(operator).size();
+      }
+      long reflectiveNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        operator.count = i;
+        sink += collector.collect(operator, null).size();
+      }
+      long collectorNanos = System.nanoTime() - start;
+      LOG.info("round {} reflection {} ns/window, method handles {} ns/window", round,
+          reflectiveNanos / iterations, collectorNanos / iterations);
+    }
+    Assert.assertTrue(sink > 0);
+  }
+
+  /**
+   * Metric collection with {@link Field#get} and {@link Method#invoke} on every window.
+   */
+  private static class ReflectiveCollector
+  {
+    private final List<Field> metricFields = Lists.newArrayList();
+    private final Map<String, Method> metricMethods = Maps.newHashMap();
+
+    ReflectiveCollector(Class<?> operatorClass) throws Exception
+    {
+      for (Field field : ReflectionUtils.getDeclaredFieldsIncludingInherited(operatorClass)) {
+        if (field.isAnnotationPresent(AutoMetric.class)) {
+          metricFields.add(field);
+          field.setAccessible(true);
+        }
+      }
+      for (PropertyDescriptor pd : Introspector.getBeanInfo(operatorClass).getPropertyDescriptors()) {
+        Method readMethod = pd.getReadMethod();
+        if (readMethod != null && readMethod.getAnnotation(AutoMetric.class) != null) {
+          metricMethods.put(pd.getName(), readMethod);
+        }
+      }
+    }
+
+    Map<String, Object> collect(Object operator) throws Exception
+    {
+      Map<String, Object> metricValues = Maps.newHashMap();
+      for (Field field : metricFields) {
+        metricValues.put(field.getName(), field.get(operator));
+      }
+      for (Map.Entry<String, Method> methodEntry : metricMethods.entrySet()) {
+        metricValues.put(methodEntry.getKey(), methodEntry.getValue().invoke(operator));
+      }
+      return metricValues;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.stram.engine;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.datatorrent.api.Attribute.AttributeMap.DefaultAttributeMap;
+import com.datatorrent.stram.api.Checkpoint;
+import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol.ContainerStats;
+
+public class OperatorContextTest
+{
+  @Test
+  public void testStatsSampleWindows()
+  {
+    OperatorContext context = new OperatorContext(1, new DefaultAttributeMap(), null);
+    long baseWindowId = 0x12345678L << 32;
+    for (int i = 1; i <= 3; i++) {
+      context.report(createStats(i), baseWindowId + i);
+    }
+    List<ContainerStats.OperatorStats> stats = new ArrayList<>();
+    Assert.assertEquals("all windows", 3, context.drainStats(stats));
+
+    context.setStatsSampleWindowCount(4);
+    for (int i = 1; i <= 10; i++) {
+      ContainerStats.OperatorStats windowStats = createStats(i);
+      if (i == 6) {
+        windowStats.checkpoint = new Checkpoint(baseWindowId + i, 0, 0);
+      }
+      context.report(windowStats, baseWindowId + i);
+    }
+    stats.clear();
+    Assert.assertEquals("sent windows", 4, context.drainStats(stats));
+
+    long[] windowIds = new long[] {4, 6, 8, 10};
+    int[] tupleCounts = new int[] {1 + 2 + 3 + 4, 5 + 6, 7 + 8, 9 + 10};
+    for (int i = 0; i < windowIds.length; i++) {
+      ContainerStats.OperatorStats s = stats.get(i);
+      Assert.assertEquals("window " + i, baseWindowId + windowIds[i], s.windowId);
+      Assert.assertEquals("input tuples " + i, tupleCounts[i], s.inputPorts.get(0).tupleCount);
+      Assert.assertEquals("output tuples " + i, tupleCounts[i], s.outputPorts.get(0).tupleCount);
+      Assert.assertEquals("cpu time " + i, tupleCounts[i], s.cpuTimeUsed);
+      Assert.assertEquals("queue size " + i, windowIds[i], s.inputPorts.get(0).queueSize);
+      Assert.assertEquals("end window timestamp " + i, windowIds[i], s.outputPorts.get(0).endWindowTimestamp);
+    }
+    Assert.assertNotNull("checkpoint", stats.get(1).checkpoint);
+  }
+
+  private static ContainerStats.OperatorStats createStats(int window)
+  {
+    ContainerStats.OperatorStats stats = new ContainerStats.OperatorStats();
+    stats.cpuTimeUsed = window;
+    stats.inputPorts = new ArrayList<>();
+    ContainerStats.OperatorStats.PortStats input = new ContainerStats.OperatorStats.PortStats("input");
+    input.tupleCount = window;
+    input.queueSize = window;
+    input.endWindowTimestamp = window;
+    stats.inputPorts.add(input);
+    stats.outputPorts = new ArrayList<>();
+    ContainerStats.OperatorStats.PortStats output = new ContainerStats.OperatorStats.PortStats("output");
+    output.tupleCount = window;
+    output.endWindowTimestamp = window;
+    stats.outputPorts.add(output);
+    return stats;
+  }
+}
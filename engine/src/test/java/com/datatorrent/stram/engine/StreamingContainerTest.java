@@ -22,12 +22,19 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
+
+import com.datatorrent.api.Attribute.AttributeMap.DefaultAttributeMap;
 import com.datatorrent.api.Context;
 import com.datatorrent.api.Context.DAGContext;
 import com.datatorrent.api.InputOperator;
@@ -35,7 +42,16 @@ import com.datatorrent.api.Operator.CheckpointListener;
 import com.datatorrent.common.util.AsyncFSStorageAgent;
 import com.datatorrent.common.util.BaseOperator;
 import com.datatorrent.stram.StramLocalCluster;
+import com.datatorrent.stram.api.Checkpoint;
+import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol;
+import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol.ContainerHeartbeat;
+import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol.ContainerHeartbeatResponse;
+import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol.ContainerStats;
+import com.datatorrent.stram.api.StreamingContainerUmbilicalProtocol.StreamingContainerContext;
 import com.datatorrent.stram.plan.logical.LogicalPlan;
+import com.datatorrent.stram.plan.physical.PTOperator;
+import com.datatorrent.stram.plan.physical.PhysicalPlan;
+import com.datatorrent.stram.support.StramTestSupport;
 
 /**
  *
@@ -62,6 +78,110 @@ public class StreamingContainerTest
     Assert.assertFalse("No Committed Windows", myCommittedWindowIds.isEmpty());
   }
 
+  @Test
+  public void testParallelRestore() throws Exception
+  {
+    LogicalPlan lp = new LogicalPlan();
+    lp.setAttribute(Context.OperatorContext.STORAGE_AGENT, new SlowLoadStorageAgent());
+    lp.setAttribute(LogicalPlan.CONTAINERS_MAX_COUNT, 1);
+    lp.setAttribute(LogicalPlan.CHECKPOINT_RESTORE_THREADS, 4);
+    int operatorCount = 4;
+    for (int i = 0; i < operatorCount; i++) {
+      lp.addOperator("input" + i, new TestGeneratorInputOperator());
+    }
+
+    SlowLoadStorageAgent.concurrentLoads.set(0);
+    SlowLoadStorageAgent.maxConcurrentLoads.set(0);
+    StramLocalCluster lc = new StramLocalCluster(lp);
+    lc.run(3000);
+
+    Assert.assertTrue("concurrent loads " + SlowLoadStorageAgent.maxConcurrentLoads, SlowLoadStorageAgent.maxConcurrentLoads.get() > 1);
+    PhysicalPlan plan = lc.getStreamingContainerManager().getPhysicalPlan();
+    for (int i = 0; i < operatorCount; i++) {
+      for (PTOperator oper : plan.getOperators(lp.getOperatorMeta("input" + i))) {
+        Assert.assertTrue("restore time reported " + oper.stats.restoreTimeMillis, oper.stats.restoreTimeMillis >= SlowLoadStorageAgent.LOAD_MILLIS);
+        Assert.assertTrue("windows from shared generator " + oper, oper.stats.currentWindowId.get() > 0);
+      }
+    }
+  }
+
+  @Test
+  public void testHeartbeatBackOff() throws Exception
+  {
+    LogicalPlan lp = new LogicalPlan();
+    lp.setAttribute(LogicalPlan.HEARTBEAT_INTERVAL_MILLIS, 10);
+    lp.setAttribute(LogicalPlan.HEARTBEAT_MAX_INTERVAL_MILLIS, 80);
+    StreamingContainerContext ctx = new StreamingContainerContext(lp.getAttributes().clone(), null);
+    ctx.deployBufferServer = false;
+
+    final List<Long> intervals = new ArrayList<>();
+    StreamingContainerUmbilicalProtocol umbilical = Mockito.mock(StreamingContainerUmbilicalProtocol.class);
+    final StreamingContainer container = new StreamingContainer("container1", umbilical);
+    container.setup(ctx);
+    final OperatorContext operatorContext = new OperatorContext(1, new DefaultAttributeMap(), ctx);
+    operatorContext.setHeartbeatTrigger(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        container.triggerHeartbeat();
+      }
+    });
+    container.nodes.put(1, new GenericNode(new GenericTestOperator(), operatorContext));
+
+    Mockito.when(umbilical.processHeartbeat(Mockito.any(ContainerHeartbeat.class))).thenAnswer(new Answer<ContainerHeartbeatResponse>()
+    {
+      @Override
+      public ContainerHeartbeatResponse answer(InvocationOnMock invocation) throws Throwable
+      {
+        ContainerHeartbeat hb = (ContainerHeartbeat)invocation.getArguments()[0];
+        intervals.add(hb.getContainerStats().operators.get(0).getIntervalMs());
+        if (intervals.size() == 6) {
+          // the operator checkpoints while the heartbeat is in flight
+          ContainerStats.OperatorStats stats = new ContainerStats.OperatorStats();
+          stats.checkpoint = new Checkpoint(1, 0, 0);
+          operatorContext.report(stats, 1);
+        }
+        ContainerHeartbeatResponse rsp = new ContainerHeartbeatResponse();
+        rsp.shutdown = intervals.size() == 8;
+        return rsp;
+      }
+    });
+
+    try {
+      container.heartbeatLoop();
+    } finally {
+      container.teardown();
+    }
+    // doubled up to the maximum while there is nothing to report, the checkpoint is sent right away and resets it
+    Assert.assertEquals("intervals", Lists.newArrayList(10L, 20L, 40L, 80L, 80L, 80L, 80L, 10L), intervals);
+  }
+
+  private static class SlowLoadStorageAgent extends StramTestSupport.MemoryStorageAgent
+  {
+    private static final long serialVersionUID = 201610190000L;
+    static final long LOAD_MILLIS = 200;
+    static final AtomicInteger concurrentLoads = new AtomicInteger();
+    static final AtomicInteger maxConcurrentLoads = new AtomicInteger();
+
+    @Override
+    public Object load(int operatorId, long windowId) throws IOException
+    {
+      int loads = concurrentLoads.incrementAndGet();
+      try {
+        synchronized (maxConcurrentLoads) {
+          maxConcurrentLoads.set(Math.max(loads, maxConcurrentLoads.get()));
+        }
+        Thread.sleep(LOAD_MILLIS);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      } finally {
+        concurrentLoads.decrementAndGet();
+      }
+      return super.load(operatorId, windowId);
+    }
+  }
+
   private static class CommitAwareOperator extends BaseOperator implements CheckpointListener, InputOperator
   {
     public static ArrayList<Long> committedWindowIds;
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.stram.plan.physical;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.datatorrent.api.Context.OperatorContext;
+import com.datatorrent.stram.engine.GenericTestOperator;
+import com.datatorrent.stram.plan.TestPlanContext;
+import com.datatorrent.stram.plan.logical.LogicalPlan;
+import com.datatorrent.stram.support.StramTestSupport;
+import com.datatorrent.stram.util.MovingAverage.MovingAverageLong;
+import com.datatorrent.stram.util.MovingAverage.TimedMovingAverageLong;
+
+public class StatsStoreTest
+{
+  @Test
+  public void testAverages()
+  {
+    StatsStore store = new StatsStore(10000, 1000, 500);
+    Assert.assertEquals("samples", 81, store.getTimedPeriods());
+
+    Random random = new Random(1);
+    List<StatsStore.TimedAverage> timedAverages = new ArrayList<>();
+    List<TimedMovingAverageLong> expectedTimedAverages = new ArrayList<>();
+    List<StatsStore.Average> averages = new ArrayList<>();
+    List<MovingAverageLong> expectedAverages = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      timedAverages.add(store.newTimedAverage());
+      expectedTimedAverages.add(new TimedMovingAverageLong(store.getTimedPeriods(), 10000));
+      averages.add(store.newAverage(10));
+      expectedAverages.add(new MovingAverageLong(10));
+    }
+    Assert.assertEquals("averages", 0, averages.get(0).getAvg());
+    Assert.assertEquals("averages over time", 0, timedAverages.get(0).getAvg(), 0);
+
+    for (int round = 0; round < 200; round++) {
+      for (int i = 0; i < 100; i++) {
+        long value = random.nextInt(1000);
+        long time = random.nextInt(500);
+        timedAverages.get(i).add(value, time);
+        expectedTimedAverages.get(i).add(value, time);
+        averages.get(i).add(value);
+        expectedAverages.get(i).add(value);
+      }
+      for (int i = 0; i < 100; i++) {
+        Assert.assertEquals("average over time " + i, expectedTimedAverages.get(i).getAvg(),
+            timedAverages.get(i).getAvg(), 0);
+        Assert.assertEquals("average " + i, expectedAverages.get(i).getAvg(), averages.get(i).getAvg());
+      }
+    }
+  }
+
+  @Test
+  public void testRelease()
+  {
+    StatsStore store = new StatsStore(10000, 1000, 500);
+    StatsStore.Average a1 = store.newAverage(10);
+    a1.add(10);
+    a1.release();
+    Assert.assertEquals("released average", 0, a1.getAvg());
+
+    StatsStore.Average a2 = store.newAverage(10);
+    Assert.assertEquals("slot reused", 1, store.getCapacity());
+    Assert.assertEquals("new average", 0, a2.getAvg());
+    a2.add(20);
+    a1.add(30);
+    a1.release();
+    Assert.assertEquals("released view does not change the new average", 20, a2.getAvg());
+    Assert.assertEquals("released view", 0, a1.getAvg());
+  }
+
+  @Test
+  public void testRestoreSnapshotWithoutStore() throws Exception
+  {
+    LogicalPlan dag = new LogicalPlan();
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new StramTestSupport.MemoryStorageAgent());
+    GenericTestOperator o1 = dag.addOperator("o1", GenericTestOperator.class);
+    GenericTestOperator o2 = dag.addOperator("o2", GenericTestOperator.class);
+    dag.addStream("o1o2", o1.outport1, o2.inport1);
+    PhysicalPlan plan = new PhysicalPlan(dag, new TestPlanContext());
+
+    // earlier versions did not keep the store in the snapshot
+    Field planStore = PhysicalPlan.class.getDeclaredField("statsStore");
+    planStore.setAccessible(true);
+    planStore.set(plan, null);
+    Field operatorStore = OperatorStatus.class.getDeclaredField("store");
+    operatorStore.setAccessible(true);
+    for (PTOperator oper : plan.getAllOperators().values()) {
+      operatorStore.set(oper.stats, null);
+    }
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+      oos.writeObject(plan);
+    }
+    plan = (PhysicalPlan)new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+
+    Assert.assertEquals("operators", 2, plan.getAllOperators().size());
+    for (PTOperator oper : plan.getAllOperators().values()) {
+      Assert.assertSame("store " + oper, plan.getStatsStore(), oper.stats.getStatsStore());
+      Assert.assertEquals("operator " + oper, oper.getId(), oper.stats.getOperatorId());
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.stram.plan.physical;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.datatorrent.api.Context.OperatorContext;
+import com.datatorrent.api.Context.PortContext;
+import com.datatorrent.api.DAG.Locality;
+import com.datatorrent.common.partitioner.StatelessPartitioner;
+import com.datatorrent.stram.engine.GenericTestOperator;
+import com.datatorrent.stram.plan.TestPlanContext;
+import com.datatorrent.stram.plan.logical.LogicalPlan;
+import com.datatorrent.stram.plan.logical.LogicalPlan.StreamMeta;
+import com.datatorrent.stram.plan.physical.OperatorStatus.PortStatus;
+import com.datatorrent.stram.support.StramTestSupport;
+
+public class StreamLocalityAdvisorTest
+{
+  private static void setBufferServerBytesPS(PTOperator oper, String portName, long bytesPS)
+  {
+    PortStatus ps = oper.stats.new PortStatus();
+    ps.portName = portName;
+    ps.bufferServerBytesPMSMA.add(bytesPS, 1000);
+    oper.stats.outputPortStatusList.put(portName, ps);
+  }
+
+  @Test
+  public void testRecommendations()
+  {
+    LogicalPlan dag = new LogicalPlan();
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new StramTestSupport.MemoryStorageAgent());
+
+    GenericTestOperator o1 = dag.addOperator("o1", GenericTestOperator.class);
+    GenericTestOperator o2 = dag.addOperator("o2", GenericTestOperator.class);
+    GenericTestOperator o3 = dag.addOperator("o3", GenericTestOperator.class);
+    GenericTestOperator o4 = dag.addOperator("o4", GenericTestOperator.class);
+    StreamMeta s1 = dag.addStream("s1", o1.outport1, o2.inport1);
+    StreamMeta s2 = dag.addStream("s2", o2.outport1, o3.inport1).setLocality(Locality.NODE_LOCAL);
+    dag.addStream("s3", o3.outport1, o4.inport1);
+
+    TestPlanContext ctx = new TestPlanContext();
+    PhysicalPlan plan = new PhysicalPlan(dag, ctx);
+    Assert.assertEquals("containers", 4, plan.getContainers().size());
+
+    PTOperator p1 = plan.getOperators(dag.getMeta(o1)).get(0);
+    PTOperator p2 = plan.getOperators(dag.getMeta(o2)).get(0);
+    PTOperator p3 = plan.getOperators(dag.getMeta(o3)).get(0);
+    setBufferServerBytesPS(p1, GenericTestOperator.OPORT1, 1000);
+    setBufferServerBytesPS(p2, GenericTestOperator.OPORT1, 5000);
+    // no traffic on s3
+
+    StreamLocalityAdvisor advisor = new StreamLocalityAdvisor(plan);
+    List<StreamLocalityAdvisor.Recommendation> recommendations = advisor.getRecommendations();
+    Assert.assertEquals("recommendations " + recommendations, 2, recommendations.size());
+    Assert.assertEquals("heaviest first", s2.getName(), recommendations.get(0).streamName);
+    Assert.assertEquals("current locality", Locality.NODE_LOCAL, recommendations.get(0).currentLocality);
+    Assert.assertEquals("bytes saved", 5000, recommendations.get(0).bufferServerBytesPS);
+    Assert.assertEquals("second", s1.getName(), recommendations.get(1).streamName);
+
+    // only s3 still goes through the buffer server of the merged container
+    int operatorMB = dag.getMeta(o1).getValue(OperatorContext.MEMORY_MB);
+    int bufferServerMB = dag.getMeta(o3).getMeta(o3.outport1).getValue(PortContext.BUFFER_MEMORY_MB);
+    int twoContainersMB = p2.getContainer().getRequiredMemoryMB() + p3.getContainer().getRequiredMemoryMB();
+    int threeContainersMB = 3 * operatorMB + bufferServerMB;
+    Assert.assertEquals("merged memory", 2 * operatorMB + bufferServerMB, recommendations.get(0).containerMemoryMB);
+    Assert.assertEquals("merged memory", threeContainersMB, recommendations.get(1).containerMemoryMB);
+
+    advisor.setContainerLimits(threeContainersMB - 1, Integer.MAX_VALUE);
+    recommendations = advisor.getRecommendations();
+    Assert.assertEquals("recommendations within limit " + recommendations, 1, recommendations.size());
+    Assert.assertEquals("heaviest stream", s2.getName(), recommendations.get(0).streamName);
+
+    plan.setContainerLocal(s2);
+    Assert.assertEquals("stream locality", Locality.CONTAINER_LOCAL, s2.getLocality());
+    Assert.assertEquals("containers", 3, plan.getContainers().size());
+    Assert.assertSame("same container", p2.getContainer(), p3.getContainer());
+    Assert.assertTrue("container local grouping", p2.getGrouping(Locality.CONTAINER_LOCAL).getOperatorSet().contains(p3));
+    Assert.assertEquals("released containers", 2, ctx.releaseContainers.size());
+    Assert.assertTrue("redeploy " + ctx.deploy, ctx.deploy.contains(p2) && ctx.deploy.contains(p3));
+    Assert.assertFalse("upstream not redeployed " + ctx.deploy, ctx.deploy.contains(p1));
+    Assert.assertTrue("buffer server memory released",
+        p2.getContainer().getRequiredMemoryMB() < twoContainersMB);
+    Assert.assertEquals("recommended memory", 2 * operatorMB + bufferServerMB, p2.getContainer().getRequiredMemoryMB());
+
+    recommendations = advisor.getRecommendations();
+    Assert.assertTrue("merged container still exceeds limit " + recommendations, recommendations.isEmpty());
+
+    advisor.setContainerLimits(threeContainersMB, Integer.MAX_VALUE);
+    recommendations = advisor.getRecommendations();
+    Assert.assertEquals("container local stream no longer recommended", 1, recommendations.size());
+    Assert.assertEquals("remaining stream", s1.getName(), recommendations.get(0).streamName);
+    Assert.assertEquals("merged memory", threeContainersMB, recommendations.get(0).containerMemoryMB);
+  }
+
+  @Test
+  public void testPartitionedNotRecommended()
+  {
+    LogicalPlan dag = new LogicalPlan();
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new StramTestSupport.MemoryStorageAgent());
+
+    GenericTestOperator o1 = dag.addOperator("o1", GenericTestOperator.class);
+    GenericTestOperator o2 = dag.addOperator("o2", GenericTestOperator.class);
+    dag.addStream("s1", o1.outport1, o2.inport1);
+    dag.setOperatorAttribute(o2, OperatorContext.PARTITIONER, new StatelessPartitioner<GenericTestOperator>(2));
+
+    PhysicalPlan plan = new PhysicalPlan(dag, new TestPlanContext());
+    setBufferServerBytesPS(plan.getOperators(dag.getMeta(o1)).get(0), GenericTestOperator.OPORT1, 1000);
+
+    Assert.assertTrue("partitioned sink", new StreamLocalityAdvisor(plan).getRecommendations().isEmpty());
+  }
+
+  @Test
+  public void testColocatedNotPromoted()
+  {
+    LogicalPlan dag = new LogicalPlan();
+    dag.setAttribute(OperatorContext.STORAGE_AGENT, new StramTestSupport.MemoryStorageAgent());
+
+    GenericTestOperator o1 = dag.addOperator("o1", GenericTestOperator.class);
+    GenericTestOperator o2 = dag.addOperator("o2", GenericTestOperator.class);
+    dag.addStream("s1", o1.outport1, o2.inport1).setLocality(Locality.CONTAINER_LOCAL);
+    StreamMeta s2 = dag.addStream("s2", o1.outport2, o2.inport2);
+
+    TestPlanContext ctx = new TestPlanContext();
+    PhysicalPlan plan = new PhysicalPlan(dag, ctx);
+    Assert.assertEquals("containers", 1, plan.getContainers().size());
+    setBufferServerBytesPS(plan.getOperators(dag.getMeta(o1)).get(0), GenericTestOperator.OPORT2, 1000);
+
+    Assert.assertTrue("same container", new StreamLocalityAdvisor(plan).getRecommendations().isEmpty());
+    ctx.deploy = null;
+    Assert.assertFalse("nothing to merge", plan.setContainerLocal(s2));
+    Assert.assertNull("stream locality", s2.getLocality());
+    Assert.assertNull("no redeploy", ctx.deploy);
+  }
+
+}
@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datatorrent.stram.stream;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datatorrent.api.Context.OperatorContext;
+import com.datatorrent.api.DAG.Locality;
+import com.datatorrent.api.DefaultInputPort;
+import com.datatorrent.api.DefaultOutputPort;
+import com.datatorrent.api.InputOperator;
+import com.datatorrent.api.Operator;
+import com.datatorrent.api.Sink;
+import com.datatorrent.bufferserver.packet.MessageType;
+import com.datatorrent.common.util.BaseOperator;
+import com.datatorrent.stram.StramLocalCluster;
+import com.datatorrent.stram.engine.SweepableReservoir;
+import com.datatorrent.stram.plan.logical.LogicalPlan;
+import com.datatorrent.stram.tuple.EndWindowTuple;
+import com.datatorrent.stram.tuple.Tuple;
+
+/**
+ * Tests for the ThreadLocal streams connected directly to the output port of the upstream operator.
+ */
+public class FusedOiOStreamTest
+{
+  private static final int TUPLE_COUNT = 1000;
+  private static final int CHAIN_LENGTH = 5;
+  private static final List<Class<?>> outputSinkClasses = Collections.synchronizedList(new ArrayList<Class<?>>());
+
+  /**
+   * Records the class of the sink the engine connected to the output port.
+   */
+  private static void recordOutputSink(DefaultOutputPort<?> port)
+  {
+    try {
+      Field field = DefaultOutputPort.class.getDeclaredField("sink");
+      field.setAccessible(true);
+      outputSinkClasses.add(field.get(port).getClass());
+    } catch (NoSuchFieldException | IllegalAccessException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  public static class CountingInputOperator extends BaseOperator implements InputOperator,
+      Operator.ActivationListener<OperatorContext>
+  {
+    public final transient DefaultOutputPort<Integer> output = new DefaultOutputPort<>();
+    private int emitted;
+
+    @Override
+    public void emitTuples()
+    {
+      if (emitted < TUPLE_COUNT) {
+        output.emit(emitted++);
+      } else {
+        BaseOperator.shutdown();
+      }
+    }
+
+    @Override
+    public void activate(OperatorContext context)
+    {
+      recordOutputSink(output);
+    }
+
+    @Override
+    public void deactivate()
+    {
+    }
+
+  }
+
+  public static class PassThroughOperator extends BaseOperator implements Operator.ActivationListener<OperatorContext>
+  {
+    public final transient DefaultOutputPort<Integer> output = new DefaultOutputPort<>();
+    public final transient DefaultInputPort<Integer> input = new DefaultInputPort<Integer>()
+    {
+      @Override
+      public void process(Integer tuple)
+      {
+        output.emit(tuple);
+      }
+
+    };
+
+    @Override
+    public void activate(OperatorContext context)
+    {
+      recordOutputSink(output);
+    }
+
+    @Override
+    public void deactivate()
+    {
+    }
+
+  }
+
+  public static class CollectorOperator extends BaseOperator
+  {
+    public static volatile long sum;
+    public static volatile int count;
+    public final transient DefaultInputPort<Integer> input = new DefaultInputPort<Integer>()
+    {
+      @Override
+      public void process(Integer tuple)
+      {
+        sum += tuple;
+        count++;
+      }
+
+    };
+
+  }
+
+  @Test
+  public void testCounts()
+  {
+    final List<Tuple> controlTuples = new ArrayList<>();
+    final List<Object> dataTuples = new ArrayList<>();
+
+    FusedOiOStream stream = new FusedOiOStream();
+    OiOStream.OiOReservoir reservoir = (OiOStream.OiOReservoir)stream.getReservoir();
+    reservoir.setControlSink(new Sink<Tuple>()
+    {
+      @Override
+      public void put(Tuple tuple)
+      {
+        controlTuples.add(tuple);
+      }
+
+      @Override
+      public int getCount(boolean reset)
+      {
+        return 0;
+      }
+
+    });
+    reservoir.setSink(new Sink<Object>()
+    {
+      @Override
+      public void put(Object tuple)
+      {
+        dataTuples.add(tuple);
+      }
+
+      @Override
+      public int getCount(boolean reset)
+      {
+        return 0;
+      }
+
+    });
+
+    stream.put(new Tuple(MessageType.BEGIN_WINDOW, 1));
+    stream.put("a");
+    stream.put("b");
+    stream.put(new EndWindowTuple(1));
+
+    Assert.assertEquals("data tuples", 2, dataTuples.size());
+    Assert.assertEquals("control tuples", 2, controlTuples.size());
+    Assert.assertEquals("stream count includes control tuples", 4, stream.getCount(true));
+    Assert.assertEquals("stream count reset", 0, stream.getCount(false));
+    Assert.assertEquals("reservoir count", 2, reservoir.getCount(true));
+    Assert.assertEquals("reservoir count reset", 0, reservoir.getCount(false));
+  }
+
+  @Test
+  public void testFusedChain() throws Exception
+  {
+    LogicalPlan dag = new LogicalPlan();
+    dag.setAttribute(LogicalPlan.THREAD_LOCAL_FUSION, true);
+
+    CountingInputOperator input = dag.addOperator("input", new CountingInputOperator());
+    DefaultOutputPort<Integer> upstream = input.output;
+    for (int i = 0; i < CHAIN_LENGTH - 2; i++) {
+      PassThroughOperator passThrough = dag.addOperator("passThrough" + i, new PassThroughOperator());
+      dag.addStream("stream" + i, upstream, passThrough.input).setLocality(Locality.THREAD_LOCAL);
+      upstream = passThrough.output;
+    }
+    CollectorOperator collector = dag.addOperator("collector", new CollectorOperator());
+    dag.addStream("collect", upstream, collector.input).setLocality(Locality.THREAD_LOCAL);
+
+    CollectorOperator.sum = 0;
+    CollectorOperator.count = 0;
+    outputSinkClasses.clear();
+
+    StramLocalCluster lc = new StramLocalCluster(dag);
+    lc.run();
+
+    Assert.assertEquals("connected output ports", CHAIN_LENGTH - 1, outputSinkClasses.size());
+    for (Class<?> sinkClass : outputSinkClasses) {
+      Assert.assertEquals("output port connected directly to the fused stream", FusedOiOStream.class, sinkClass);
+    }
+    Assert.assertEquals("tuples", TUPLE_COUNT, CollectorOperator.count);
+    Assert.assertEquals("sum", (long)TUPLE_COUNT * (TUPLE_COUNT - 1) / 2, CollectorOperator.sum);
+  }
+
+  /**
+   * Measures the cost of passing a tuple from one operator to the next in a chain of ThreadLocal operators, with the
+   * output ports connected through MuxStream and OiOStream as they are by default and with the output ports connected
+   * directly to the FusedOiOStream.
+   */
+  @Test
+  @Ignore
+  public void testPerHopOverhead()
+  {
+    final int count = 50000000;
+    final int hops = CHAIN_LENGTH - 1;
+    for (int round = 0; round < 3; round++) {
+      long muxed = runChain(false, hops, count);
+      long fused = runChain(true, hops, count);
+      logger.info("{} hops, {} tuples: mux + oio {} ns/hop, fused {} ns/hop", hops, count,
+          (double)muxed / count / hops, (double)fused / count / hops);
+    }
+  }
+
+  private static long runChain(boolean fused, int hops, int count)
+  {
+    PassThroughOperator[] chain = new PassThroughOperator[hops];
+    for (int i = 0; i < hops; i++) {
+      chain[i] = new PassThroughOperator();
+    }
+
+    Sink<Object> head = null;
+    for (int i = hops; i-- > 0; ) {
+      OiOStream stream = fused ? new FusedOiOStream() : new OiOStream();
+      SweepableReservoir reservoir = stream.getReservoir();
+      reservoir.setSink(castSink(chain[i].input));
+      Sink<Object> sink = stream;
+      if (!fused) {
+        MuxStream mux = new MuxStream();
+        mux.setSink("sink", stream);
+        mux.activate(null);
+        sink = mux;
+      }
+
+      if (i == 0) {
+        head = sink;
+      } else {
+        chain[i - 1].output.setSink(sink);
+      }
+    }
+    chain[hops - 1].output.setSink(Sink.BLACKHOLE);
+
+    Integer tuple = 1;
+    long start = System.nanoTime();
+    for (int i = count; i-- > 0; ) {
+      head.put(tuple);
+    }
+    return System.nanoTime() - start;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Sink<Object> castSink(Sink<?> sink)
+  {
+    return (Sink<Object>)sink;
+  }
+
+  private static final Logger logger = LoggerFactory.getLogger(FusedOiOStreamTest.class);
+}